@@ -0,0 +1,734 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Line and field tokenizer that works directly on the bytes read from a
+ * channel. Lines are found in a reusable buffer and only the offsets of their
+ * fields are recorded, so no String is created per line or field; numbers are
+ * parsed in place from the bytes. Integers and decimals without exponent (the
+ * usual content of rating files) are parsed exactly as
+ * {@link Long#parseLong(String)} and {@link Double#parseDouble(String)} would
+ * do; any other field falls back to those methods.
+ *
+ * Fields are separated by a literal delimiter of one or more bytes. As with
+ * {@link String#split(String)}, empty fields at the end of a line are
+ * ignored. Empty lines are skipped.
+ */
+public class ByteTokenizer implements Closeable {
+
+    /**
+     * Default size of the buffer, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    /**
+     * Size of the buffer used to find the line boundaries.
+     */
+    private static final int BOUNDARY_BUFFER_SIZE = 1 << 12;
+    /**
+     * Maximum number of digits of a number parsed in place.
+     */
+    private static final int MAX_DIGITS = 18;
+    /**
+     * Largest integer that a double represents exactly.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+    /**
+     * Powers of ten that a double represents exactly.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * Initial number of fields of a line.
+     */
+    private static final int INITIAL_FIELDS = 8;
+    /**
+     * Radix of the numbers.
+     */
+    private static final int RADIX = 10;
+    /**
+     * The channel where the bytes are read from.
+     */
+    private final ReadableByteChannel channel;
+    /**
+     * The delimiter between fields.
+     */
+    private final byte[] delimiter;
+    /**
+     * The bytes read and not consumed yet are in [position, limit).
+     */
+    private byte[] buffer;
+    /**
+     * Position of the first byte not consumed.
+     */
+    private int position;
+    /**
+     * Position after the last byte read.
+     */
+    private int limit;
+    /**
+     * Whether the end of the channel has been reached.
+     */
+    private boolean eof;
+    /**
+     * Start of each field of the current line.
+     */
+    private int[] fieldStart = new int[INITIAL_FIELDS];
+    /**
+     * End (exclusive) of each field of the current line.
+     */
+    private int[] fieldEnd = new int[INITIAL_FIELDS];
+    /**
+     * Number of fields of the current line.
+     */
+    private int numFields;
+    /**
+     * Start of the current line.
+     */
+    private int lineStart;
+    /**
+     * End (exclusive) of the current line.
+     */
+    private int lineEnd;
+    /**
+     * Maximum number of fields split from a line.
+     */
+    private int maxFields = Integer.MAX_VALUE;
+    /**
+     * The quote character (a newline, which never occurs inside a line, if
+     * quotes are not looked for).
+     */
+    private byte quote = '\n';
+    /**
+     * Whether the current line contains the quote.
+     */
+    private boolean quoted;
+
+    /**
+     * Constructor with the default buffer size.
+     *
+     * @param ch the channel where the bytes are read from
+     * @param delim the delimiter between fields
+     */
+    public ByteTokenizer(final ReadableByteChannel ch, final String delim) {
+        this(ch, delim, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ch the channel where the bytes are read from
+     * @param delim the delimiter between fields
+     * @param bufferSize the initial size of the buffer (it grows if a line
+     * does not fit in it)
+     */
+    public ByteTokenizer(final ReadableByteChannel ch, final String delim, final int bufferSize) {
+        if (delim.isEmpty()) {
+            throw new IllegalArgumentException("Empty delimiter");
+        }
+        this.channel = ch;
+        this.delimiter = delim.getBytes(StandardCharsets.UTF_8);
+        this.buffer = new byte[Math.max(1, bufferSize)];
+    }
+
+    /**
+     * Opens a file, decompressing it if needed (see {@link CompressedInput}).
+     *
+     * @param f the file
+     * @param delim the delimiter between fields
+     * @return the tokenizer of the file
+     * @throws IOException when the file cannot be opened
+     */
+    public static ByteTokenizer open(final File f, final String delim) throws IOException {
+        return new ByteTokenizer(CompressedInput.open(f), delim);
+    }
+
+    /**
+     * Opens a range of a file channel. The channel is read with positional
+     * reads, so several tokenizers can share it (closing them does not close
+     * the channel).
+     *
+     * @param ch the channel
+     * @param start the position of the first byte of the range
+     * @param end the position after the last byte of the range
+     * @param delim the delimiter between fields
+     * @return the tokenizer of the range
+     */
+    public static ByteTokenizer open(final FileChannel ch, final long start, final long end, final String delim) {
+        return new ByteTokenizer(new RangeChannel(ch, start, end), delim);
+    }
+
+    /**
+     * Cuts a range of a file into chunks of about the same size that start
+     * at the beginning of a line, so they can be read by different
+     * tokenizers (see {@link #open(FileChannel, long, long, String)}).
+     *
+     * @param ch the channel of the file
+     * @param start the start of the range (the start of a line)
+     * @param end the end of the range
+     * @param chunkSize the size of the chunks (each one is extended to the
+     * end of its last line)
+     * @return the bounds of the chunks (chunk k is [bounds[k], bounds[k+1]))
+     * @throws IOException if the file cannot be read
+     */
+    public static long[] getLineChunks(final FileChannel ch, final long start, final long end, final long chunkSize) throws IOException {
+        long size = Math.max(0, end - start);
+        int n = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1, (size + chunkSize - 1) / chunkSize));
+        long[] bounds = new long[n + 1];
+        bounds[0] = start;
+        bounds[n] = start + size;
+        ByteBuffer bb = ByteBuffer.allocate(BOUNDARY_BUFFER_SIZE);
+        for (int k = 1; k < n; k++) {
+            long pos = Math.max(bounds[k - 1], start + size / n * k);
+            bounds[k] = nextLineStart(ch, bb, pos, bounds[n]);
+        }
+        return bounds;
+    }
+
+    /**
+     * Finds the first line that starts at or after a position.
+     *
+     * @param ch the channel of the file
+     * @param bb a buffer to read from the channel
+     * @param pos the position
+     * @param size the end of the range being cut
+     * @return the start of the line, or the end of the range if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static long nextLineStart(final FileChannel ch, final ByteBuffer bb, final long pos, final long size) throws IOException {
+        if (pos == 0) {
+            return 0;
+        }
+        // the line starts at pos if the previous byte ends a line
+        long next = pos - 1;
+        while (next < size) {
+            bb.clear();
+            int n = ch.read(bb, next);
+            if (n <= 0) {
+                break;
+            }
+            for (int k = 0; k < n; k++) {
+                if (bb.get(k) == '\n') {
+                    return next + k + 1;
+                }
+            }
+            next += n;
+        }
+        return size;
+    }
+
+    /**
+     * Checks if a delimiter is read literally by {@link String#split(String)}
+     * (that is, it contains no regular expression metacharacter), so this
+     * tokenizer splits lines as that method does.
+     *
+     * @param delim the delimiter
+     * @return true if the delimiter is literal
+     */
+    public static boolean isLiteral(final String delim) {
+        if (delim.isEmpty()) {
+            return false;
+        }
+        for (int k = 0; k < delim.length(); k++) {
+            if (".$|()[{^?*+\\".indexOf(delim.charAt(k)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the maximum number of fields split from a line, so the rest of
+     * the line is not split when only the first columns are read. The last
+     * field ends at the delimiter that follows it. Trailing empty fields are
+     * still removed as {@link String#split(String)} does, i.e., only if no
+     * field after them has any content.
+     *
+     * @param max the maximum number of fields
+     */
+    public void setMaxFields(final int max) {
+        this.maxFields = Math.max(1, max);
+    }
+
+    /**
+     * Sets a quote character to look for in each line (see
+     * {@link #isQuoted()}), including the part after the last split field. Quotes are not handled by this tokenizer, so
+     * callers can go back to a full parser if a line has them.
+     *
+     * @param quoteChar the quote character (an ASCII character)
+     */
+    public void setQuote(final char quoteChar) {
+        this.quote = (byte) quoteChar;
+    }
+
+    /**
+     * Checks if the current line contains the quote character set with
+     * {@link #setQuote(char)} anywhere, so a quoted field in a column that is
+     * not split is detected as well.
+     *
+     * @return true if the line contains the quote
+     */
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * Moves to the next non-empty line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException when the channel cannot be read
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int end = findNewline();
+            if (end < 0) {
+                return false;
+            }
+            lineStart = position;
+            lineEnd = end;
+            position = Math.min(end + 1, limit);
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                splitLine();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the next line, reading more bytes if needed.
+     *
+     * @return the position of the newline (or the limit, for the last line
+     * of the channel), or -1 if there are no more bytes
+     * @throws IOException when the channel cannot be read
+     */
+    private int findNewline() throws IOException {
+        int from = position;
+        while (true) {
+            for (int k = from; k < limit; k++) {
+                if (buffer[k] == '\n') {
+                    return k;
+                }
+            }
+            if (eof) {
+                if (position < limit) {
+                    return limit;
+                }
+                return -1;
+            }
+            from = limit - position;
+            fill();
+        }
+    }
+
+    /**
+     * Moves the unconsumed bytes to the beginning of the buffer (growing it
+     * if it is full) and reads more bytes from the channel.
+     *
+     * @throws IOException when the channel cannot be read
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+        ByteBuffer bb = ByteBuffer.wrap(buffer, limit, buffer.length - limit);
+        if (channel.read(bb) < 0) {
+            eof = true;
+        }
+        limit = bb.position();
+    }
+
+    /**
+     * Records the fields of the current line.
+     */
+    private void splitLine() {
+        numFields = 0;
+        quoted = false;
+        int start = lineStart;
+        int k = lineStart;
+        byte first = delimiter[0];
+        while (k <= lineEnd - delimiter.length) {
+            byte b = buffer[k];
+            if (b == first && matchesDelimiter(k)) {
+                addField(start, k);
+                if (numFields == maxFields) {
+                    scanRest(k + delimiter.length);
+                    return;
+                }
+                k += delimiter.length;
+                start = k;
+            } else {
+                quoted |= b == quote;
+                k++;
+            }
+        }
+        for (int j = k; j < lineEnd; j++) {
+            quoted |= buffer[j] == quote;
+        }
+        addField(start, lineEnd);
+        removeTrailingEmptyFields();
+    }
+
+    /**
+     * Scans the part of the current line after the last split field: if it
+     * only has delimiters, the trailing empty fields are removed, and the
+     * quote is looked for in it.
+     *
+     * @param from start of the part that is not split
+     */
+    private void scanRest(final int from) {
+        int k = from;
+        while (k <= lineEnd - delimiter.length && buffer[k] == delimiter[0] && matchesDelimiter(k)) {
+            k += delimiter.length;
+        }
+        if (k == lineEnd) {
+            removeTrailingEmptyFields();
+            return;
+        }
+        if (quote != '\n') {
+            for (int j = k; j < lineEnd && !quoted; j++) {
+                quoted = buffer[j] == quote;
+            }
+        }
+    }
+
+    /**
+     * Removes the trailing empty fields of the current line, as
+     * {@link String#split(String)} does.
+     */
+    private void removeTrailingEmptyFields() {
+        while (numFields > 1 && fieldStart[numFields - 1] == fieldEnd[numFields - 1]) {
+            numFields--;
+        }
+    }
+
+    /**
+     * Checks if the delimiter starts at a position.
+     *
+     * @param k the position
+     * @return true if the delimiter starts at the position
+     */
+    private boolean matchesDelimiter(final int k) {
+        for (int d = 1; d < delimiter.length; d++) {
+            if (buffer[k + d] != delimiter[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a field to the current line.
+     *
+     * @param start start of the field
+     * @param end end (exclusive) of the field
+     */
+    private void addField(final int start, final int end) {
+        if (numFields == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, 2 * numFields);
+            fieldEnd = Arrays.copyOf(fieldEnd, 2 * numFields);
+        }
+        fieldStart[numFields] = start;
+        fieldEnd[numFields] = end;
+        numFields++;
+    }
+
+    /**
+     * Gets the number of fields of the current line.
+     *
+     * @return the number of fields
+     */
+    public int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Checks if the current line contains a letter (as header lines do).
+     *
+     * @return true if any byte of the line is an ASCII letter
+     */
+    public boolean hasLetters() {
+        for (int k = lineStart; k < lineEnd; k++) {
+            byte b = buffer[k];
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets a field as a String.
+     *
+     * @param field the index of the field
+     * @return the field
+     */
+    public String getString(final int field) {
+        checkField(field);
+        return new String(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the buffer with the bytes of the current line, to read fields
+     * without copying them (see {@link #getFieldStart(int)} and
+     * {@link #getFieldLength(int)}). The contents of the buffer are only
+     * valid until the next call to {@link #next()}.
+     *
+     * @return the buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets the position of the current line in the buffer.
+     *
+     * @return the position of the first byte of the line
+     */
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Gets the length of the current line, without its line break.
+     *
+     * @return the number of bytes of the line
+     */
+    public int getLineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * Gets the position of a field in the buffer.
+     *
+     * @param field the index of the field
+     * @return the position of the first byte of the field
+     */
+    public int getFieldStart(final int field) {
+        checkField(field);
+        return fieldStart[field];
+    }
+
+    /**
+     * Gets the length of a field.
+     *
+     * @param field the index of the field
+     * @return the number of bytes of the field
+     */
+    public int getFieldLength(final int field) {
+        checkField(field);
+        return fieldEnd[field] - fieldStart[field];
+    }
+
+    /**
+     * Gets the current line as a String.
+     *
+     * @return the line
+     */
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that a field exists in the current line.
+     *
+     * @param field the index of the field
+     */
+    private void checkField(final int field) {
+        if (field < 0 || field >= numFields) {
+            throw new ArrayIndexOutOfBoundsException(field);
+        }
+    }
+
+    /**
+     * Parses a field as a long.
+     *
+     * @param field the index of the field
+     * @return the value
+     * @throws NumberFormatException if the field is not a valid long
+     */
+    public long getLong(final int field) {
+        checkField(field);
+        int k = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        if (k < end && (buffer[k] == '-' || buffer[k] == '+')) {
+            negative = buffer[k] == '-';
+            k++;
+        }
+        if (k == end || end - k > MAX_DIGITS) {
+            return Long.parseLong(getString(field));
+        }
+        long v = 0;
+        for (; k < end; k++) {
+            int digit = buffer[k] - '0';
+            if (digit < 0 || digit >= RADIX) {
+                return Long.parseLong(getString(field));
+            }
+            v = v * RADIX + digit;
+        }
+        if (negative) {
+            return -v;
+        }
+        return v;
+    }
+
+    /**
+     * Parses a field as a double.
+     *
+     * @param field the index of the field
+     * @return the value
+     * @throws NumberFormatException if the field is not a valid double
+     */
+    public double getDouble(final int field) {
+        checkField(field);
+        int k = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        if (k < end && (buffer[k] == '-' || buffer[k] == '+')) {
+            negative = buffer[k] == '-';
+            k++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; k < end; k++) {
+            byte b = buffer[k];
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit >= RADIX || digits == MAX_DIGITS) {
+                return Double.parseDouble(getString(field));
+            }
+            mantissa = mantissa * RADIX + digit;
+            digits++;
+            if (decimals >= 0) {
+                decimals++;
+            }
+        }
+        if (digits == 0 || mantissa > MAX_EXACT || decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(getString(field));
+        }
+        // both operands are exact, so the division is correctly rounded
+        double v = mantissa;
+        if (decimals > 0) {
+            v = v / POWERS_OF_TEN[decimals];
+        }
+        if (negative) {
+            return -v;
+        }
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Channel over a range of a file channel.
+     */
+    private static final class RangeChannel implements ReadableByteChannel {
+
+        /**
+         * The file channel.
+         */
+        private final FileChannel file;
+        /**
+         * Position of the next byte to read.
+         */
+        private long next;
+        /**
+         * End of the range.
+         */
+        private final long end;
+        /**
+         * Whether this channel is open.
+         */
+        private boolean open = true;
+
+        /**
+         * Constructor.
+         *
+         * @param ch the file channel
+         * @param start start of the range
+         * @param rangeEnd end of the range
+         */
+        private RangeChannel(final FileChannel ch, final long start, final long rangeEnd) {
+            this.file = ch;
+            this.next = start;
+            this.end = rangeEnd;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            if (next >= end) {
+                return -1;
+            }
+            int oldLimit = dst.limit();
+            if (end - next < dst.remaining()) {
+                dst.limit(dst.position() + (int) (end - next));
+            }
+            int n = file.read(dst, next);
+            dst.limit(oldLimit);
+            if (n > 0) {
+                next += n;
+            }
+            return n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
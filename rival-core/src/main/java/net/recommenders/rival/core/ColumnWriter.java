@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered writer of the little-endian columns of the binary format read by
+ * {@link MappedDataModel}. Writes are positional, so several writers can fill
+ * different columns of the same file at once.
+ */
+final class ColumnWriter {
+
+    /**
+     * Size of the buffer, in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The channel where the columns are written.
+     */
+    private final FileChannel channel;
+    /**
+     * The buffer.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Position of the channel where the buffer will be written.
+     */
+    private long position;
+    /**
+     * Number of bytes written so far (including the buffered ones).
+     */
+    private long written;
+
+    /**
+     * Constructor of a writer that starts at the beginning of the channel.
+     *
+     * @param ch the channel where the columns are written
+     */
+    ColumnWriter(final FileChannel ch) {
+        this(ch, 0L);
+    }
+
+    /**
+     * Constructor of a writer that starts at a given position.
+     *
+     * @param ch the channel where the columns are written
+     * @param start position of the channel of the first byte
+     */
+    ColumnWriter(final FileChannel ch, final long start) {
+        this.channel = ch;
+        this.position = start;
+        this.written = start;
+    }
+
+    /**
+     * Makes room in the buffer.
+     *
+     * @param bytes the number of bytes needed
+     * @throws IOException when the buffer cannot be written
+     */
+    private void ensure(final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+        written += bytes;
+    }
+
+    /**
+     * Writes an int.
+     *
+     * @param v the value
+     * @throws IOException when the buffer cannot be written
+     */
+    void putInt(final int v) throws IOException {
+        ensure(Integer.SIZE / Byte.SIZE);
+        buffer.putInt(v);
+    }
+
+    /**
+     * Writes a long.
+     *
+     * @param v the value
+     * @throws IOException when the buffer cannot be written
+     */
+    void putLong(final long v) throws IOException {
+        ensure(Long.SIZE / Byte.SIZE);
+        buffer.putLong(v);
+    }
+
+    /**
+     * Writes a double.
+     *
+     * @param v the value
+     * @throws IOException when the buffer cannot be written
+     */
+    void putDouble(final double v) throws IOException {
+        ensure(Double.SIZE / Byte.SIZE);
+        buffer.putDouble(v);
+    }
+
+    /**
+     * Writes some bytes.
+     *
+     * @param b the array with the bytes
+     * @param off position of the first byte in the array
+     * @param len number of bytes
+     * @throws IOException when the buffer cannot be written
+     */
+    void putBytes(final byte[] b, final int off, final int len) throws IOException {
+        int k = 0;
+        while (k < len) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(len - k, buffer.remaining());
+            buffer.put(b, off + k, n);
+            written += n;
+            k += n;
+        }
+    }
+
+    /**
+     * Pads the current column to the alignment of the format.
+     *
+     * @throws IOException when the buffer cannot be written
+     */
+    void endColumn() throws IOException {
+        long padding = MappedDataModel.align(written) - written;
+        for (long k = 0; k < padding; k++) {
+            ensure(1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     *
+     * @throws IOException when the buffer cannot be written
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+}
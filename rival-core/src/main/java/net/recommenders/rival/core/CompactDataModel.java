@@ -0,0 +1,540 @@
+/*
+ * Copyright 2016 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Data model for long user and item ids backed by compressed-sparse-row (CSR)
+ * arrays. Users and items are mapped to dense indices through sorted id
+ * dictionaries, and the preferences of every user are stored as a row of item
+ * indices (sorted) and values.
+ *
+ * Preferences added through {@link #addPreference(java.lang.Long, java.lang.Long, java.lang.Double)}
+ * are buffered in primitive arrays and compacted into the CSR representation
+ * the next time the model is read. The maps and sets returned by this model
+ * are read-only views over the arrays, so no boxed objects are kept per
+ * preference.
+ */
+public class CompactDataModel implements DataModelIF<Long, Long> {
+
+    /**
+     * Initial capacity of the buffer of pending preferences.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Number of bits used to store the entry position when sorting rows.
+     */
+    private static final int POSITION_BITS = 32;
+    /**
+     * Mask to recover the entry position when sorting rows.
+     */
+    private static final long POSITION_MASK = 0xFFFFFFFFL;
+    /**
+     * Flag to indicate if duplicate preferences should be ignored or not.
+     */
+    private boolean ignoreDuplicatePreferences;
+    /**
+     * Users of the pending preferences.
+     */
+    private long[] pendingUsers;
+    /**
+     * Items of the pending preferences.
+     */
+    private long[] pendingItems;
+    /**
+     * Values of the pending preferences.
+     */
+    private double[] pendingPrefs;
+    /**
+     * Number of pending preferences.
+     */
+    private int numPending;
+    /**
+     * Sorted user ids (the position of a user is its dense index).
+     */
+    private long[] userIds;
+    /**
+     * Sorted item ids (the position of an item is its dense index).
+     */
+    private long[] itemIds;
+    /**
+     * Offsets of each user row, with one extra element at the end.
+     */
+    private int[] rowPtr;
+    /**
+     * Dense item index of each stored preference.
+     */
+    private int[] itemIdx;
+    /**
+     * Value of each stored preference.
+     */
+    private double[] values;
+    /**
+     * Counter of the compactions, used by the views to detect changes.
+     */
+    private int version;
+    /**
+     * Whether this model is a read-only snapshot.
+     */
+    private final boolean frozen;
+    /**
+     * Read access to the CSR arrays, shared by the views.
+     */
+    private final CompactPreferences store = new HeapPreferences();
+
+    /**
+     * Default constructor.
+     */
+    public CompactDataModel() {
+        this(false);
+    }
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     */
+    public CompactDataModel(final boolean ignoreDupPreferences) {
+        this.ignoreDuplicatePreferences = ignoreDupPreferences;
+        this.frozen = false;
+        reset();
+    }
+
+    /**
+     * Constructor of a read-only snapshot, which shares the CSR arrays of a
+     * model. Compaction always allocates new arrays, so later changes to the
+     * model do not reach the snapshot.
+     *
+     * @param model the model to take the snapshot of
+     */
+    CompactDataModel(final CompactDataModel model) {
+        model.compact();
+        this.ignoreDuplicatePreferences = model.ignoreDuplicatePreferences;
+        this.frozen = true;
+        pendingUsers = new long[0];
+        pendingItems = new long[0];
+        pendingPrefs = new double[0];
+        userIds = model.userIds;
+        itemIds = model.itemIds;
+        rowPtr = model.rowPtr;
+        itemIdx = model.itemIdx;
+        values = model.values;
+        version = model.version;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Double>> getUserItemPreferences() {
+        compact();
+        return store.asMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addPreference(final Long u, final Long i, final Double d) {
+        checkMutable();
+        if (numPending == pendingUsers.length) {
+            growPending(numPending + 1);
+        }
+        pendingUsers[numPending] = u;
+        pendingItems[numPending] = i;
+        pendingPrefs[numPending] = d;
+        numPending++;
+    }
+
+    /**
+     * Adds a batch of preferences, which are compacted together with the
+     * rest of pending preferences, taking ownership of the arrays: when there
+     * are no pending preferences they become the buffers of this model
+     * without copying them, and later preferences are written into them past
+     * the valid positions. Only meant for {@link DataModelBuilder}, which
+     * hands over its buffers and does not use them afterwards.
+     *
+     * @param users the users
+     * @param items the items
+     * @param prefs the preferences
+     * @param len number of valid positions in the arrays
+     */
+    void adoptPreferences(final long[] users, final long[] items, final double[] prefs, final int len) {
+        checkMutable();
+        if (numPending == 0) {
+            pendingUsers = users;
+            pendingItems = items;
+            pendingPrefs = prefs;
+            numPending = len;
+            return;
+        }
+        if (numPending + len > pendingUsers.length) {
+            growPending(numPending + len);
+        }
+        System.arraycopy(users, 0, pendingUsers, numPending, len);
+        System.arraycopy(items, 0, pendingItems, numPending, len);
+        System.arraycopy(prefs, 0, pendingPrefs, numPending, len);
+        numPending += len;
+    }
+
+    /**
+     * Grows the buffers of pending preferences.
+     *
+     * @param minCapacity the minimum capacity needed
+     */
+    private void growPending(final int minCapacity) {
+        int capacity = Math.max(minCapacity, pendingUsers.length + (pendingUsers.length >> 1) + 1);
+        pendingUsers = Arrays.copyOf(pendingUsers, capacity);
+        pendingItems = Arrays.copyOf(pendingItems, capacity);
+        pendingPrefs = Arrays.copyOf(pendingPrefs, capacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachPreference(final PreferenceConsumer<? super Long, ? super Long> consumer) {
+        store.forEach(consumer);
+    }
+
+    /**
+     * Method that passes every preference in the model to a consumer of
+     * primitive values, so no object is created per preference. The
+     * preferences are passed user by user, sorted by user and item.
+     *
+     * @param consumer the consumer of the preferences.
+     */
+    public void forEachLongPreference(final LongPreferenceConsumer consumer) {
+        store.forEachLong(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Double>> getItemUserPreferences() {
+        return store.asTransposedMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getItemPopularity(final Long i) {
+        return store.itemPopularity(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getItems() {
+        compact();
+        return store.items();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getUsers() {
+        compact();
+        return store.users();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        compact();
+        return itemIds.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        compact();
+        return userIds.length;
+    }
+
+    /**
+     * Method that returns the number of (user, item) preferences in the model.
+     *
+     * @return the number of preferences in the model.
+     */
+    public int getNumPreferences() {
+        compact();
+        return itemIdx.length;
+    }
+
+    /**
+     * Returns a read-only snapshot sharing the arrays of this model, or the
+     * model itself if it is already a snapshot.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public DataModelIF<Long, Long> toImmutable() {
+        if (frozen) {
+            return this;
+        }
+        return new CompactDataModel(this);
+    }
+
+    /**
+     * Checks whether this model can be modified.
+     *
+     * @return true if the model is a read-only snapshot
+     */
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Fails if this model is a read-only snapshot.
+     */
+    void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Immutable data models are read-only");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        checkMutable();
+        reset();
+    }
+
+    /**
+     * Empties the buffers and the CSR arrays.
+     */
+    private void reset() {
+        pendingUsers = new long[INITIAL_CAPACITY];
+        pendingItems = new long[INITIAL_CAPACITY];
+        pendingPrefs = new double[INITIAL_CAPACITY];
+        numPending = 0;
+        userIds = new long[0];
+        itemIds = new long[0];
+        rowPtr = new int[1];
+        itemIdx = new int[0];
+        values = new double[0];
+        version++;
+    }
+
+    /**
+     * Merges the pending preferences into the CSR arrays. Preferences of the
+     * same (user, item) pair are summed, or only the first one is kept when
+     * duplicates are ignored, exactly as {@link DataModel} does.
+     */
+    private void compact() {
+        if (numPending == 0) {
+            return;
+        }
+        int nnz = itemIdx.length;
+        int n = nnz + numPending;
+        // new dictionaries
+        long[] newUserIds = mergeIds(userIds, pendingUsers, numPending);
+        long[] newItemIds = mergeIds(itemIds, pendingItems, numPending);
+        // all the entries: current ones first, so that their order is preserved
+        int[] entryUser = new int[n];
+        int[] entryItem = new int[n];
+        double[] entryValue = new double[n];
+        for (int u = 0; u < userIds.length; u++) {
+            int newU = Arrays.binarySearch(newUserIds, userIds[u]);
+            for (int k = rowPtr[u]; k < rowPtr[u + 1]; k++) {
+                entryUser[k] = newU;
+                entryItem[k] = Arrays.binarySearch(newItemIds, itemIds[itemIdx[k]]);
+                entryValue[k] = values[k];
+            }
+        }
+        for (int k = 0; k < numPending; k++) {
+            entryUser[nnz + k] = Arrays.binarySearch(newUserIds, pendingUsers[k]);
+            entryItem[nnz + k] = Arrays.binarySearch(newItemIds, pendingItems[k]);
+            entryValue[nnz + k] = pendingPrefs[k];
+        }
+        // stable counting sort by user
+        int[] newRowPtr = new int[newUserIds.length + 1];
+        for (int k = 0; k < n; k++) {
+            newRowPtr[entryUser[k] + 1]++;
+        }
+        for (int u = 0; u < newUserIds.length; u++) {
+            newRowPtr[u + 1] += newRowPtr[u];
+        }
+        int[] next = Arrays.copyOf(newRowPtr, newUserIds.length);
+        long[] keys = new long[n];
+        for (int k = 0; k < n; k++) {
+            keys[next[entryUser[k]]++] = ((long) entryItem[k] << POSITION_BITS) | k;
+        }
+        // sort every row by item (ties keep the insertion order) and aggregate duplicates
+        int[] newItemIdx = new int[n];
+        double[] newValues = new double[n];
+        int m = 0;
+        int start = 0;
+        for (int u = 0; u < newUserIds.length; u++) {
+            int end = newRowPtr[u + 1];
+            Arrays.sort(keys, start, end);
+            int rowStart = m;
+            int lastItem = -1;
+            for (int k = start; k < end; k++) {
+                int item = (int) (keys[k] >>> POSITION_BITS);
+                double v = entryValue[(int) (keys[k] & POSITION_MASK)];
+                if (item != lastItem) {
+                    // as in DataModel, preferences are accumulated starting from 0.0
+                    newItemIdx[m] = item;
+                    newValues[m] = 0.0 + v;
+                    m++;
+                    lastItem = item;
+                } else if (!ignoreDuplicatePreferences) {
+                    newValues[m - 1] += v;
+                }
+            }
+            newRowPtr[u] = rowStart;
+            start = end;
+        }
+        newRowPtr[newUserIds.length] = m;
+
+        userIds = newUserIds;
+        itemIds = newItemIds;
+        rowPtr = newRowPtr;
+        itemIdx = Arrays.copyOf(newItemIdx, m);
+        values = Arrays.copyOf(newValues, m);
+        pendingUsers = new long[INITIAL_CAPACITY];
+        pendingItems = new long[INITIAL_CAPACITY];
+        pendingPrefs = new double[INITIAL_CAPACITY];
+        numPending = 0;
+        version++;
+    }
+
+    /**
+     * Merges a sorted array of distinct ids with a list of ids in any order.
+     *
+     * @param sortedIds sorted array of distinct ids
+     * @param ids other ids, may contain duplicates
+     * @param len number of valid positions in ids
+     * @return a sorted array with the distinct ids of both arrays
+     */
+    private static long[] mergeIds(final long[] sortedIds, final long[] ids, final int len) {
+        long[] all = Arrays.copyOf(sortedIds, sortedIds.length + len);
+        System.arraycopy(ids, 0, all, sortedIds.length, len);
+        Arrays.sort(all);
+        int n = 0;
+        for (int k = 0; k < all.length; k++) {
+            if (n == 0 || all[n - 1] != all[k]) {
+                all[n++] = all[k];
+            }
+        }
+        return Arrays.copyOf(all, n);
+    }
+
+    /**
+     * Gets read access to the CSR arrays of this model, compacting the
+     * pending preferences first.
+     *
+     * @return the preferences of this model
+     */
+    CompactPreferences preferences() {
+        compact();
+        return store;
+    }
+
+    /**
+     * CSR preferences backed by the arrays of this model.
+     */
+    private final class HeapPreferences extends CompactPreferences {
+
+        @Override
+        void prepare() {
+            compact();
+        }
+
+        @Override
+        int version() {
+            return version;
+        }
+
+        @Override
+        int numUsers() {
+            return userIds.length;
+        }
+
+        @Override
+        long userId(final int u) {
+            return userIds[u];
+        }
+
+        @Override
+        int numItems() {
+            return itemIds.length;
+        }
+
+        @Override
+        long itemId(final int i) {
+            return itemIds[i];
+        }
+
+        @Override
+        int rowStart(final int u) {
+            return rowPtr[u];
+        }
+
+        @Override
+        int itemIndex(final int k) {
+            return itemIdx[k];
+        }
+
+        @Override
+        double value(final int k) {
+            return values[k];
+        }
+
+        @Override
+        int findUser(final long user) {
+            int u = Arrays.binarySearch(userIds, user);
+            if (u < 0) {
+                return -1;
+            }
+            return u;
+        }
+
+        @Override
+        int findItem(final long item) {
+            int i = Arrays.binarySearch(itemIds, item);
+            if (i < 0) {
+                return -1;
+            }
+            return i;
+        }
+
+        @Override
+        int findPreference(final int u, final int i) {
+            int k = Arrays.binarySearch(itemIdx, rowPtr[u], rowPtr[u + 1], i);
+            if (k < 0) {
+                return -1;
+            }
+            return k;
+        }
+    }
+}
@@ -0,0 +1,744 @@
+/*
+ * Copyright 2016 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Preferences stored in compressed-sparse-row (CSR) form: sorted user and item
+ * id dictionaries, one row per user with the dense indices of its items
+ * (sorted) and the corresponding values. Subclasses decide where the arrays
+ * live (heap arrays, mapped files); this class provides the searches and the
+ * read-only collection views used to implement {@link DataModelIF}. The
+ * transposed (item to users) arrays are built the first time they are needed
+ * and rebuilt when the version of the rows changes.
+ */
+abstract class CompactPreferences {
+
+    /**
+     * Offsets of each item column of the transposed arrays, with one extra
+     * element at the end (null until the columns are needed). It is written
+     * after the other transposed arrays, so a thread that sees it also sees
+     * them.
+     */
+    private volatile int[] colPtr;
+    /**
+     * Dense user index of each preference of the transposed arrays (sorted
+     * within a column).
+     */
+    private int[] colUser;
+    /**
+     * Position in the rows of each preference of the transposed arrays.
+     */
+    private int[] colPos;
+    /**
+     * The version of the arrays where the columns were built.
+     */
+    private int colVersion;
+
+    /**
+     * Called before every read, so that pending changes can be applied.
+     */
+    void prepare() {
+    }
+
+    /**
+     * Counter of changes in the arrays, used by the views to detect them.
+     *
+     * @return the current version of the arrays
+     */
+    abstract int version();
+
+    /**
+     * Gets the number of users.
+     *
+     * @return the number of users
+     */
+    abstract int numUsers();
+
+    /**
+     * Gets the id of a user.
+     *
+     * @param u dense index of the user
+     * @return the user id
+     */
+    abstract long userId(int u);
+
+    /**
+     * Gets the number of items.
+     *
+     * @return the number of items
+     */
+    abstract int numItems();
+
+    /**
+     * Gets the id of an item.
+     *
+     * @param i dense index of the item
+     * @return the item id
+     */
+    abstract long itemId(int i);
+
+    /**
+     * Gets the offset of a user row (the offset of user numUsers() is the
+     * total number of preferences).
+     *
+     * @param u dense index of the user
+     * @return the position of the first preference of the user
+     */
+    abstract int rowStart(int u);
+
+    /**
+     * Gets the dense item index of a stored preference.
+     *
+     * @param k position of the preference
+     * @return the dense index of the item
+     */
+    abstract int itemIndex(int k);
+
+    /**
+     * Gets the value of a stored preference.
+     *
+     * @param k position of the preference
+     * @return the value
+     */
+    abstract double value(int k);
+
+    /**
+     * Gets the number of stored preferences.
+     *
+     * @return the number of preferences
+     */
+    int numPreferences() {
+        return rowStart(numUsers());
+    }
+
+    /**
+     * Finds the dense index of a user.
+     *
+     * @param user the user id
+     * @return the dense index or -1 if the user is not in the model
+     */
+    int findUser(final long user) {
+        int lo = 0;
+        int hi = numUsers() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long id = userId(mid);
+            if (id < user) {
+                lo = mid + 1;
+            } else if (id > user) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the dense index of an item.
+     *
+     * @param item the item id
+     * @return the dense index or -1 if the item is not in the model
+     */
+    int findItem(final long item) {
+        int lo = 0;
+        int hi = numItems() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long id = itemId(mid);
+            if (id < item) {
+                lo = mid + 1;
+            } else if (id > item) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the stored position of a preference.
+     *
+     * @param u dense index of the user
+     * @param i dense index of the item
+     * @return the position of the preference, or -1 if not found
+     */
+    int findPreference(final int u, final int i) {
+        int lo = rowStart(u);
+        int hi = rowStart(u + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int idx = itemIndex(mid);
+            if (idx < i) {
+                lo = mid + 1;
+            } else if (idx > i) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Passes every preference to a consumer, user by user.
+     *
+     * @param consumer the consumer
+     */
+    void forEachLong(final LongPreferenceConsumer consumer) {
+        prepare();
+        for (int u = 0; u < numUsers(); u++) {
+            long user = userId(u);
+            for (int k = rowStart(u); k < rowStart(u + 1); k++) {
+                consumer.consume(user, itemId(itemIndex(k)), value(k));
+            }
+        }
+    }
+
+    /**
+     * Passes every preference to a consumer, user by user, boxing each user
+     * only once.
+     *
+     * @param consumer the consumer
+     */
+    void forEach(final PreferenceConsumer<? super Long, ? super Long> consumer) {
+        prepare();
+        for (int u = 0; u < numUsers(); u++) {
+            Long user = userId(u);
+            for (int k = rowStart(u); k < rowStart(u + 1); k++) {
+                consumer.consume(user, itemId(itemIndex(k)), value(k));
+            }
+        }
+    }
+
+    /**
+     * Builds the transposed arrays, if they are missing or out of date.
+     * Only the first reader by item pays for them, and concurrent readers of
+     * a read-only snapshot build them once.
+     */
+    void buildColumns() {
+        if (colPtr != null && colVersion == version()) {
+            return;
+        }
+        synchronized (this) {
+            if (colPtr == null || colVersion != version()) {
+                transpose();
+            }
+        }
+    }
+
+    /**
+     * Builds the transposed arrays from the rows.
+     */
+    private void transpose() {
+        int nItems = numItems();
+        int nnz = numPreferences();
+        int[] ptr = new int[nItems + 1];
+        for (int k = 0; k < nnz; k++) {
+            ptr[itemIndex(k) + 1]++;
+        }
+        for (int i = 0; i < nItems; i++) {
+            ptr[i + 1] += ptr[i];
+        }
+        int[] next = new int[nItems];
+        System.arraycopy(ptr, 0, next, 0, nItems);
+        int[] users = new int[nnz];
+        int[] pos = new int[nnz];
+        for (int u = 0; u < numUsers(); u++) {
+            for (int k = rowStart(u); k < rowStart(u + 1); k++) {
+                int c = next[itemIndex(k)]++;
+                users[c] = u;
+                pos[c] = k;
+            }
+        }
+        colUser = users;
+        colPos = pos;
+        colVersion = version();
+        colPtr = ptr;
+    }
+
+    /**
+     * Gets the number of users with a preference for an item.
+     *
+     * @param item the item id
+     * @return the number of users (0 if the item is not in the model)
+     */
+    int itemPopularity(final long item) {
+        prepare(false);
+        int i = findItem(item);
+        if (i < 0) {
+            return 0;
+        }
+        return colPtr[i + 1] - colPtr[i];
+    }
+
+    /**
+     * Prepares the arrays for reading by user (rows) or by item (columns).
+     *
+     * @param byUser whether rows (true) or columns (false) will be read
+     */
+    private void prepare(final boolean byUser) {
+        prepare();
+        if (!byUser) {
+            buildColumns();
+        }
+    }
+
+    /**
+     * Gets the number of rows or columns.
+     *
+     * @param byUser whether rows (true) or columns (false) are counted
+     * @return the number of users or items
+     */
+    private int outerSize(final boolean byUser) {
+        if (byUser) {
+            return numUsers();
+        }
+        return numItems();
+    }
+
+    /**
+     * Gets the id of a row or column.
+     *
+     * @param byUser whether n is a row (true) or a column (false)
+     * @param n the dense index
+     * @return the user or item id
+     */
+    private long outerId(final boolean byUser, final int n) {
+        if (byUser) {
+            return userId(n);
+        }
+        return itemId(n);
+    }
+
+    /**
+     * Finds a row or column given its id as an object.
+     *
+     * @param byUser whether a row (true) or a column (false) is searched
+     * @param id the id, as given to the views
+     * @return the dense index, or -1 if not in the model
+     */
+    private int findOuter(final boolean byUser, final Object id) {
+        if (!(id instanceof Long)) {
+            return -1;
+        }
+        if (byUser) {
+            return findUser(((Long) id).longValue());
+        }
+        return findItem(((Long) id).longValue());
+    }
+
+    /**
+     * Gets the offset of a row or column.
+     *
+     * @param byUser whether n is a row (true) or a column (false)
+     * @param n the dense index
+     * @return the first position of the row or column
+     */
+    private int sliceStart(final boolean byUser, final int n) {
+        if (byUser) {
+            return rowStart(n);
+        }
+        return colPtr[n];
+    }
+
+    /**
+     * Gets the id of the item (in a row) or user (in a column) of a position.
+     *
+     * @param byUser whether k is a position of a row (true) or a column
+     * (false)
+     * @param k the position
+     * @return the item or user id
+     */
+    private long innerId(final boolean byUser, final int k) {
+        if (byUser) {
+            return itemId(itemIndex(k));
+        }
+        return userId(colUser[k]);
+    }
+
+    /**
+     * Gets the value of a position of a row or column.
+     *
+     * @param byUser whether k is a position of a row (true) or a column
+     * (false)
+     * @param k the position
+     * @return the value
+     */
+    private double sliceValue(final boolean byUser, final int k) {
+        if (byUser) {
+            return value(k);
+        }
+        return value(colPos[k]);
+    }
+
+    /**
+     * Finds the position of an item in a row, or of a user in a column.
+     *
+     * @param byUser whether n is a row (true) or a column (false)
+     * @param n the dense index of the row or column
+     * @param id the id of the item or user, as given to the views
+     * @return the position, or -1 if not found
+     */
+    private int findInSlice(final boolean byUser, final int n, final Object id) {
+        int inner = findOuter(!byUser, id);
+        if (inner < 0) {
+            return -1;
+        }
+        if (byUser) {
+            return findPreference(n, inner);
+        }
+        int lo = colPtr[n];
+        int hi = colPtr[n + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (colUser[mid] < inner) {
+                lo = mid + 1;
+            } else if (colUser[mid] > inner) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a read-only map view between users and items.
+     *
+     * @return the preference map
+     */
+    Map<Long, Map<Long, Double>> asMap() {
+        return new OuterView(true);
+    }
+
+    /**
+     * Returns a read-only map view between items and users.
+     *
+     * @return the transposed preference map
+     */
+    Map<Long, Map<Long, Double>> asTransposedMap() {
+        return new OuterView(false);
+    }
+
+    /**
+     * Returns a read-only set view of the users.
+     *
+     * @return the users
+     */
+    Set<Long> users() {
+        return new IdSet(true);
+    }
+
+    /**
+     * Returns a read-only set view of the items.
+     *
+     * @return the items
+     */
+    Set<Long> items() {
+        return new IdSet(false);
+    }
+
+    /**
+     * Read-only set of user or item ids.
+     */
+    private final class IdSet extends AbstractSet<Long> {
+
+        /**
+         * Whether this set contains users (true) or items (false).
+         */
+        private final boolean ofUsers;
+
+        /**
+         * Constructor.
+         *
+         * @param users whether this set contains users or items
+         */
+        IdSet(final boolean users) {
+            this.ofUsers = users;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            prepare();
+            return findOuter(ofUsers, o) >= 0;
+        }
+
+        @Override
+        public int size() {
+            prepare();
+            return outerSize(ofUsers);
+        }
+
+        @Override
+        public Iterator<Long> iterator() {
+            final int n = size();
+            return new Iterator<Long>() {
+                private int k = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return k < n;
+                }
+
+                @Override
+                public Long next() {
+                    if (k >= n) {
+                        throw new NoSuchElementException();
+                    }
+                    return outerId(ofUsers, k++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map view between users (or items) and their preferences.
+     */
+    private final class OuterView extends AbstractMap<Long, Map<Long, Double>> {
+
+        /**
+         * Whether the keys are users (true) or items (false).
+         */
+        private final boolean byUser;
+
+        /**
+         * Constructor.
+         *
+         * @param users whether the keys are users or items
+         */
+        OuterView(final boolean users) {
+            this.byUser = users;
+        }
+
+        @Override
+        public Map<Long, Double> get(final Object key) {
+            prepare(byUser);
+            int n = findOuter(byUser, key);
+            if (n < 0) {
+                return null;
+            }
+            return new SliceView(byUser, outerId(byUser, n), n);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            prepare();
+            return findOuter(byUser, key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            prepare();
+            return outerSize(byUser);
+        }
+
+        @Override
+        public Set<Long> keySet() {
+            return new IdSet(byUser);
+        }
+
+        @Override
+        public Set<Entry<Long, Map<Long, Double>>> entrySet() {
+            return new AbstractSet<Entry<Long, Map<Long, Double>>>() {
+                @Override
+                public int size() {
+                    return OuterView.this.size();
+                }
+
+                @Override
+                public Iterator<Entry<Long, Map<Long, Double>>> iterator() {
+                    final int size = size();
+                    return new Iterator<Entry<Long, Map<Long, Double>>>() {
+                        private int n = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return n < size;
+                        }
+
+                        @Override
+                        public Entry<Long, Map<Long, Double>> next() {
+                            if (n >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            long id = outerId(byUser, n);
+                            Map<Long, Double> slice = new SliceView(byUser, id, n);
+                            n++;
+                            return new SimpleImmutableEntry<Long, Map<Long, Double>>(id, slice);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map view between the items of a user and their preferences,
+     * or between the users of an item and their preferences.
+     */
+    private final class SliceView extends AbstractMap<Long, Double> {
+
+        /**
+         * Whether this is the row of a user (true) or the column of an item
+         * (false).
+         */
+        private final boolean byUser;
+        /**
+         * The user or item id.
+         */
+        private final long id;
+        /**
+         * The dense index of the row or column (valid for
+         * {@link #sliceVersion}).
+         */
+        private int slice;
+        /**
+         * The version of the arrays where {@link #slice} was resolved.
+         */
+        private int sliceVersion;
+
+        /**
+         * Constructor.
+         *
+         * @param users whether this is a row or a column
+         * @param theId the user or item id
+         * @param theSlice the dense index of the row or column
+         */
+        SliceView(final boolean users, final long theId, final int theSlice) {
+            this.byUser = users;
+            this.id = theId;
+            this.slice = theSlice;
+            this.sliceVersion = version();
+        }
+
+        /**
+         * Resolves the row or column in the current version of the arrays.
+         *
+         * @return the dense index, or -1 if not in the model
+         */
+        private int slice() {
+            prepare(byUser);
+            if (sliceVersion != version()) {
+                slice = findOuter(byUser, id);
+                sliceVersion = version();
+            }
+            return slice;
+        }
+
+        /**
+         * Finds the position of a key of this row or column.
+         *
+         * @param key the item or user, as given to the view
+         * @return the position or -1 if not found
+         */
+        private int find(final Object key) {
+            int n = slice();
+            if (n < 0) {
+                return -1;
+            }
+            return findInSlice(byUser, n, key);
+        }
+
+        @Override
+        public Double get(final Object key) {
+            int k = find(key);
+            if (k < 0) {
+                return null;
+            }
+            return sliceValue(byUser, k);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return find(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            int n = slice();
+            if (n < 0) {
+                return 0;
+            }
+            return sliceStart(byUser, n + 1) - sliceStart(byUser, n);
+        }
+
+        @Override
+        public Set<Entry<Long, Double>> entrySet() {
+            return new AbstractSet<Entry<Long, Double>>() {
+                @Override
+                public int size() {
+                    return SliceView.this.size();
+                }
+
+                @Override
+                public Iterator<Entry<Long, Double>> iterator() {
+                    int n = slice();
+                    final int start;
+                    final int end;
+                    if (n < 0) {
+                        start = 0;
+                        end = 0;
+                    } else {
+                        start = sliceStart(byUser, n);
+                        end = sliceStart(byUser, n + 1);
+                    }
+                    return new Iterator<Entry<Long, Double>>() {
+                        private int k = start;
+
+                        @Override
+                        public boolean hasNext() {
+                            return k < end;
+                        }
+
+                        @Override
+                        public Entry<Long, Double> next() {
+                            if (k >= end) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Long, Double> e = new SimpleImmutableEntry<Long, Double>(innerId(byUser, k), sliceValue(byUser, k));
+                            k++;
+                            return e;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2016 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Temporal version of {@link CompactDataModel}. The timestamps of every user
+ * are kept in two aligned primitive arrays (items and timestamps) sorted by
+ * item and then by timestamp, so the timestamps of each (user, item) pair form
+ * a sorted run. A per-user permutation sorted by time allows to answer range
+ * queries (interactions of a user between two timestamps) with a binary
+ * search.
+ */
+public class CompactTemporalDataModel extends CompactDataModel implements TemporalDataModelIF<Long, Long> {
+
+    /**
+     * Initial capacity of the buffer of pending timestamps.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Users of the pending timestamps.
+     */
+    private long[] pendingUsers;
+    /**
+     * Items of the pending timestamps.
+     */
+    private long[] pendingItems;
+    /**
+     * Pending timestamps.
+     */
+    private long[] pendingTimes;
+    /**
+     * Number of pending timestamps.
+     */
+    private int numPending;
+    /**
+     * Sorted ids of the users with timestamps.
+     */
+    private long[] userIds;
+    /**
+     * Offsets of each user row, with one extra element at the end.
+     */
+    private int[] rowPtr;
+    /**
+     * Item of each stored interaction (sorted by item within a row).
+     */
+    private long[] items;
+    /**
+     * Timestamp of each stored interaction (sorted within an item run).
+     */
+    private long[] times;
+    /**
+     * Positions of the interactions of each row, sorted by timestamp.
+     */
+    private int[] timeOrder;
+    /**
+     * Counter of the compactions, used by the views to detect changes.
+     */
+    private int version;
+    /**
+     * Read access to the arrays of timestamps, shared by the views.
+     */
+    private final CompactTimestamps timestampStore = new HeapTimestamps();
+
+    /**
+     * Default constructor.
+     */
+    public CompactTemporalDataModel() {
+        this(false);
+    }
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     */
+    public CompactTemporalDataModel(final boolean ignoreDupPreferences) {
+        super(ignoreDupPreferences);
+        resetTimestamps();
+    }
+
+    /**
+     * Constructor of a read-only snapshot, which shares the arrays of a
+     * model.
+     *
+     * @param model the model to take the snapshot of
+     */
+    CompactTemporalDataModel(final CompactTemporalDataModel model) {
+        super(model);
+        model.compactTimestamps();
+        pendingUsers = new long[0];
+        pendingItems = new long[0];
+        pendingTimes = new long[0];
+        userIds = model.userIds;
+        rowPtr = model.rowPtr;
+        items = model.items;
+        times = model.times;
+        timeOrder = model.timeOrder;
+        version = model.version;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Set<Long>>> getUserItemTimestamps() {
+        compactTimestamps();
+        return timestampStore.asMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addTimestamp(final Long u, final Long i, final Long t) {
+        checkMutable();
+        if (numPending == pendingUsers.length) {
+            growPending(numPending + 1);
+        }
+        pendingUsers[numPending] = u;
+        pendingItems[numPending] = i;
+        pendingTimes[numPending] = t;
+        numPending++;
+    }
+
+    /**
+     * Adds a batch of timestamps, which are compacted together with the rest
+     * of pending timestamps, taking ownership of the arrays: when there are
+     * no pending timestamps they become the buffers of this model without
+     * copying them, and later timestamps are written into them past the
+     * valid positions. Only meant for {@link DataModelBuilder}, which hands
+     * over its buffers and does not use them afterwards.
+     *
+     * @param users the users
+     * @param timeItems the items
+     * @param timestamps the timestamps
+     * @param len number of valid positions in the arrays
+     */
+    void adoptTimestamps(final long[] users, final long[] timeItems, final long[] timestamps, final int len) {
+        checkMutable();
+        if (numPending == 0) {
+            pendingUsers = users;
+            pendingItems = timeItems;
+            pendingTimes = timestamps;
+            numPending = len;
+            return;
+        }
+        if (numPending + len > pendingUsers.length) {
+            growPending(numPending + len);
+        }
+        System.arraycopy(users, 0, pendingUsers, numPending, len);
+        System.arraycopy(timeItems, 0, pendingItems, numPending, len);
+        System.arraycopy(timestamps, 0, pendingTimes, numPending, len);
+        numPending += len;
+    }
+
+    /**
+     * Grows the buffers of pending timestamps.
+     *
+     * @param minCapacity the minimum capacity needed
+     */
+    private void growPending(final int minCapacity) {
+        int capacity = Math.max(minCapacity, pendingUsers.length + (pendingUsers.length >> 1) + 1);
+        pendingUsers = Arrays.copyOf(pendingUsers, capacity);
+        pendingItems = Arrays.copyOf(pendingItems, capacity);
+        pendingTimes = Arrays.copyOf(pendingTimes, capacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachTimestamp(final TimestampConsumer<? super Long, ? super Long> consumer) {
+        timestampStore.forEach(consumer);
+    }
+
+    /**
+     * Method that passes every timestamp in the model to a consumer of
+     * primitive values, so no object is created per timestamp. The
+     * timestamps are passed user by user, sorted by user, item and time.
+     *
+     * @param consumer the consumer of the timestamps.
+     */
+    public void forEachLongTimestamp(final LongTimestampConsumer consumer) {
+        timestampStore.forEachLong(consumer);
+    }
+
+    /**
+     * Method that returns all the timestamps of a user sorted in ascending
+     * order (a timestamp appears once for every item it is associated to).
+     *
+     * @param user the user
+     * @return the sorted timestamps of the user (empty if the user has none)
+     */
+    public long[] getUserTimestamps(final long user) {
+        return getTimestampsBetween(user, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Method that counts the interactions of a user with a timestamp in the
+     * range [from, to).
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the number of interactions in the range
+     */
+    public int getNumInteractionsBetween(final long user, final long from, final long to) {
+        return timestampStore.countBetween(user, from, to);
+    }
+
+    /**
+     * Method that returns the timestamps of a user in the range [from, to),
+     * sorted in ascending order.
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the sorted timestamps in the range
+     */
+    public long[] getTimestampsBetween(final long user, final long from, final long to) {
+        return timestampStore.between(user, from, to, true);
+    }
+
+    /**
+     * Method that returns the items of the interactions of a user in the range
+     * [from, to), in the same order as
+     * {@link #getTimestampsBetween(long, long, long)}.
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the items interacted in the range, sorted by time
+     */
+    public long[] getItemsBetween(final long user, final long from, final long to) {
+        return timestampStore.between(user, from, to, false);
+    }
+
+    /**
+     * Returns a read-only snapshot sharing the arrays of this model, or the
+     * model itself if it is already a snapshot.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public TemporalDataModelIF<Long, Long> toImmutable() {
+        if (isFrozen()) {
+            return this;
+        }
+        return new CompactTemporalDataModel(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        resetTimestamps();
+    }
+
+    /**
+     * Empties the buffers and the arrays of timestamps.
+     */
+    private void resetTimestamps() {
+        pendingUsers = new long[INITIAL_CAPACITY];
+        pendingItems = new long[INITIAL_CAPACITY];
+        pendingTimes = new long[INITIAL_CAPACITY];
+        numPending = 0;
+        userIds = new long[0];
+        rowPtr = new int[1];
+        items = new long[0];
+        times = new long[0];
+        timeOrder = new int[0];
+        version++;
+    }
+
+    /**
+     * Merges the pending timestamps into the sorted arrays, removing repeated
+     * (user, item, timestamp) triplets.
+     */
+    private void compactTimestamps() {
+        if (numPending == 0) {
+            return;
+        }
+        int nnz = items.length;
+        int n = nnz + numPending;
+        long[] newUserIds = Arrays.copyOf(userIds, userIds.length + numPending);
+        System.arraycopy(pendingUsers, 0, newUserIds, userIds.length, numPending);
+        Arrays.sort(newUserIds);
+        int nUsers = 0;
+        for (int k = 0; k < newUserIds.length; k++) {
+            if (nUsers == 0 || newUserIds[nUsers - 1] != newUserIds[k]) {
+                newUserIds[nUsers++] = newUserIds[k];
+            }
+        }
+        newUserIds = Arrays.copyOf(newUserIds, nUsers);
+        // dense user of every interaction, current ones first
+        int[] entryUser = new int[n];
+        for (int u = 0; u < userIds.length; u++) {
+            int newU = Arrays.binarySearch(newUserIds, userIds[u]);
+            for (int k = rowPtr[u]; k < rowPtr[u + 1]; k++) {
+                entryUser[k] = newU;
+            }
+        }
+        for (int k = 0; k < numPending; k++) {
+            entryUser[nnz + k] = Arrays.binarySearch(newUserIds, pendingUsers[k]);
+        }
+        // counting sort by user
+        int[] newRowPtr = new int[nUsers + 1];
+        for (int k = 0; k < n; k++) {
+            newRowPtr[entryUser[k] + 1]++;
+        }
+        for (int u = 0; u < nUsers; u++) {
+            newRowPtr[u + 1] += newRowPtr[u];
+        }
+        int[] next = Arrays.copyOf(newRowPtr, nUsers);
+        long[] newItems = new long[n];
+        long[] newTimes = new long[n];
+        for (int k = 0; k < n; k++) {
+            int pos = next[entryUser[k]]++;
+            if (k < nnz) {
+                newItems[pos] = items[k];
+                newTimes[pos] = times[k];
+            } else {
+                newItems[pos] = pendingItems[k - nnz];
+                newTimes[pos] = pendingTimes[k - nnz];
+            }
+        }
+        // sort every row by (item, time) and remove duplicates
+        long[] tmpA = new long[n];
+        long[] tmpB = new long[n];
+        int m = 0;
+        int start = 0;
+        for (int u = 0; u < nUsers; u++) {
+            int end = newRowPtr[u + 1];
+            sortPairs(newItems, newTimes, start, end, tmpA, tmpB);
+            int rowStart = m;
+            for (int k = start; k < end; k++) {
+                if (m == rowStart || newItems[m - 1] != newItems[k] || newTimes[m - 1] != newTimes[k]) {
+                    newItems[m] = newItems[k];
+                    newTimes[m] = newTimes[k];
+                    m++;
+                }
+            }
+            newRowPtr[u] = rowStart;
+            start = end;
+        }
+        newRowPtr[nUsers] = m;
+        // time order of every row
+        int[] newTimeOrder = new int[m];
+        long[] tmpC = new long[m];
+        long[] tmpD = new long[m];
+        for (int u = 0; u < nUsers; u++) {
+            int from = newRowPtr[u];
+            int to = newRowPtr[u + 1];
+            for (int k = from; k < to; k++) {
+                tmpA[k] = newTimes[k];
+                tmpB[k] = k;
+            }
+            sortPairs(tmpA, tmpB, from, to, tmpC, tmpD);
+            for (int k = from; k < to; k++) {
+                newTimeOrder[k] = (int) tmpB[k];
+            }
+        }
+
+        userIds = newUserIds;
+        rowPtr = newRowPtr;
+        items = Arrays.copyOf(newItems, m);
+        times = Arrays.copyOf(newTimes, m);
+        timeOrder = newTimeOrder;
+        pendingUsers = new long[INITIAL_CAPACITY];
+        pendingItems = new long[INITIAL_CAPACITY];
+        pendingTimes = new long[INITIAL_CAPACITY];
+        numPending = 0;
+        version++;
+    }
+
+    /**
+     * Sorts a range of two aligned arrays lexicographically (first by the
+     * values in a, then by the values in b) with a merge sort.
+     *
+     * @param a primary keys
+     * @param b secondary keys
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     * @param tmpA temporary storage, at least as large as a
+     * @param tmpB temporary storage, at least as large as b
+     */
+    static void sortPairs(final long[] a, final long[] b, final int from, final int to, final long[] tmpA, final long[] tmpB) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortPairs(a, b, from, mid, tmpA, tmpB);
+        sortPairs(a, b, mid, to, tmpA, tmpB);
+        if (a[mid - 1] < a[mid] || (a[mid - 1] == a[mid] && b[mid - 1] <= b[mid])) {
+            // already in order
+            return;
+        }
+        System.arraycopy(a, from, tmpA, from, to - from);
+        System.arraycopy(b, from, tmpB, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            boolean takeLeft = j >= to
+                    || (i < mid && (tmpA[i] < tmpA[j] || (tmpA[i] == tmpA[j] && tmpB[i] <= tmpB[j])));
+            if (takeLeft) {
+                a[k] = tmpA[i];
+                b[k] = tmpB[i];
+                i++;
+            } else {
+                a[k] = tmpA[j];
+                b[k] = tmpB[j];
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Gets read access to the timestamps of this model, compacting the
+     * pending ones first.
+     *
+     * @return the timestamps of this model
+     */
+    CompactTimestamps timestamps() {
+        compactTimestamps();
+        return timestampStore;
+    }
+
+    /**
+     * Timestamps backed by the arrays of this model.
+     */
+    private final class HeapTimestamps extends CompactTimestamps {
+
+        @Override
+        void prepare() {
+            compactTimestamps();
+        }
+
+        @Override
+        int version() {
+            return version;
+        }
+
+        @Override
+        int numUsers() {
+            return userIds.length;
+        }
+
+        @Override
+        long userId(final int u) {
+            return userIds[u];
+        }
+
+        @Override
+        int rowStart(final int u) {
+            return rowPtr[u];
+        }
+
+        @Override
+        long item(final int k) {
+            return items[k];
+        }
+
+        @Override
+        long time(final int k) {
+            return times[k];
+        }
+
+        @Override
+        int timeOrder(final int k) {
+            return timeOrder[k];
+        }
+
+        @Override
+        int findUser(final long user) {
+            int u = Arrays.binarySearch(userIds, user);
+            if (u < 0) {
+                return -1;
+            }
+            return u;
+        }
+    }
+}
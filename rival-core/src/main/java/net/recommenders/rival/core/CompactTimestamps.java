@@ -0,0 +1,547 @@
+/*
+ * Copyright 2016 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Timestamps stored per user in two aligned columns (items and timestamps)
+ * sorted by item and then by timestamp, so the timestamps of each (user, item)
+ * pair form a sorted run, plus a per-user permutation sorted by time to answer
+ * range queries with a binary search. Subclasses decide where the columns live
+ * (heap arrays, mapped files); this class provides the searches and the
+ * read-only collection views used to implement {@link TemporalDataModelIF}.
+ */
+abstract class CompactTimestamps {
+
+    /**
+     * Called before every read, so that pending changes can be applied.
+     */
+    void prepare() {
+    }
+
+    /**
+     * Counter of changes in the columns, used by the views to detect them.
+     *
+     * @return the current version of the columns
+     */
+    abstract int version();
+
+    /**
+     * Gets the number of users with timestamps.
+     *
+     * @return the number of users
+     */
+    abstract int numUsers();
+
+    /**
+     * Gets the id of a user.
+     *
+     * @param u dense index of the user
+     * @return the user id
+     */
+    abstract long userId(int u);
+
+    /**
+     * Gets the offset of a user row (the offset of user numUsers() is the
+     * total number of interactions).
+     *
+     * @param u dense index of the user
+     * @return the position of the first interaction of the user
+     */
+    abstract int rowStart(int u);
+
+    /**
+     * Gets the item of a stored interaction.
+     *
+     * @param k position of the interaction
+     * @return the item id
+     */
+    abstract long item(int k);
+
+    /**
+     * Gets the timestamp of a stored interaction.
+     *
+     * @param k position of the interaction
+     * @return the timestamp
+     */
+    abstract long time(int k);
+
+    /**
+     * Gets the position of the k-th interaction in time order (positions of a
+     * row are permuted within the row).
+     *
+     * @param k position in time order
+     * @return the position of the interaction
+     */
+    abstract int timeOrder(int k);
+
+    /**
+     * Gets the number of stored interactions.
+     *
+     * @return the number of interactions
+     */
+    int numInteractions() {
+        return rowStart(numUsers());
+    }
+
+    /**
+     * Finds the dense index of a user.
+     *
+     * @param user the user id
+     * @return the dense index or -1 if the user has no timestamps
+     */
+    int findUser(final long user) {
+        int lo = 0;
+        int hi = numUsers() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long id = userId(mid);
+            if (id < user) {
+                lo = mid + 1;
+            } else if (id > user) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the dense index of a user given as an object.
+     *
+     * @param user the user, as given to the views
+     * @return the dense index or -1 if the user has no timestamps
+     */
+    private int findUser(final Object user) {
+        if (!(user instanceof Long)) {
+            return -1;
+        }
+        return findUser(((Long) user).longValue());
+    }
+
+    /**
+     * Passes every timestamp to a consumer, user by user.
+     *
+     * @param consumer the consumer
+     */
+    void forEachLong(final LongTimestampConsumer consumer) {
+        prepare();
+        for (int u = 0; u < numUsers(); u++) {
+            long user = userId(u);
+            for (int k = rowStart(u); k < rowStart(u + 1); k++) {
+                consumer.consume(user, item(k), time(k));
+            }
+        }
+    }
+
+    /**
+     * Passes every timestamp to a consumer, user by user, boxing each user
+     * only once.
+     *
+     * @param consumer the consumer
+     */
+    void forEach(final TimestampConsumer<? super Long, ? super Long> consumer) {
+        prepare();
+        for (int u = 0; u < numUsers(); u++) {
+            Long user = userId(u);
+            for (int k = rowStart(u); k < rowStart(u + 1); k++) {
+                consumer.consume(user, item(k), time(k));
+            }
+        }
+    }
+
+    /**
+     * Counts the interactions of a user with a timestamp in the range [from,
+     * to).
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the number of interactions in the range
+     */
+    int countBetween(final long user, final long from, final long to) {
+        prepare();
+        int u = findUser(user);
+        if (u < 0) {
+            return 0;
+        }
+        return Math.max(0, lowerBound(u, to) - lowerBound(u, from));
+    }
+
+    /**
+     * Collects the timestamps or the items of the interactions of a user in a
+     * range.
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @param returnTimes whether timestamps (true) or items (false) are
+     * returned
+     * @return the requested values, sorted by time
+     */
+    long[] between(final long user, final long from, final long to, final boolean returnTimes) {
+        prepare();
+        int u = findUser(user);
+        if (u < 0) {
+            return new long[0];
+        }
+        int start = lowerBound(u, from);
+        int end = Math.max(start, lowerBound(u, to));
+        long[] result = new long[end - start];
+        for (int k = start; k < end; k++) {
+            if (returnTimes) {
+                result[k - start] = time(timeOrder(k));
+            } else {
+                result[k - start] = item(timeOrder(k));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the first position (in time order) of a row whose timestamp is
+     * not lower than a value.
+     *
+     * @param u the row
+     * @param t the value
+     * @return the position in time order
+     */
+    private int lowerBound(final int u, final long t) {
+        int lo = rowStart(u);
+        int hi = rowStart(u + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time(timeOrder(mid)) < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the first position of an item in a row, or the position where it
+     * would be inserted.
+     *
+     * @param u the row
+     * @param it the item
+     * @return the first position in the row not lower than the item
+     */
+    private int itemLowerBound(final int u, final long it) {
+        int lo = rowStart(u);
+        int hi = rowStart(u + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (item(mid) < it) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns a read-only map view between users, items and timestamps.
+     *
+     * @return the timestamp map
+     */
+    Map<Long, Map<Long, Set<Long>>> asMap() {
+        return new UserTimestampsView();
+    }
+
+    /**
+     * Read-only map view between users and the timestamps of their items.
+     */
+    private final class UserTimestampsView extends AbstractMap<Long, Map<Long, Set<Long>>> {
+
+        @Override
+        public Map<Long, Set<Long>> get(final Object key) {
+            prepare();
+            int u = findUser(key);
+            if (u < 0) {
+                return null;
+            }
+            return new RowTimestampsView(userId(u), u);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            prepare();
+            return findUser(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            prepare();
+            return numUsers();
+        }
+
+        @Override
+        public Set<Entry<Long, Map<Long, Set<Long>>>> entrySet() {
+            return new AbstractSet<Entry<Long, Map<Long, Set<Long>>>>() {
+                @Override
+                public int size() {
+                    return UserTimestampsView.this.size();
+                }
+
+                @Override
+                public Iterator<Entry<Long, Map<Long, Set<Long>>>> iterator() {
+                    final int n = size();
+                    return new Iterator<Entry<Long, Map<Long, Set<Long>>>>() {
+                        private int u = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return u < n;
+                        }
+
+                        @Override
+                        public Entry<Long, Map<Long, Set<Long>>> next() {
+                            if (u >= n) {
+                                throw new NoSuchElementException();
+                            }
+                            long user = userId(u);
+                            Map<Long, Set<Long>> row = new RowTimestampsView(user, u);
+                            u++;
+                            return new SimpleImmutableEntry<Long, Map<Long, Set<Long>>>(user, row);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map view between the items of a user and their timestamps.
+     */
+    private final class RowTimestampsView extends AbstractMap<Long, Set<Long>> {
+
+        /**
+         * The user id.
+         */
+        private final long user;
+        /**
+         * The dense index of the user (valid for {@link #rowVersion}).
+         */
+        private int row;
+        /**
+         * The version of the columns where {@link #row} was resolved.
+         */
+        private int rowVersion;
+
+        /**
+         * Constructor.
+         *
+         * @param userId the user id
+         * @param userRow the dense index of the user
+         */
+        RowTimestampsView(final long userId, final int userRow) {
+            this.user = userId;
+            this.row = userRow;
+            this.rowVersion = version();
+        }
+
+        /**
+         * Resolves the row of the user in the current version of the columns.
+         *
+         * @return the dense index of the user, or -1 if it has no timestamps
+         */
+        private int row() {
+            prepare();
+            if (rowVersion != version()) {
+                row = findUser(user);
+                rowVersion = version();
+            }
+            return row;
+        }
+
+        @Override
+        public Set<Long> get(final Object key) {
+            int u = row();
+            if (u < 0 || !(key instanceof Long)) {
+                return null;
+            }
+            long it = (Long) key;
+            int from = itemLowerBound(u, it);
+            if (from == rowStart(u + 1) || item(from) != it) {
+                return null;
+            }
+            int to = rowStart(u + 1);
+            if (it != Long.MAX_VALUE) {
+                to = itemLowerBound(u, it + 1);
+            }
+            return new TimestampSet(from, to);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<Long, Set<Long>>> entrySet() {
+            return new AbstractSet<Entry<Long, Set<Long>>>() {
+                @Override
+                public int size() {
+                    int u = row();
+                    int n = 0;
+                    if (u >= 0) {
+                        int start = rowStart(u);
+                        int end = rowStart(u + 1);
+                        for (int k = start; k < end; k++) {
+                            if (k == start || item(k - 1) != item(k)) {
+                                n++;
+                            }
+                        }
+                    }
+                    return n;
+                }
+
+                @Override
+                public Iterator<Entry<Long, Set<Long>>> iterator() {
+                    int u = row();
+                    final int start;
+                    final int end;
+                    if (u < 0) {
+                        start = 0;
+                        end = 0;
+                    } else {
+                        start = rowStart(u);
+                        end = rowStart(u + 1);
+                    }
+                    return new Iterator<Entry<Long, Set<Long>>>() {
+                        private int k = start;
+
+                        @Override
+                        public boolean hasNext() {
+                            return k < end;
+                        }
+
+                        @Override
+                        public Entry<Long, Set<Long>> next() {
+                            if (k >= end) {
+                                throw new NoSuchElementException();
+                            }
+                            int from = k;
+                            long it = item(k);
+                            while (k < end && item(k) == it) {
+                                k++;
+                            }
+                            return new SimpleImmutableEntry<Long, Set<Long>>(it, new TimestampSet(from, k));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only set over a sorted run of timestamps.
+     */
+    private final class TimestampSet extends AbstractSet<Long> {
+
+        /**
+         * Start of the run (inclusive).
+         */
+        private final int from;
+        /**
+         * End of the run (exclusive).
+         */
+        private final int to;
+
+        /**
+         * Constructor.
+         *
+         * @param theFrom start of the run (inclusive)
+         * @param theTo end of the run (exclusive)
+         */
+        TimestampSet(final int theFrom, final int theTo) {
+            this.from = theFrom;
+            this.to = theTo;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            if (!(o instanceof Long)) {
+                return false;
+            }
+            long t = (Long) o;
+            int lo = from;
+            int hi = to - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long v = time(mid);
+                if (v < t) {
+                    lo = mid + 1;
+                } else if (v > t) {
+                    hi = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public Iterator<Long> iterator() {
+            return new Iterator<Long>() {
+                private int k = from;
+
+                @Override
+                public boolean hasNext() {
+                    return k < to;
+                }
+
+                @Override
+                public Long next() {
+                    if (k >= to) {
+                        throw new NoSuchElementException();
+                    }
+                    return time(k++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
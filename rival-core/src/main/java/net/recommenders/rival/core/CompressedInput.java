@@ -0,0 +1,477 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Opens data files that may be compressed. The format is recognized by the
+ * first bytes of the file, not by its extension: gzip (including files with
+ * several members and block gzip files, whose members are inflated in
+ * parallel), gzipped tar archives, and zip archives. The members of archives
+ * are read one after the other, as if they were concatenated (with a line
+ * break between them).
+ *
+ * Compressed files are decompressed on a background thread (see
+ * {@link PipelinedChannel}), so decompression overlaps with parsing.
+ */
+public final class CompressedInput {
+
+    /**
+     * Size of the buffer of the file streams.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * First bytes of a zip archive.
+     */
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    /**
+     * Size of a tar block.
+     */
+    private static final int TAR_BLOCK = 512;
+    /**
+     * Position of the "ustar" magic in a tar header.
+     */
+    private static final int TAR_MAGIC_OFFSET = 257;
+    /**
+     * Position of the size in a tar header.
+     */
+    private static final int TAR_SIZE_OFFSET = 124;
+    /**
+     * Length of the size in a tar header.
+     */
+    private static final int TAR_SIZE_LENGTH = 12;
+    /**
+     * Position of the type in a tar header.
+     */
+    private static final int TAR_TYPE_OFFSET = 156;
+    /**
+     * Mask of a byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+    /**
+     * Bits of a byte.
+     */
+    private static final int BYTE_BITS = 8;
+    /**
+     * Bits of an octal digit.
+     */
+    private static final int OCTAL_BITS = 3;
+    /**
+     * Flag of sizes in base 256 in a tar header.
+     */
+    private static final int BASE256_FLAG = 0x80;
+    /**
+     * Mask of the first byte of a size in base 256.
+     */
+    private static final int BASE256_MASK = 0x7f;
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private CompressedInput() {
+    }
+
+    /**
+     * Checks if a file is a zip archive.
+     *
+     * @param f the file
+     * @return true if the file starts as a zip archive
+     * @throws IOException when the file cannot be read
+     */
+    public static boolean isZip(final File f) throws IOException {
+        return Arrays.equals(peek(f, ZIP_MAGIC.length), ZIP_MAGIC);
+    }
+
+    /**
+     * Checks if a file is compressed with gzip.
+     *
+     * @param f the file
+     * @return true if the file starts as a gzip stream
+     * @throws IOException when the file cannot be read
+     */
+    public static boolean isGzip(final File f) throws IOException {
+        return isGzipHeader(peek(f, 2));
+    }
+
+    /**
+     * Checks if a file is compressed (gzip or zip).
+     *
+     * @param f the file
+     * @return true if the file is compressed
+     * @throws IOException when the file cannot be read
+     */
+    public static boolean isCompressed(final File f) throws IOException {
+        return isGzip(f) || isZip(f);
+    }
+
+    /**
+     * Opens a file, decompressing it if needed.
+     *
+     * @param f the file
+     * @return a channel with the (decompressed) bytes of the file
+     * @throws IOException when the file cannot be read
+     */
+    public static ReadableByteChannel open(final File f) throws IOException {
+        byte[] header = peek(f, PipelinedChannel.BLOCK_HEADER_SIZE);
+        if (PipelinedChannel.isBlockGzipHeader(header)) {
+            InputStream raw = new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE);
+            return PipelinedChannel.ofBlockGzip(raw, Runtime.getRuntime().availableProcessors());
+        }
+        if (isGzipHeader(header)) {
+            BufferedInputStream in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(f), BUFFER_SIZE), BUFFER_SIZE);
+            if (isTarHeader(in)) {
+                return new PipelinedChannel(new TarInputStream(in));
+            }
+            return new PipelinedChannel(in);
+        }
+        if (isZip(f)) {
+            return new PipelinedChannel(new ZipEntriesInputStream(new ZipInputStream(new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE))));
+        }
+        return FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads the first bytes of a file.
+     *
+     * @param f the file
+     * @param n the number of bytes
+     * @return the first bytes (fewer if the file is shorter)
+     * @throws IOException when the file cannot be read
+     */
+    private static byte[] peek(final File f, final int n) throws IOException {
+        if ((f == null) || (!f.isFile())) {
+            throw new FileNotFoundException(String.valueOf(f));
+        }
+        byte[] b = new byte[n];
+        int read = 0;
+        try (InputStream in = new FileInputStream(f)) {
+            while (read < n) {
+                int r = in.read(b, read, n - read);
+                if (r < 0) {
+                    break;
+                }
+                read += r;
+            }
+        }
+        if (read < n) {
+            byte[] shorter = new byte[read];
+            System.arraycopy(b, 0, shorter, 0, read);
+            return shorter;
+        }
+        return b;
+    }
+
+    /**
+     * Checks if some bytes start a gzip stream.
+     *
+     * @param header the first bytes of a file
+     * @return true if the bytes are the gzip magic number
+     */
+    private static boolean isGzipHeader(final byte[] header) {
+        return header.length >= 2 && (header[0] & BYTE_MASK) == 0x1f && (header[1] & BYTE_MASK) == 0x8b;
+    }
+
+    /**
+     * Checks if a stream starts with a tar header, without consuming it.
+     *
+     * @param in the stream
+     * @return true if the stream is a tar archive
+     * @throws IOException when the stream cannot be read
+     */
+    private static boolean isTarHeader(final BufferedInputStream in) throws IOException {
+        byte[] header = new byte[TAR_BLOCK];
+        in.mark(TAR_BLOCK);
+        int n = 0;
+        while (n < TAR_BLOCK) {
+            int r = in.read(header, n, TAR_BLOCK - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        in.reset();
+        return n == TAR_BLOCK && new String(header, TAR_MAGIC_OFFSET, "ustar".length(), StandardCharsets.US_ASCII).equals("ustar");
+    }
+
+    /**
+     * Stream with the contents of the regular files of a zip archive.
+     */
+    private static final class ZipEntriesInputStream extends InputStream {
+
+        /**
+         * The archive.
+         */
+        private final ZipInputStream zip;
+        /**
+         * Whether the current entry is being read.
+         */
+        private boolean inEntry;
+        /**
+         * Whether a line break has to be returned before the next entry.
+         */
+        private boolean pendingBreak;
+
+        /**
+         * Constructor.
+         *
+         * @param in the archive
+         */
+        private ZipEntriesInputStream(final ZipInputStream in) {
+            this.zip = in;
+        }
+
+        /**
+         * Moves to the next regular file of the archive.
+         *
+         * @return false if there are no more files
+         * @throws IOException when the archive cannot be read
+         */
+        private boolean nextEntry() throws IOException {
+            ZipEntry entry = zip.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zip.getNextEntry();
+            }
+            inEntry = entry != null;
+            return inEntry;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            if (read(b, 0, 1) < 0) {
+                return -1;
+            }
+            return b[0] & BYTE_MASK;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (pendingBreak) {
+                    pendingBreak = false;
+                    b[off] = '\n';
+                    return 1;
+                }
+                if (!inEntry) {
+                    if (!nextEntry()) {
+                        return -1;
+                    }
+                }
+                int n = zip.read(b, off, len);
+                if (n >= 0) {
+                    return n;
+                }
+                inEntry = false;
+                pendingBreak = true;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /**
+     * Stream with the contents of the regular files of a tar archive.
+     */
+    private static final class TarInputStream extends InputStream {
+
+        /**
+         * The archive.
+         */
+        private final InputStream tar;
+        /**
+         * Bytes left of the current file.
+         */
+        private long remaining;
+        /**
+         * Padding after the current file.
+         */
+        private long padding;
+        /**
+         * Whether the end of the archive has been reached.
+         */
+        private boolean end;
+        /**
+         * Whether a line break has to be returned before the next file.
+         */
+        private boolean pendingBreak;
+
+        /**
+         * Constructor.
+         *
+         * @param in the archive
+         */
+        private TarInputStream(final InputStream in) {
+            this.tar = in;
+        }
+
+        /**
+         * Skips bytes of the archive.
+         *
+         * @param n the number of bytes
+         * @throws IOException when the archive cannot be read
+         */
+        private void skipFully(final long n) throws IOException {
+            long left = n;
+            while (left > 0) {
+                long s = tar.skip(left);
+                if (s <= 0) {
+                    if (tar.read() < 0) {
+                        throw new IOException("Truncated tar archive");
+                    }
+                    s = 1;
+                }
+                left -= s;
+            }
+        }
+
+        /**
+         * Moves to the next regular file of the archive.
+         *
+         * @return false if there are no more files
+         * @throws IOException when the archive cannot be read
+         */
+        private boolean nextFile() throws IOException {
+            byte[] header = new byte[TAR_BLOCK];
+            while (!end) {
+                skipFully(remaining + padding);
+                remaining = 0;
+                padding = 0;
+                int n = 0;
+                while (n < TAR_BLOCK) {
+                    int r = tar.read(header, n, TAR_BLOCK - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n < TAR_BLOCK || header[0] == 0) {
+                    end = true;
+                    break;
+                }
+                long size = parseSize(header);
+                padding = (TAR_BLOCK - (size % TAR_BLOCK)) % TAR_BLOCK;
+                byte type = header[TAR_TYPE_OFFSET];
+                if (type == '0' || type == 0) {
+                    remaining = size;
+                    return true;
+                }
+                // not a regular file
+                remaining = size;
+            }
+            return false;
+        }
+
+        /**
+         * Parses the size of a file from its tar header.
+         *
+         * @param header the header
+         * @return the size
+         */
+        private static long parseSize(final byte[] header) {
+            long size = 0;
+            if ((header[TAR_SIZE_OFFSET] & BASE256_FLAG) != 0) {
+                size = header[TAR_SIZE_OFFSET] & BASE256_MASK;
+                for (int k = 1; k < TAR_SIZE_LENGTH; k++) {
+                    size = (size << BYTE_BITS) | (header[TAR_SIZE_OFFSET + k] & BYTE_MASK);
+                }
+                return size;
+            }
+            for (int k = 0; k < TAR_SIZE_LENGTH; k++) {
+                byte b = header[TAR_SIZE_OFFSET + k];
+                if (b >= '0' && b <= '7') {
+                    size = (size << OCTAL_BITS) | (b - '0');
+                }
+            }
+            return size;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            if (read(b, 0, 1) < 0) {
+                return -1;
+            }
+            return b[0] & BYTE_MASK;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (remaining == 0) {
+                if (pendingBreak) {
+                    pendingBreak = false;
+                    b[off] = '\n';
+                    return 1;
+                }
+                if (!nextFile()) {
+                    return -1;
+                }
+                pendingBreak = true;
+            }
+            int n = tar.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("Truncated tar archive");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            tar.close();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe temporal data model, so several threads can add preferences
+ * and timestamps to the same model (for instance, when recommendations are
+ * generated in parallel). Every user has its own bucket of preferences, and
+ * preferences are updated with compare-and-set operations instead of locks,
+ * keeping the semantics of {@link DataModel#addPreference(Object, Object, Double)}:
+ * repeated preferences are summed, or ignored when duplicates are ignored.
+ *
+ * Buckets are created with a single lock segment, since the intended use is
+ * that producers add disjoint users; they are still safe (only slower) when
+ * threads share users. Iteration over the maps is weakly consistent while
+ * other threads are adding data.
+ *
+ * @param <U> generic type for users
+ * @param <I> generic type for items
+ */
+public class ConcurrentDataModel<U, I> implements TemporalDataModelIF<U, I> {
+
+    /**
+     * Initial capacity of the bucket of a user.
+     */
+    private static final int BUCKET_CAPACITY = 16;
+    /**
+     * Load factor of the maps.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * Preference map between users and items.
+     */
+    private final ConcurrentMap<U, ConcurrentMap<I, Double>> userItemPreferences;
+    /**
+     * Timestamp map between users and items.
+     */
+    private final ConcurrentMap<U, ConcurrentMap<I, Set<Long>>> userItemTimestamps;
+    /**
+     * Set containing all the items.
+     */
+    private final Set<I> items;
+    /**
+     * Preference map between items and users, built from
+     * {@link #userItemPreferences} when needed (null if it has to be
+     * rebuilt). While it is being built it holds a marker, so that the map
+     * is not cached if a preference is added in the meantime.
+     */
+    private final AtomicReference<Map<I, Map<U, Double>>> itemUserPreferences = new AtomicReference<>();
+    /**
+     * Flag to indicate if duplicate preferences should be ignored or not.
+     */
+    private final boolean ignoreDuplicatePreferences;
+
+    /**
+     * Default constructor.
+     */
+    public ConcurrentDataModel() {
+        this(false);
+    }
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     */
+    public ConcurrentDataModel(final boolean ignoreDupPreferences) {
+        this(ignoreDupPreferences, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     * @param concurrencyLevel The estimated number of threads adding data.
+     */
+    public ConcurrentDataModel(final boolean ignoreDupPreferences, final int concurrencyLevel) {
+        this.ignoreDuplicatePreferences = ignoreDupPreferences;
+        this.userItemPreferences = new ConcurrentHashMap<>(BUCKET_CAPACITY, LOAD_FACTOR, concurrencyLevel);
+        this.userItemTimestamps = new ConcurrentHashMap<>(BUCKET_CAPACITY, LOAD_FACTOR, concurrencyLevel);
+        this.items = Collections.newSetFromMap(new ConcurrentHashMap<I, Boolean>(BUCKET_CAPACITY, LOAD_FACTOR, concurrencyLevel));
+    }
+
+    /**
+     * Gets the bucket of a user, creating it if needed.
+     *
+     * @param <V> type of the values of the bucket
+     * @param map the map of buckets
+     * @param u the user
+     * @return the bucket of the user
+     */
+    private <V> ConcurrentMap<I, V> bucket(final ConcurrentMap<U, ConcurrentMap<I, V>> map, final U u) {
+        ConcurrentMap<I, V> bucket = map.get(u);
+        if (bucket == null) {
+            ConcurrentMap<I, V> newBucket = new ConcurrentHashMap<>(BUCKET_CAPACITY, LOAD_FACTOR, 1);
+            bucket = map.putIfAbsent(u, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<U, Map<I, Double>> getUserItemPreferences() {
+        return (Map<U, Map<I, Double>>) (Map<U, ?>) userItemPreferences;
+    }
+
+    /**
+     * Method that returns the preference map between items and users. The
+     * map is built from the user preferences the first time it is requested
+     * and cached until a preference is added, so it should not be modified.
+     *
+     * @return the preference map between items and users.
+     */
+    @Override
+    public Map<I, Map<U, Double>> getItemUserPreferences() {
+        Map<I, Map<U, Double>> index = itemUserPreferences.get();
+        if (index == null || index.isEmpty()) {
+            Map<I, Map<U, Double>> marker = new HashMap<>();
+            itemUserPreferences.set(marker);
+            index = new HashMap<>();
+            for (Entry<U, ConcurrentMap<I, Double>> e : userItemPreferences.entrySet()) {
+                U user = e.getKey();
+                for (Entry<I, Double> p : e.getValue().entrySet()) {
+                    Map<U, Double> itemPreferences = index.get(p.getKey());
+                    if (itemPreferences == null) {
+                        itemPreferences = new HashMap<>();
+                        index.put(p.getKey(), itemPreferences);
+                    }
+                    itemPreferences.put(user, p.getValue());
+                }
+            }
+            itemUserPreferences.compareAndSet(marker, index);
+        }
+        return index;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getItemPopularity(final I i) {
+        Map<U, Double> itemPreferences = getItemUserPreferences().get(i);
+        if (itemPreferences == null) {
+            return 0;
+        }
+        return itemPreferences.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachPreference(final PreferenceConsumer<? super U, ? super I> consumer) {
+        for (Entry<U, ConcurrentMap<I, Double>> e : userItemPreferences.entrySet()) {
+            U user = e.getKey();
+            for (Entry<I, Double> p : e.getValue().entrySet()) {
+                consumer.consume(user, p.getKey(), p.getValue());
+            }
+        }
+    }
+
+    /**
+     * Method that adds a preference to the model between a user and an item.
+     * It can be called concurrently from several threads.
+     *
+     * @param u the user.
+     * @param i the item.
+     * @param d the preference.
+     */
+    @Override
+    public void addPreference(final U u, final I i, final Double d) {
+        ConcurrentMap<I, Double> userPreferences = bucket(userItemPreferences, u);
+        while (true) {
+            // as in DataModel, preferences are accumulated starting from 0.0
+            Double preference = userPreferences.putIfAbsent(i, 0.0 + d);
+            if (preference == null || ignoreDuplicatePreferences) {
+                break;
+            }
+            if (userPreferences.replace(i, preference, preference + d)) {
+                break;
+            }
+        }
+        // reading first avoids contention on the items shared by many users
+        if (!items.contains(i)) {
+            items.add(i);
+        }
+        // the inverted index is rebuilt when needed
+        if (itemUserPreferences.get() != null) {
+            itemUserPreferences.set(null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<U, Map<I, Set<Long>>> getUserItemTimestamps() {
+        return (Map<U, Map<I, Set<Long>>>) (Map<U, ?>) userItemTimestamps;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachTimestamp(final TimestampConsumer<? super U, ? super I> consumer) {
+        for (Entry<U, ConcurrentMap<I, Set<Long>>> e : userItemTimestamps.entrySet()) {
+            U user = e.getKey();
+            for (Entry<I, Set<Long>> it : e.getValue().entrySet()) {
+                I item = it.getKey();
+                for (Long t : it.getValue()) {
+                    consumer.consume(user, item, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that adds a timestamp to the model between a user and an item.
+     * It can be called concurrently from several threads.
+     *
+     * @param u the user.
+     * @param i the item.
+     * @param t the timestamp.
+     */
+    @Override
+    public void addTimestamp(final U u, final I i, final Long t) {
+        ConcurrentMap<I, Set<Long>> userTimestamps = bucket(userItemTimestamps, u);
+        Set<Long> timestamps = userTimestamps.get(i);
+        if (timestamps == null) {
+            Set<Long> newTimestamps = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>(BUCKET_CAPACITY, LOAD_FACTOR, 1));
+            timestamps = userTimestamps.putIfAbsent(i, newTimestamps);
+            if (timestamps == null) {
+                timestamps = newTimestamps;
+            }
+        }
+        timestamps.add(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<I> getItems() {
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<U> getUsers() {
+        return userItemPreferences.keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        return items.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        return userItemPreferences.size();
+    }
+
+    /**
+     * Method that returns a read-only snapshot of the model. Preferences
+     * added while the snapshot is taken may or may not be included.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public TemporalDataModelIF<U, I> toImmutable() {
+        return new ImmutableDataModel<>(this);
+    }
+
+    /**
+     * Method that clears all the maps contained in the model. It should not
+     * be called while other threads are adding data.
+     */
+    @Override
+    public void clear() {
+        userItemPreferences.clear();
+        userItemTimestamps.clear();
+        items.clear();
+        itemUserPreferences.set(null);
+    }
+}
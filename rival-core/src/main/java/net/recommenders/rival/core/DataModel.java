@@ -18,6 +18,7 @@ package net.recommenders.rival.core;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -36,6 +37,12 @@ public class DataModel<U, I> implements DataModelIF<U, I> {
      * Preference map between users and items.
      */
     protected Map<U, Map<I, Double>> userItemPreferences;
+    /**
+     * Preference map between items and users, built from
+     * {@link #userItemPreferences} when needed (null if it has to be
+     * rebuilt).
+     */
+    protected Map<I, Map<U, Double>> itemUserPreferences;
     /**
      * Set containing all the items.
      */
@@ -87,6 +94,64 @@ public class DataModel<U, I> implements DataModelIF<U, I> {
         return userItemPreferences;
     }
 
+    /**
+     * Method that returns the preference map between items and users. The
+     * map is built from the user preferences the first time it is requested
+     * and cached until a preference is added, so it should not be modified.
+     *
+     * @return the preference map between items and users.
+     */
+    @Override
+    public Map<I, Map<U, Double>> getItemUserPreferences() {
+        if (itemUserPreferences == null) {
+            Map<I, Map<U, Double>> index = new HashMap<>();
+            for (Entry<U, Map<I, Double>> e : userItemPreferences.entrySet()) {
+                U user = e.getKey();
+                for (Entry<I, Double> p : e.getValue().entrySet()) {
+                    Map<U, Double> itemPreferences = index.get(p.getKey());
+                    if (itemPreferences == null) {
+                        itemPreferences = new HashMap<>();
+                        index.put(p.getKey(), itemPreferences);
+                    }
+                    itemPreferences.put(user, p.getValue());
+                }
+            }
+            itemUserPreferences = index;
+        }
+        return itemUserPreferences;
+    }
+
+    /**
+     * Method that returns the number of users with a preference for an item.
+     *
+     * @param i the item.
+     * @return the number of users with a preference for the item.
+     */
+    @Override
+    public int getItemPopularity(final I i) {
+        Map<U, Double> itemPreferences = getItemUserPreferences().get(i);
+        if (itemPreferences == null) {
+            return 0;
+        }
+        return itemPreferences.size();
+    }
+
+    /**
+     * Method that passes every preference in the model to a consumer, in the
+     * iteration order of {@link #getUserItemPreferences()}.
+     *
+     * @param consumer the consumer of the preferences.
+     */
+    @Override
+    public void forEachPreference(final PreferenceConsumer<? super U, ? super I> consumer) {
+        for (Entry<U, Map<I, Double>> e : userItemPreferences.entrySet()) {
+            U user = e.getKey();
+            for (Entry<I, Double> p : e.getValue().entrySet()) {
+                consumer.consume(user, p.getKey(), p.getValue());
+            }
+        }
+    }
+
     /**
      * Method that adds a preference to the model between a user and an item.
      *
@@ -115,6 +180,8 @@ public class DataModel<U, I> implements DataModelIF<U, I> {
         }
         // update items
         items.add(i);
+        // the inverted index is rebuilt when needed
+        itemUserPreferences = null;
     }
 
     /**
@@ -157,6 +224,16 @@ public class DataModel<U, I> implements DataModelIF<U, I> {
         return getUsers().size();
     }
 
+    /**
+     * Method that returns a read-only snapshot of the model.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public DataModelIF<U, I> toImmutable() {
+        return new ImmutableDataModel<>(this);
+    }
+
     /**
      * Method that clears all the maps contained in the model.
      */
@@ -164,5 +241,6 @@ public class DataModel<U, I> implements DataModelIF<U, I> {
     public void clear() {
         userItemPreferences.clear();
         items.clear();
+        itemUserPreferences = null;
     }
 }
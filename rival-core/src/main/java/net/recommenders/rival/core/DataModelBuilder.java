@@ -0,0 +1,302 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.Arrays;
+
+/**
+ * Builder of data models with long user and item ids. Preferences and
+ * timestamps are accumulated in primitive arrays (one event at a time or in
+ * batches) and the model is produced in a single step, with duplicates
+ * aggregated as {@link DataModel#addPreference(Object, Object, Double)} does
+ * (summed, or only the first one kept when duplicate preferences are
+ * ignored). Compact models sort the events by user and item; map-based models
+ * are filled with the events in the order they were added, so their maps
+ * iterate exactly as if the events had been added to the model one by one
+ * (seeded splitters draw their random numbers in that order, so the splits
+ * of a file do not depend on how it was parsed).
+ *
+ * A builder can only be used once.
+ */
+public class DataModelBuilder {
+
+    /**
+     * Default number of expected preferences and timestamps.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Flag to indicate if duplicate preferences should be ignored or not.
+     */
+    private final boolean ignoreDuplicatePreferences;
+    /**
+     * Users of the preferences.
+     */
+    private long[] prefUsers;
+    /**
+     * Items of the preferences.
+     */
+    private long[] prefItems;
+    /**
+     * Values of the preferences.
+     */
+    private double[] prefValues;
+    /**
+     * Number of preferences.
+     */
+    private int numPrefs;
+    /**
+     * Users of the timestamps.
+     */
+    private long[] timeUsers;
+    /**
+     * Items of the timestamps.
+     */
+    private long[] timeItems;
+    /**
+     * The timestamps.
+     */
+    private long[] timeValues;
+    /**
+     * Number of timestamps.
+     */
+    private int numTimes;
+    /**
+     * Whether a model has already been built.
+     */
+    private boolean built;
+
+    /**
+     * Default constructor.
+     */
+    public DataModelBuilder() {
+        this(false);
+    }
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     */
+    public DataModelBuilder(final boolean ignoreDupPreferences) {
+        this(ignoreDupPreferences, DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with size hints, so the buffers do not have to be resized
+     * while events are added.
+     *
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     * @param expectedPreferences expected number of preferences
+     * @param expectedTimestamps expected number of timestamps
+     */
+    public DataModelBuilder(final boolean ignoreDupPreferences, final int expectedPreferences, final int expectedTimestamps) {
+        this.ignoreDuplicatePreferences = ignoreDupPreferences;
+        this.prefUsers = new long[Math.max(0, expectedPreferences)];
+        this.prefItems = new long[prefUsers.length];
+        this.prefValues = new double[prefUsers.length];
+        this.timeUsers = new long[Math.max(0, expectedTimestamps)];
+        this.timeItems = new long[timeUsers.length];
+        this.timeValues = new long[timeUsers.length];
+    }
+
+    /**
+     * Method that adds a preference between a user and an item.
+     *
+     * @param u the user.
+     * @param i the item.
+     * @param d the preference.
+     */
+    public void addPreference(final long u, final long i, final double d) {
+        if (numPrefs == prefUsers.length) {
+            growPreferences(numPrefs + 1);
+        }
+        prefUsers[numPrefs] = u;
+        prefItems[numPrefs] = i;
+        prefValues[numPrefs] = d;
+        numPrefs++;
+    }
+
+    /**
+     * Method that adds a batch of preferences given as aligned columns.
+     *
+     * @param users the users.
+     * @param items the items.
+     * @param prefs the preferences.
+     * @param len number of preferences to take from the arrays.
+     */
+    public void addPreferences(final long[] users, final long[] items, final double[] prefs, final int len) {
+        if (numPrefs + len > prefUsers.length) {
+            growPreferences(numPrefs + len);
+        }
+        System.arraycopy(users, 0, prefUsers, numPrefs, len);
+        System.arraycopy(items, 0, prefItems, numPrefs, len);
+        System.arraycopy(prefs, 0, prefValues, numPrefs, len);
+        numPrefs += len;
+    }
+
+    /**
+     * Method that adds a timestamp between a user and an item.
+     *
+     * @param u the user.
+     * @param i the item.
+     * @param t the timestamp.
+     */
+    public void addTimestamp(final long u, final long i, final long t) {
+        if (numTimes == timeUsers.length) {
+            growTimestamps(numTimes + 1);
+        }
+        timeUsers[numTimes] = u;
+        timeItems[numTimes] = i;
+        timeValues[numTimes] = t;
+        numTimes++;
+    }
+
+    /**
+     * Method that adds a batch of timestamps given as aligned columns.
+     *
+     * @param users the users.
+     * @param items the items.
+     * @param timestamps the timestamps.
+     * @param len number of timestamps to take from the arrays.
+     */
+    public void addTimestamps(final long[] users, final long[] items, final long[] timestamps, final int len) {
+        if (numTimes + len > timeUsers.length) {
+            growTimestamps(numTimes + len);
+        }
+        System.arraycopy(users, 0, timeUsers, numTimes, len);
+        System.arraycopy(items, 0, timeItems, numTimes, len);
+        System.arraycopy(timestamps, 0, timeValues, numTimes, len);
+        numTimes += len;
+    }
+
+    /**
+     * Method that returns the number of preferences added so far (including
+     * duplicates).
+     *
+     * @return the number of preferences.
+     */
+    public int getNumPreferences() {
+        return numPrefs;
+    }
+
+    /**
+     * Method that builds a compact model with the preferences and timestamps
+     * added to this builder. The buffers of this builder are handed to the
+     * model without copying them.
+     *
+     * @return the model.
+     */
+    public CompactTemporalDataModel buildCompactModel() {
+        checkNotBuilt();
+        CompactTemporalDataModel model = new CompactTemporalDataModel(ignoreDuplicatePreferences);
+        model.adoptPreferences(prefUsers, prefItems, prefValues, numPrefs);
+        model.adoptTimestamps(timeUsers, timeItems, timeValues, numTimes);
+        prefUsers = null;
+        prefItems = null;
+        prefValues = null;
+        timeUsers = null;
+        timeItems = null;
+        timeValues = null;
+        return model;
+    }
+
+    /**
+     * Method that builds a {@link DataModel} with the preferences added to
+     * this builder (timestamps are discarded), in the order they were added.
+     *
+     * @return the model.
+     */
+    public DataModel<Long, Long> buildDataModel() {
+        checkNotBuilt();
+        DataModel<Long, Long> model = new DataModel<>(ignoreDuplicatePreferences);
+        addPreferencesTo(model);
+        timeUsers = null;
+        timeItems = null;
+        timeValues = null;
+        return model;
+    }
+
+    /**
+     * Method that builds a {@link TemporalDataModel} with the preferences and
+     * timestamps added to this builder, in the order they were added.
+     *
+     * @return the model.
+     */
+    public TemporalDataModel<Long, Long> buildTemporalDataModel() {
+        checkNotBuilt();
+        TemporalDataModel<Long, Long> model = new TemporalDataModel<>(ignoreDuplicatePreferences);
+        addPreferencesTo(model);
+        for (int k = 0; k < numTimes; k++) {
+            model.addTimestamp(timeUsers[k], timeItems[k], timeValues[k]);
+        }
+        timeUsers = null;
+        timeItems = null;
+        timeValues = null;
+        return model;
+    }
+
+    /**
+     * Adds the preferences of this builder to a model, releasing the
+     * buffers.
+     *
+     * @param model the model.
+     */
+    private void addPreferencesTo(final DataModelIF<Long, Long> model) {
+        for (int k = 0; k < numPrefs; k++) {
+            model.addPreference(prefUsers[k], prefItems[k], prefValues[k]);
+        }
+        prefUsers = null;
+        prefItems = null;
+        prefValues = null;
+    }
+
+    /**
+     * Fails if a model has already been built, and marks the builder as
+     * used.
+     */
+    private void checkNotBuilt() {
+        if (built) {
+            throw new IllegalStateException("The model has already been built");
+        }
+        built = true;
+    }
+
+    /**
+     * Grows the buffers of preferences.
+     *
+     * @param minCapacity the minimum capacity needed
+     */
+    private void growPreferences(final int minCapacity) {
+        int capacity = Math.max(minCapacity, prefUsers.length + (prefUsers.length >> 1) + 1);
+        prefUsers = Arrays.copyOf(prefUsers, capacity);
+        prefItems = Arrays.copyOf(prefItems, capacity);
+        prefValues = Arrays.copyOf(prefValues, capacity);
+    }
+
+    /**
+     * Grows the buffers of timestamps.
+     *
+     * @param minCapacity the minimum capacity needed
+     */
+    private void growTimestamps(final int minCapacity) {
+        int capacity = Math.max(minCapacity, timeUsers.length + (timeUsers.length >> 1) + 1);
+        timeUsers = Arrays.copyOf(timeUsers, capacity);
+        timeItems = Arrays.copyOf(timeItems, capacity);
+        timeValues = Arrays.copyOf(timeValues, capacity);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package net.recommenders.rival.core;
 
+import java.io.File;
+
 /**
  *
  * @author <a href="http://github.com/abellogin">Alejandro</a>
@@ -33,4 +35,20 @@ public class DataModelFactory {
         return new TemporalDataModel<>();
     }
 
+    public static DataModelIF<Long, Long> getCompactModel() {
+        return new CompactDataModel();
+    }
+
+    public static TemporalDataModelIF<Long, Long> getCompactTemporalModel() {
+        return new CompactTemporalDataModel();
+    }
+
+    public static <U, I> TemporalDataModelIF<U, I> getConcurrentModel() {
+        return new ConcurrentDataModel<>();
+    }
+
+    public static TemporalDataModelIF<Long, Long> getOffHeapModel(final File scratchDir, final long memoryBudget) {
+        return new OffHeapDataModel(scratchDir, memoryBudget);
+    }
+
 }
@@ -37,6 +37,33 @@ public interface DataModelIF<U, I> {
      */
     public Map<U, Map<I, Double>> getUserItemPreferences();
 
+    /**
+     * Method that returns the preference map between items and users, that
+     * is, the inverted index of {@link #getUserItemPreferences()}. It is
+     * built the first time it is requested and discarded when a preference
+     * is added.
+     *
+     * @return the preference map between items and users.
+     */
+    public Map<I, Map<U, Double>> getItemUserPreferences();
+
+    /**
+     * Method that returns the number of users with a preference for an item.
+     *
+     * @param i the item.
+     * @return the number of users with a preference for the item.
+     */
+    public int getItemPopularity(final I i);
+
+    /**
+     * Method that passes every preference in the model to a consumer, without
+     * building intermediate maps or boxing the preference values. The
+     * preferences of each user are passed contiguously.
+     *
+     * @param consumer the consumer of the preferences.
+     */
+    public void forEachPreference(final PreferenceConsumer<? super U, ? super I> consumer);
+
     /**
      * Method that adds a preference to the model between a user and an item.
      *
@@ -74,6 +101,16 @@ public interface DataModelIF<U, I> {
      */
     public int getNumUsers();
 
+    /**
+     * Method that returns a read-only snapshot of the model, where the items
+     * of every user are kept sorted so membership tests are binary searches.
+     * The snapshot can be shared across threads without synchronization and
+     * is not affected by later changes to this model.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    public DataModelIF<U, I> toImmutable();
+
     /**
      * Method that clears all the maps contained in the model.
      */
@@ -16,11 +16,19 @@
 package net.recommenders.rival.core;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -53,15 +61,13 @@ public final class DataModelUtils {
         if (new File(outfile).exists() && !overwrite) {
             System.out.println("Ignoring " + outfile);
         } else {
-            PrintStream out = new PrintStream(outfile, "UTF-8");
-            for (U user : dm.getUsers()) {
-                Map<I, Double> userPrefModel = dm.getUserItemPreferences().get(user);
-                for (Entry<I, Double> e : userPrefModel.entrySet()) {
-                    I item = e.getKey();
-                    Double pref = userPrefModel.get(item);
+            final PrintStream out = new PrintStream(outfile, "UTF-8");
+            dm.forEachPreference(new PreferenceConsumer<U, I>() {
+                @Override
+                public void consume(final U user, final I item, final double pref) {
                     out.println(user + "\t" + item + "\t" + pref + "\t-1");
                 }
-            }
+            });
             out.close();
         }
     }
@@ -83,13 +89,25 @@ public final class DataModelUtils {
         if (new File(outfile).exists() && !overwrite) {
             System.out.println("Ignoring " + outfile);
         } else {
-            PrintStream out = new PrintStream(outfile, "UTF-8");
-            for (U user : dm.getUsers()) {
-                Map<I, Double> userPrefModel = dm.getUserItemPreferences().get(user);
-                Map<I, Set<Long>> userTimeModel = dm.getUserItemTimestamps().get(user);
-                for (Entry<I, Double> e : userPrefModel.entrySet()) {
-                    I item = e.getKey();
-                    Double pref = userPrefModel.get(item);
+            final PrintStream out = new PrintStream(outfile, "UTF-8");
+            final Map<U, Map<I, Set<Long>>> timestamps = dm.getUserItemTimestamps();
+            dm.forEachPreference(new PreferenceConsumer<U, I>() {
+                /**
+                 * The user of the previous preference.
+                 */
+                private U lastUser;
+                /**
+                 * The timestamps of that user.
+                 */
+                private Map<I, Set<Long>> userTimeModel;
+
+                @Override
+                public void consume(final U user, final I item, final double pref) {
+                    // preferences come grouped by user
+                    if (!user.equals(lastUser)) {
+                        lastUser = user;
+                        userTimeModel = timestamps.get(user);
+                    }
                     Set<Long> time = null;
                     if (userTimeModel != null) {
                         time = userTimeModel.get(item);
@@ -102,8 +120,176 @@ public final class DataModelUtils {
                         }
                     }
                 }
-            }
+            });
             out.close();
         }
     }
+
+    /**
+     * Method that saves a data model to a file in the binary format read by
+     * {@link MappedDataModel}. The file is written next to the target and
+     * then moved over it, so processes that have the previous version mapped
+     * keep reading a consistent file. The timestamps are saved when the model
+     * is temporal.
+     *
+     * @param dm the data model
+     * @param outfile file where the model will be saved
+     * @param overwrite flag that indicates if the file should be overwritten
+     * @throws IOException when outfile cannot be written or the model does
+     * not fit in the format.
+     */
+    public static void saveBinaryDataModel(final DataModelIF<Long, Long> dm, final String outfile, final boolean overwrite)
+            throws IOException {
+        File target = new File(outfile);
+        if (target.exists() && !overwrite) {
+            System.out.println("Ignoring " + outfile);
+            return;
+        }
+        CompactPreferences prefs;
+        CompactTimestamps times = null;
+        if (dm instanceof CompactDataModel) {
+            prefs = ((CompactDataModel) dm).preferences();
+            if (dm instanceof CompactTemporalDataModel) {
+                times = ((CompactTemporalDataModel) dm).timestamps();
+            }
+        } else if (dm instanceof MappedDataModel) {
+            prefs = ((MappedDataModel) dm).preferences();
+            times = ((MappedDataModel) dm).timestamps();
+        } else {
+            CompactTemporalDataModel copy = toCompactDataModel(dm);
+            prefs = copy.preferences();
+            times = copy.timestamps();
+        }
+        int nTimeUsers = 0;
+        int nTimes = 0;
+        if (times != null) {
+            nTimeUsers = times.numUsers();
+            nTimes = times.numInteractions();
+        }
+        MappedDataModel.checkEntries(prefs.numPreferences(), "preferences");
+        MappedDataModel.checkEntries(nTimes, "timestamps");
+        File tmp = new File(outfile + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.putInt(MappedDataModel.MAGIC);
+            out.putInt(MappedDataModel.VERSION);
+            // reserved
+            out.putInt(0);
+            out.putInt(prefs.numUsers());
+            out.putInt(prefs.numItems());
+            out.putInt(prefs.numPreferences());
+            out.putInt(nTimeUsers);
+            out.putInt(nTimes);
+            out.endColumn();
+            for (int u = 0; u < prefs.numUsers(); u++) {
+                out.putLong(prefs.userId(u));
+            }
+            out.endColumn();
+            for (int i = 0; i < prefs.numItems(); i++) {
+                out.putLong(prefs.itemId(i));
+            }
+            out.endColumn();
+            for (int u = 0; u <= prefs.numUsers(); u++) {
+                out.putInt(prefs.rowStart(u));
+            }
+            out.endColumn();
+            for (int k = 0; k < prefs.numPreferences(); k++) {
+                out.putInt(prefs.itemIndex(k));
+            }
+            out.endColumn();
+            for (int k = 0; k < prefs.numPreferences(); k++) {
+                out.putDouble(prefs.value(k));
+            }
+            out.endColumn();
+            for (int u = 0; u < nTimeUsers; u++) {
+                out.putLong(times.userId(u));
+            }
+            out.endColumn();
+            // a single empty row offset when there are no timestamps
+            out.putInt(0);
+            for (int u = 1; u <= nTimeUsers; u++) {
+                out.putInt(times.rowStart(u));
+            }
+            out.endColumn();
+            for (int k = 0; k < nTimes; k++) {
+                out.putLong(times.item(k));
+            }
+            out.endColumn();
+            for (int k = 0; k < nTimes; k++) {
+                out.putLong(times.time(k));
+            }
+            out.endColumn();
+            for (int k = 0; k < nTimes; k++) {
+                out.putInt(times.timeOrder(k));
+            }
+            out.endColumn();
+            out.flush();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method that loads a data model saved by
+     * {@link #saveBinaryDataModel(DataModelIF, String, boolean)}. The columns
+     * of the file are mapped instead of copied to the heap, so preferences
+     * and timestamps cannot be added to the model (see
+     * {@link MappedDataModel}).
+     *
+     * @param f the file
+     * @return the mapped model
+     * @throws IOException when the file cannot be read or it is not in the
+     * binary format.
+     */
+    public static TemporalDataModelIF<Long, Long> loadBinaryDataModel(final File f) throws IOException {
+        return new MappedDataModel(f);
+    }
+
+    /**
+     * Method that checks if a file is in the binary format read by
+     * {@link MappedDataModel}.
+     *
+     * @param f the file
+     * @return true if the file starts with the magic number of the format
+     * @throws IOException when the file cannot be read.
+     */
+    public static boolean isBinaryDataModel(final File f) throws IOException {
+        byte[] magic = new byte[Integer.SIZE / Byte.SIZE];
+        try (InputStream in = new FileInputStream(f)) {
+            int n = 0;
+            while (n < magic.length) {
+                int r = in.read(magic, n, magic.length - n);
+                if (r < 0) {
+                    return false;
+                }
+                n += r;
+            }
+        }
+        return ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).getInt() == MappedDataModel.MAGIC;
+    }
+
+    /**
+     * Copies a data model (and its timestamps, if it is temporal) into a
+     * compact one.
+     *
+     * @param dm the data model
+     * @return the copy
+     */
+    static CompactTemporalDataModel toCompactDataModel(final DataModelIF<Long, Long> dm) {
+        final CompactTemporalDataModel copy = new CompactTemporalDataModel(true);
+        dm.forEachPreference(new PreferenceConsumer<Long, Long>() {
+            @Override
+            public void consume(final Long user, final Long item, final double pref) {
+                copy.addPreference(user, item, pref);
+            }
+        });
+        if (dm instanceof TemporalDataModelIF) {
+            ((TemporalDataModelIF<Long, Long>) dm).forEachTimestamp(new TimestampConsumer<Long, Long>() {
+                @Override
+                public void consume(final Long user, final Long item, final long timestamp) {
+                    copy.addTimestamp(user, item, timestamp);
+                }
+            });
+        }
+        return copy;
+    }
 }
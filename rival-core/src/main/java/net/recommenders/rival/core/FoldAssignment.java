@@ -0,0 +1,792 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Assignment of every preference of a model to a fold, stored as one byte per
+ * preference over the compact arrays of the model. The training and test
+ * splits of each fold are read-only views that select the preferences (and
+ * timestamps) of the model by their fold, so cross validation does not need a
+ * copy of the data per fold. Iterating a view (and reading its timestamps)
+ * streams over the model; the arrays of the users and items of a view are
+ * only built if its preference maps are read, and released together with
+ * the view.
+ */
+public class FoldAssignment {
+
+    /**
+     * Maximum number of folds (the fold of a preference is stored in a byte).
+     */
+    public static final int MAX_FOLDS = Byte.MAX_VALUE;
+    /**
+     * Fold of the preferences not assigned to any fold.
+     */
+    private static final byte UNASSIGNED = -1;
+    /**
+     * The preferences of the model.
+     */
+    private final CompactPreferences preferences;
+    /**
+     * The timestamps of the model (null if it has none).
+     */
+    private final CompactTimestamps timestamps;
+    /**
+     * The number of folds.
+     */
+    private final int nFolds;
+    /**
+     * Fold of each stored preference.
+     */
+    private final byte[] folds;
+
+    /**
+     * Constructor. Compact and mapped models are read in place, through a
+     * read-only snapshot (see {@link DataModelIF#toImmutable()}) that shares
+     * their arrays, so the splits are not affected if the model is modified
+     * or cleared afterwards; other models are copied once into a compact
+     * model.
+     *
+     * @param model the model whose preferences are assigned to folds
+     * @param numFolds the number of folds
+     */
+    public FoldAssignment(final DataModelIF<Long, Long> model, final int numFolds) {
+        if (numFolds < 1 || numFolds > MAX_FOLDS) {
+            throw new IllegalArgumentException("The number of folds must be between 1 and " + MAX_FOLDS);
+        }
+        this.nFolds = numFolds;
+        if (model instanceof CompactTemporalDataModel) {
+            CompactTemporalDataModel compact = (CompactTemporalDataModel) ((CompactTemporalDataModel) model).toImmutable();
+            preferences = compact.preferences();
+            timestamps = compact.timestamps();
+        } else if (model instanceof CompactDataModel) {
+            preferences = ((CompactDataModel) ((CompactDataModel) model).toImmutable()).preferences();
+            timestamps = null;
+        } else if (model instanceof MappedDataModel) {
+            MappedDataModel mapped = (MappedDataModel) ((MappedDataModel) model).toImmutable();
+            preferences = mapped.preferences();
+            timestamps = mapped.timestamps();
+        } else {
+            CompactTemporalDataModel copy = DataModelUtils.toCompactDataModel(model);
+            preferences = copy.preferences();
+            timestamps = copy.timestamps();
+        }
+        folds = new byte[preferences.numPreferences()];
+        Arrays.fill(folds, UNASSIGNED);
+    }
+
+    /**
+     * Gets the number of folds.
+     *
+     * @return the number of folds
+     */
+    public int getNumFolds() {
+        return nFolds;
+    }
+
+    /**
+     * Assigns the preference between a user and an item to a fold.
+     *
+     * @param user the user
+     * @param item the item
+     * @param fold the fold
+     */
+    public void setFold(final long user, final long item, final int fold) {
+        checkFold(fold);
+        int k = find(user, item);
+        if (k < 0) {
+            throw new IllegalArgumentException("No preference between user " + user + " and item " + item);
+        }
+        folds[k] = (byte) fold;
+    }
+
+    /**
+     * Gets the fold of the preference between a user and an item.
+     *
+     * @param user the user
+     * @param item the item
+     * @return the fold, or -1 if the preference is not in the model or has
+     * not been assigned to a fold
+     */
+    public int getFold(final long user, final long item) {
+        int k = find(user, item);
+        if (k < 0) {
+            return UNASSIGNED;
+        }
+        return folds[k];
+    }
+
+    /**
+     * Returns a read-only view of the training split of a fold: the
+     * preferences assigned to any other fold, plus the ones not assigned to
+     * any fold.
+     *
+     * @param fold the fold
+     * @return the training split
+     */
+    public TemporalDataModelIF<Long, Long> getTraining(final int fold) {
+        checkFold(fold);
+        return new FoldDataModel(fold, false);
+    }
+
+    /**
+     * Returns a read-only view of the test split of a fold: the preferences
+     * assigned to the fold.
+     *
+     * @param fold the fold
+     * @return the test split
+     */
+    public TemporalDataModelIF<Long, Long> getTest(final int fold) {
+        checkFold(fold);
+        return new FoldDataModel(fold, true);
+    }
+
+    /**
+     * Fails if a fold is out of range.
+     *
+     * @param fold the fold
+     */
+    private void checkFold(final int fold) {
+        if (fold < 0 || fold >= nFolds) {
+            throw new IllegalArgumentException("Fold " + fold + " out of range [0, " + nFolds + ")");
+        }
+    }
+
+    /**
+     * Finds the stored position of a preference.
+     *
+     * @param user the user
+     * @param item the item
+     * @return the position of the preference, or -1 if not found
+     */
+    private int find(final long user, final long item) {
+        int u = preferences.findUser(user);
+        int i = preferences.findItem(item);
+        if (u < 0 || i < 0) {
+            return -1;
+        }
+        return preferences.findPreference(u, i);
+    }
+
+    /**
+     * Checks whether a stored preference belongs to a split.
+     *
+     * @param k the position of the preference
+     * @param fold the fold of the split
+     * @param test whether the split is the test (true) or the training
+     * (false) split of the fold
+     * @return true if the preference belongs to the split
+     */
+    private boolean selects(final int k, final int fold, final boolean test) {
+        return (folds[k] == fold) == test;
+    }
+
+    /**
+     * Checks whether the preference between a user and an item belongs to a
+     * split.
+     *
+     * @param u the dense index of the user in the preferences of the model
+     * @param item the item
+     * @param fold the fold of the split
+     * @param test whether the split is the test (true) or the training
+     * (false) split of the fold
+     * @return true if the preference is in the model and belongs to the split
+     */
+    private boolean selects(final int u, final long item, final int fold, final boolean test) {
+        int i = preferences.findItem(item);
+        if (i < 0) {
+            return false;
+        }
+        int k = preferences.findPreference(u, i);
+        return k >= 0 && selects(k, fold, test);
+    }
+
+    /**
+     * Read-only view of the training or test split of a fold.
+     */
+    private final class FoldDataModel implements TemporalDataModelIF<Long, Long> {
+
+        /**
+         * The fold of the split.
+         */
+        private final int fold;
+        /**
+         * Whether this is the test or the training split.
+         */
+        private final boolean test;
+        /**
+         * The preferences of the split.
+         */
+        private final FoldPreferences foldPreferences;
+
+        /**
+         * Constructor.
+         *
+         * @param theFold the fold
+         * @param isTest whether this is the test or the training split
+         */
+        FoldDataModel(final int theFold, final boolean isTest) {
+            this.fold = theFold;
+            this.test = isTest;
+            foldPreferences = new FoldPreferences(theFold, isTest);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<Long, Map<Long, Double>> getUserItemPreferences() {
+            return foldPreferences.asMap();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<Long, Map<Long, Double>> getItemUserPreferences() {
+            return foldPreferences.asTransposedMap();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getItemPopularity(final Long i) {
+            return foldPreferences.itemPopularity(i);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void forEachPreference(final PreferenceConsumer<? super Long, ? super Long> consumer) {
+            preferences.prepare();
+            for (int u = 0; u < preferences.numUsers(); u++) {
+                Long user = null;
+                for (int k = preferences.rowStart(u); k < preferences.rowStart(u + 1); k++) {
+                    if (selects(k, fold, test)) {
+                        if (user == null) {
+                            user = preferences.userId(u);
+                        }
+                        consumer.consume(user, preferences.itemId(preferences.itemIndex(k)), preferences.value(k));
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void addPreference(final Long u, final Long i, final Double d) {
+            throw new UnsupportedOperationException("Fold views are read-only");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<Long> getItems() {
+            return foldPreferences.items();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<Long> getUsers() {
+            return foldPreferences.users();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumItems() {
+            foldPreferences.prepare();
+            return foldPreferences.numItems();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumUsers() {
+            foldPreferences.prepare();
+            return foldPreferences.numUsers();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<Long, Map<Long, Set<Long>>> getUserItemTimestamps() {
+            if (timestamps == null) {
+                return Collections.emptyMap();
+            }
+            return new UserTimestampsView(fold, test, timestamps.asMap());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void forEachTimestamp(final TimestampConsumer<? super Long, ? super Long> consumer) {
+            if (timestamps == null) {
+                return;
+            }
+            timestamps.prepare();
+            for (int t = 0; t < timestamps.numUsers(); t++) {
+                Long user = timestamps.userId(t);
+                int u = preferences.findUser(user);
+                if (u < 0) {
+                    continue;
+                }
+                for (int k = timestamps.rowStart(t); k < timestamps.rowStart(t + 1); k++) {
+                    long item = timestamps.item(k);
+                    if (selects(u, item, fold, test)) {
+                        consumer.consume(user, item, timestamps.time(k));
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void addTimestamp(final Long u, final Long i, final Long t) {
+            throw new UnsupportedOperationException("Fold views are read-only");
+        }
+
+        /**
+         * Returns this view, which is already read-only.
+         *
+         * @return this view.
+         */
+        @Override
+        public TemporalDataModelIF<Long, Long> toImmutable() {
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Fold views are read-only");
+        }
+    }
+
+    /**
+     * Preferences of a split: the positions of the selected preferences in
+     * the arrays of the model, with their own user and item dictionaries.
+     */
+    private final class FoldPreferences extends CompactPreferences {
+
+        /**
+         * The fold of the split.
+         */
+        private final int fold;
+        /**
+         * Whether this is the test or the training split.
+         */
+        private final boolean test;
+        /**
+         * Dense index in the model of each user of the split.
+         */
+        private int[] users;
+        /**
+         * Dense index in the model of each item of the split.
+         */
+        private int[] items;
+        /**
+         * Dense index in the split of each item of the model (-1 if the item
+         * is not in the split).
+         */
+        private int[] itemMap;
+        /**
+         * Position in the model of each preference of the split.
+         */
+        private int[] positions;
+        /**
+         * Offsets of each user row, with one extra element at the end (null
+         * until the arrays are built).
+         */
+        private volatile int[] rowPtr;
+
+        /**
+         * Constructor.
+         *
+         * @param theFold the fold
+         * @param isTest whether this is the test or the training split
+         */
+        FoldPreferences(final int theFold, final boolean isTest) {
+            this.fold = theFold;
+            this.test = isTest;
+        }
+
+        @Override
+        void prepare() {
+            if (rowPtr == null) {
+                build();
+            }
+        }
+
+        /**
+         * Builds the arrays of the split.
+         */
+        private synchronized void build() {
+            if (rowPtr != null) {
+                return;
+            }
+            int nUsers = 0;
+            int nnz = 0;
+            int[] marks = new int[preferences.numItems()];
+            for (int u = 0; u < preferences.numUsers(); u++) {
+                int n = 0;
+                for (int k = preferences.rowStart(u); k < preferences.rowStart(u + 1); k++) {
+                    if (selects(k, fold, test)) {
+                        marks[preferences.itemIndex(k)] = 1;
+                        n++;
+                    }
+                }
+                if (n > 0) {
+                    nUsers++;
+                    nnz += n;
+                }
+            }
+            int nItems = 0;
+            for (int i = 0; i < marks.length; i++) {
+                nItems += marks[i];
+            }
+            int[] splitItems = new int[nItems];
+            int n = 0;
+            for (int i = 0; i < marks.length; i++) {
+                if (marks[i] == 0) {
+                    marks[i] = -1;
+                } else {
+                    splitItems[n] = i;
+                    marks[i] = n;
+                    n++;
+                }
+            }
+            int[] splitUsers = new int[nUsers];
+            int[] splitRows = new int[nUsers + 1];
+            int[] splitPositions = new int[nnz];
+            int m = 0;
+            n = 0;
+            for (int u = 0; u < preferences.numUsers(); u++) {
+                int start = n;
+                for (int k = preferences.rowStart(u); k < preferences.rowStart(u + 1); k++) {
+                    if (selects(k, fold, test)) {
+                        splitPositions[n] = k;
+                        n++;
+                    }
+                }
+                if (n > start) {
+                    splitUsers[m] = u;
+                    splitRows[m] = start;
+                    m++;
+                }
+            }
+            splitRows[nUsers] = nnz;
+            users = splitUsers;
+            items = splitItems;
+            itemMap = marks;
+            positions = splitPositions;
+            rowPtr = splitRows;
+        }
+
+        @Override
+        int version() {
+            return 0;
+        }
+
+        @Override
+        int numUsers() {
+            return users.length;
+        }
+
+        @Override
+        long userId(final int u) {
+            return preferences.userId(users[u]);
+        }
+
+        @Override
+        int numItems() {
+            return items.length;
+        }
+
+        @Override
+        long itemId(final int i) {
+            return preferences.itemId(items[i]);
+        }
+
+        @Override
+        int rowStart(final int u) {
+            return rowPtr[u];
+        }
+
+        @Override
+        int itemIndex(final int k) {
+            return itemMap[preferences.itemIndex(positions[k])];
+        }
+
+        @Override
+        double value(final int k) {
+            return preferences.value(positions[k]);
+        }
+    }
+
+    /**
+     * Read-only map view between the users of a split, their items and the
+     * timestamps, which filters the timestamps of the model by the fold of
+     * their preference.
+     */
+    private final class UserTimestampsView extends AbstractMap<Long, Map<Long, Set<Long>>> {
+
+        /**
+         * The fold of the split.
+         */
+        private final int fold;
+        /**
+         * Whether this is the test or the training split.
+         */
+        private final boolean test;
+        /**
+         * The timestamps of the model.
+         */
+        private final Map<Long, Map<Long, Set<Long>>> all;
+
+        /**
+         * Constructor.
+         *
+         * @param theFold the fold
+         * @param isTest whether this is the test or the training split
+         * @param allTimestamps the timestamps of the model
+         */
+        UserTimestampsView(final int theFold, final boolean isTest, final Map<Long, Map<Long, Set<Long>>> allTimestamps) {
+            this.fold = theFold;
+            this.test = isTest;
+            this.all = allTimestamps;
+        }
+
+        /**
+         * Filters the timestamps of a user.
+         *
+         * @param user the user
+         * @param row the timestamps of the user in the model (may be null)
+         * @return the timestamps of the user in the split, or null if it has
+         * none
+         */
+        private Map<Long, Set<Long>> filter(final Long user, final Map<Long, Set<Long>> row) {
+            if (row == null) {
+                return null;
+            }
+            int u = preferences.findUser(user);
+            if (u < 0) {
+                return null;
+            }
+            RowTimestampsView view = new RowTimestampsView(u, fold, test, row);
+            return view.isEmpty() ? null : view;
+        }
+
+        @Override
+        public Map<Long, Set<Long>> get(final Object key) {
+            if (!(key instanceof Long)) {
+                return null;
+            }
+            return filter((Long) key, all.get(key));
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<Long, Map<Long, Set<Long>>>> entrySet() {
+            return new AbstractSet<Entry<Long, Map<Long, Set<Long>>>>() {
+                @Override
+                public int size() {
+                    int n = 0;
+                    for (Iterator<Entry<Long, Map<Long, Set<Long>>>> it = iterator(); it.hasNext(); it.next()) {
+                        n++;
+                    }
+                    return n;
+                }
+
+                @Override
+                public Iterator<Entry<Long, Map<Long, Set<Long>>>> iterator() {
+                    final Iterator<Entry<Long, Map<Long, Set<Long>>>> rows = all.entrySet().iterator();
+                    return new Iterator<Entry<Long, Map<Long, Set<Long>>>>() {
+                        private Entry<Long, Map<Long, Set<Long>>> next = advance();
+
+                        private Entry<Long, Map<Long, Set<Long>>> advance() {
+                            while (rows.hasNext()) {
+                                Entry<Long, Map<Long, Set<Long>>> e = rows.next();
+                                Map<Long, Set<Long>> row = filter(e.getKey(), e.getValue());
+                                if (row != null) {
+                                    return new SimpleImmutableEntry<Long, Map<Long, Set<Long>>>(e.getKey(), row);
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<Long, Map<Long, Set<Long>>> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Long, Map<Long, Set<Long>>> e = next;
+                            next = advance();
+                            return e;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map view between the items of a user in a split and their
+     * timestamps.
+     */
+    private final class RowTimestampsView extends AbstractMap<Long, Set<Long>> {
+
+        /**
+         * The dense index of the user in the preferences of the model.
+         */
+        private final int u;
+        /**
+         * The fold of the split.
+         */
+        private final int fold;
+        /**
+         * Whether this is the test or the training split.
+         */
+        private final boolean test;
+        /**
+         * The timestamps of the user in the model.
+         */
+        private final Map<Long, Set<Long>> row;
+
+        /**
+         * Constructor.
+         *
+         * @param user the dense index of the user in the preferences of the
+         * model
+         * @param theFold the fold
+         * @param isTest whether this is the test or the training split
+         * @param userRow the timestamps of the user in the model
+         */
+        RowTimestampsView(final int user, final int theFold, final boolean isTest, final Map<Long, Set<Long>> userRow) {
+            this.u = user;
+            this.fold = theFold;
+            this.test = isTest;
+            this.row = userRow;
+        }
+
+        @Override
+        public Set<Long> get(final Object key) {
+            if (!(key instanceof Long) || !selects(u, (Long) key, fold, test)) {
+                return null;
+            }
+            return row.get(key);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !entrySet().iterator().hasNext();
+        }
+
+        @Override
+        public Set<Entry<Long, Set<Long>>> entrySet() {
+            return new AbstractSet<Entry<Long, Set<Long>>>() {
+                @Override
+                public int size() {
+                    int n = 0;
+                    for (Iterator<Entry<Long, Set<Long>>> it = iterator(); it.hasNext(); it.next()) {
+                        n++;
+                    }
+                    return n;
+                }
+
+                @Override
+                public Iterator<Entry<Long, Set<Long>>> iterator() {
+                    final Iterator<Entry<Long, Set<Long>>> items = row.entrySet().iterator();
+                    return new Iterator<Entry<Long, Set<Long>>>() {
+                        private Entry<Long, Set<Long>> next = advance();
+
+                        private Entry<Long, Set<Long>> advance() {
+                            while (items.hasNext()) {
+                                Entry<Long, Set<Long>> e = items.next();
+                                if (selects(u, e.getKey(), fold, test)) {
+                                    return e;
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<Long, Set<Long>> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Long, Set<Long>> e = next;
+                            next = advance();
+                            return e;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Dictionary between external long ids (of users or items) and dense int
+ * indices (0, 1, 2...), so that data of different stages can be stored in
+ * arrays and bitsets instead of maps. Ids are kept in primitive arrays (an
+ * open addressing hash table and the list of ids in index order), so no
+ * object is created per id.
+ *
+ * A dictionary can be built once per dataset (for instance, from the users or
+ * items of the whole data before splitting it), saved alongside the splits
+ * with {@link #save(String)}, and read back in every stage with
+ * {@link #load(File)}, so the same id has the same index in training, test and
+ * prediction models. Ids that are not in the dictionary (e.g., items only
+ * recommended) can be added later; they get the next indices.
+ */
+public class IdDictionary {
+
+    /**
+     * Usual name of the file of the dictionary of the users of a dataset.
+     */
+    public static final String USER_FILE = "users.dict";
+    /**
+     * Usual name of the file of the dictionary of the items of a dataset.
+     */
+    public static final String ITEM_FILE = "items.dict";
+    /**
+     * Initial capacity of the table.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Multiplier used to spread the bits of the ids (golden ratio).
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    /**
+     * Ids of the slots of the table.
+     */
+    private long[] keys;
+    /**
+     * Index of the id of every slot plus one (0 means the slot is empty).
+     */
+    private int[] slots;
+    /**
+     * Number of bits used to select a slot.
+     */
+    private int bits;
+    /**
+     * Ids, by index.
+     */
+    private long[] ids;
+    /**
+     * Number of ids.
+     */
+    private int size;
+
+    /**
+     * Default constructor.
+     */
+    public IdDictionary() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor with the expected number of ids.
+     *
+     * @param expectedIds the expected number of ids
+     */
+    public IdDictionary(final int expectedIds) {
+        int capacity = INITIAL_CAPACITY;
+        // the table is kept at most half full
+        while (capacity < 2L * expectedIds) {
+            capacity <<= 1;
+        }
+        this.bits = Integer.numberOfTrailingZeros(capacity);
+        this.keys = new long[capacity];
+        this.slots = new int[capacity];
+        this.ids = new long[Math.max(1, expectedIds)];
+        this.size = 0;
+    }
+
+    /**
+     * Builds a dictionary with a collection of ids, which get indices in
+     * ascending order of id (so any stage building a dictionary from the same
+     * ids gets the same indices).
+     *
+     * @param idCollection the ids
+     * @return the dictionary
+     */
+    public static IdDictionary of(final Iterable<Long> idCollection) {
+        long[] sorted = new long[INITIAL_CAPACITY];
+        int n = 0;
+        for (Long id : idCollection) {
+            if (n == sorted.length) {
+                sorted = Arrays.copyOf(sorted, 2 * n);
+            }
+            sorted[n++] = id;
+        }
+        Arrays.sort(sorted, 0, n);
+        IdDictionary dictionary = new IdDictionary(n);
+        for (int k = 0; k < n; k++) {
+            dictionary.add(sorted[k]);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Finds the slot of an id.
+     *
+     * @param id the id
+     * @return the slot of the id, or the empty slot where it would be
+     */
+    private int slot(final long id) {
+        int mask = keys.length - 1;
+        int s = (int) ((id * HASH_MULTIPLIER) >>> (Long.SIZE - bits));
+        while (slots[s] != 0 && keys[s] != id) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    /**
+     * Gets the index of an id, adding the id if it is not in the dictionary.
+     *
+     * @param id the id
+     * @return the index of the id
+     */
+    public int add(final long id) {
+        int s = slot(id);
+        if (slots[s] != 0) {
+            return slots[s] - 1;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+        }
+        ids[size] = id;
+        keys[s] = id;
+        slots[s] = ++size;
+        if (2 * size > keys.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Doubles the size of the table.
+     */
+    private void rehash() {
+        bits++;
+        keys = new long[1 << bits];
+        slots = new int[1 << bits];
+        for (int index = 0; index < size; index++) {
+            int s = slot(ids[index]);
+            keys[s] = ids[index];
+            slots[s] = index + 1;
+        }
+    }
+
+    /**
+     * Gets the index of an id.
+     *
+     * @param id the id
+     * @return the index of the id, or -1 if it is not in the dictionary
+     */
+    public int getIndex(final long id) {
+        return slots[slot(id)] - 1;
+    }
+
+    /**
+     * Gets the id of an index.
+     *
+     * @param index the index
+     * @return the id
+     */
+    public long getId(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " not in [0, " + size + ")");
+        }
+        return ids[index];
+    }
+
+    /**
+     * Gets the number of ids of the dictionary.
+     *
+     * @return the number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the ids of the dictionary.
+     *
+     * @return a copy of the ids, by index
+     */
+    public long[] getIds() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Gets the set of indices of some ids. Ids that are not in the
+     * dictionary are ignored.
+     *
+     * @param idCollection the ids
+     * @return the bitset of their indices
+     */
+    public BitSet toBitSet(final Iterable<Long> idCollection) {
+        BitSet set = new BitSet(size);
+        for (Long id : idCollection) {
+            int index = getIndex(id);
+            if (index >= 0) {
+                set.set(index);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Saves the dictionary as text, one id per line in index order.
+     *
+     * @param outfile file where the dictionary will be saved
+     * @throws IOException when the file cannot be written
+     */
+    public void save(final String outfile) throws IOException {
+        try (PrintStream out = new PrintStream(outfile, "UTF-8")) {
+            for (int index = 0; index < size; index++) {
+                out.println(ids[index]);
+            }
+        }
+    }
+
+    /**
+     * Reads a dictionary saved by {@link #save(String)}.
+     *
+     * @param f the file
+     * @return the dictionary
+     * @throws IOException when the file cannot be read or an id is repeated
+     */
+    public static IdDictionary load(final File f) throws IOException {
+        IdDictionary dictionary = new IdDictionary();
+        try (BufferedReader br = SimpleParser.getBufferedReader(f)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int n = dictionary.size();
+                if (dictionary.add(Long.parseLong(line.trim())) != n) {
+                    throw new IOException("Repeated id " + line + " in " + f);
+                }
+            }
+        }
+        return dictionary;
+    }
+}
@@ -0,0 +1,651 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only snapshot of a data model, returned by
+ * {@link DataModelIF#toImmutable()}. Users, items, and the items of every user
+ * are kept in sorted arrays, so membership tests are binary searches and no
+ * hash tables or entry objects are kept per preference. User and item ids must
+ * be mutually {@link Comparable}, as the ids used throughout the toolkit are.
+ *
+ * Every field is final and never modified after construction, hence a
+ * snapshot can be shared across threads without synchronization. The
+ * preference map between items and users is built the first time it is
+ * requested; concurrent requests may build it more than once, but all of them
+ * get an equivalent map.
+ *
+ * @param <U> generic type for users
+ * @param <I> generic type for items
+ */
+public class ImmutableDataModel<U, I> implements TemporalDataModelIF<U, I> {
+
+    /**
+     * Order of the entries of a map by key.
+     */
+    private static final Comparator<Entry<?, ?>> KEY_ORDER = new Comparator<Entry<?, ?>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(final Entry<?, ?> e1, final Entry<?, ?> e2) {
+            return ((Comparable<Object>) e1.getKey()).compareTo(e2.getKey());
+        }
+    };
+    /**
+     * Preference map between users and items.
+     */
+    private final SortedArrayMap<U, Map<I, Double>> userItemPreferences;
+    /**
+     * Timestamp map between users and items (empty if the model had no
+     * timestamps).
+     */
+    private final SortedArrayMap<U, Map<I, Set<Long>>> userItemTimestamps;
+    /**
+     * Sorted set containing all the items.
+     */
+    private final SortedArraySet<I> items;
+    /**
+     * Preference map between items and users, built when needed.
+     */
+    private volatile Map<I, Map<U, Double>> itemUserPreferences;
+
+    /**
+     * Constructor that copies the preferences (and timestamps, if the model
+     * is temporal) of a model.
+     *
+     * @param model the model to copy.
+     */
+    ImmutableDataModel(final DataModelIF<U, I> model) {
+        List<Entry<U, Map<I, Double>>> users = sortedEntries(model.getUserItemPreferences());
+        Object[] userIds = new Object[users.size()];
+        Object[] rows = new Object[users.size()];
+        for (int u = 0; u < users.size(); u++) {
+            userIds[u] = users.get(u).getKey();
+            rows[u] = preferenceRow(users.get(u).getValue());
+        }
+        this.userItemPreferences = new ObjectArrayMap<>(new SortedArraySet<U>(userIds), rows);
+
+        Object[] itemIds = model.getItems().toArray();
+        Arrays.sort(itemIds);
+        this.items = new SortedArraySet<>(itemIds);
+
+        Object[] timeUserIds = new Object[0];
+        Object[] timeRows = new Object[0];
+        if (model instanceof TemporalDataModelIF) {
+            List<Entry<U, Map<I, Set<Long>>>> timeUsers = sortedEntries(((TemporalDataModelIF<U, I>) model).getUserItemTimestamps());
+            timeUserIds = new Object[timeUsers.size()];
+            timeRows = new Object[timeUsers.size()];
+            for (int u = 0; u < timeUsers.size(); u++) {
+                timeUserIds[u] = timeUsers.get(u).getKey();
+                timeRows[u] = timestampRow(timeUsers.get(u).getValue());
+            }
+        }
+        this.userItemTimestamps = new ObjectArrayMap<>(new SortedArraySet<U>(timeUserIds), timeRows);
+    }
+
+    /**
+     * Gets the entries of a map sorted by key.
+     *
+     * @param <K> type of the keys
+     * @param <V> type of the values
+     * @param map the map
+     * @return the sorted entries
+     */
+    private static <K, V> List<Entry<K, V>> sortedEntries(final Map<K, V> map) {
+        List<Entry<K, V>> entries = new ArrayList<>(map.entrySet());
+        Collections.sort(entries, KEY_ORDER);
+        return entries;
+    }
+
+    /**
+     * Copies the preferences of a user into a sorted row.
+     *
+     * @param <K> type of the items
+     * @param prefs the preferences of the user
+     * @return the row
+     */
+    private static <K> PreferenceRow<K> preferenceRow(final Map<K, Double> prefs) {
+        List<Entry<K, Double>> entries = sortedEntries(prefs);
+        Object[] keys = new Object[entries.size()];
+        double[] values = new double[entries.size()];
+        for (int k = 0; k < entries.size(); k++) {
+            keys[k] = entries.get(k).getKey();
+            values[k] = entries.get(k).getValue();
+        }
+        return new PreferenceRow<>(new SortedArraySet<K>(keys), values);
+    }
+
+    /**
+     * Copies the timestamps of a user into a sorted row.
+     *
+     * @param <K> type of the items
+     * @param timestamps the timestamps of the user
+     * @return the row
+     */
+    private static <K> ObjectArrayMap<K, Set<Long>> timestampRow(final Map<K, Set<Long>> timestamps) {
+        List<Entry<K, Set<Long>>> entries = sortedEntries(timestamps);
+        Object[] keys = new Object[entries.size()];
+        Object[] values = new Object[entries.size()];
+        for (int k = 0; k < entries.size(); k++) {
+            keys[k] = entries.get(k).getKey();
+            long[] times = new long[entries.get(k).getValue().size()];
+            int n = 0;
+            for (Long t : entries.get(k).getValue()) {
+                times[n++] = t;
+            }
+            Arrays.sort(times);
+            values[k] = new TimestampSet(times);
+        }
+        return new ObjectArrayMap<>(new SortedArraySet<K>(keys), values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<U, Map<I, Double>> getUserItemPreferences() {
+        return userItemPreferences;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<I, Map<U, Double>> getItemUserPreferences() {
+        Map<I, Map<U, Double>> index = itemUserPreferences;
+        if (index == null) {
+            Map<I, Map<U, Double>> inverted = new HashMap<>();
+            for (Entry<U, Map<I, Double>> e : userItemPreferences.entrySet()) {
+                for (Entry<I, Double> p : e.getValue().entrySet()) {
+                    Map<U, Double> itemPreferences = inverted.get(p.getKey());
+                    if (itemPreferences == null) {
+                        itemPreferences = new HashMap<>();
+                        inverted.put(p.getKey(), itemPreferences);
+                    }
+                    itemPreferences.put(e.getKey(), p.getValue());
+                }
+            }
+            List<Entry<I, Map<U, Double>>> entries = sortedEntries(inverted);
+            Object[] itemIds = new Object[entries.size()];
+            Object[] columns = new Object[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                itemIds[i] = entries.get(i).getKey();
+                columns[i] = preferenceRow(entries.get(i).getValue());
+            }
+            index = new ObjectArrayMap<>(new SortedArraySet<I>(itemIds), columns);
+            itemUserPreferences = index;
+        }
+        return index;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getItemPopularity(final I i) {
+        Map<U, Double> itemPreferences = getItemUserPreferences().get(i);
+        if (itemPreferences == null) {
+            return 0;
+        }
+        return itemPreferences.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEachPreference(final PreferenceConsumer<? super U, ? super I> consumer) {
+        for (int u = 0; u < userItemPreferences.size(); u++) {
+            U user = userItemPreferences.keyAt(u);
+            PreferenceRow<I> row = (PreferenceRow<I>) userItemPreferences.valueAt(u);
+            for (int k = 0; k < row.size(); k++) {
+                consumer.consume(user, row.keyAt(k), row.doubleAt(k));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEachTimestamp(final TimestampConsumer<? super U, ? super I> consumer) {
+        for (int u = 0; u < userItemTimestamps.size(); u++) {
+            U user = userItemTimestamps.keyAt(u);
+            ObjectArrayMap<I, Set<Long>> row = (ObjectArrayMap<I, Set<Long>>) userItemTimestamps.valueAt(u);
+            for (int k = 0; k < row.size(); k++) {
+                I item = row.keyAt(k);
+                for (long t : ((TimestampSet) row.valueAt(k)).times) {
+                    consumer.consume(user, item, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<U, Map<I, Set<Long>>> getUserItemTimestamps() {
+        return userItemTimestamps;
+    }
+
+    /**
+     * Not supported, snapshots are read-only.
+     *
+     * @param u the user.
+     * @param i the item.
+     * @param d the preference.
+     */
+    @Override
+    public void addPreference(final U u, final I i, final Double d) {
+        throw new UnsupportedOperationException("Immutable data models are read-only");
+    }
+
+    /**
+     * Not supported, snapshots are read-only.
+     *
+     * @param u the user.
+     * @param i the item.
+     * @param t the timestamp.
+     */
+    @Override
+    public void addTimestamp(final U u, final I i, final Long t) {
+        throw new UnsupportedOperationException("Immutable data models are read-only");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<I> getItems() {
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<U> getUsers() {
+        return userItemPreferences.keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        return items.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        return userItemPreferences.size();
+    }
+
+    /**
+     * Returns this model, since it is already immutable.
+     *
+     * @return this model.
+     */
+    @Override
+    public TemporalDataModelIF<U, I> toImmutable() {
+        return this;
+    }
+
+    /**
+     * Not supported, snapshots are read-only.
+     */
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Immutable data models are read-only");
+    }
+
+    /**
+     * Read-only set over a sorted array.
+     *
+     * @param <E> type of the elements
+     */
+    private static final class SortedArraySet<E> extends AbstractSet<E> {
+
+        /**
+         * The sorted elements.
+         */
+        private final Object[] elements;
+
+        /**
+         * Constructor.
+         *
+         * @param sortedElements the sorted elements (not copied)
+         */
+        SortedArraySet(final Object[] sortedElements) {
+            this.elements = sortedElements;
+        }
+
+        /**
+         * Finds the position of an element.
+         *
+         * @param o the element
+         * @return the position, or -1 if the element is not in the set
+         */
+        int indexOf(final Object o) {
+            if (o == null) {
+                return -1;
+            }
+            try {
+                int k = Arrays.binarySearch(elements, o);
+                if (k < 0) {
+                    return -1;
+                }
+                return k;
+            } catch (ClassCastException e) {
+                // an object of another type is never in the set
+                return -1;
+            }
+        }
+
+        /**
+         * Gets the element at a position.
+         *
+         * @param k the position
+         * @return the element
+         */
+        @SuppressWarnings("unchecked")
+        E get(final int k) {
+            return (E) elements[k];
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return indexOf(o) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                private int k = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return k < elements.length;
+                }
+
+                @Override
+                public E next() {
+                    if (k >= elements.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return get(k++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map with sorted keys, where keys are found with a binary
+     * search.
+     *
+     * @param <K> type of the keys
+     * @param <V> type of the values
+     */
+    private abstract static class SortedArrayMap<K, V> extends AbstractMap<K, V> {
+
+        /**
+         * The sorted keys.
+         */
+        private final SortedArraySet<K> keys;
+
+        /**
+         * Constructor.
+         *
+         * @param sortedKeys the sorted keys
+         */
+        SortedArrayMap(final SortedArraySet<K> sortedKeys) {
+            this.keys = sortedKeys;
+        }
+
+        /**
+         * Gets the key at a position.
+         *
+         * @param k the position
+         * @return the key
+         */
+        K keyAt(final int k) {
+            return keys.get(k);
+        }
+
+        /**
+         * Gets the value at a position.
+         *
+         * @param k the position
+         * @return the value
+         */
+        abstract V valueAt(int k);
+
+        @Override
+        public V get(final Object key) {
+            int k = keys.indexOf(key);
+            if (k < 0) {
+                return null;
+            }
+            return valueAt(k);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return keys.indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return keys.size();
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return keys;
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public int size() {
+                    return keys.size();
+                }
+
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new Iterator<Entry<K, V>>() {
+                        private int k = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return k < keys.size();
+                        }
+
+                        @Override
+                        public Entry<K, V> next() {
+                            if (k >= keys.size()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<K, V> e = new SimpleImmutableEntry<>(keyAt(k), valueAt(k));
+                            k++;
+                            return e;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Sorted map with an array of values.
+     *
+     * @param <K> type of the keys
+     * @param <V> type of the values
+     */
+    private static final class ObjectArrayMap<K, V> extends SortedArrayMap<K, V> {
+
+        /**
+         * The values, aligned with the keys.
+         */
+        private final Object[] values;
+
+        /**
+         * Constructor.
+         *
+         * @param sortedKeys the sorted keys
+         * @param theValues the values, aligned with the keys
+         */
+        ObjectArrayMap(final SortedArraySet<K> sortedKeys, final Object[] theValues) {
+            super(sortedKeys);
+            this.values = theValues;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        V valueAt(final int k) {
+            return (V) values[k];
+        }
+    }
+
+    /**
+     * Sorted map with primitive preference values.
+     *
+     * @param <K> type of the keys
+     */
+    private static final class PreferenceRow<K> extends SortedArrayMap<K, Double> {
+
+        /**
+         * The preferences, aligned with the keys.
+         */
+        private final double[] values;
+
+        /**
+         * Constructor.
+         *
+         * @param sortedKeys the sorted keys
+         * @param theValues the preferences, aligned with the keys
+         */
+        PreferenceRow(final SortedArraySet<K> sortedKeys, final double[] theValues) {
+            super(sortedKeys);
+            this.values = theValues;
+        }
+
+        /**
+         * Gets the preference at a position without boxing it.
+         *
+         * @param k the position
+         * @return the preference
+         */
+        double doubleAt(final int k) {
+            return values[k];
+        }
+
+        @Override
+        Double valueAt(final int k) {
+            return values[k];
+        }
+    }
+
+    /**
+     * Read-only set over a sorted array of timestamps.
+     */
+    private static final class TimestampSet extends AbstractSet<Long> {
+
+        /**
+         * The sorted timestamps.
+         */
+        private final long[] times;
+
+        /**
+         * Constructor.
+         *
+         * @param sortedTimes the sorted timestamps
+         */
+        TimestampSet(final long[] sortedTimes) {
+            this.times = sortedTimes;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return (o instanceof Long) && Arrays.binarySearch(times, (Long) o) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return times.length;
+        }
+
+        @Override
+        public Iterator<Long> iterator() {
+            return new Iterator<Long>() {
+                private int k = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return k < times.length;
+                }
+
+                @Override
+                public Long next() {
+                    if (k >= times.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return times[k++];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Parser of append-only interaction logs that only parses the lines added
+ * since the previous run.
+ *
+ * The model parsed so far is kept as a binary snapshot (see
+ * {@link MappedDataModel}) together with a state file that records how many
+ * bytes of the log it covers and a checksum of that prefix. When the log has
+ * only grown, the new lines are parsed and merged with the snapshot; when the
+ * prefix has changed (or the log, the parser or the snapshot do not match the
+ * state) the whole log is parsed again. A trailing line without a line break
+ * is left for the next run, since it may still be being written.
+ *
+ * The checksum covers the whole prefix, so any change to it is detected; it is
+ * computed in the same sequential read that extends it to the new lines. Only
+ * the new lines are parsed and held in the heap: they are merged with the
+ * mapped snapshot by a streaming merge (see {@link OffHeapDataModel}) that
+ * writes the new snapshot without loading the previous one.
+ */
+public class IncrementalParser {
+
+    /**
+     * Extension of the state file, added to the name of the snapshot.
+     */
+    public static final String STATE_EXTENSION = ".state";
+    /**
+     * Number of bytes read at once from the log.
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+    /**
+     * Number of bytes of a buffered preference of the streaming merge.
+     */
+    private static final int PREFERENCE_BYTES = 32;
+    /**
+     * Number of bytes of a buffered timestamp of the streaming merge.
+     */
+    private static final int TIMESTAMP_BYTES = 24;
+    /**
+     * Key of the canonical path of the log in the state file.
+     */
+    private static final String SOURCE_KEY = "source";
+    /**
+     * Key of the number of bytes of the log in the snapshot.
+     */
+    private static final String OFFSET_KEY = "offset";
+    /**
+     * Key of the checksum of the prefix in the state file.
+     */
+    private static final String CHECKSUM_KEY = "checksum";
+    /**
+     * Key of the configuration of the parser in the state file.
+     */
+    private static final String PARSER_KEY = "parser";
+    /**
+     * Key of the size of the snapshot in the state file.
+     */
+    private static final String SNAPSHOT_KEY = "snapshot";
+    /**
+     * The parser of the lines.
+     */
+    private final ParallelParser parser;
+    /**
+     * The snapshot of the model.
+     */
+    private final File snapshot;
+    /**
+     * The state file.
+     */
+    private final File state;
+    /**
+     * Number of bytes of the log parsed by the last run.
+     */
+    private long parsedBytes;
+    /**
+     * Number of preferences parsed by the last run.
+     */
+    private long parsedPreferences;
+
+    /**
+     * Constructor.
+     *
+     * @param lineParser the parser of the lines of the log (a file can only
+     * be parsed incrementally when it is uncompressed)
+     * @param snapshotFile the file where the model is kept between runs
+     */
+    public IncrementalParser(final ParallelParser lineParser, final File snapshotFile) {
+        this.parser = lineParser;
+        this.snapshot = snapshotFile;
+        this.state = new File(snapshotFile.getPath() + STATE_EXTENSION);
+    }
+
+    /**
+     * Parses the lines added to a log since the previous run and merges them
+     * with the snapshot, or parses the whole log if the snapshot cannot be
+     * used.
+     *
+     * @param f the log
+     * @return the model of the complete lines of the log
+     * @throws IOException if the log cannot be parsed or the snapshot cannot
+     * be read or written
+     */
+    public TemporalDataModelIF<Long, Long> parse(final File f) throws IOException {
+        if (CompressedInput.isCompressed(f)) {
+            throw new IllegalArgumentException("Compressed files cannot be parsed incrementally: " + f);
+        }
+        String source = f.getCanonicalPath();
+        parsedBytes = 0;
+        parsedPreferences = 0;
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long end = lastLineEnd(channel);
+            CRC32 crc = new CRC32();
+            long offset = getValidOffset(channel, source, end, crc);
+            if (offset > 0 && offset == end) {
+                return new MappedDataModel(snapshot);
+            }
+            if (offset == 0) {
+                crc.reset();
+            }
+            CompactTemporalDataModel added = parser.parse(f, offset, end, true, null).buildCompactModel();
+            parsedBytes = end - offset;
+            parsedPreferences = added.getNumPreferences();
+            if (offset > 0) {
+                append(added);
+            } else {
+                DataModelUtils.saveBinaryDataModel(added, snapshot.getPath(), true);
+            }
+            update(channel, crc, offset, end);
+            saveState(source, end, crc.getValue());
+        }
+        return new MappedDataModel(snapshot);
+    }
+
+    /**
+     * Gets the number of bytes of the log parsed by the last call to
+     * {@link #parse(File)}, which excludes the prefix already in the
+     * snapshot.
+     *
+     * @return the number of bytes
+     */
+    public long getParsedBytes() {
+        return parsedBytes;
+    }
+
+    /**
+     * Gets the number of preferences in the lines parsed by the last call to
+     * {@link #parse(File)}.
+     *
+     * @return the number of preferences
+     */
+    public long getParsedPreferences() {
+        return parsedPreferences;
+    }
+
+    /**
+     * Gets the number of bytes of the log covered by the snapshot, if the
+     * state matches the log, the parser and the snapshot.
+     *
+     * @param channel the channel of the log
+     * @param source the canonical path of the log
+     * @param end the position after the last complete line of the log
+     * @param crc the checksum, updated with the bytes covered by the snapshot
+     * when the rest of the state matches
+     * @return the number of bytes covered by the snapshot, or 0 if the log
+     * has to be parsed from the beginning
+     * @throws IOException if the log cannot be read
+     */
+    private long getValidOffset(final FileChannel channel, final String source, final long end, final CRC32 crc) throws IOException {
+        if (!state.isFile() || !snapshot.isFile()) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(state)) {
+            properties.load(in);
+        }
+        long offset;
+        try {
+            offset = Long.parseLong(properties.getProperty(OFFSET_KEY, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (offset <= 0 || offset > end
+                || !source.equals(properties.getProperty(SOURCE_KEY))
+                || !parser.getConfiguration().equals(properties.getProperty(PARSER_KEY))
+                || !String.valueOf(snapshot.length()).equals(properties.getProperty(SNAPSHOT_KEY))) {
+            return 0;
+        }
+        update(channel, crc, 0, offset);
+        if (!String.valueOf(crc.getValue()).equals(properties.getProperty(CHECKSUM_KEY))) {
+            return 0;
+        }
+        return offset;
+    }
+
+    /**
+     * Writes the state of the snapshot, next to it and then moved over the
+     * previous state.
+     *
+     * @param source the canonical path of the log
+     * @param offset the number of bytes of the log in the snapshot
+     * @param checksum the checksum of those bytes
+     * @throws IOException if the state cannot be written
+     */
+    private void saveState(final String source, final long offset, final long checksum) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(SOURCE_KEY, source);
+        properties.setProperty(OFFSET_KEY, String.valueOf(offset));
+        properties.setProperty(CHECKSUM_KEY, String.valueOf(checksum));
+        properties.setProperty(PARSER_KEY, parser.getConfiguration());
+        properties.setProperty(SNAPSHOT_KEY, String.valueOf(snapshot.length()));
+        File tmp = new File(state.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+        }
+        Files.move(tmp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Merges new preferences and timestamps with the snapshot, which is
+     * replaced by the result. Both are streamed in order, so only the new
+     * data and the item ids are kept in memory.
+     *
+     * @param added the new data
+     * @throws IOException if the snapshot cannot be read or written
+     */
+    private void append(final CompactTemporalDataModel added) throws IOException {
+        long budget = 2 * Math.max((long) added.getNumPreferences() * PREFERENCE_BYTES,
+                (long) added.timestamps().numInteractions() * TIMESTAMP_BYTES);
+        final OffHeapDataModel merged = new OffHeapDataModel(snapshot.getAbsoluteFile().getParentFile(), budget, false,
+                new MappedDataModel(snapshot, true));
+        added.forEachLongPreference(new LongPreferenceConsumer() {
+            @Override
+            public void consume(final long user, final long item, final double preference) {
+                merged.addPreference(user, item, preference);
+            }
+        });
+        added.forEachLongTimestamp(new LongTimestampConsumer() {
+            @Override
+            public void consume(final long user, final long item, final long timestamp) {
+                merged.addTimestamp(user, item, timestamp);
+            }
+        });
+        Files.move(merged.getFile().toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Finds the position after the last line break of a file.
+     *
+     * @param channel the channel of the file
+     * @return the position after the last line break, or 0 if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private static long lastLineEnd(final FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear();
+            buffer.limit((int) (end - start));
+            readFully(channel, buffer, start);
+            for (int k = buffer.limit() - 1; k >= 0; k--) {
+                if (buffer.get(k) == '\n') {
+                    return start + k + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Updates a checksum with a range of a file.
+     *
+     * @param channel the channel of the file
+     * @param crc the checksum
+     * @param from the start of the range
+     * @param to the end of the range
+     * @throws IOException if the file cannot be read
+     */
+    private static void update(final FileChannel channel, final CRC32 crc, final long from, final long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        for (long pos = from; pos < to; pos += buffer.limit()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BLOCK_SIZE, to - pos));
+            readFully(channel, buffer, pos);
+            crc.update(buffer.array(), 0, buffer.limit());
+        }
+    }
+
+    /**
+     * Fills a buffer with the bytes of a file at a position.
+     *
+     * @param channel the channel of the file
+     * @param buffer the buffer
+     * @param position the position
+     * @throws IOException if the file cannot be read or it ends before the
+     * buffer is filled
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+/**
+ * Callback that receives the timestamps of a data model with long user and
+ * item ids without boxing them, see
+ * {@link CompactTemporalDataModel#forEachLongTimestamp(LongTimestampConsumer)}.
+ */
+public interface LongTimestampConsumer {
+
+    /**
+     * Method that receives a timestamp.
+     *
+     * @param user the user.
+     * @param item the item.
+     * @param timestamp the timestamp.
+     */
+    void consume(long user, long item, long timestamp);
+}
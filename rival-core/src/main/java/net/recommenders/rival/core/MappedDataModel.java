@@ -0,0 +1,603 @@
+/*
+ * Copyright 2016 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only data model over a file in the binary format written by
+ * {@link DataModelUtils#saveBinaryDataModel(DataModelIF, String, boolean)}.
+ * The columns of the file are memory-mapped, so opening a model does not copy
+ * its contents onto the heap and the pages are shared by every process that
+ * maps the same file.
+ *
+ * The format (version {@link #VERSION}, little-endian) is a header of
+ * {@link #HEADER_SIZE} bytes with the magic number, the version, a reserved
+ * word and the number of users, items, preferences, users with timestamps
+ * and timestamps, followed by these columns, each one padded to a multiple of
+ * 8 bytes:
+ * <ul>
+ * <li>user ids (long, sorted) and item ids (long, sorted),</li>
+ * <li>offsets of each user row (int, one extra element), dense item index of
+ * each preference (int) and preference values (double),</li>
+ * <li>ids of the users with timestamps (long, sorted), offsets of each user
+ * row (int, one extra element), item and timestamp of each interaction (long,
+ * sorted by item and time) and positions of each row in time order
+ * (int).</li>
+ * </ul>
+ * Each column is mapped separately, hence a column cannot exceed 2GB: a
+ * model holds at most {@link #MAX_ENTRIES} users, preferences, or timestamps.
+ */
+public class MappedDataModel implements TemporalDataModelIF<Long, Long> {
+
+    /**
+     * Magic number at the start of the file ("RVDM" in little-endian).
+     */
+    static final int MAGIC = 0x4D445652;
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 1;
+    /**
+     * Size of the header, in bytes.
+     */
+    static final int HEADER_SIZE = 32;
+    /**
+     * Alignment of every column, in bytes.
+     */
+    static final int ALIGNMENT = 8;
+    /**
+     * Maximum number of entries of a column, so that a column of longs fits
+     * in a single mapping.
+     */
+    public static final int MAX_ENTRIES = Integer.MAX_VALUE / (Long.SIZE / Byte.SIZE);
+    /**
+     * The mapped file.
+     */
+    private final File file;
+    /**
+     * Sorted user ids.
+     */
+    private LongBuffer userIds;
+    /**
+     * Sorted item ids.
+     */
+    private LongBuffer itemIds;
+    /**
+     * Offsets of each user row.
+     */
+    private IntBuffer rowPtr;
+    /**
+     * Dense item index of each preference.
+     */
+    private IntBuffer itemIdx;
+    /**
+     * Value of each preference.
+     */
+    private DoubleBuffer values;
+    /**
+     * Sorted ids of the users with timestamps.
+     */
+    private LongBuffer timeUserIds;
+    /**
+     * Offsets of each user row of timestamps.
+     */
+    private IntBuffer timeRowPtr;
+    /**
+     * Item of each interaction.
+     */
+    private LongBuffer timeItems;
+    /**
+     * Timestamp of each interaction.
+     */
+    private LongBuffer times;
+    /**
+     * Positions of the interactions of each row, sorted by timestamp.
+     */
+    private IntBuffer timeOrder;
+    /**
+     * Counter of changes (only {@link #clear()} changes the model).
+     */
+    private int version;
+    /**
+     * Whether this model is a snapshot that cannot be cleared.
+     */
+    private final boolean frozen;
+    /**
+     * Read access to the preference columns, shared by the views.
+     */
+    private final CompactPreferences preferenceStore = new MappedPreferences();
+    /**
+     * Read access to the timestamp columns, shared by the views.
+     */
+    private final CompactTimestamps timestampStore = new MappedTimestamps();
+
+    /**
+     * Constructor that maps a binary data model file.
+     *
+     * @param f the file
+     * @throws IOException when the file cannot be read or it is not a valid
+     * binary data model
+     */
+    public MappedDataModel(final File f) throws IOException {
+        this(f, false);
+    }
+
+    /**
+     * Constructor that maps a binary data model file, either as a model that
+     * can be cleared or as a read-only snapshot.
+     *
+     * @param f the file
+     * @param readOnly whether the model is a read-only snapshot, which is
+     * returned by {@link #toImmutable()} as is
+     * @throws IOException when the file cannot be read or it is not a valid
+     * binary data model
+     */
+    MappedDataModel(final File f, final boolean readOnly) throws IOException {
+        this.file = f;
+        this.frozen = readOnly;
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a binary data model: " + f);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a binary data model: " + f);
+            }
+            int v = header.getInt();
+            if (v != VERSION) {
+                throw new IOException("Unsupported binary data model version " + v + ": " + f);
+            }
+            // reserved
+            header.getInt();
+            int nUsers = readCount(header);
+            int nItems = readCount(header);
+            int nPrefs = readCount(header);
+            int nTimeUsers = readCount(header);
+            int nTimes = readCount(header);
+            checkEntries(Math.max(Math.max(nUsers, nItems), Math.max(nPrefs, Math.max(nTimeUsers, nTimes))), "entries in " + f);
+            long[] offset = new long[]{HEADER_SIZE};
+            userIds = map(channel, offset, (long) nUsers * Long.SIZE / Byte.SIZE).asLongBuffer();
+            itemIds = map(channel, offset, (long) nItems * Long.SIZE / Byte.SIZE).asLongBuffer();
+            rowPtr = map(channel, offset, ((long) nUsers + 1) * Integer.SIZE / Byte.SIZE).asIntBuffer();
+            itemIdx = map(channel, offset, (long) nPrefs * Integer.SIZE / Byte.SIZE).asIntBuffer();
+            values = map(channel, offset, (long) nPrefs * Double.SIZE / Byte.SIZE).asDoubleBuffer();
+            timeUserIds = map(channel, offset, (long) nTimeUsers * Long.SIZE / Byte.SIZE).asLongBuffer();
+            timeRowPtr = map(channel, offset, ((long) nTimeUsers + 1) * Integer.SIZE / Byte.SIZE).asIntBuffer();
+            timeItems = map(channel, offset, (long) nTimes * Long.SIZE / Byte.SIZE).asLongBuffer();
+            times = map(channel, offset, (long) nTimes * Long.SIZE / Byte.SIZE).asLongBuffer();
+            timeOrder = map(channel, offset, (long) nTimes * Integer.SIZE / Byte.SIZE).asIntBuffer();
+            if (rowPtr.get(nUsers) != nPrefs || timeRowPtr.get(nTimeUsers) != nTimes) {
+                throw new IOException("Corrupted binary data model: " + f);
+            }
+        }
+    }
+
+    /**
+     * Constructor of a read-only snapshot, which shares the mapped columns
+     * of a model.
+     *
+     * @param model the model to take the snapshot of
+     */
+    private MappedDataModel(final MappedDataModel model) {
+        this.file = model.file;
+        this.frozen = true;
+        userIds = model.userIds;
+        itemIds = model.itemIds;
+        rowPtr = model.rowPtr;
+        itemIdx = model.itemIdx;
+        values = model.values;
+        timeUserIds = model.timeUserIds;
+        timeRowPtr = model.timeRowPtr;
+        timeItems = model.timeItems;
+        times = model.times;
+        timeOrder = model.timeOrder;
+    }
+
+    /**
+     * Reads a count from the header.
+     *
+     * @param header the header
+     * @return the count
+     * @throws IOException when the count is not valid
+     */
+    private int readCount(final ByteBuffer header) throws IOException {
+        int count = header.getInt();
+        if (count < 0) {
+            throw new IOException("Corrupted binary data model: " + file);
+        }
+        return count;
+    }
+
+    /**
+     * Maps the next column of the file.
+     *
+     * @param channel the channel of the file
+     * @param offset position of the column, updated to the position of the
+     * next one
+     * @param size size of the column in bytes
+     * @return the mapped column
+     * @throws IOException when the column cannot be mapped
+     */
+    private ByteBuffer map(final FileChannel channel, final long[] offset, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE || offset[0] + size > channel.size()) {
+            throw new IOException("Corrupted binary data model: " + file);
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset[0], size).order(ByteOrder.LITTLE_ENDIAN);
+        offset[0] += align(size);
+        return buffer;
+    }
+
+    /**
+     * Fails if a column with some number of entries cannot be mapped.
+     *
+     * @param n the number of entries
+     * @param what the name of the entries, for the error message
+     * @throws IOException if there are more than {@link #MAX_ENTRIES}
+     * entries
+     */
+    static void checkEntries(final long n, final String what) throws IOException {
+        if (n > MAX_ENTRIES) {
+            throw new IOException("Too many " + what + " for a binary data model: " + n + " (at most " + MAX_ENTRIES
+                    + ", as every column is mapped as a single buffer of up to 2GB)");
+        }
+    }
+
+    /**
+     * Rounds a size up to the alignment of the columns.
+     *
+     * @param size the size in bytes
+     * @return the aligned size
+     */
+    static long align(final long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Gets the mapped file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Double>> getUserItemPreferences() {
+        return preferenceStore.asMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Set<Long>>> getUserItemTimestamps() {
+        return timestampStore.asMap();
+    }
+
+    /**
+     * This model is read-only.
+     *
+     * @param u the user
+     * @param i the item
+     * @param d the preference
+     */
+    @Override
+    public void addPreference(final Long u, final Long i, final Double d) {
+        throw new UnsupportedOperationException("Mapped data models are read-only");
+    }
+
+    /**
+     * This model is read-only.
+     *
+     * @param u the user
+     * @param i the item
+     * @param t the timestamp
+     */
+    @Override
+    public void addTimestamp(final Long u, final Long i, final Long t) {
+        throw new UnsupportedOperationException("Mapped data models are read-only");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachPreference(final PreferenceConsumer<? super Long, ? super Long> consumer) {
+        preferenceStore.forEach(consumer);
+    }
+
+    /**
+     * Method that passes every preference in the model to a consumer of
+     * primitive values, so no object is created per preference. The
+     * preferences are passed user by user, sorted by user and item.
+     *
+     * @param consumer the consumer of the preferences.
+     */
+    public void forEachLongPreference(final LongPreferenceConsumer consumer) {
+        preferenceStore.forEachLong(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachTimestamp(final TimestampConsumer<? super Long, ? super Long> consumer) {
+        timestampStore.forEach(consumer);
+    }
+
+    /**
+     * Method that passes every timestamp in the model to a consumer of
+     * primitive values, so no object is created per timestamp. The
+     * timestamps are passed user by user, sorted by user, item and time.
+     *
+     * @param consumer the consumer of the timestamps.
+     */
+    public void forEachLongTimestamp(final LongTimestampConsumer consumer) {
+        timestampStore.forEachLong(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Double>> getItemUserPreferences() {
+        return preferenceStore.asTransposedMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getItemPopularity(final Long i) {
+        return preferenceStore.itemPopularity(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getItems() {
+        return preferenceStore.items();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getUsers() {
+        return preferenceStore.users();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        return itemIds.limit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        return userIds.limit();
+    }
+
+    /**
+     * Method that returns the number of (user, item) preferences in the model.
+     *
+     * @return the number of preferences in the model.
+     */
+    public int getNumPreferences() {
+        return itemIdx.limit();
+    }
+
+    /**
+     * Method that counts the interactions of a user with a timestamp in the
+     * range [from, to).
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the number of interactions in the range
+     */
+    public int getNumInteractionsBetween(final long user, final long from, final long to) {
+        return timestampStore.countBetween(user, from, to);
+    }
+
+    /**
+     * Method that returns the timestamps of a user in the range [from, to),
+     * sorted in ascending order.
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the sorted timestamps in the range
+     */
+    public long[] getTimestampsBetween(final long user, final long from, final long to) {
+        return timestampStore.between(user, from, to, true);
+    }
+
+    /**
+     * Method that returns the items of the interactions of a user in the range
+     * [from, to), in the same order as
+     * {@link #getTimestampsBetween(long, long, long)}.
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the items interacted in the range, sorted by time
+     */
+    public long[] getItemsBetween(final long user, final long from, final long to) {
+        return timestampStore.between(user, from, to, false);
+    }
+
+    /**
+     * Returns a snapshot sharing the mapped columns of this model, which is
+     * not affected by {@link #clear()}.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public TemporalDataModelIF<Long, Long> toImmutable() {
+        if (frozen) {
+            return this;
+        }
+        return new MappedDataModel(this);
+    }
+
+    /**
+     * Releases the mapped columns; the model is empty afterwards. The file
+     * is unmapped once the buffers are garbage collected.
+     */
+    @Override
+    public void clear() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Immutable data models are read-only");
+        }
+        userIds = LongBuffer.allocate(0);
+        itemIds = LongBuffer.allocate(0);
+        rowPtr = IntBuffer.allocate(1);
+        itemIdx = IntBuffer.allocate(0);
+        values = DoubleBuffer.allocate(0);
+        timeUserIds = LongBuffer.allocate(0);
+        timeRowPtr = IntBuffer.allocate(1);
+        timeItems = LongBuffer.allocate(0);
+        times = LongBuffer.allocate(0);
+        timeOrder = IntBuffer.allocate(0);
+        version++;
+    }
+
+    /**
+     * Gets read access to the preference columns.
+     *
+     * @return the preferences of this model
+     */
+    CompactPreferences preferences() {
+        return preferenceStore;
+    }
+
+    /**
+     * Gets read access to the timestamp columns.
+     *
+     * @return the timestamps of this model
+     */
+    CompactTimestamps timestamps() {
+        return timestampStore;
+    }
+
+    /**
+     * Preferences backed by the mapped columns.
+     */
+    private final class MappedPreferences extends CompactPreferences {
+
+        @Override
+        int version() {
+            return version;
+        }
+
+        @Override
+        int numUsers() {
+            return userIds.limit();
+        }
+
+        @Override
+        long userId(final int u) {
+            return userIds.get(u);
+        }
+
+        @Override
+        int numItems() {
+            return itemIds.limit();
+        }
+
+        @Override
+        long itemId(final int i) {
+            return itemIds.get(i);
+        }
+
+        @Override
+        int rowStart(final int u) {
+            return rowPtr.get(u);
+        }
+
+        @Override
+        int itemIndex(final int k) {
+            return itemIdx.get(k);
+        }
+
+        @Override
+        double value(final int k) {
+            return values.get(k);
+        }
+    }
+
+    /**
+     * Timestamps backed by the mapped columns.
+     */
+    private final class MappedTimestamps extends CompactTimestamps {
+
+        @Override
+        int version() {
+            return version;
+        }
+
+        @Override
+        int numUsers() {
+            return timeUserIds.limit();
+        }
+
+        @Override
+        long userId(final int u) {
+            return timeUserIds.get(u);
+        }
+
+        @Override
+        int rowStart(final int u) {
+            return timeRowPtr.get(u);
+        }
+
+        @Override
+        long item(final int k) {
+            return timeItems.get(k);
+        }
+
+        @Override
+        long time(final int k) {
+            return times.get(k);
+        }
+
+        @Override
+        int timeOrder(final int k) {
+            return timeOrder.get(k);
+        }
+    }
+}
@@ -0,0 +1,1076 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Data model for long user and item ids whose data never lives in the Java
+ * heap, for datasets larger than the heap. Added preferences and timestamps
+ * are appended to direct buffers; when a buffer exceeds its share of the
+ * memory budget it is sorted and spilled as a run to the scratch directory.
+ *
+ * The first time the model is read, the runs are merged (summing or ignoring
+ * duplicate preferences, exactly as {@link DataModel} does) and written in the
+ * binary format of {@link MappedDataModel}, which is then mapped and answers
+ * every read. Only the sorted item ids and the timestamps of one user are kept
+ * in the heap while merging. Preferences can still be added after the model
+ * is read; the next read merges them with the mapped data into a new file, so
+ * maps returned before that do not reflect the new preferences.
+ *
+ * The buffers are allocated with {@link ByteBuffer#allocateDirect(int)}, so
+ * the memory budget counts against the limit of direct memory of the JVM
+ * ({@code -XX:MaxDirectMemorySize}, by default the maximum heap size) and must
+ * fit in it together with any other direct buffer of the process. The merged
+ * file has the limits of {@link MappedDataModel}: at most
+ * {@link MappedDataModel#MAX_ENTRIES} preferences or timestamps, which is
+ * checked when the model is merged.
+ */
+public class OffHeapDataModel implements TemporalDataModelIF<Long, Long> {
+
+    /**
+     * Size of a buffered preference: user, item, sequence, and value.
+     */
+    private static final int PREFERENCE_WIDTH = 32;
+    /**
+     * Size of a buffered timestamp: user, item, and timestamp.
+     */
+    private static final int TIMESTAMP_WIDTH = 24;
+    /**
+     * Number of leading longs of a record that define its order.
+     */
+    private static final int KEY_FIELDS = 3;
+    /**
+     * Number of bytes of a long.
+     */
+    private static final int LONG_BYTES = Long.SIZE / Byte.SIZE;
+    /**
+     * Number of bytes of an int.
+     */
+    private static final int INT_BYTES = Integer.SIZE / Byte.SIZE;
+    /**
+     * Initial capacity of the arrays kept in the heap while merging.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Number of columns of the binary format.
+     */
+    private static final int COLUMNS = 10;
+    /**
+     * Column of the user ids.
+     */
+    private static final int USER_COLUMN = 0;
+    /**
+     * Column of the item ids.
+     */
+    private static final int ITEM_COLUMN = 1;
+    /**
+     * Column of the offsets of the user rows.
+     */
+    private static final int ROW_COLUMN = 2;
+    /**
+     * Column of the item index of each preference.
+     */
+    private static final int INDEX_COLUMN = 3;
+    /**
+     * Column of the value of each preference.
+     */
+    private static final int VALUE_COLUMN = 4;
+    /**
+     * Column of the ids of the users with timestamps.
+     */
+    private static final int TIME_USER_COLUMN = 5;
+    /**
+     * Column of the offsets of the user rows of timestamps.
+     */
+    private static final int TIME_ROW_COLUMN = 6;
+    /**
+     * Column of the item of each interaction.
+     */
+    private static final int TIME_ITEM_COLUMN = 7;
+    /**
+     * Column of the timestamp of each interaction.
+     */
+    private static final int TIME_COLUMN = 8;
+    /**
+     * Column of the time order of each row.
+     */
+    private static final int TIME_ORDER_COLUMN = 9;
+    /**
+     * Order of the readers of the runs by their current record.
+     */
+    private static final Comparator<RecordReader> READER_ORDER = new Comparator<RecordReader>() {
+        @Override
+        public int compare(final RecordReader r1, final RecordReader r2) {
+            for (int f = 0; f < KEY_FIELDS; f++) {
+                int c = Long.compare(r1.fields[f], r2.fields[f]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+    /**
+     * Directory where runs and merged models are written.
+     */
+    private final File scratchDir;
+    /**
+     * Maximum number of bytes of the buffers of each kind of data.
+     */
+    private final int bufferBytes;
+    /**
+     * Flag to indicate if duplicate preferences should be ignored or not.
+     */
+    private final boolean ignoreDuplicatePreferences;
+    /**
+     * Buffered preferences (allocated on first use).
+     */
+    private ByteBuffer preferenceBuffer;
+    /**
+     * Number of buffered preferences.
+     */
+    private int numBufferedPreferences;
+    /**
+     * Buffered timestamps (allocated on first use).
+     */
+    private ByteBuffer timestampBuffer;
+    /**
+     * Number of buffered timestamps.
+     */
+    private int numBufferedTimestamps;
+    /**
+     * Spilled runs of preferences.
+     */
+    private final List<File> preferenceRuns = new ArrayList<>();
+    /**
+     * Spilled runs of timestamps.
+     */
+    private final List<File> timestampRuns = new ArrayList<>();
+    /**
+     * Counter of added preferences, so that duplicates are merged in the
+     * order they were added.
+     */
+    private long sequence;
+    /**
+     * The merged data (null until the model is read).
+     */
+    private MappedDataModel merged;
+    /**
+     * Whether data was added after the last merge.
+     */
+    private boolean dirty;
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param scratch directory where temporary files are written.
+     * @param memoryBudget maximum number of bytes buffered before spilling to
+     * disk (split between preferences and timestamps), which must fit in the
+     * direct memory of the JVM.
+     */
+    public OffHeapDataModel(final File scratch, final long memoryBudget) {
+        this(scratch, memoryBudget, false);
+    }
+
+    /**
+     * Constructor with parameters.
+     *
+     * @param scratch directory where temporary files are written.
+     * @param memoryBudget maximum number of bytes buffered before spilling to
+     * disk (split between preferences and timestamps), which must fit in the
+     * direct memory of the JVM.
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     */
+    public OffHeapDataModel(final File scratch, final long memoryBudget, final boolean ignoreDupPreferences) {
+        this.scratchDir = scratch;
+        // a buffer cannot be larger than 2GB
+        this.bufferBytes = (int) Math.max(PREFERENCE_WIDTH, Math.min(memoryBudget / 2, Integer.MAX_VALUE));
+        this.ignoreDuplicatePreferences = ignoreDupPreferences;
+    }
+
+    /**
+     * Constructor of a model that starts with the data of a binary data model
+     * file, so that added data is merged with it by streaming both, without
+     * loading the file. The file is deleted once it is merged.
+     *
+     * @param scratch directory where temporary files are written.
+     * @param memoryBudget maximum number of bytes buffered before spilling to
+     * disk (split between preferences and timestamps), which must fit in the
+     * direct memory of the JVM.
+     * @param ignoreDupPreferences The flag to indicate whether preferences
+     * should be ignored.
+     * @param initial the initial data
+     */
+    OffHeapDataModel(final File scratch, final long memoryBudget, final boolean ignoreDupPreferences, final MappedDataModel initial) {
+        this(scratch, memoryBudget, ignoreDupPreferences);
+        this.merged = initial;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addPreference(final Long u, final Long i, final Double d) {
+        if (preferenceBuffer == null) {
+            preferenceBuffer = allocate(PREFERENCE_WIDTH);
+        }
+        if ((numBufferedPreferences + 1) * PREFERENCE_WIDTH > preferenceBuffer.capacity()) {
+            spill(preferenceBuffer, PREFERENCE_WIDTH, numBufferedPreferences, preferenceRuns);
+            numBufferedPreferences = 0;
+        }
+        int p = numBufferedPreferences * PREFERENCE_WIDTH;
+        preferenceBuffer.putLong(p, u);
+        preferenceBuffer.putLong(p + LONG_BYTES, i);
+        preferenceBuffer.putLong(p + 2 * LONG_BYTES, sequence++);
+        preferenceBuffer.putDouble(p + KEY_FIELDS * LONG_BYTES, d);
+        numBufferedPreferences++;
+        dirty = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addTimestamp(final Long u, final Long i, final Long t) {
+        if (timestampBuffer == null) {
+            timestampBuffer = allocate(TIMESTAMP_WIDTH);
+        }
+        if ((numBufferedTimestamps + 1) * TIMESTAMP_WIDTH > timestampBuffer.capacity()) {
+            spill(timestampBuffer, TIMESTAMP_WIDTH, numBufferedTimestamps, timestampRuns);
+            numBufferedTimestamps = 0;
+        }
+        int p = numBufferedTimestamps * TIMESTAMP_WIDTH;
+        timestampBuffer.putLong(p, u);
+        timestampBuffer.putLong(p + LONG_BYTES, i);
+        timestampBuffer.putLong(p + 2 * LONG_BYTES, t);
+        numBufferedTimestamps++;
+        dirty = true;
+    }
+
+    /**
+     * Allocates a direct buffer for records of some size within the budget.
+     *
+     * @param width size of a record
+     * @return the buffer
+     */
+    private ByteBuffer allocate(final int width) {
+        return ByteBuffer.allocateDirect(bufferBytes / width * width).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Sorts the buffered records and writes them as a new run.
+     *
+     * @param buffer the buffered records
+     * @param width size of a record
+     * @param n number of records
+     * @param runs the list of runs where the new one is added
+     */
+    private void spill(final ByteBuffer buffer, final int width, final int n, final List<File> runs) {
+        sortRecords(buffer, width, n);
+        try {
+            File run = File.createTempFile("run", ".bin", scratchDir);
+            try (FileChannel channel = FileChannel.open(run.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer records = buffer.duplicate();
+                records.position(0).limit(n * width);
+                while (records.hasRemaining()) {
+                    channel.write(records);
+                }
+            }
+            runs.add(run);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot spill to " + scratchDir, e);
+        }
+    }
+
+    /**
+     * Sorts records in place (heap sort) by their leading fields.
+     *
+     * @param buffer the records
+     * @param width size of a record
+     * @param n number of records
+     */
+    static void sortRecords(final ByteBuffer buffer, final int width, final int n) {
+        for (int k = n / 2 - 1; k >= 0; k--) {
+            siftDown(buffer, width, k, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(buffer, width, 0, end);
+            siftDown(buffer, width, 0, end);
+        }
+    }
+
+    /**
+     * Restores the heap property below a record.
+     *
+     * @param buffer the records
+     * @param width size of a record
+     * @param root the record
+     * @param n number of records of the heap
+     */
+    private static void siftDown(final ByteBuffer buffer, final int width, final int root, final int n) {
+        int k = root;
+        while (2 * k + 1 < n) {
+            int child = 2 * k + 1;
+            if (child + 1 < n && compareRecords(buffer, width, child, child + 1) < 0) {
+                child++;
+            }
+            if (compareRecords(buffer, width, k, child) >= 0) {
+                return;
+            }
+            swap(buffer, width, k, child);
+            k = child;
+        }
+    }
+
+    /**
+     * Compares two records by their leading fields.
+     *
+     * @param buffer the records
+     * @param width size of a record
+     * @param r1 first record
+     * @param r2 second record
+     * @return a negative number, zero, or a positive number as the first
+     * record is less than, equal to, or greater than the second
+     */
+    private static int compareRecords(final ByteBuffer buffer, final int width, final int r1, final int r2) {
+        for (int f = 0; f < KEY_FIELDS; f++) {
+            int c = Long.compare(buffer.getLong(r1 * width + f * LONG_BYTES), buffer.getLong(r2 * width + f * LONG_BYTES));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Swaps two records.
+     *
+     * @param buffer the records
+     * @param width size of a record
+     * @param r1 first record
+     * @param r2 second record
+     */
+    private static void swap(final ByteBuffer buffer, final int width, final int r1, final int r2) {
+        for (int p = 0; p < width; p += LONG_BYTES) {
+            long v = buffer.getLong(r1 * width + p);
+            buffer.putLong(r1 * width + p, buffer.getLong(r2 * width + p));
+            buffer.putLong(r2 * width + p, v);
+        }
+    }
+
+    /**
+     * Gets the merged model, merging the data added since the last read.
+     *
+     * @return the merged model
+     */
+    private MappedDataModel model() {
+        if (merged == null || dirty) {
+            try {
+                merge();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot merge the data model in " + scratchDir, e);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the readers of all the sorted data of a kind.
+     *
+     * @param buffer the buffered records (may be null)
+     * @param width size of a record
+     * @param n number of buffered records
+     * @param runs the spilled runs
+     * @param previous reader of the previously merged data (may be null)
+     * @return the readers
+     * @throws IOException when a run cannot be mapped
+     */
+    private static List<RecordReader> readers(final ByteBuffer buffer, final int width, final int n, final List<File> runs, final RecordReader previous)
+            throws IOException {
+        List<RecordReader> readers = new ArrayList<>();
+        if (previous != null) {
+            readers.add(previous);
+        }
+        for (File run : runs) {
+            try (FileChannel channel = FileChannel.open(run.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+                readers.add(new BufferReader(records, width));
+            }
+        }
+        if (n > 0) {
+            ByteBuffer records = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            records.position(0).limit(n * width);
+            readers.add(new BufferReader(records.slice().order(ByteOrder.LITTLE_ENDIAN), width));
+        }
+        return readers;
+    }
+
+    /**
+     * Merges the runs, the buffered data, and the previously merged data into
+     * a new binary data model file, which is mapped.
+     *
+     * @throws IOException when the files cannot be read or written
+     */
+    private void merge() throws IOException {
+        sortRecords(preferenceBuffer, PREFERENCE_WIDTH, numBufferedPreferences);
+        sortRecords(timestampBuffer, TIMESTAMP_WIDTH, numBufferedTimestamps);
+        // first pass: sizes of the columns and item ids
+        long[] items = new long[INITIAL_CAPACITY];
+        int nItems = 0;
+        long nUsers = 0;
+        long nPrefs = 0;
+        RecordMerger prefs = new RecordMerger(readers(preferenceBuffer, PREFERENCE_WIDTH, numBufferedPreferences, preferenceRuns, previousPreferences()), PREFERENCE_WIDTH);
+        long[] last = null;
+        for (long[] r = prefs.next(); r != null; last = r, r = prefs.next()) {
+            if (last == null || last[0] != r[0]) {
+                nUsers++;
+            }
+            if (last == null || last[0] != r[0] || last[1] != r[1]) {
+                nPrefs++;
+                if (nItems == items.length) {
+                    nItems = sortUnique(items, nItems);
+                    if (nItems > items.length / 2) {
+                        items = Arrays.copyOf(items, 2 * items.length);
+                    }
+                }
+                items[nItems++] = r[1];
+            }
+        }
+        nItems = sortUnique(items, nItems);
+        long nTimeUsers = 0;
+        long nTimes = 0;
+        RecordMerger times = new RecordMerger(readers(timestampBuffer, TIMESTAMP_WIDTH, numBufferedTimestamps, timestampRuns, previousTimestamps()), TIMESTAMP_WIDTH);
+        last = null;
+        for (long[] r = times.next(); r != null; last = r, r = times.next()) {
+            if (last == null || last[0] != r[0]) {
+                nTimeUsers++;
+            }
+            if (last == null || last[0] != r[0] || last[1] != r[1] || last[2] != r[2]) {
+                nTimes++;
+            }
+        }
+        MappedDataModel.checkEntries(nUsers, "users");
+        MappedDataModel.checkEntries(nPrefs, "preferences");
+        MappedDataModel.checkEntries(nTimeUsers, "users with timestamps");
+        MappedDataModel.checkEntries(nTimes, "timestamps");
+        // second pass: every column is written at its offset
+        long[] sizes = new long[]{
+            nUsers * LONG_BYTES,
+            (long) nItems * LONG_BYTES,
+            (nUsers + 1) * INT_BYTES,
+            nPrefs * INT_BYTES,
+            nPrefs * LONG_BYTES,
+            nTimeUsers * LONG_BYTES,
+            (nTimeUsers + 1) * INT_BYTES,
+            nTimes * LONG_BYTES,
+            nTimes * LONG_BYTES,
+            nTimes * INT_BYTES,};
+        File file = File.createTempFile("model", ".bin", scratchDir);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ColumnWriter[] out = new ColumnWriter[COLUMNS];
+            long offset = MappedDataModel.HEADER_SIZE;
+            for (int c = 0; c < COLUMNS; c++) {
+                out[c] = new ColumnWriter(channel, offset);
+                offset = MappedDataModel.align(offset + sizes[c]);
+            }
+            ColumnWriter header = new ColumnWriter(channel);
+            header.putInt(MappedDataModel.MAGIC);
+            header.putInt(MappedDataModel.VERSION);
+            // reserved
+            header.putInt(0);
+            header.putInt((int) nUsers);
+            header.putInt(nItems);
+            header.putInt((int) nPrefs);
+            header.putInt((int) nTimeUsers);
+            header.putInt((int) nTimes);
+            header.flush();
+            for (int i = 0; i < nItems; i++) {
+                out[ITEM_COLUMN].putLong(items[i]);
+            }
+            prefs = new RecordMerger(readers(preferenceBuffer, PREFERENCE_WIDTH, numBufferedPreferences, preferenceRuns, previousPreferences()), PREFERENCE_WIDTH);
+            writePreferences(prefs, items, nItems, out);
+            times = new RecordMerger(readers(timestampBuffer, TIMESTAMP_WIDTH, numBufferedTimestamps, timestampRuns, previousTimestamps()), TIMESTAMP_WIDTH);
+            writeTimestamps(times, out);
+            for (ColumnWriter w : out) {
+                w.endColumn();
+                w.flush();
+            }
+        }
+        MappedDataModel model = new MappedDataModel(file);
+        discard();
+        merged = model;
+        dirty = false;
+    }
+
+    /**
+     * Writes the preference columns from the merged preferences.
+     *
+     * @param prefs the merged preferences
+     * @param items the sorted item ids
+     * @param nItems the number of items
+     * @param out the writers of the columns
+     * @throws IOException when the columns cannot be written
+     */
+    private void writePreferences(final RecordMerger prefs, final long[] items, final int nItems, final ColumnWriter[] out) throws IOException {
+        int m = 0;
+        out[ROW_COLUMN].putInt(0);
+        boolean pending = false;
+        long user = 0L;
+        long item = 0L;
+        double value = 0.0;
+        for (long[] r = prefs.next(); r != null; r = prefs.next()) {
+            double v = Double.longBitsToDouble(r[KEY_FIELDS]);
+            if (pending && user == r[0] && item == r[1]) {
+                if (!ignoreDuplicatePreferences) {
+                    value += v;
+                }
+                continue;
+            }
+            if (pending) {
+                out[INDEX_COLUMN].putInt(Arrays.binarySearch(items, 0, nItems, item));
+                out[VALUE_COLUMN].putDouble(value);
+                m++;
+                if (user != r[0]) {
+                    out[ROW_COLUMN].putInt(m);
+                }
+            }
+            if (!pending || user != r[0]) {
+                out[USER_COLUMN].putLong(r[0]);
+            }
+            user = r[0];
+            item = r[1];
+            // as in DataModel, preferences are accumulated starting from 0.0
+            value = 0.0 + v;
+            pending = true;
+        }
+        if (pending) {
+            out[INDEX_COLUMN].putInt(Arrays.binarySearch(items, 0, nItems, item));
+            out[VALUE_COLUMN].putDouble(value);
+            m++;
+            out[ROW_COLUMN].putInt(m);
+        }
+    }
+
+    /**
+     * Writes the timestamp columns from the merged timestamps.
+     *
+     * @param times the merged timestamps
+     * @param out the writers of the columns
+     * @throws IOException when the columns cannot be written
+     */
+    private static void writeTimestamps(final RecordMerger times, final ColumnWriter[] out) throws IOException {
+        int m = 0;
+        int rowStart = 0;
+        long[] rowTimes = new long[INITIAL_CAPACITY];
+        long[] rowPositions = new long[INITIAL_CAPACITY];
+        long[] last = null;
+        out[TIME_ROW_COLUMN].putInt(0);
+        for (long[] r = times.next(); r != null; last = r, r = times.next()) {
+            if (last != null && last[0] == r[0] && last[1] == r[1] && last[2] == r[2]) {
+                continue;
+            }
+            if (last == null || last[0] != r[0]) {
+                if (last != null) {
+                    writeTimeOrder(rowTimes, rowPositions, rowStart, m, out);
+                }
+                out[TIME_USER_COLUMN].putLong(r[0]);
+                rowStart = m;
+            }
+            if (m - rowStart == rowTimes.length) {
+                rowTimes = Arrays.copyOf(rowTimes, 2 * rowTimes.length);
+                rowPositions = Arrays.copyOf(rowPositions, 2 * rowPositions.length);
+            }
+            rowTimes[m - rowStart] = r[2];
+            rowPositions[m - rowStart] = m;
+            out[TIME_ITEM_COLUMN].putLong(r[1]);
+            out[TIME_COLUMN].putLong(r[2]);
+            m++;
+        }
+        if (last != null) {
+            writeTimeOrder(rowTimes, rowPositions, rowStart, m, out);
+        }
+    }
+
+    /**
+     * Writes the time order of a row and its end offset.
+     *
+     * @param rowTimes the timestamps of the row
+     * @param rowPositions the positions of the timestamps of the row
+     * @param rowStart position of the first timestamp of the row
+     * @param rowEnd position after the last timestamp of the row
+     * @param out the writers of the columns
+     * @throws IOException when the columns cannot be written
+     */
+    private static void writeTimeOrder(final long[] rowTimes, final long[] rowPositions, final int rowStart, final int rowEnd, final ColumnWriter[] out)
+            throws IOException {
+        int n = rowEnd - rowStart;
+        CompactTemporalDataModel.sortPairs(rowTimes, rowPositions, 0, n, new long[n], new long[n]);
+        for (int k = 0; k < n; k++) {
+            out[TIME_ORDER_COLUMN].putInt((int) rowPositions[k]);
+        }
+        out[TIME_ROW_COLUMN].putInt(rowEnd);
+    }
+
+    /**
+     * Sorts a range of an array and removes repeated values.
+     *
+     * @param values the array
+     * @param n number of valid positions
+     * @return number of distinct values, now at the beginning of the array
+     */
+    private static int sortUnique(final long[] values, final int n) {
+        Arrays.sort(values, 0, n);
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            if (m == 0 || values[m - 1] != values[k]) {
+                values[m++] = values[k];
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Gets a reader of the previously merged preferences, which come before
+     * any buffered one.
+     *
+     * @return the reader, or null if nothing was merged before
+     */
+    private RecordReader previousPreferences() {
+        if (merged == null) {
+            return null;
+        }
+        return new PreferenceStoreReader(merged.preferences());
+    }
+
+    /**
+     * Gets a reader of the previously merged timestamps.
+     *
+     * @return the reader, or null if nothing was merged before
+     */
+    private RecordReader previousTimestamps() {
+        if (merged == null) {
+            return null;
+        }
+        return new TimestampStoreReader(merged.timestamps());
+    }
+
+    /**
+     * Deletes the runs and the previously merged file, and empties the
+     * buffers.
+     */
+    private void discard() {
+        for (File run : preferenceRuns) {
+            run.delete();
+        }
+        for (File run : timestampRuns) {
+            run.delete();
+        }
+        preferenceRuns.clear();
+        timestampRuns.clear();
+        numBufferedPreferences = 0;
+        numBufferedTimestamps = 0;
+        if (merged != null) {
+            // the mapping stays valid until the buffers are garbage collected
+            merged.getFile().delete();
+            merged = null;
+        }
+    }
+
+    /**
+     * Gets the file where the data is merged, merging it if needed. It can be
+     * read as any file written by
+     * {@link DataModelUtils#saveBinaryDataModel(DataModelIF, String, boolean)}
+     * until the model is modified.
+     *
+     * @return the file of the merged model
+     */
+    public File getFile() {
+        return model().getFile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Double>> getUserItemPreferences() {
+        return model().getUserItemPreferences();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Double>> getItemUserPreferences() {
+        return model().getItemUserPreferences();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getItemPopularity(final Long i) {
+        return model().getItemPopularity(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Map<Long, Set<Long>>> getUserItemTimestamps() {
+        return model().getUserItemTimestamps();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachPreference(final PreferenceConsumer<? super Long, ? super Long> consumer) {
+        model().forEachPreference(consumer);
+    }
+
+    /**
+     * Method that passes every preference in the model to a consumer of
+     * primitive values, sorted by user and item.
+     *
+     * @param consumer the consumer of the preferences.
+     */
+    public void forEachLongPreference(final LongPreferenceConsumer consumer) {
+        model().forEachLongPreference(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachTimestamp(final TimestampConsumer<? super Long, ? super Long> consumer) {
+        model().forEachTimestamp(consumer);
+    }
+
+    /**
+     * Method that passes every timestamp in the model to a consumer of
+     * primitive values, sorted by user, item and time.
+     *
+     * @param consumer the consumer of the timestamps.
+     */
+    public void forEachLongTimestamp(final LongTimestampConsumer consumer) {
+        model().forEachLongTimestamp(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getItems() {
+        return model().getItems();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getUsers() {
+        return model().getUsers();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumItems() {
+        return model().getNumItems();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumUsers() {
+        return model().getNumUsers();
+    }
+
+    /**
+     * Method that returns the number of preferences in the model.
+     *
+     * @return the number of preferences in the model.
+     */
+    public int getNumPreferences() {
+        return model().getNumPreferences();
+    }
+
+    /**
+     * Method that returns the timestamps of a user in the range [from, to),
+     * sorted in ascending order.
+     *
+     * @param user the user
+     * @param from lower bound (inclusive)
+     * @param to upper bound (exclusive)
+     * @return the sorted timestamps in the range
+     */
+    public long[] getTimestampsBetween(final long user, final long from, final long to) {
+        return model().getTimestampsBetween(user, from, to);
+    }
+
+    /**
+     * Returns a snapshot of the merged model, which is not affected by later
+     * changes to this model.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public TemporalDataModelIF<Long, Long> toImmutable() {
+        return model().toImmutable();
+    }
+
+    /**
+     * Method that clears the model, deleting its temporary files.
+     */
+    @Override
+    public void clear() {
+        discard();
+        sequence = 0L;
+        dirty = false;
+    }
+
+    /**
+     * Sequential reader of sorted records, exposed as arrays of longs (the
+     * value of a preference is stored as the bits of the double).
+     */
+    private abstract static class RecordReader {
+
+        /**
+         * Fields of the current record.
+         */
+        private final long[] fields;
+
+        /**
+         * Constructor.
+         *
+         * @param numFields number of fields of a record
+         */
+        RecordReader(final int numFields) {
+            this.fields = new long[numFields];
+        }
+
+        /**
+         * Gets the fields of the current record.
+         *
+         * @return the fields
+         */
+        long[] fields() {
+            return fields;
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false if there are no more records
+         */
+        abstract boolean next();
+    }
+
+    /**
+     * Reader of the records of a buffer.
+     */
+    private static final class BufferReader extends RecordReader {
+
+        /**
+         * The records.
+         */
+        private final ByteBuffer records;
+
+        /**
+         * Constructor.
+         *
+         * @param buffer the records, from its position to its limit
+         * @param width size of a record
+         */
+        BufferReader(final ByteBuffer buffer, final int width) {
+            super(width / LONG_BYTES);
+            this.records = buffer;
+        }
+
+        @Override
+        boolean next() {
+            if (records.remaining() < fields().length * LONG_BYTES) {
+                return false;
+            }
+            for (int f = 0; f < fields().length; f++) {
+                fields()[f] = records.getLong();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reader of the preferences of a merged model, with a sequence number
+     * lower than the one of any added preference.
+     */
+    private static final class PreferenceStoreReader extends RecordReader {
+
+        /**
+         * The preferences.
+         */
+        private final CompactPreferences store;
+        /**
+         * Dense index of the current user.
+         */
+        private int u = 0;
+        /**
+         * Position of the next preference.
+         */
+        private int k = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param prefs the preferences
+         */
+        PreferenceStoreReader(final CompactPreferences prefs) {
+            super(PREFERENCE_WIDTH / LONG_BYTES);
+            this.store = prefs;
+        }
+
+        @Override
+        boolean next() {
+            if (k >= store.numPreferences()) {
+                return false;
+            }
+            while (store.rowStart(u + 1) <= k) {
+                u++;
+            }
+            fields()[0] = store.userId(u);
+            fields()[1] = store.itemId(store.itemIndex(k));
+            fields()[2] = -1L;
+            fields()[KEY_FIELDS] = Double.doubleToRawLongBits(store.value(k));
+            k++;
+            return true;
+        }
+    }
+
+    /**
+     * Reader of the timestamps of a merged model.
+     */
+    private static final class TimestampStoreReader extends RecordReader {
+
+        /**
+         * The timestamps.
+         */
+        private final CompactTimestamps store;
+        /**
+         * Dense index of the current user.
+         */
+        private int u = 0;
+        /**
+         * Position of the next timestamp.
+         */
+        private int k = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param times the timestamps
+         */
+        TimestampStoreReader(final CompactTimestamps times) {
+            super(TIMESTAMP_WIDTH / LONG_BYTES);
+            this.store = times;
+        }
+
+        @Override
+        boolean next() {
+            if (k >= store.numInteractions()) {
+                return false;
+            }
+            while (store.rowStart(u + 1) <= k) {
+                u++;
+            }
+            fields()[0] = store.userId(u);
+            fields()[1] = store.item(k);
+            fields()[2] = store.time(k);
+            k++;
+            return true;
+        }
+    }
+
+    /**
+     * K-way merge of sorted readers.
+     */
+    private static final class RecordMerger {
+
+        /**
+         * The readers, by their current record.
+         */
+        private final PriorityQueue<RecordReader> queue;
+        /**
+         * The last two records returned, so the previous record is still
+         * valid after a call to {@link #next()}.
+         */
+        private final long[][] records;
+        /**
+         * The slot of the last record returned.
+         */
+        private int slot;
+
+        /**
+         * Constructor.
+         *
+         * @param readers the readers
+         * @param width size of a record
+         */
+        RecordMerger(final List<RecordReader> readers, final int width) {
+            this.records = new long[2][width / LONG_BYTES];
+            this.queue = new PriorityQueue<>(Math.max(1, readers.size()), READER_ORDER);
+            for (RecordReader r : readers) {
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+        }
+
+        /**
+         * Gets the next record in order.
+         *
+         * @return the fields of the record (valid until the second next call
+         * to this method), or null if there are no more records
+         */
+        long[] next() {
+            RecordReader r = queue.poll();
+            if (r == null) {
+                return null;
+            }
+            slot = 1 - slot;
+            long[] record = records[slot];
+            System.arraycopy(r.fields(), 0, record, 0, record.length);
+            if (r.next()) {
+                queue.add(r);
+            }
+            return record;
+        }
+    }
+}
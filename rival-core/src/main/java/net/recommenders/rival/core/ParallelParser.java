@@ -0,0 +1,553 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Parser that reads large delimited files on several threads. The file is cut
+ * into line-aligned chunks that are parsed on a fork-join pool (each one into
+ * its own buffers, with a {@link ByteTokenizer}), and the chunks are then
+ * added in file order to a single {@link DataModelBuilder}. Hence the
+ * resulting model is the same as the one of a sequential parser (including
+ * how duplicate preferences are aggregated), whatever the number of threads.
+ *
+ * Gzip files cannot be cut into chunks and are parsed as a single one
+ * (decompressed on another thread, see {@link CompressedInput}); the files of
+ * a zip archive are the chunks of the archive.
+ */
+public class ParallelParser implements Parser<Long, Long> {
+
+    /**
+     * Default size of the chunks, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 25;
+    /**
+     * Initial capacity of the buffers of a chunk.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    /**
+     * The separator between fields.
+     */
+    private final String token;
+    /**
+     * The column index for the user id in the file.
+     */
+    private final int userTok;
+    /**
+     * The column index for the item id in the file.
+     */
+    private final int itemTok;
+    /**
+     * The column index for the rating in the file.
+     */
+    private final int prefTok;
+    /**
+     * The column index for the time in the file (-1 if there is none).
+     */
+    private final int timeTok;
+    /**
+     * Whether the first line is skipped when it contains letters.
+     */
+    private final boolean skipHeader;
+    /**
+     * Number of threads.
+     */
+    private final int parallelism;
+    /**
+     * Size of the chunks.
+     */
+    private final long chunkSize;
+    /**
+     * The filter of the users whose lines are kept (null to keep them all).
+     */
+    private final UserFilter userFilter;
+
+    /**
+     * Default constructor, for the format read by {@link SimpleParser}.
+     */
+    public ParallelParser() {
+        this("\t", SimpleParser.USER_TOK, SimpleParser.ITEM_TOK, SimpleParser.RATING_TOK, SimpleParser.TIME_TOK, true);
+    }
+
+    /**
+     * Constructor with the format of the file, using as many threads as
+     * processors.
+     *
+     * @param separator the (literal) separator between fields
+     * @param userColumn the column index for the user id
+     * @param itemColumn the column index for the item id
+     * @param prefColumn the column index for the rating
+     * @param timeColumn the column index for the time (-1 if there is none)
+     * @param skipHeaderLine whether the first line is skipped when it
+     * contains letters
+     */
+    public ParallelParser(final String separator, final int userColumn, final int itemColumn, final int prefColumn,
+            final int timeColumn, final boolean skipHeaderLine) {
+        this(separator, userColumn, itemColumn, prefColumn, timeColumn, skipHeaderLine,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor with the format of the file and the parallelism.
+     *
+     * @param separator the (literal) separator between fields
+     * @param userColumn the column index for the user id
+     * @param itemColumn the column index for the item id
+     * @param prefColumn the column index for the rating
+     * @param timeColumn the column index for the time (-1 if there is none)
+     * @param skipHeaderLine whether the first line is skipped when it
+     * contains letters
+     * @param threads the number of threads
+     * @param chunkBytes the size of the chunks, in bytes
+     */
+    public ParallelParser(final String separator, final int userColumn, final int itemColumn, final int prefColumn,
+            final int timeColumn, final boolean skipHeaderLine, final int threads, final long chunkBytes) {
+        if (!ByteTokenizer.isLiteral(separator)) {
+            throw new IllegalArgumentException("Not a literal separator: " + separator);
+        }
+        if (threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("Threads and chunk size must be positive");
+        }
+        this.token = separator;
+        this.userTok = userColumn;
+        this.itemTok = itemColumn;
+        this.prefTok = prefColumn;
+        this.timeTok = timeColumn;
+        this.skipHeader = skipHeaderLine;
+        this.parallelism = threads;
+        this.chunkSize = chunkBytes;
+        this.userFilter = null;
+    }
+
+    /**
+     * Constructor that copies the format and the parallelism of a parser.
+     *
+     * @param format the parser
+     * @param filter the filter of the users whose lines are kept
+     */
+    private ParallelParser(final ParallelParser format, final UserFilter filter) {
+        this.token = format.token;
+        this.userTok = format.userTok;
+        this.itemTok = format.itemTok;
+        this.prefTok = format.prefTok;
+        this.timeTok = format.timeTok;
+        this.skipHeader = format.skipHeader;
+        this.parallelism = format.parallelism;
+        this.chunkSize = format.chunkSize;
+        this.userFilter = filter;
+    }
+
+    /**
+     * Returns a parser with the same format and parallelism that only keeps
+     * the lines of the users accepted by a filter, so the lines of the other
+     * users are dropped as they are parsed.
+     *
+     * @param filter the filter of the users
+     * @return the parser
+     */
+    public ParallelParser filterUsers(final UserFilter filter) {
+        return new ParallelParser(this, filter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemporalDataModelIF<Long, Long> parseTemporalData(final File f) throws IOException {
+        return parse(f, true).buildTemporalDataModel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataModelIF<Long, Long> parseData(final File f) throws IOException {
+        return parse(f, false).buildDataModel();
+    }
+
+    /**
+     * Parses a file into a builder, so the caller decides which model to
+     * build.
+     *
+     * @param f The file to be parsed.
+     * @param isTemporal A flag indicating if timestamps should be parsed.
+     * @return A builder with the preferences (and timestamps) of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public DataModelBuilder parse(final File f, final boolean isTemporal) throws IOException {
+        final boolean temporal = isTemporal && timeTok >= 0;
+        if (CompressedInput.isZip(f)) {
+            // the files of the archive are inflated and parsed in parallel
+            try (final ZipFile zip = new ZipFile(f)) {
+                final List<ZipEntry> entries = new ArrayList<>();
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                    ZipEntry entry = e.nextElement();
+                    if (!entry.isDirectory()) {
+                        entries.add(entry);
+                    }
+                }
+                return parseChunks(new ChunkSource() {
+                    @Override
+                    public ByteTokenizer open(final int k) throws IOException {
+                        return new ByteTokenizer(Channels.newChannel(zip.getInputStream(entries.get(k))), token);
+                    }
+                }, entries.size(), temporal, skipHeader, null);
+            }
+        }
+        if (CompressedInput.isGzip(f)) {
+            return parseChunks(new ChunkSource() {
+                @Override
+                public ByteTokenizer open(final int k) throws IOException {
+                    return ByteTokenizer.open(f, token);
+                }
+            }, 1, temporal, skipHeader, null);
+        }
+        return parse(f, 0, Long.MAX_VALUE, isTemporal, null);
+    }
+
+    /**
+     * Parses the lines in a range of an uncompressed file into a builder.
+     * The first line of the range is only checked to be a header if the
+     * range starts at the beginning of the file.
+     *
+     * @param f The file to be parsed.
+     * @param start The position where the first line starts.
+     * @param end The position after the last line.
+     * @param isTemporal A flag indicating if timestamps should be parsed.
+     * @param builder The builder where the events are added after the ones it
+     * already has, or null to create a new one.
+     * @return The builder with the preferences (and timestamps) of the lines.
+     * @throws IOException if the file cannot be read.
+     */
+    public DataModelBuilder parse(final File f, final long start, final long end, final boolean isTemporal,
+            final DataModelBuilder builder) throws IOException {
+        final boolean temporal = isTemporal && timeTok >= 0;
+        try (final FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            final long[] bounds = ByteTokenizer.getLineChunks(channel, start, Math.min(end, channel.size()), chunkSize);
+            return parseChunks(new ChunkSource() {
+                @Override
+                public ByteTokenizer open(final int k) {
+                    return ByteTokenizer.open(channel, bounds[k], bounds[k + 1], token);
+                }
+            }, bounds.length - 1, temporal, skipHeader && start == 0, builder);
+        }
+    }
+
+    /**
+     * Gets a description of the format read by this parser (separator,
+     * columns, header handling and filter of the users), to detect files
+     * parsed with another configuration.
+     *
+     * @return the description
+     */
+    public String getConfiguration() {
+        String configuration = token + "|" + userTok + "|" + itemTok + "|" + prefTok + "|" + timeTok + "|" + skipHeader;
+        if (userFilter != null) {
+            configuration += "|" + userFilter;
+        }
+        return configuration;
+    }
+
+    /**
+     * Parses chunks on the pool and adds them, in order, to a builder.
+     *
+     * @param source the source of the chunks
+     * @param n the number of chunks
+     * @param temporal whether timestamps are parsed
+     * @param header whether the first line of the first chunk is skipped
+     * when it contains letters
+     * @param builder the builder where the chunks are added, or null to
+     * create a new one
+     * @return the builder
+     * @throws IOException if a chunk cannot be read.
+     */
+    private DataModelBuilder parseChunks(final ChunkSource source, final int n, final boolean temporal,
+            final boolean header, final DataModelBuilder builder) throws IOException {
+        Chunk[] chunks = new Chunk[n];
+        ChunkTask task = new ChunkTask(source, chunks, 0, n, temporal, header);
+        if (n <= 1 || parallelism == 1) {
+            // not worth starting a pool
+            task.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (Chunk chunk : chunks) {
+            if (chunk.error != null) {
+                throw chunk.error;
+            }
+        }
+        return merge(chunks, builder);
+    }
+
+    /**
+     * Parses the lines of a tokenizer into a chunk.
+     *
+     * @param tokenizer the tokenizer
+     * @param chunk the chunk
+     * @param checkHeader whether the first line is skipped when it contains
+     * letters
+     * @param temporal whether timestamps are parsed
+     * @throws IOException if the file cannot be read.
+     */
+    private void parseChunk(final ByteTokenizer tokenizer, final Chunk chunk, final boolean checkHeader, final boolean temporal) throws IOException {
+        // the columns after the last one that is read are not split
+        int lastTok = Math.max(userTok, Math.max(itemTok, prefTok));
+        if (temporal) {
+            lastTok = Math.max(lastTok, timeTok);
+        }
+        tokenizer.setMaxFields(lastTok + 1);
+        if (!tokenizer.next()) {
+            return;
+        }
+        if (!checkHeader || !tokenizer.hasLetters()) {
+            parseLine(tokenizer, chunk, temporal);
+        }
+        while (tokenizer.next()) {
+            parseLine(tokenizer, chunk, temporal);
+        }
+    }
+
+    /**
+     * Parses the current line of a tokenizer into a chunk.
+     *
+     * @param tokenizer the tokenizer
+     * @param chunk the chunk
+     * @param temporal whether timestamps are parsed
+     */
+    private void parseLine(final ByteTokenizer tokenizer, final Chunk chunk, final boolean temporal) {
+        long user = tokenizer.getLong(userTok);
+        if (userFilter != null && !userFilter.accept(user)) {
+            return;
+        }
+        long timestamp = -1;
+        // allow no timestamp information
+        if (temporal && tokenizer.getNumFields() > timeTok) {
+            timestamp = tokenizer.getLong(timeTok);
+        }
+        chunk.add(user, tokenizer.getLong(itemTok), tokenizer.getDouble(prefTok), timestamp);
+    }
+
+    /**
+     * Adds the chunks, in order, to a builder.
+     *
+     * @param chunks the chunks
+     * @param target the builder, or null to create a new one
+     * @return the builder
+     */
+    private static DataModelBuilder merge(final Chunk[] chunks, final DataModelBuilder target) {
+        long numPrefs = 0;
+        long numTimes = 0;
+        for (Chunk chunk : chunks) {
+            numPrefs += chunk.size;
+            numTimes += chunk.numTimes;
+        }
+        if (numPrefs > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many preferences: " + numPrefs);
+        }
+        DataModelBuilder builder = target;
+        if (builder == null) {
+            builder = new DataModelBuilder(false, (int) numPrefs, (int) numTimes);
+        }
+        for (int c = 0; c < chunks.length; c++) {
+            Chunk chunk = chunks[c];
+            builder.addPreferences(chunk.users, chunk.items, chunk.prefs, chunk.size);
+            if (chunk.numTimes > 0) {
+                for (int k = 0; k < chunk.size; k++) {
+                    if (chunk.times[k] != -1) {
+                        builder.addTimestamp(chunk.users[k], chunk.items[k], chunk.times[k]);
+                    }
+                }
+            }
+            // release the buffers as soon as they are copied
+            chunks[c] = null;
+        }
+        return builder;
+    }
+
+    /**
+     * Source of the chunks of a file.
+     */
+    private interface ChunkSource {
+
+        /**
+         * Opens a chunk.
+         *
+         * @param k the index of the chunk
+         * @return a tokenizer of the chunk
+         * @throws IOException if the chunk cannot be read.
+         */
+        ByteTokenizer open(int k) throws IOException;
+    }
+
+    /**
+     * Task that parses a range of chunks, splitting it until there is only
+     * one chunk left.
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The source of the chunks.
+         */
+        private final transient ChunkSource source;
+        /**
+         * Where the parsed chunks are stored.
+         */
+        private final Chunk[] chunks;
+        /**
+         * First chunk of the range.
+         */
+        private final int from;
+        /**
+         * Last chunk (exclusive) of the range.
+         */
+        private final int to;
+        /**
+         * Whether timestamps are parsed.
+         */
+        private final boolean temporal;
+        /**
+         * Whether the first line of the first chunk may be a header.
+         */
+        private final boolean header;
+
+        /**
+         * Constructor.
+         *
+         * @param chunkSource the source of the chunks
+         * @param parsed where the parsed chunks are stored
+         * @param first first chunk of the range
+         * @param last last chunk (exclusive) of the range
+         * @param withTimestamps whether timestamps are parsed
+         * @param withHeader whether the first line of the first chunk is
+         * skipped when it contains letters
+         */
+        private ChunkTask(final ChunkSource chunkSource, final Chunk[] parsed,
+                final int first, final int last, final boolean withTimestamps, final boolean withHeader) {
+            this.source = chunkSource;
+            this.chunks = parsed;
+            this.from = first;
+            this.to = last;
+            this.temporal = withTimestamps;
+            this.header = withHeader;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(source, chunks, from, mid, temporal, header),
+                        new ChunkTask(source, chunks, mid, to, temporal, header));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            Chunk chunk = new Chunk();
+            try (ByteTokenizer tokenizer = source.open(from)) {
+                parseChunk(tokenizer, chunk, header && from == 0, temporal);
+            } catch (IOException e) {
+                chunk.error = e;
+            }
+            chunks[from] = chunk;
+        }
+    }
+
+    /**
+     * Buffers with the events parsed from a chunk.
+     */
+    private static final class Chunk {
+
+        /**
+         * Users of the preferences.
+         */
+        private long[] users = new long[INITIAL_CAPACITY];
+        /**
+         * Items of the preferences.
+         */
+        private long[] items = new long[INITIAL_CAPACITY];
+        /**
+         * Values of the preferences.
+         */
+        private double[] prefs = new double[INITIAL_CAPACITY];
+        /**
+         * Timestamps of the preferences (-1 if there is none).
+         */
+        private long[] times = new long[INITIAL_CAPACITY];
+        /**
+         * Number of preferences.
+         */
+        private int size;
+        /**
+         * Number of timestamps.
+         */
+        private int numTimes;
+        /**
+         * Error found while parsing the chunk, if any.
+         */
+        private IOException error;
+
+        /**
+         * Adds an event.
+         *
+         * @param u the user
+         * @param i the item
+         * @param d the preference
+         * @param t the timestamp (-1 if there is none)
+         */
+        private void add(final long u, final long i, final double d, final long t) {
+            if (size == users.length) {
+                int capacity = 2 * size;
+                users = Arrays.copyOf(users, capacity);
+                items = Arrays.copyOf(items, capacity);
+                prefs = Arrays.copyOf(prefs, capacity);
+                times = Arrays.copyOf(times, capacity);
+            }
+            users[size] = u;
+            items[size] = i;
+            prefs[size] = d;
+            times[size] = t;
+            size++;
+            if (t != -1) {
+                numTimes++;
+            }
+        }
+    }
+}
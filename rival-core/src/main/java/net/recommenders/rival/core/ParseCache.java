@@ -0,0 +1,327 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Cache of parsed data files. The first time a file is parsed, the model is
+ * saved in the binary format of {@link MappedDataModel} in the cache
+ * directory; later parses of the same file with the same parser configuration
+ * map that snapshot instead of parsing the file again.
+ *
+ * Snapshots are keyed by the canonical path, size and modification time of
+ * the file and by the configuration of the parser, so a modified file is
+ * parsed again. When the snapshots take more than the maximum size of the
+ * cache, the least recently used ones are removed.
+ *
+ * With a cache directory, the model is always mapped from its snapshot,
+ * whether the snapshot has just been written or was already in the cache (a
+ * snapshot that does not fit in the cache is mapped before it is removed), so
+ * hits and misses return the same kind of model: a {@link MappedDataModel},
+ * to which preferences and timestamps cannot be added. Without a cache
+ * directory, the model of the parser is returned as it is.
+ *
+ * Data files that are already in the binary format (see
+ * {@link DataModelUtils#loadBinaryDataModel(File)}) are mapped as they are,
+ * with or without a cache directory, so the runners that read their input
+ * through a cache accept both text and binary files.
+ *
+ * Every parse (or mapping of a snapshot) is profiled as a "parse" stage, and
+ * every mapping of a snapshot also as a "parse-cache-hit" stage, so the hits
+ * are counted in the summary, see {@link Profiler}.
+ */
+public class ParseCache {
+
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String CACHE_DIR = "parser.cache.dir";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String CACHE_MAX_SIZE = "parser.cache.maxsize";
+    /**
+     * Extension of the snapshots.
+     */
+    public static final String SNAPSHOT_EXTENSION = ".rival";
+    /**
+     * Mask of a byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+    /**
+     * Number of bytes of the digest used in the names of the snapshots.
+     */
+    private static final int NAME_BYTES = 16;
+    /**
+     * The directory of the snapshots (null if the cache is disabled).
+     */
+    private final File dir;
+    /**
+     * Maximum size of the snapshots, in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheDir the directory of the snapshots (null to disable the
+     * cache)
+     * @param maxBytes maximum size of the snapshots, in bytes
+     */
+    public ParseCache(final File cacheDir, final long maxBytes) {
+        this.dir = cacheDir;
+        this.maxSize = maxBytes;
+    }
+
+    /**
+     * Creates a cache from the properties {@link #CACHE_DIR} and
+     * {@link #CACHE_MAX_SIZE} (in bytes, unlimited by default).
+     *
+     * @param properties the properties
+     * @return the cache (which just parses the files if no cache directory
+     * is set)
+     */
+    public static ParseCache fromProperties(final Properties properties) {
+        String cacheDir = properties.getProperty(CACHE_DIR);
+        if (cacheDir == null || cacheDir.isEmpty()) {
+            return new ParseCache(null, 0);
+        }
+        long maxBytes = Long.parseLong(properties.getProperty(CACHE_MAX_SIZE, String.valueOf(Long.MAX_VALUE)));
+        return new ParseCache(new File(cacheDir), maxBytes);
+    }
+
+    /**
+     * Parses a data file, or maps its snapshot if it has already been parsed.
+     *
+     * @param parser the parser
+     * @param f the file
+     * @param config the configuration of the parser that changes the model
+     * (besides its class), or an empty string
+     * @return the model (mapped if the file is binary or there is a cache
+     * directory, so it can be cleared but not modified)
+     * @throws IOException if the file cannot be parsed or the snapshot cannot
+     * be read or written
+     */
+    public DataModelIF<Long, Long> parseData(final Parser<Long, Long> parser, final File f, final String config) throws IOException {
+        try (Profiler.Stage stage = Profiler.start("parse")) {
+            stage.addBytes(f.length());
+            DataModelIF<Long, Long> model;
+            if (DataModelUtils.isBinaryDataModel(f)) {
+                model = new MappedDataModel(f, false);
+            } else if (dir == null) {
+                model = parser.parseData(f);
+            } else {
+                File snapshot = getSnapshot(parser, f, config, false);
+                if (snapshot.isFile()) {
+                    model = hit(snapshot, false);
+                } else {
+                    model = store(parser.parseData(f), snapshot, false);
+                }
+            }
+            stage.addPreferences(model);
+            return model;
+        }
+    }
+
+    /**
+     * Parses a temporal data file, or maps its snapshot if it has already
+     * been parsed.
+     *
+     * @param parser the parser
+     * @param f the file
+     * @param config the configuration of the parser that changes the model
+     * (besides its class), or an empty string
+     * @return the model (mapped if the file is binary or there is a cache
+     * directory, so it can be cleared but not modified)
+     * @throws IOException if the file cannot be parsed or the snapshot cannot
+     * be read or written
+     */
+    public TemporalDataModelIF<Long, Long> parseTemporalData(final Parser<Long, Long> parser, final File f, final String config)
+            throws IOException {
+        try (Profiler.Stage stage = Profiler.start("parse")) {
+            stage.addBytes(f.length());
+            TemporalDataModelIF<Long, Long> model;
+            if (DataModelUtils.isBinaryDataModel(f)) {
+                model = new MappedDataModel(f, false);
+            } else if (dir == null) {
+                model = parser.parseTemporalData(f);
+            } else {
+                File snapshot = getSnapshot(parser, f, config, true);
+                if (snapshot.isFile()) {
+                    model = hit(snapshot, false);
+                } else {
+                    model = store(parser.parseTemporalData(f), snapshot, false);
+                }
+            }
+            stage.addPreferences(model);
+            return model;
+        }
+    }
+
+    /**
+     * Parses a data file into a read-only snapshot (see
+     * {@link DataModelIF#toImmutable()}). Snapshots of the cache are mapped as
+     * read-only models, so neither a hit nor a miss keeps a copy of the data
+     * on the heap; without a cache directory the parsed model is converted.
+     *
+     * @param parser the parser
+     * @param f the file
+     * @param config the configuration of the parser that changes the model
+     * (besides its class), or an empty string
+     * @return the read-only model
+     * @throws IOException if the file cannot be parsed or the snapshot cannot
+     * be read or written
+     */
+    public DataModelIF<Long, Long> parseImmutableData(final Parser<Long, Long> parser, final File f, final String config)
+            throws IOException {
+        try (Profiler.Stage stage = Profiler.start("parse")) {
+            stage.addBytes(f.length());
+            DataModelIF<Long, Long> model;
+            if (DataModelUtils.isBinaryDataModel(f)) {
+                model = new MappedDataModel(f, true);
+            } else if (dir == null) {
+                model = parser.parseData(f).toImmutable();
+            } else {
+                File snapshot = getSnapshot(parser, f, config, false);
+                if (snapshot.isFile()) {
+                    model = hit(snapshot, true);
+                } else {
+                    model = store(parser.parseData(f), snapshot, true);
+                }
+            }
+            stage.addPreferences(model);
+            return model;
+        }
+    }
+
+    /**
+     * Stores a model in the cache, unless it is null, and maps its snapshot.
+     * The snapshot is mapped before the cache is trimmed, so the mapping
+     * stays valid even if the snapshot does not fit and is removed.
+     *
+     * @param model the model
+     * @param snapshot the file of the snapshot
+     * @param readOnly whether the snapshot is mapped as a read-only model
+     * @return the mapped snapshot, or null if the model is null
+     * @throws IOException if the snapshot cannot be written or read
+     */
+    private MappedDataModel store(final DataModelIF<Long, Long> model, final File snapshot, final boolean readOnly) throws IOException {
+        if (model == null) {
+            return null;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + dir);
+        }
+        DataModelUtils.saveBinaryDataModel(model, snapshot.getPath(), true);
+        MappedDataModel mapped = new MappedDataModel(snapshot, readOnly);
+        evict();
+        return mapped;
+    }
+
+    /**
+     * Maps a snapshot, marking it as recently used (a snapshot whose time
+     * cannot be updated is just evicted earlier).
+     *
+     * @param snapshot the file of the snapshot
+     * @param readOnly whether the snapshot is mapped as a read-only model
+     * @return the model
+     * @throws IOException if the snapshot cannot be read
+     */
+    private static MappedDataModel hit(final File snapshot, final boolean readOnly) throws IOException {
+        try (Profiler.Stage stage = Profiler.start("parse-cache-hit")) {
+            stage.addBytes(snapshot.length());
+            snapshot.setLastModified(System.currentTimeMillis());
+            return new MappedDataModel(snapshot, readOnly);
+        }
+    }
+
+    /**
+     * Gets the file of the snapshot of a data file.
+     *
+     * @param parser the parser
+     * @param f the file
+     * @param config the configuration of the parser
+     * @param temporal whether the temporal model is requested
+     * @return the file of the snapshot (it may not exist)
+     * @throws IOException if the path of the file cannot be resolved
+     */
+    public File getSnapshot(final Parser<Long, Long> parser, final File f, final String config, final boolean temporal)
+            throws IOException {
+        String key = f.getCanonicalPath() + "\n" + f.length() + "\n" + f.lastModified() + "\n"
+                + parser.getClass().getName() + "\n" + config + "\n" + temporal;
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder name = new StringBuilder(f.getName()).append('.');
+        for (int k = 0; k < NAME_BYTES; k++) {
+            String hex = Integer.toHexString(digest[k] & BYTE_MASK);
+            if (hex.length() == 1) {
+                name.append('0');
+            }
+            name.append(hex);
+        }
+        return new File(dir, name.append(SNAPSHOT_EXTENSION).toString());
+    }
+
+    /**
+     * Removes the least recently used snapshots until the cache fits its
+     * maximum size.
+     */
+    private void evict() {
+        File[] snapshots = dir.listFiles();
+        if (snapshots == null) {
+            return;
+        }
+        long size = 0;
+        for (File s : snapshots) {
+            if (s.getName().endsWith(SNAPSHOT_EXTENSION)) {
+                size += s.length();
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Arrays.sort(snapshots, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File s : snapshots) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (!s.getName().endsWith(SNAPSHOT_EXTENSION)) {
+                continue;
+            }
+            long length = s.length();
+            if (s.delete()) {
+                size -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Channel that reads a stream on a background thread, so that reading (and
+ * decompressing) the stream overlaps with the processing of its bytes. The
+ * background thread fills a ring of reusable buffers that are handed to the
+ * reader in order.
+ *
+ * Block gzip files (gzip members with the size of the member in a "BC" extra
+ * field, as written by bgzip) can also be inflated on several threads, since
+ * their members are found without decompressing them.
+ */
+public class PipelinedChannel implements ReadableByteChannel {
+
+    /**
+     * Default size of the buffers (the maximum size of a block gzip member).
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    /**
+     * Default number of buffers.
+     */
+    public static final int DEFAULT_BUFFERS = 16;
+    /**
+     * Size of the header of a block gzip member.
+     */
+    static final int BLOCK_HEADER_SIZE = 18;
+    /**
+     * Size of the trailer of a gzip member.
+     */
+    private static final int TRAILER_SIZE = 8;
+    /**
+     * Mask of a byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+    /**
+     * Bits of a byte.
+     */
+    private static final int BYTE_BITS = 8;
+    /**
+     * Position of the block size in the header of a block gzip member.
+     */
+    private static final int BLOCK_SIZE_OFFSET = 16;
+    /**
+     * The stream being read.
+     */
+    private final InputStream in;
+    /**
+     * The buffers that are free to be filled.
+     */
+    private final BlockingQueue<byte[]> free;
+    /**
+     * The filled buffers, in order.
+     */
+    private final BlockingQueue<Future<Block>> filled;
+    /**
+     * Threads inflating block gzip members (null for plain streams).
+     */
+    private final ExecutorService inflaters;
+    /**
+     * The thread reading the stream.
+     */
+    private final Thread producer;
+    /**
+     * The block being read.
+     */
+    private Block current;
+    /**
+     * Position of the next byte of the current block.
+     */
+    private int offset;
+    /**
+     * Whether this channel is open.
+     */
+    private boolean open = true;
+
+    /**
+     * Constructor with the default number and size of the buffers.
+     *
+     * @param stream the stream to read
+     */
+    public PipelinedChannel(final InputStream stream) {
+        this(stream, DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stream the stream to read
+     * @param buffers the number of buffers
+     * @param bufferSize the size of the buffers
+     */
+    public PipelinedChannel(final InputStream stream, final int buffers, final int bufferSize) {
+        this(stream, buffers, bufferSize, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stream the stream to read
+     * @param buffers the number of buffers
+     * @param bufferSize the size of the buffers
+     * @param threads the number of threads inflating block gzip members, or 0
+     * if the stream is read as it is
+     */
+    private PipelinedChannel(final InputStream stream, final int buffers, final int bufferSize, final int threads) {
+        if (buffers < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("The number and size of buffers must be positive");
+        }
+        this.in = stream;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        for (int k = 0; k < buffers; k++) {
+            free.add(new byte[bufferSize]);
+        }
+        // one more for the end of the stream
+        this.filled = new ArrayBlockingQueue<>(buffers + 1);
+        Runnable pump;
+        if (threads > 0) {
+            this.inflaters = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+            pump = new Runnable() {
+                @Override
+                public void run() {
+                    pumpBlocks();
+                }
+            };
+        } else {
+            this.inflaters = null;
+            pump = new Runnable() {
+                @Override
+                public void run() {
+                    pumpStream();
+                }
+            };
+        }
+        this.producer = new DaemonThreadFactory().newThread(pump);
+        producer.start();
+    }
+
+    /**
+     * Creates a channel that inflates a block gzip stream on several threads.
+     *
+     * @param compressed the compressed stream
+     * @param threads the number of threads
+     * @return the channel with the decompressed bytes
+     */
+    public static PipelinedChannel ofBlockGzip(final InputStream compressed, final int threads) {
+        return new PipelinedChannel(compressed, DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE, Math.max(1, threads));
+    }
+
+    /**
+     * Checks if some bytes are the header of a block gzip member.
+     *
+     * @param header the first bytes of a stream
+     * @return true if the stream is in block gzip format
+     */
+    static boolean isBlockGzipHeader(final byte[] header) {
+        final int flags = 3;
+        final int extraLength = 10;
+        final int subfield = 12;
+        final int subfieldLength = 14;
+        final int fextra = 4;
+        final int bgzfExtraLength = 6;
+        return header.length >= BLOCK_HEADER_SIZE
+                && (header[0] & BYTE_MASK) == 0x1f && (header[1] & BYTE_MASK) == 0x8b && header[2] == BYTE_BITS
+                && (header[flags] & fextra) != 0
+                && readShort(header, extraLength) == bgzfExtraLength
+                && header[subfield] == 'B' && header[subfield + 1] == 'C'
+                && readShort(header, subfieldLength) == 2;
+    }
+
+    /**
+     * Reads a little-endian unsigned short.
+     *
+     * @param b the bytes
+     * @param pos the position of the short
+     * @return the value
+     */
+    private static int readShort(final byte[] b, final int pos) {
+        return (b[pos] & BYTE_MASK) | ((b[pos + 1] & BYTE_MASK) << BYTE_BITS);
+    }
+
+    /**
+     * Reads a little-endian unsigned int.
+     *
+     * @param b the bytes
+     * @param pos the position of the int
+     * @return the value
+     */
+    private static long readInt(final byte[] b, final int pos) {
+        return readShort(b, pos) | ((long) readShort(b, pos + 2) << (2 * BYTE_BITS));
+    }
+
+    /**
+     * Reads as many bytes as possible into an array.
+     *
+     * @param stream the stream
+     * @param b the array
+     * @param from the position of the first byte to read
+     * @return the number of bytes read (less than requested only at the end
+     * of the stream)
+     * @throws IOException when the stream cannot be read
+     */
+    private static int readFully(final InputStream stream, final byte[] b, final int from) throws IOException {
+        int n = from;
+        while (n < b.length) {
+            int r = stream.read(b, n, b.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n - from;
+    }
+
+    /**
+     * Copies the stream into the buffers, as they become free.
+     */
+    private void pumpStream() {
+        try {
+            while (true) {
+                byte[] buffer = free.take();
+                int n;
+                try {
+                    n = readFully(in, buffer, 0);
+                } catch (IOException e) {
+                    filled.put(failed(e));
+                    return;
+                }
+                filled.put(done(new Block(buffer, n)));
+                if (n < buffer.length) {
+                    filled.put(done(new Block(null, -1)));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the channel has been closed
+            return;
+        }
+    }
+
+    /**
+     * Reads the block gzip members of the stream and inflates them on the
+     * pool, keeping their order.
+     */
+    private void pumpBlocks() {
+        try {
+            while (true) {
+                byte[] header = new byte[BLOCK_HEADER_SIZE];
+                final byte[] block;
+                try {
+                    int n = readFully(in, header, 0);
+                    if (n == 0) {
+                        filled.put(done(new Block(null, -1)));
+                        return;
+                    }
+                    if (n < BLOCK_HEADER_SIZE || !isBlockGzipHeader(header)) {
+                        throw new IOException("Not a block gzip member");
+                    }
+                    block = new byte[readShort(header, BLOCK_SIZE_OFFSET) + 1];
+                    System.arraycopy(header, 0, block, 0, BLOCK_HEADER_SIZE);
+                    if (readFully(in, block, BLOCK_HEADER_SIZE) < block.length - BLOCK_HEADER_SIZE) {
+                        throw new IOException("Truncated block gzip member");
+                    }
+                } catch (IOException e) {
+                    filled.put(failed(e));
+                    return;
+                }
+                final byte[] buffer = free.take();
+                FutureTask<Block> task = new FutureTask<>(new Callable<Block>() {
+                    @Override
+                    public Block call() throws IOException {
+                        return inflate(block, buffer);
+                    }
+                });
+                filled.put(task);
+                inflaters.execute(task);
+            }
+        } catch (InterruptedException e) {
+            // the channel has been closed
+            return;
+        }
+    }
+
+    /**
+     * Inflates a block gzip member.
+     *
+     * @param block the compressed member
+     * @param buffer where the member is inflated
+     * @return the block with the inflated bytes
+     * @throws IOException if the member is corrupt
+     */
+    private static Block inflate(final byte[] block, final byte[] buffer) throws IOException {
+        int size = (int) readInt(block, block.length - TRAILER_SIZE / 2);
+        if (size > buffer.length) {
+            throw new IOException("Block gzip member too large: " + size);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, BLOCK_HEADER_SIZE, block.length - BLOCK_HEADER_SIZE - TRAILER_SIZE);
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                int r = inflater.inflate(buffer, n, size - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, n);
+            if (n != size || crc.getValue() != readInt(block, block.length - TRAILER_SIZE)) {
+                throw new IOException("Corrupt block gzip member");
+            }
+            return new Block(buffer, n);
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Creates a completed future.
+     *
+     * @param block the result of the future
+     * @return the future
+     */
+    private static Future<Block> done(final Block block) {
+        FutureTask<Block> task = new FutureTask<>(new Callable<Block>() {
+            @Override
+            public Block call() {
+                return block;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * Creates a failed future.
+     *
+     * @param e the cause of the failure
+     * @return the future
+     */
+    private static Future<Block> failed(final IOException e) {
+        FutureTask<Block> task = new FutureTask<>(new Callable<Block>() {
+            @Override
+            public Block call() throws IOException {
+                throw e;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (current != null && current.length < 0) {
+            return -1;
+        }
+        while (current == null || offset == current.length) {
+            if (current != null) {
+                free.add(current.data);
+            }
+            current = null;
+            try {
+                current = filled.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            offset = 0;
+            if (current.length < 0) {
+                return -1;
+            }
+        }
+        int n = Math.min(dst.remaining(), current.length - offset);
+        dst.put(current.data, offset, n);
+        offset += n;
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        producer.interrupt();
+        if (inflaters != null) {
+            inflaters.shutdownNow();
+        }
+        in.close();
+    }
+
+    /**
+     * Bytes of a buffer handed to the reader.
+     */
+    private static final class Block {
+
+        /**
+         * The buffer.
+         */
+        private final byte[] data;
+        /**
+         * Number of bytes of the buffer (-1 at the end of the stream).
+         */
+        private final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param buffer the buffer
+         * @param n number of bytes of the buffer
+         */
+        private Block(final byte[] buffer, final int n) {
+            this.data = buffer;
+            this.length = n;
+        }
+    }
+
+    /**
+     * Creates daemon threads, so an unclosed channel does not keep the
+     * application running.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "rival-pipeline");
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
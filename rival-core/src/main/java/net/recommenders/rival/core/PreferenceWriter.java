@@ -0,0 +1,350 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Buffered writer of preferences as text lines, in the same format as
+ * {@link DataModelUtils#saveDataModel(TemporalDataModelIF, String, boolean)}
+ * (user, item, preference and timestamp separated by tabs). Numbers are
+ * formatted straight into the buffer, without building a string per line, and
+ * the buffer is written to its own channel, so several writers can fill
+ * different files at once.
+ */
+public final class PreferenceWriter implements Closeable {
+
+    /**
+     * Size of the buffer, in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Maximum number of bytes of a formatted long.
+     */
+    private static final int MAX_LONG_BYTES = 20;
+    /**
+     * Radix of the formatted numbers.
+     */
+    private static final int RADIX = 10;
+    /**
+     * Bound of the integral values formatted in place: from this value on,
+     * {@link Double#toString(double)} uses scientific notation.
+     */
+    private static final double MAX_INTEGRAL = 1e7;
+    /**
+     * Bits of the negative zero, which is not formatted in place.
+     */
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+    /**
+     * Separator of the fields of a line.
+     */
+    private static final byte SEPARATOR = '\t';
+    /**
+     * Separator of the lines.
+     */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    /**
+     * The channel where the lines are written.
+     */
+    private final FileChannel channel;
+    /**
+     * The buffer.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int size;
+    /**
+     * Number of bytes written to the channel.
+     */
+    private long flushed;
+
+    /**
+     * Constructor, which creates (or truncates) the file.
+     *
+     * @param file the file where the lines are written
+     * @throws IOException when the file cannot be opened
+     */
+    public PreferenceWriter(final File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes a preference.
+     *
+     * @param user the user
+     * @param item the item
+     * @param pref the preference
+     * @param time the timestamp (-1 if there is none)
+     * @throws IOException when the buffer cannot be written
+     */
+    public void write(final Object user, final Object item, final double pref, final long time) throws IOException {
+        putObject(user);
+        putByte(SEPARATOR);
+        putObject(item);
+        putByte(SEPARATOR);
+        putDouble(pref);
+        putByte(SEPARATOR);
+        putLong(time);
+        putBytes(LINE_SEPARATOR);
+    }
+
+    /**
+     * Gets the number of bytes written so far, including the buffered ones.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesWritten() {
+        return flushed + size;
+    }
+
+    /**
+     * Writes an id: longs are formatted in place, other objects through
+     * their string representation.
+     *
+     * @param o the id
+     * @throws IOException when the buffer cannot be written
+     */
+    private void putObject(final Object o) throws IOException {
+        if (o instanceof Long) {
+            putLong(((Long) o).longValue());
+        } else {
+            putBytes(String.valueOf(o).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes a long, as {@link Long#toString(long)} does.
+     *
+     * @param v the value
+     * @throws IOException when the buffer cannot be written
+     */
+    private void putLong(final long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            putBytes(Long.toString(v).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        ensure(MAX_LONG_BYTES);
+        long n = v;
+        if (n < 0) {
+            buffer[size++] = '-';
+            n = -n;
+        }
+        int digits = 1;
+        for (long m = n / RADIX; m > 0; m /= RADIX) {
+            digits++;
+        }
+        int k = size + digits;
+        size = k;
+        do {
+            buffer[--k] = (byte) ('0' + (n % RADIX));
+            n /= RADIX;
+        } while (n > 0);
+    }
+
+    /**
+     * Writes a double, as {@link Double#toString(double)} does. Integral
+     * values, the usual ratings, are formatted in place.
+     *
+     * @param v the value
+     * @throws IOException when the buffer cannot be written
+     */
+    private void putDouble(final double v) throws IOException {
+        if (v == Math.rint(v) && Math.abs(v) < MAX_INTEGRAL && Double.doubleToRawLongBits(v) != NEGATIVE_ZERO) {
+            putLong((long) v);
+            putByte((byte) '.');
+            putByte((byte) '0');
+        } else {
+            putBytes(Double.toString(v).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param b the byte
+     * @throws IOException when the buffer cannot be written
+     */
+    private void putByte(final byte b) throws IOException {
+        ensure(1);
+        buffer[size++] = b;
+    }
+
+    /**
+     * Writes some bytes.
+     *
+     * @param b the bytes
+     * @throws IOException when the buffer cannot be written
+     */
+    private void putBytes(final byte[] b) throws IOException {
+        int k = 0;
+        while (k < b.length) {
+            if (size == buffer.length) {
+                flush();
+            }
+            int n = Math.min(b.length - k, buffer.length - size);
+            System.arraycopy(b, k, buffer, size, n);
+            size += n;
+            k += n;
+        }
+    }
+
+    /**
+     * Makes room in the buffer.
+     *
+     * @param bytes the number of bytes needed
+     * @throws IOException when the buffer cannot be written
+     */
+    private void ensure(final int bytes) throws IOException {
+        if (buffer.length - size < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     *
+     * @throws IOException when the buffer cannot be written
+     */
+    public void flush() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, size);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        flushed += size;
+        size = 0;
+    }
+
+    /**
+     * Writes the buffered bytes and closes the channel.
+     *
+     * @throws IOException when the buffer cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Saves a data model to a file, with the same lines as
+     * {@link DataModelUtils#saveDataModel(TemporalDataModelIF, String, boolean)}
+     * (or the non-temporal version, for models without timestamps).
+     *
+     * @param dm the data model
+     * @param file file where the model will be saved
+     * @param <U> type of users
+     * @param <I> type of items
+     * @return the number of bytes written
+     * @throws IOException when the file cannot be written
+     */
+    public static <U, I> long save(final DataModelIF<U, I> dm, final File file) throws IOException {
+        Map<U, Map<I, Set<Long>>> timestamps = null;
+        if (dm instanceof TemporalDataModelIF) {
+            timestamps = ((TemporalDataModelIF<U, I>) dm).getUserItemTimestamps();
+        }
+        try (PreferenceWriter out = new PreferenceWriter(file)) {
+            LineConsumer<U, I> lines = new LineConsumer<>(out, timestamps);
+            dm.forEachPreference(lines);
+            if (lines.error != null) {
+                throw lines.error;
+            }
+            out.flush();
+            return out.getBytesWritten();
+        }
+    }
+
+    /**
+     * Consumer that writes the lines of every preference.
+     *
+     * @param <U> type of users
+     * @param <I> type of items
+     */
+    private static final class LineConsumer<U, I> implements PreferenceConsumer<U, I> {
+
+        /**
+         * The writer.
+         */
+        private final PreferenceWriter out;
+        /**
+         * The timestamps of the model (null if it is not temporal).
+         */
+        private final Map<U, Map<I, Set<Long>>> timestamps;
+        /**
+         * The user of the previous preference.
+         */
+        private U lastUser;
+        /**
+         * The timestamps of that user.
+         */
+        private Map<I, Set<Long>> userTimeModel;
+        /**
+         * Error found while writing, if any.
+         */
+        private IOException error;
+
+        /**
+         * Constructor.
+         *
+         * @param writer the writer
+         * @param times the timestamps of the model (null if it is not
+         * temporal)
+         */
+        LineConsumer(final PreferenceWriter writer, final Map<U, Map<I, Set<Long>>> times) {
+            this.out = writer;
+            this.timestamps = times;
+        }
+
+        @Override
+        public void consume(final U user, final I item, final double pref) {
+            if (error != null) {
+                return;
+            }
+            // preferences come grouped by user
+            if (timestamps != null && !user.equals(lastUser)) {
+                lastUser = user;
+                userTimeModel = timestamps.get(user);
+            }
+            Set<Long> time = null;
+            if (userTimeModel != null) {
+                time = userTimeModel.get(item);
+            }
+            try {
+                if (time == null) {
+                    out.write(user, item, pref, -1L);
+                } else {
+                    for (Long t : time) {
+                        out.write(user, item, pref, t);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+}
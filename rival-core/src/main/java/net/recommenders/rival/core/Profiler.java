@@ -0,0 +1,452 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Profiler of the stages of a pipeline (parsing, splitting, recommending,
+ * evaluating, ...).
+ *
+ * Each run of a stage records its time, the bytes and lines it processed,
+ * the peak heap usage, the memory allocated and the time spent in garbage
+ * collections. The statistics are accumulated per stage, registered as
+ * MXBeans under {@link #MBEAN_DOMAIN} and, if a summary file is configured,
+ * written to it as tab-separated values every time a stage finishes.
+ *
+ * The profiler is disabled by default; then {@link #start(String)} returns a
+ * stage that does nothing, so it can be left in the code.
+ */
+public final class Profiler {
+
+    /**
+     * Variable that represent the name of a property in the file (it can
+     * also be given as a system property).
+     */
+    public static final String PROFILING_ENABLED = "profiling.enabled";
+    /**
+     * Variable that represent the name of a property in the file (it can
+     * also be given as a system property).
+     */
+    public static final String PROFILING_SUMMARY = "profiling.summary";
+    /**
+     * Domain of the MXBeans of the stages.
+     */
+    public static final String MBEAN_DOMAIN = "net.recommenders.rival";
+    /**
+     * Header of the summary file.
+     */
+    public static final String SUMMARY_HEADER = "stage\tcount\tmillis\tbytes\tlines\tbytes_per_sec\tlines_per_sec\tpeak_memory\tallocated_bytes\tgc_millis";
+    /**
+     * The stage returned while the profiler is disabled.
+     */
+    private static final Stage NO_OP = new Stage(null);
+    /**
+     * The statistics of each stage, in the order they first ran.
+     */
+    private static final Map<String, StageStats> STAGES = new LinkedHashMap<>();
+    /**
+     * The stages that are running.
+     */
+    private static final List<Stage> RUNNING = new ArrayList<>();
+    /**
+     * Whether the profiler is enabled.
+     */
+    private static volatile boolean enabled;
+    /**
+     * The summary file (null if no summary is written).
+     */
+    private static volatile File summary;
+
+    /**
+     * Utility classes should not have a public or default constructor.
+     */
+    private Profiler() {
+    }
+
+    /**
+     * Configures the profiler from the properties {@link #PROFILING_ENABLED}
+     * and {@link #PROFILING_SUMMARY}, or from the system properties with the
+     * same names. A property that is not set leaves the current
+     * configuration.
+     *
+     * @param properties the properties
+     */
+    public static void configure(final Properties properties) {
+        String enable = properties.getProperty(PROFILING_ENABLED, System.getProperty(PROFILING_ENABLED));
+        if (enable != null) {
+            setEnabled(Boolean.parseBoolean(enable));
+        }
+        String file = properties.getProperty(PROFILING_SUMMARY, System.getProperty(PROFILING_SUMMARY));
+        if (file != null) {
+            setSummary(new File(file));
+        }
+    }
+
+    /**
+     * Enables or disables the profiler.
+     *
+     * @param enable whether the stages are profiled
+     */
+    public static void setEnabled(final boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Checks if the profiler is enabled.
+     *
+     * @return true if the stages are profiled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the summary file.
+     *
+     * @param file the file, or null to write no summary
+     */
+    public static void setSummary(final File file) {
+        summary = file;
+    }
+
+    /**
+     * Starts a run of a stage. It should be closed when the stage finishes
+     * (for instance, with a try-with-resources statement).
+     *
+     * @param name the name of the stage
+     * @return the run of the stage (which does nothing if the profiler is
+     * disabled)
+     */
+    public static Stage start(final String name) {
+        if (!enabled) {
+            return NO_OP;
+        }
+        Stage stage = new Stage(name);
+        synchronized (Profiler.class) {
+            // the peaks are reset for the new stage, so the running ones
+            // keep the peak observed so far
+            long peak = peakHeapUsage();
+            for (Stage s : RUNNING) {
+                s.peak = Math.max(s.peak, peak);
+            }
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    pool.resetPeakUsage();
+                }
+            }
+            RUNNING.add(stage);
+        }
+        stage.begin();
+        return stage;
+    }
+
+    /**
+     * Gets the statistics of the stages that have run.
+     *
+     * @return the statistics of each stage, in the order they first ran
+     */
+    public static synchronized Map<String, StageStatsMXBean> getStages() {
+        return new LinkedHashMap<String, StageStatsMXBean>(STAGES);
+    }
+
+    /**
+     * Writes the statistics of the stages as tab-separated values, with the
+     * header {@link #SUMMARY_HEADER}. The file is written next to the target
+     * and then moved over it, so readers never see a partial summary.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public static synchronized void writeSummary(final File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintStream out = new PrintStream(tmp, "UTF-8")) {
+            out.println(SUMMARY_HEADER);
+            for (StageStats stats : STAGES.values()) {
+                out.println(stats);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Records a finished run of a stage.
+     *
+     * @param stage the run
+     * @param nanos the time of the run
+     * @param allocated the bytes allocated during the run
+     * @param gcMillis the time in garbage collections during the run
+     */
+    private static void finish(final Stage stage, final long nanos, final long allocated, final long gcMillis) {
+        File file;
+        synchronized (Profiler.class) {
+            RUNNING.remove(stage);
+            long peak = Math.max(stage.peak, peakHeapUsage());
+            StageStats stats = STAGES.get(stage.name);
+            if (stats == null) {
+                stats = new StageStats(stage.name);
+                STAGES.put(stage.name, stats);
+                register(stats);
+            }
+            stats.add(nanos, stage.bytes, stage.lines, peak, allocated, gcMillis);
+            file = summary;
+        }
+        if (file != null) {
+            try {
+                writeSummary(file);
+            } catch (IOException e) {
+                System.out.println("Cannot write the profiling summary: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers the MXBean of a stage.
+     *
+     * @param stats the statistics of the stage
+     */
+    private static void register(final StageStats stats) {
+        try {
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=Stage,name=" + ObjectName.quote(stats.getName()));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(stats, name);
+            }
+        } catch (JMException e) {
+            System.out.println("Cannot register the statistics of " + stats.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the peak usage of the heap since the peaks were last reset.
+     *
+     * @return the sum of the peaks of the heap memory pools
+     */
+    private static long peakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Gets the total time spent in garbage collections.
+     *
+     * @return the time, in milliseconds
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Gets the bytes allocated so far by each live thread.
+     *
+     * @return the allocated bytes by thread id (empty if the JVM does not
+     * measure them)
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                long[] ids = sun.getAllThreadIds();
+                long[] bytes = sun.getThreadAllocatedBytes(ids);
+                for (int k = 0; k < ids.length; k++) {
+                    if (bytes[k] >= 0) {
+                        allocated.put(ids[k], bytes[k]);
+                    }
+                }
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * A run of a stage.
+     *
+     * The memory allocated is measured over the threads that are alive when
+     * the run finishes (threads that end during the run are not counted).
+     */
+    public static final class Stage implements AutoCloseable {
+
+        /**
+         * The name of the stage (null for the stage that does nothing).
+         */
+        private final String name;
+        /**
+         * The time when the run started, in nanoseconds.
+         */
+        private long startNanos;
+        /**
+         * The time in garbage collections when the run started.
+         */
+        private long startGcMillis;
+        /**
+         * The bytes allocated by each thread when the run started.
+         */
+        private Map<Long, Long> startAllocated;
+        /**
+         * The peak heap usage observed before the peaks were reset.
+         */
+        private long peak;
+        /**
+         * Bytes processed.
+         */
+        private long bytes;
+        /**
+         * Lines processed.
+         */
+        private long lines;
+        /**
+         * Whether the run has finished.
+         */
+        private boolean closed;
+
+        /**
+         * Constructor.
+         *
+         * @param stage the name of the stage
+         */
+        private Stage(final String stage) {
+            this.name = stage;
+        }
+
+        /**
+         * Takes the measures at the start of the run.
+         */
+        private void begin() {
+            startAllocated = allocatedBytes();
+            startGcMillis = gcMillis();
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Adds to the bytes processed by the run.
+         *
+         * @param n the number of bytes
+         */
+        public void addBytes(final long n) {
+            if (name != null) {
+                bytes += n;
+            }
+        }
+
+        /**
+         * Adds to the lines (or records) processed by the run.
+         *
+         * @param n the number of lines
+         */
+        public void addLines(final long n) {
+            if (name != null) {
+                lines += n;
+            }
+        }
+
+        /**
+         * Adds the preferences of a model to the lines processed by the run,
+         * for stages that read the model from a file with one preference per
+         * line. The preferences are only counted while profiling.
+         *
+         * @param model the model (ignored if null)
+         */
+        public void addPreferences(final DataModelIF<?, ?> model) {
+            if (name == null || model == null) {
+                return;
+            }
+            final long[] n = new long[1];
+            model.forEachPreference(new PreferenceConsumer<Object, Object>() {
+                @Override
+                public void consume(final Object user, final Object item, final double preference) {
+                    n[0]++;
+                }
+            });
+            lines += n[0];
+        }
+
+        /**
+         * Adds the bytes and the lines of a text file to the ones processed by
+         * the run. The lines are only counted while profiling.
+         *
+         * @param file the file (ignored if it does not exist)
+         * @throws IOException if the file cannot be read
+         */
+        public void addFile(final File file) throws IOException {
+            if (name == null || !file.isFile()) {
+                return;
+            }
+            bytes += file.length();
+            byte[] buffer = new byte[1 << 16];
+            try (InputStream in = new FileInputStream(file)) {
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finishes the run and records its statistics.
+         */
+        @Override
+        public void close() {
+            if (name == null || closed) {
+                return;
+            }
+            closed = true;
+            long nanos = System.nanoTime() - startNanos;
+            long gc = gcMillis() - startGcMillis;
+            long allocated = 0;
+            for (Map.Entry<Long, Long> e : allocatedBytes().entrySet()) {
+                Long before = startAllocated.get(e.getKey());
+                if (before == null) {
+                    allocated += e.getValue();
+                } else {
+                    allocated += e.getValue() - before;
+                }
+            }
+            finish(this, nanos, allocated, gc);
+        }
+    }
+}
@@ -17,10 +17,9 @@ package net.recommenders.rival.core;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.zip.GZIPInputStream;
+import java.nio.channels.Channels;
 
 /**
  * Data parser for tab-separated data files.
@@ -45,6 +44,27 @@ public class SimpleParser implements Parser<Long, Long> {
      * The column index for the time in the file.
      */
     public static final int TIME_TOK = 3;
+    /**
+     * The filter of the users whose lines are kept (null to keep them all).
+     */
+    private final UserFilter userFilter;
+
+    /**
+     * Default constructor, which keeps every line.
+     */
+    public SimpleParser() {
+        this(null);
+    }
+
+    /**
+     * Constructor that only keeps the lines of some users, dropping the other
+     * ones as they are parsed.
+     *
+     * @param filter the filter of the users (null to keep every line)
+     */
+    public SimpleParser(final UserFilter filter) {
+        this.userFilter = filter;
+    }
 
     /**
      * {@inheritDoc}
@@ -63,7 +83,10 @@ public class SimpleParser implements Parser<Long, Long> {
     }
 
     /**
-     * Parses a data file with a specific separator between fields.
+     * Parses a data file with a specific separator between fields. Files with
+     * a literal separator are parsed by a {@link ParallelParser}; other
+     * separators are read as regular expressions by
+     * {@link String#split(String)}.
      *
      * @param f The file to be parsed.
      * @param token The separator to be used.
@@ -73,25 +96,33 @@ public class SimpleParser implements Parser<Long, Long> {
      * @throws IOException if the file cannot be read.
      */
     public TemporalDataModelIF<Long, Long> parseData(final File f, final String token, final boolean isTemporal) throws IOException {
-        TemporalDataModelIF<Long, Long> dataset = new TemporalDataModel<>();
+        if (ByteTokenizer.isLiteral(token)) {
+            ParallelParser parser = new ParallelParser(token, USER_TOK, ITEM_TOK, RATING_TOK, TIME_TOK, true);
+            if (userFilter != null) {
+                parser = parser.filterUsers(userFilter);
+            }
+            return parser.parse(f, isTemporal).buildTemporalDataModel();
+        }
+        DataModelBuilder builder = new DataModelBuilder();
 
         BufferedReader br = SimpleParser.getBufferedReader(f);
         String line = br.readLine();
         if ((line != null) && (!line.matches(".*[a-zA-Z].*"))) {
-            parseLine(line, dataset, token, isTemporal);
+            parseLine(line, builder, token, isTemporal);
         }
         while ((line = br.readLine()) != null) {
-            parseLine(line, dataset, token, isTemporal);
+            parseLine(line, builder, token, isTemporal);
         }
         br.close();
 
-        return dataset;
+        return builder.buildTemporalDataModel();
     }
 
     /**
-     * Obtains an instance of BufferedReader depending on the file extension: if
-     * it ends with gz, zip, or tgz then a compressed reader is used instead of
-     * the standard one.
+     * Obtains an instance of BufferedReader depending on the contents of the
+     * file: if it is compressed (gzip, tar.gz, or zip) then a reader that
+     * decompresses it on another thread is used instead of the standard one
+     * (see {@link CompressedInput}).
      *
      * @param f The file to be opened.
      * @return An instance of BufferedReader or null if there is a problem
@@ -103,11 +134,7 @@ public class SimpleParser implements Parser<Long, Long> {
         if ((f == null) || (!f.isFile())) {
             return br;
         }
-        if (f.getName().endsWith(".gz") || f.getName().endsWith(".zip") || f.getName().endsWith(".tgz")) {
-            br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(f)), "UTF-8"));
-        } else {
-            br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
-        }
+        br = new BufferedReader(new InputStreamReader(Channels.newInputStream(CompressedInput.open(f)), "UTF-8"));
         return br;
     }
 
@@ -115,18 +142,21 @@ public class SimpleParser implements Parser<Long, Long> {
      * Parses line from data file.
      *
      * @param line The line to be parsed.
-     * @param dataset The dataset to add data from line to.
+     * @param builder The builder to add data from line to.
      * @param token the token to split on.
      * @param isTemporal A flag indicating if the line contains temporal
      * information.
      */
-    private void parseLine(final String line, final TemporalDataModelIF<Long, Long> dataset, final String token, final boolean isTemporal) {
+    private void parseLine(final String line, final DataModelBuilder builder, final String token, final boolean isTemporal) {
         if (line == null) {
             return;
         }
         String[] toks = line.split(token);
         // user
         long userId = Long.parseLong(toks[USER_TOK]);
+        if (userFilter != null && !userFilter.accept(userId)) {
+            return;
+        }
         // item
         long itemId = Long.parseLong(toks[ITEM_TOK]);
         // preference
@@ -140,9 +170,9 @@ public class SimpleParser implements Parser<Long, Long> {
         //////
         // update information
         //////
-        dataset.addPreference(userId, itemId, preference);
+        builder.addPreference(userId, itemId, preference);
         if (timestamp != -1) {
-            dataset.addTimestamp(userId, itemId, timestamp);
+            builder.addTimestamp(userId, itemId, timestamp);
         }
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+/**
+ * Accumulated statistics of the runs of a stage.
+ */
+public class StageStats implements StageStatsMXBean {
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
+    /**
+     * Milliseconds in a second.
+     */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+    /**
+     * The name of the stage.
+     */
+    private final String name;
+    /**
+     * Number of runs.
+     */
+    private long count;
+    /**
+     * Total time of the runs, in nanoseconds.
+     */
+    private long nanos;
+    /**
+     * Bytes processed.
+     */
+    private long bytes;
+    /**
+     * Lines processed.
+     */
+    private long lines;
+    /**
+     * Peak heap usage.
+     */
+    private long peakMemory;
+    /**
+     * Allocated bytes.
+     */
+    private long allocated;
+    /**
+     * Time in garbage collections, in milliseconds.
+     */
+    private long gcMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param stage the name of the stage
+     */
+    public StageStats(final String stage) {
+        this.name = stage;
+    }
+
+    /**
+     * Adds a run of the stage.
+     *
+     * @param runNanos the time of the run, in nanoseconds
+     * @param runBytes the bytes processed
+     * @param runLines the lines processed
+     * @param runPeak the peak heap usage during the run
+     * @param runAllocated the bytes allocated during the run
+     * @param runGcMillis the time in garbage collections during the run
+     */
+    public synchronized void add(final long runNanos, final long runBytes, final long runLines, final long runPeak,
+            final long runAllocated, final long runGcMillis) {
+        count++;
+        nanos += runNanos;
+        bytes += runBytes;
+        lines += runLines;
+        peakMemory = Math.max(peakMemory, runPeak);
+        allocated += runAllocated;
+        gcMillis += runGcMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getTotalMillis() {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getLines() {
+        return lines;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized double getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized double getLinesPerSecond() {
+        return perSecond(lines);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getPeakMemory() {
+        return peakMemory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getGcMillis() {
+        return gcMillis;
+    }
+
+    /**
+     * Computes a rate over the total time of the runs.
+     *
+     * @param amount the amount processed
+     * @return the amount per second, or 0 if no time has been measured
+     */
+    private double perSecond(final long amount) {
+        if (nanos == 0) {
+            return 0.0;
+        }
+        return amount * MILLIS_PER_SECOND * NANOS_PER_MILLI / nanos;
+    }
+
+    /**
+     * Formats the statistics as a line of the summary written by
+     * {@link Profiler#writeSummary(java.io.File)}.
+     *
+     * @return the tab-separated values, in the order of
+     * {@link Profiler#SUMMARY_HEADER}
+     */
+    @Override
+    public synchronized String toString() {
+        return name + "\t" + count + "\t" + getTotalMillis() + "\t" + bytes + "\t" + lines + "\t" + getBytesPerSecond()
+                + "\t" + getLinesPerSecond() + "\t" + peakMemory + "\t" + allocated + "\t" + gcMillis;
+    }
+}
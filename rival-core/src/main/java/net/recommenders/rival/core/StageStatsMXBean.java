@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+/**
+ * Statistics of the runs of a stage (parsing, splitting, recommending,
+ * ...), as exposed through JMX by {@link Profiler}.
+ */
+public interface StageStatsMXBean {
+
+    /**
+     * Gets the name of the stage.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Gets the number of runs of the stage.
+     *
+     * @return the number of runs
+     */
+    long getCount();
+
+    /**
+     * Gets the total time of the runs.
+     *
+     * @return the time, in milliseconds
+     */
+    long getTotalMillis();
+
+    /**
+     * Gets the bytes read or written by the runs.
+     *
+     * @return the number of bytes
+     */
+    long getBytes();
+
+    /**
+     * Gets the lines (or records) processed by the runs.
+     *
+     * @return the number of lines
+     */
+    long getLines();
+
+    /**
+     * Gets the throughput in bytes.
+     *
+     * @return the bytes per second
+     */
+    double getBytesPerSecond();
+
+    /**
+     * Gets the throughput in lines.
+     *
+     * @return the lines per second
+     */
+    double getLinesPerSecond();
+
+    /**
+     * Gets the highest heap usage observed during a run.
+     *
+     * @return the peak heap usage, in bytes
+     */
+    long getPeakMemory();
+
+    /**
+     * Gets the memory allocated by the threads that ran the stage.
+     *
+     * @return the allocated bytes, or 0 if the JVM does not measure them
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Gets the time spent in garbage collections during the runs.
+     *
+     * @return the time, in milliseconds
+     */
+    long getGcMillis();
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Dictionary between external string keys (e.g., the user names or track ids
+ * of a dataset) and long ids. Keys are stored as UTF-8 bytes in a single
+ * array and looked up in an open addressing hash table, so no object is
+ * created per key. Keys can be looked up directly from the bytes of a line
+ * (see {@link ByteTokenizer#getBuffer()}), including keys made of two fields
+ * joined by a separator, without building the joined key.
+ *
+ * Dictionaries are saved in a little-endian binary file (a header, the ids,
+ * the offsets and hashes of the keys, the hash table, and the bytes of the
+ * keys) that is mapped and copied in bulk when it is loaded, so the table
+ * does not have to be rebuilt.
+ */
+public class StringDictionary {
+
+    /**
+     * Magic number of the binary format ("RVSD").
+     */
+    static final int MAGIC = 0x44535652;
+    /**
+     * Version of the binary format.
+     */
+    static final int VERSION = 1;
+    /**
+     * Size of the header, in bytes.
+     */
+    private static final int HEADER_SIZE = 32;
+    /**
+     * Initial capacity of the table.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Multiplier used to spread the bits of the hashes (golden ratio).
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+    /**
+     * Multiplier of the polynomial hash of the bytes.
+     */
+    private static final int BYTE_MULTIPLIER = 31;
+    /**
+     * Bits of an int.
+     */
+    private static final int INT_BITS = 32;
+    /**
+     * Bytes of the keys, one after the other.
+     */
+    private byte[] arena;
+    /**
+     * Number of bytes used in the arena.
+     */
+    private int arenaSize;
+    /**
+     * Start of every key in the arena (the key k ends at offsets[k + 1]).
+     */
+    private int[] offsets;
+    /**
+     * Hash of every key.
+     */
+    private int[] hashes;
+    /**
+     * Id of every key.
+     */
+    private long[] ids;
+    /**
+     * Number of keys.
+     */
+    private int size;
+    /**
+     * Index of the key of every slot plus one (0 means the slot is empty).
+     */
+    private int[] slots;
+    /**
+     * Number of bits used to select a slot.
+     */
+    private int bits;
+    /**
+     * Id of the next new key.
+     */
+    private long nextId;
+
+    /**
+     * Default constructor, for an empty dictionary whose first id is 0.
+     */
+    public StringDictionary() {
+        this.bits = Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+        this.slots = new int[INITIAL_CAPACITY];
+        this.arena = new byte[INITIAL_CAPACITY * INITIAL_CAPACITY];
+        this.offsets = new int[INITIAL_CAPACITY + 1];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.ids = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Gets the number of keys.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the id that the next new key will get.
+     *
+     * @return the next id
+     */
+    public long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Makes new keys get ids of at least a given value.
+     *
+     * @param id the minimum id of the next new key
+     */
+    public void setNextId(final long id) {
+        nextId = Math.max(nextId, id);
+    }
+
+    /**
+     * Gets a key, by position (keys are kept in insertion order).
+     *
+     * @param k the position of the key
+     * @return the key
+     */
+    public String getKey(final int k) {
+        return new String(arena, offsets[k], offsets[k + 1] - offsets[k], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the id of a key, by position.
+     *
+     * @param k the position of the key
+     * @return the id
+     */
+    public long getId(final int k) {
+        return ids[k];
+    }
+
+    /**
+     * Gets the id of a key.
+     *
+     * @param key the key
+     * @return the id, or -1 if the key is not in the dictionary
+     */
+    public long get(final String key) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        int k = find(b, 0, b.length, (byte) 0, 0, -1, hash(b, 0, b.length, 0));
+        if (k < 0) {
+            return -1;
+        }
+        return ids[k];
+    }
+
+    /**
+     * Gets the id of a key, adding it with the next id if it is new.
+     *
+     * @param key the key
+     * @return the id
+     */
+    public long getOrAdd(final String key) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        return getOrAdd(b, 0, b.length);
+    }
+
+    /**
+     * Gets the id of a key given as bytes, adding it with the next id if it
+     * is new.
+     *
+     * @param b the array with the bytes of the key
+     * @param off position of the key in the array
+     * @param len length of the key
+     * @return the id
+     */
+    public long getOrAdd(final byte[] b, final int off, final int len) {
+        return getOrAdd(b, off, len, (byte) 0, 0, -1);
+    }
+
+    /**
+     * Gets the id of the key made of two parts joined by a separator (e.g.,
+     * "artist_track"), adding it with the next id if it is new. The joined
+     * key is never built.
+     *
+     * @param b the array with the bytes of both parts
+     * @param off position of the first part in the array
+     * @param len length of the first part
+     * @param separator the separator between the parts
+     * @param off2 position of the second part in the array
+     * @param len2 length of the second part (-1 if the key only has the first
+     * part, without separator)
+     * @return the id
+     */
+    public long getOrAdd(final byte[] b, final int off, final int len, final byte separator, final int off2, final int len2) {
+        int h = hash(b, off, len, 0);
+        if (len2 >= 0) {
+            h = h * BYTE_MULTIPLIER + separator;
+            h = hash(b, off2, len2, h);
+        }
+        int k = find(b, off, len, separator, off2, len2, h);
+        if (k >= 0) {
+            return ids[k];
+        }
+        return add(b, off, len, separator, off2, len2, h, nextId);
+    }
+
+    /**
+     * Adds a key with a given id (the next new key gets a larger id).
+     *
+     * @param key the key
+     * @param id the id
+     */
+    public void put(final String key, final long id) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        int h = hash(b, 0, b.length, 0);
+        int k = find(b, 0, b.length, (byte) 0, 0, -1, h);
+        if (k >= 0) {
+            ids[k] = id;
+            nextId = Math.max(nextId, id + 1);
+        } else {
+            add(b, 0, b.length, (byte) 0, 0, -1, h, id);
+        }
+    }
+
+    /**
+     * Computes the polynomial hash of some bytes.
+     *
+     * @param b the array
+     * @param off the first byte
+     * @param len the number of bytes
+     * @param seed the hash of the previous bytes
+     * @return the hash
+     */
+    private static int hash(final byte[] b, final int off, final int len, final int seed) {
+        int h = seed;
+        for (int k = off; k < off + len; k++) {
+            h = h * BYTE_MULTIPLIER + b[k];
+        }
+        return h;
+    }
+
+    /**
+     * Gets the first slot of a hash.
+     *
+     * @param h the hash
+     * @return the slot
+     */
+    private int slot(final int h) {
+        return (h * HASH_MULTIPLIER) >>> (INT_BITS - bits);
+    }
+
+    /**
+     * Finds a key.
+     *
+     * @param b the array with the bytes of the key
+     * @param off position of the first part
+     * @param len length of the first part
+     * @param separator the separator between the parts
+     * @param off2 position of the second part
+     * @param len2 length of the second part (-1 if there is none)
+     * @param h the hash of the key
+     * @return the position of the key, or -1 if it is not in the dictionary
+     */
+    private int find(final byte[] b, final int off, final int len, final byte separator, final int off2, final int len2, final int h) {
+        int mask = slots.length - 1;
+        int totalLength = len;
+        if (len2 >= 0) {
+            totalLength += 1 + len2;
+        }
+        for (int s = slot(h);; s = (s + 1) & mask) {
+            int k = slots[s] - 1;
+            if (k < 0) {
+                return -1;
+            }
+            if (hashes[k] == h && offsets[k + 1] - offsets[k] == totalLength && matches(k, b, off, len, separator, off2, len2)) {
+                return k;
+            }
+        }
+    }
+
+    /**
+     * Compares a key with the bytes of the dictionary.
+     *
+     * @param k the position of the key in the dictionary
+     * @param b the array with the bytes of the key
+     * @param off position of the first part
+     * @param len length of the first part
+     * @param separator the separator between the parts
+     * @param off2 position of the second part
+     * @param len2 length of the second part (-1 if there is none)
+     * @return true if the bytes are equal
+     */
+    private boolean matches(final int k, final byte[] b, final int off, final int len, final byte separator, final int off2, final int len2) {
+        int p = offsets[k];
+        for (int j = 0; j < len; j++) {
+            if (arena[p++] != b[off + j]) {
+                return false;
+            }
+        }
+        if (len2 < 0) {
+            return true;
+        }
+        if (arena[p++] != separator) {
+            return false;
+        }
+        for (int j = 0; j < len2; j++) {
+            if (arena[p++] != b[off2 + j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a key that is not in the dictionary.
+     *
+     * @param b the array with the bytes of the key
+     * @param off position of the first part
+     * @param len length of the first part
+     * @param separator the separator between the parts
+     * @param off2 position of the second part
+     * @param len2 length of the second part (-1 if there is none)
+     * @param h the hash of the key
+     * @param id the id of the key
+     * @return the id
+     */
+    private long add(final byte[] b, final int off, final int len, final byte separator, final int off2, final int len2,
+            final int h, final long id) {
+        int totalLength = len;
+        if (len2 >= 0) {
+            totalLength += 1 + len2;
+        }
+        if (arenaSize + totalLength > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + totalLength));
+        }
+        System.arraycopy(b, off, arena, arenaSize, len);
+        if (len2 >= 0) {
+            arena[arenaSize + len] = separator;
+            System.arraycopy(b, off2, arena, arenaSize + len + 1, len2);
+        }
+        arenaSize += totalLength;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+            offsets = Arrays.copyOf(offsets, 2 * size + 1);
+        }
+        ids[size] = id;
+        hashes[size] = h;
+        offsets[size + 1] = arenaSize;
+        size++;
+        nextId = Math.max(nextId, id + 1);
+        // keep the load factor under 0.5
+        if (2 * size > slots.length) {
+            bits++;
+            slots = new int[slots.length * 2];
+            for (int k = 0; k < size; k++) {
+                insertSlot(k);
+            }
+        } else {
+            insertSlot(size - 1);
+        }
+        return id;
+    }
+
+    /**
+     * Puts a key in the table.
+     *
+     * @param k the position of the key
+     */
+    private void insertSlot(final int k) {
+        int mask = slots.length - 1;
+        int s = slot(hashes[k]);
+        while (slots[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        slots[s] = k + 1;
+    }
+
+    /**
+     * Saves the dictionary in binary format.
+     *
+     * @param f the file
+     * @throws IOException when the file cannot be written
+     */
+    public void save(final File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(size);
+            out.putInt(slots.length);
+            out.putInt(arenaSize);
+            // reserved
+            out.putInt(0);
+            out.putLong(nextId);
+            out.endColumn();
+            for (int k = 0; k < size; k++) {
+                out.putLong(ids[k]);
+            }
+            out.endColumn();
+            for (int k = 0; k <= size; k++) {
+                out.putInt(offsets[k]);
+            }
+            out.endColumn();
+            for (int k = 0; k < size; k++) {
+                out.putInt(hashes[k]);
+            }
+            out.endColumn();
+            for (int s : slots) {
+                out.putInt(s);
+            }
+            out.endColumn();
+            out.putBytes(arena, 0, arenaSize);
+            out.flush();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a dictionary saved with {@link #save(File)}.
+     *
+     * @param f the file
+     * @return the dictionary
+     * @throws IOException when the file cannot be read or is not a
+     * dictionary
+     */
+    public static StringDictionary load(final File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a string dictionary: " + f);
+            }
+            int v = buffer.getInt();
+            if (v != VERSION) {
+                throw new IOException("Unsupported string dictionary version: " + v);
+            }
+            StringDictionary dictionary = new StringDictionary();
+            dictionary.size = buffer.getInt();
+            int capacity = buffer.getInt();
+            dictionary.arenaSize = buffer.getInt();
+            buffer.getInt();
+            dictionary.nextId = buffer.getLong();
+            dictionary.bits = Integer.numberOfTrailingZeros(capacity);
+            long offset = MappedDataModel.align(HEADER_SIZE);
+            buffer.position((int) offset);
+            dictionary.ids = new long[Math.max(1, dictionary.size)];
+            buffer.asLongBuffer().get(dictionary.ids, 0, dictionary.size);
+            offset = MappedDataModel.align(offset + (long) dictionary.size * Long.SIZE / Byte.SIZE);
+            buffer.position((int) offset);
+            dictionary.offsets = new int[dictionary.ids.length + 1];
+            buffer.asIntBuffer().get(dictionary.offsets, 0, dictionary.size + 1);
+            offset = MappedDataModel.align(offset + ((long) dictionary.size + 1) * Integer.SIZE / Byte.SIZE);
+            buffer.position((int) offset);
+            dictionary.hashes = new int[dictionary.ids.length];
+            buffer.asIntBuffer().get(dictionary.hashes, 0, dictionary.size);
+            offset = MappedDataModel.align(offset + (long) dictionary.size * Integer.SIZE / Byte.SIZE);
+            buffer.position((int) offset);
+            dictionary.slots = new int[capacity];
+            buffer.asIntBuffer().get(dictionary.slots);
+            offset = MappedDataModel.align(offset + (long) capacity * Integer.SIZE / Byte.SIZE);
+            buffer.position((int) offset);
+            dictionary.arena = new byte[Math.max(1, dictionary.arenaSize)];
+            buffer.get(dictionary.arena, 0, dictionary.arenaSize);
+            return dictionary;
+        }
+    }
+
+    /**
+     * Loads a dictionary from a text file with a key and its id (separated by
+     * a tab) per line.
+     *
+     * @param f the file
+     * @return the dictionary
+     * @throws IOException when the file cannot be read
+     */
+    public static StringDictionary loadText(final File f) throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        try (BufferedReader br = SimpleParser.getBufferedReader(f)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] toks = line.split("\t");
+                dictionary.put(toks[0], Long.parseLong(toks[1]));
+            }
+        }
+        return dictionary;
+    }
+}
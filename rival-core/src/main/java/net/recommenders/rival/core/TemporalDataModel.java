@@ -18,6 +18,7 @@ package net.recommenders.rival.core;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -41,7 +42,7 @@ public class TemporalDataModel<U, I> extends DataModel<U, I> implements Temporal
      * Default constructor.
      */
     public TemporalDataModel() {
-        super();
+        this(false);
     }
 
     /**
@@ -51,7 +52,7 @@ public class TemporalDataModel<U, I> extends DataModel<U, I> implements Temporal
      * should be ignored.
      */
     public TemporalDataModel(final boolean ignoreDupPreferences) {
-        super(ignoreDupPreferences);
+        this(ignoreDupPreferences, new HashMap<U, Map<I, Double>>(), new HashSet<I>(), new HashMap<U, Map<I, Set<Long>>>());
     }
 
     /**
@@ -80,6 +81,25 @@ public class TemporalDataModel<U, I> extends DataModel<U, I> implements Temporal
         return userItemTimestamps;
     }
 
+    /**
+     * Method that passes every timestamp in the model to a consumer, in the
+     * iteration order of {@link #getUserItemTimestamps()}.
+     *
+     * @param consumer the consumer of the timestamps.
+     */
+    @Override
+    public void forEachTimestamp(final TimestampConsumer<? super U, ? super I> consumer) {
+        for (Entry<U, Map<I, Set<Long>>> e : userItemTimestamps.entrySet()) {
+            U user = e.getKey();
+            for (Entry<I, Set<Long>> it : e.getValue().entrySet()) {
+                I item = it.getKey();
+                for (Long t : it.getValue()) {
+                    consumer.consume(user, item, t);
+                }
+            }
+        }
+    }
+
     /**
      * Method that adds a timestamp to the model between a user and an item.
      *
@@ -102,6 +122,17 @@ public class TemporalDataModel<U, I> extends DataModel<U, I> implements Temporal
         timestamps.add(t);
     }
 
+    /**
+     * Method that returns a read-only snapshot of the model, including its
+     * timestamps.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public TemporalDataModelIF<U, I> toImmutable() {
+        return new ImmutableDataModel<>(this);
+    }
+
     /**
      * Method that clears all the maps contained in the model.
      */
@@ -37,6 +37,14 @@ public interface TemporalDataModelIF<U, I> extends DataModelIF<U, I> {
      */
     public Map<U, Map<I, Set<Long>>> getUserItemTimestamps();
 
+    /**
+     * Method that passes every timestamp in the model to a consumer. The
+     * timestamps of each user are passed contiguously.
+     *
+     * @param consumer the consumer of the timestamps.
+     */
+    public void forEachTimestamp(final TimestampConsumer<? super U, ? super I> consumer);
+
     /**
      * Method that adds a timestamp to the model between a user and an item.
      *
@@ -45,4 +53,13 @@ public interface TemporalDataModelIF<U, I> extends DataModelIF<U, I> {
      * @param t the timestamp.
      */
     public void addTimestamp(final U u, final I i, final Long t);
+
+    /**
+     * Method that returns a read-only snapshot of the model, including its
+     * timestamps.
+     *
+     * @return a read-only snapshot of the model.
+     */
+    @Override
+    public TemporalDataModelIF<U, I> toImmutable();
 }
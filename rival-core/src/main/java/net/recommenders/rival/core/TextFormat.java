@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Format of a delimited text file, detected once from a sample of its first
+ * bytes so the parser does not have to check it on every line.
+ */
+public final class TextFormat {
+
+    /**
+     * Number of bytes of the sample.
+     */
+    public static final int SAMPLE_SIZE = 1 << 16;
+    /**
+     * The quote character of CSV files.
+     */
+    public static final char QUOTE = '"';
+    /**
+     * The delimiter between fields.
+     */
+    private final String delimiter;
+    /**
+     * Whether the sample contains quotes.
+     */
+    private final boolean quotes;
+
+    /**
+     * Constructor.
+     *
+     * @param delim the delimiter between fields
+     * @param hasQuotes whether the sample contains quotes
+     */
+    private TextFormat(final String delim, final boolean hasQuotes) {
+        this.delimiter = delim;
+        this.quotes = hasQuotes;
+    }
+
+    /**
+     * Detects the format of a file (decompressing it if needed, see
+     * {@link CompressedInput}).
+     *
+     * @param f the file
+     * @param delimiters the candidate delimiters; the first one found in the
+     * first line is chosen (so longer delimiters should go first), or the
+     * first candidate if none is found
+     * @return the format
+     * @throws IOException when the file cannot be read
+     */
+    public static TextFormat detect(final File f, final String... delimiters) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+        try (ReadableByteChannel channel = CompressedInput.open(f)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                continue;
+            }
+        }
+        String sample = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        String line = sample.trim();
+        int end = line.indexOf('\n');
+        if (end >= 0) {
+            line = line.substring(0, end);
+        }
+        String delimiter = delimiters[0];
+        for (String d : delimiters) {
+            if (line.contains(d)) {
+                delimiter = d;
+                break;
+            }
+        }
+        return new TextFormat(delimiter, sample.indexOf(QUOTE) >= 0);
+    }
+
+    /**
+     * Gets the delimiter between fields.
+     *
+     * @return the delimiter
+     */
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Checks if the sample contains quotes, so the file needs a parser that
+     * handles quoted fields. Quotes may still appear after the sample, hence
+     * parsers that skip quote handling must still check every line (see
+     * {@link ByteTokenizer#isQuoted()}).
+     *
+     * @return true if the sample contains quotes
+     */
+    public boolean hasQuotes() {
+        return quotes;
+    }
+}
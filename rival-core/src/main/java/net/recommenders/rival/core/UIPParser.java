@@ -19,14 +19,16 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.Reader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 /**
  * User-Item-Preference (rating) Parser.
  *
+ * The format of the file is detected once: files without quotes are read
+ * with a {@link ByteTokenizer} that only splits the columns up to the last
+ * one used, and files with quoted fields are read as CSV records.
+ *
  * @author <a href="http://github.com/alansaid">Alan</a>.
  */
 public class UIPParser extends AbstractParser implements Parser<Long, Long> {
@@ -43,37 +45,88 @@ public class UIPParser extends AbstractParser implements Parser<Long, Long> {
      */
     @Override
     public TemporalDataModelIF<Long, Long> parseTemporalData(final File f) throws IOException {
-        TemporalDataModelIF<Long, Long> dataset = new TemporalDataModel<>();
-        Reader in = new InputStreamReader(new FileInputStream(f), "UTF-8");
+        return parse(f, true).buildTemporalDataModel();
+    }
 
-        Iterable<CSVRecord> records;
-        if (isHasHeader()) {
-            records = CSVFormat.EXCEL.withDelimiter(getDelimiter()).withHeader().parse(in);
-        } else {
-            records = CSVFormat.EXCEL.withDelimiter(getDelimiter()).parse(in);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataModelIF<Long, Long> parseData(final File f) throws IOException {
+        return parse(f, false).buildDataModel();
+    }
+
+    /**
+     * Parses a file into a builder.
+     *
+     * @param f the file
+     * @param temporal whether timestamps are added
+     * @return the builder
+     * @throws IOException when the file cannot be read
+     */
+    private DataModelBuilder parse(final File f, final boolean temporal) throws IOException {
+        if (!TextFormat.detect(f, String.valueOf(getDelimiter())).hasQuotes()) {
+            DataModelBuilder builder = parseProjected(f, temporal);
+            if (builder != null) {
+                return builder;
+            }
         }
-        for (CSVRecord record : records) {
-            long userID = Long.parseLong(record.get(getUserTok()));
-            long itemID = Long.parseLong(record.get(getItemTok()));
-            long timestamp = -1L;
-            if (getTimeTok() != -1) {
-                timestamp = Long.parseLong(record.get(getTimeTok()));
+        return parseRecords(f, temporal);
+    }
+
+    /**
+     * Parses a file without quotes, splitting only the columns that are
+     * read.
+     *
+     * @param f the file
+     * @param temporal whether timestamps are added
+     * @return the builder, or null if a quote is found (the file has to be
+     * parsed as CSV records then)
+     * @throws IOException when the file cannot be read
+     */
+    private DataModelBuilder parseProjected(final File f, final boolean temporal) throws IOException {
+        DataModelBuilder builder = new DataModelBuilder();
+        int lastTok = Math.max(getUserTok(), Math.max(getItemTok(), getPrefTok()));
+        if (temporal) {
+            lastTok = Math.max(lastTok, getTimeTok());
+        }
+        try (ByteTokenizer tokenizer = ByteTokenizer.open(f, String.valueOf(getDelimiter()))) {
+            tokenizer.setMaxFields(lastTok + 1);
+            tokenizer.setQuote(TextFormat.QUOTE);
+            if (isHasHeader() && !tokenizer.next()) {
+                return builder;
+            }
+            while (tokenizer.next()) {
+                if (tokenizer.isQuoted()) {
+                    return null;
+                }
+                long userID = tokenizer.getLong(getUserTok());
+                long itemID = tokenizer.getLong(getItemTok());
+                double preference = tokenizer.getDouble(getPrefTok());
+                builder.addPreference(userID, itemID, preference);
+                if (temporal) {
+                    long timestamp = -1L;
+                    if (getTimeTok() != -1) {
+                        timestamp = tokenizer.getLong(getTimeTok());
+                    }
+                    builder.addTimestamp(userID, itemID, timestamp);
+                }
             }
-            double preference = Double.parseDouble(record.get(getPrefTok()));
-            dataset.addPreference(userID, itemID, preference);
-            dataset.addTimestamp(userID, itemID, timestamp);
         }
-        in.close();
-        return dataset;
+        return builder;
     }
 
     /**
-     * {@inheritDoc}
+     * Parses a file as CSV records, handling quoted fields.
+     *
+     * @param f the file
+     * @param temporal whether timestamps are added
+     * @return the builder
+     * @throws IOException when the file cannot be read
      */
-    @Override
-    public DataModelIF<Long, Long> parseData(final File f) throws IOException {
-        DataModelIF<Long, Long> dataset = new DataModel<>();
-        Reader in = new InputStreamReader(new FileInputStream(f), "UTF-8");
+    private DataModelBuilder parseRecords(final File f, final boolean temporal) throws IOException {
+        DataModelBuilder builder = new DataModelBuilder();
+        Reader in = SimpleParser.getBufferedReader(f);
 
         Iterable<CSVRecord> records;
         if (isHasHeader()) {
@@ -85,9 +138,16 @@ public class UIPParser extends AbstractParser implements Parser<Long, Long> {
             long userID = Long.parseLong(record.get(getUserTok()));
             long itemID = Long.parseLong(record.get(getItemTok()));
             double preference = Double.parseDouble(record.get(getPrefTok()));
-            dataset.addPreference(userID, itemID, preference);
+            builder.addPreference(userID, itemID, preference);
+            if (temporal) {
+                long timestamp = -1L;
+                if (getTimeTok() != -1) {
+                    timestamp = Long.parseLong(record.get(getTimeTok()));
+                }
+                builder.addTimestamp(userID, itemID, timestamp);
+            }
         }
         in.close();
-        return dataset;
+        return builder;
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+/**
+ * Filter of the users whose lines are kept while parsing a file, see
+ * {@link ParallelParser#filterUsers(UserFilter)}. Implementations describe
+ * the users they accept in {@link Object#toString()}, which is part of the
+ * configuration of the parser, so models parsed with different filters are
+ * told apart.
+ */
+public interface UserFilter {
+
+    /**
+     * Method that decides whether the lines of a user are kept.
+     *
+     * @param user the user.
+     * @return true if the lines of the user are kept.
+     */
+    boolean accept(long user);
+}
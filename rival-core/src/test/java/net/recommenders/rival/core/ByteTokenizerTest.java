@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.ByteTokenizer}.
+ */
+@RunWith(JUnit4.class)
+public class ByteTokenizerTest {
+
+    /**
+     * A buffer size smaller than the lines, so the buffer has to grow.
+     */
+    private static final int SMALL_BUFFER = 4;
+
+    @Test
+    public void testFields() throws IOException {
+        String[] values = {"0", "-12", "+7", "3.5", "-0", "0.1", ".5", "4.", "1e3", "0.30000000000000004",
+            "123456789012345678901", "1234567890.123456789", "NaN"};
+        StringBuilder sb = new StringBuilder();
+        for (String v : values) {
+            sb.append(v).append("::1::\r\n");
+        }
+        sb.append("\n9::2");
+        ByteTokenizer tokenizer = new ByteTokenizer(Channels.newChannel(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))), "::", SMALL_BUFFER);
+        for (String v : values) {
+            assertTrue(tokenizer.next());
+            assertEquals(2, tokenizer.getNumFields());
+            assertEquals(v, tokenizer.getString(0));
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(v)), Double.doubleToLongBits(tokenizer.getDouble(0)));
+            assertEquals(1L, tokenizer.getLong(1));
+        }
+        assertTrue(tokenizer.next());
+        assertEquals(9L, tokenizer.getLong(0));
+        assertEquals(2L, tokenizer.getLong(1));
+        assertFalse(tokenizer.next());
+        tokenizer.close();
+    }
+
+    @Test
+    public void testMaxFields() throws IOException {
+        String text = "1\t2\t3\t\t\n1\t2\t\t\tx\n1\t2\t3\t4\t\"x\"\n";
+        ByteTokenizer tokenizer = new ByteTokenizer(Channels.newChannel(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))), "\t", SMALL_BUFFER);
+        tokenizer.setMaxFields(4);
+        tokenizer.setQuote('"');
+        // trailing empty fields are removed as String.split does
+        assertTrue(tokenizer.next());
+        assertEquals("1\t2\t3\t\t".split("\t").length, tokenizer.getNumFields());
+        // but not if a later field has content
+        assertTrue(tokenizer.next());
+        assertEquals(4, tokenizer.getNumFields());
+        assertFalse(tokenizer.isQuoted());
+        // quotes are found after the last split field
+        assertTrue(tokenizer.next());
+        assertEquals(4, tokenizer.getNumFields());
+        assertTrue(tokenizer.isQuoted());
+        assertFalse(tokenizer.next());
+        tokenizer.close();
+    }
+
+    @Test
+    public void testSameAsSplit() throws IOException {
+        File f = File.createTempFile("rival", ".tsv");
+        f.deleteOnExit();
+        PrintStream out = new PrintStream(f, "UTF-8");
+        out.println("user\titem\trating\ttime");
+        out.println("1\t10\t4.5\t100");
+        out.println("1\t11\t-2\t101");
+        out.println("2\t10\t3");
+        out.close();
+        SimpleParser parser = new SimpleParser();
+        TemporalDataModelIF<Long, Long> fast = parser.parseData(f, "\t", true);
+        TemporalDataModelIF<Long, Long> split = parser.parseData(f, "[\t]", true);
+        assertEquals(split.getUserItemPreferences(), fast.getUserItemPreferences());
+        assertEquals(split.getUserItemTimestamps(), fast.getUserItemTimestamps());
+        assertEquals(4.5, fast.getUserItemPreferences().get(1L).get(10L), 0.0);
+    }
+}
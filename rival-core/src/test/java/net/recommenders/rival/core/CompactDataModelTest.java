@@ -0,0 +1,290 @@
+/*
+ * Copyright 2016 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.CompactDataModel},
+ * {@link net.recommenders.rival.core.CompactTemporalDataModel} and
+ * {@link net.recommenders.rival.core.MappedDataModel}.
+ */
+@RunWith(JUnit4.class)
+public class CompactDataModelTest {
+
+    /**
+     * The data model.
+     */
+    private CompactDataModel dm = new CompactDataModel();
+    /**
+     * The number of users in the data model.
+     */
+    private static final int USERS = 3;
+    /**
+     * The number of items in the data model.
+     */
+    private static final int ITEMS = 3;
+
+    @Before
+    public void initialize() {
+        // users and items are added in reverse order to check the dictionaries
+        for (long u = USERS; u >= 1L; u--) {
+            for (long i = ITEMS; i >= 1L; i--) {
+                dm.addPreference(u, i, 1.0 * u * i);
+            }
+        }
+    }
+
+    @Test
+    public void testGetUserPreferences() {
+        Map<Long, Map<Long, Double>> storedPrefs = dm.getUserItemPreferences();
+        for (long u = 1L; u <= USERS; u++) {
+            Map<Long, Double> iprefs = storedPrefs.get(u);
+            assertEquals(ITEMS, iprefs.size());
+            for (long i = 1L; i <= ITEMS; i++) {
+                assertEquals(1.0 * u * i, iprefs.get(i), 0.0);
+            }
+            assertNull(iprefs.get(ITEMS + 1L));
+        }
+        assertNull(storedPrefs.get(USERS + 1L));
+        assertEquals(USERS * ITEMS, dm.getNumPreferences());
+    }
+
+    @Test
+    public void testGetNumItems() {
+        assertEquals(ITEMS, dm.getNumItems());
+        assertTrue(dm.getItems().contains(1L));
+        assertFalse(dm.getItems().contains(ITEMS + 1L));
+    }
+
+    @Test
+    public void testGetNumUsers() {
+        assertEquals(USERS, dm.getNumUsers());
+    }
+
+    @Test
+    public void testGetItemUserPreferences() {
+        Map<Long, Map<Long, Double>> itemPrefs = dm.getItemUserPreferences();
+        assertEquals(ITEMS, itemPrefs.size());
+        for (long i = 1L; i <= ITEMS; i++) {
+            assertEquals(USERS, dm.getItemPopularity(i));
+            assertEquals(USERS, itemPrefs.get(i).size());
+            for (long u = 1L; u <= USERS; u++) {
+                assertEquals(1.0 * u * i, itemPrefs.get(i).get(u), 0.0);
+            }
+        }
+        dm.addPreference(USERS + 1L, 1L, 1.0);
+        assertEquals(USERS + 1, dm.getItemPopularity(1L));
+        assertEquals(USERS + 1, itemPrefs.get(1L).size());
+        assertNull(itemPrefs.get(ITEMS + 1L));
+    }
+
+    @Test
+    public void testForEachPreference() {
+        final double[] sum = new double[1];
+        final long[] last = new long[]{Long.MIN_VALUE, Long.MIN_VALUE};
+        dm.forEachLongPreference(new LongPreferenceConsumer() {
+            @Override
+            public void consume(final long user, final long item, final double preference) {
+                // sorted by user and item
+                assertTrue(user > last[0] || (user == last[0] && item > last[1]));
+                last[0] = user;
+                last[1] = item;
+                sum[0] += preference;
+            }
+        });
+        // (1 + 2 + 3) * (1 + 2 + 3)
+        assertEquals(36.0, sum[0], 0.0);
+    }
+
+    @Test
+    public void testAddAfterCompaction() {
+        Map<Long, Double> prefs = dm.getUserItemPreferences().get(1L);
+        dm.addPreference(0L, 1L, 5.0);
+        dm.addPreference(1L, ITEMS + 1L, 7.0);
+        assertEquals(USERS + 1, dm.getNumUsers());
+        assertEquals(ITEMS + 1, dm.getNumItems());
+        // views obtained before the new preferences reflect the current data
+        assertEquals(7.0, prefs.get(ITEMS + 1L), 0.0);
+        assertEquals(1.0, prefs.get(1L), 0.0);
+        assertEquals(5.0, dm.getUserItemPreferences().get(0L).get(1L), 0.0);
+    }
+
+    @Test
+    public void testToImmutable() {
+        DataModelIF<Long, Long> snapshot = dm.toImmutable();
+        dm.addPreference(0L, 1L, 5.0);
+        assertEquals(USERS, snapshot.getNumUsers());
+        assertEquals(USERS, snapshot.getItemPopularity(1L));
+        assertNull(snapshot.getUserItemPreferences().get(0L));
+        assertEquals(USERS + 1, dm.getNumUsers());
+    }
+
+    @Test
+    public void testDuplicatePreferences() {
+        CompactDataModel unconstrainedModel = new CompactDataModel();
+        CompactDataModel constrainedModel = new CompactDataModel(true);
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                unconstrainedModel.addPreference(u, i, 1.0 * u * i);
+                constrainedModel.addPreference(u, i, 1.0 * u * i);
+            }
+        }
+        // force a compaction between the original and the duplicate preferences
+        unconstrainedModel.getNumUsers();
+        constrainedModel.getNumUsers();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                unconstrainedModel.addPreference(u, i, 1.0 * u * i);
+                constrainedModel.addPreference(u, i, 1.0 * u * i);
+            }
+        }
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                assertEquals(2.0 * u * i, unconstrainedModel.getUserItemPreferences().get(u).get(i), 0.0);
+                assertEquals(1.0 * u * i, constrainedModel.getUserItemPreferences().get(u).get(i), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testTimestamps() {
+        CompactTemporalDataModel tdm = new CompactTemporalDataModel();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                tdm.addPreference(u, i, 1.0);
+                tdm.addTimestamp(u, i, 10 * i + u);
+                tdm.addTimestamp(u, i, 100 * i + u);
+                // repeated timestamp
+                tdm.addTimestamp(u, i, 10 * i + u);
+            }
+        }
+        Map<Long, Map<Long, Set<Long>>> timestamps = tdm.getUserItemTimestamps();
+        assertEquals(USERS, timestamps.size());
+        Set<Long> times = timestamps.get(2L).get(3L);
+        assertEquals(2, times.size());
+        assertTrue(times.contains(32L));
+        assertTrue(times.contains(302L));
+        assertFalse(times.contains(31L));
+        assertNull(timestamps.get(2L).get(ITEMS + 1L));
+        assertArrayEquals(new long[]{11L, 21L, 31L, 101L, 201L, 301L}, tdm.getUserTimestamps(1L));
+        assertArrayEquals(new long[]{21L, 31L, 101L}, tdm.getTimestampsBetween(1L, 20L, 201L));
+        assertArrayEquals(new long[]{2L, 3L, 1L}, tdm.getItemsBetween(1L, 20L, 201L));
+        assertEquals(3, tdm.getNumInteractionsBetween(1L, 20L, 201L));
+        assertEquals(0, tdm.getNumInteractionsBetween(USERS + 1L, 20L, 201L));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        TemporalDataModel<Long, Long> tdm = new TemporalDataModel<>();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                tdm.addPreference(u, i, 0.5 * u * i);
+                tdm.addTimestamp(u, i, 10 * i + u);
+            }
+        }
+        File f = File.createTempFile("rival", ".bin");
+        f.deleteOnExit();
+        DataModelUtils.saveBinaryDataModel(tdm, f.getPath(), true);
+        assertTrue(DataModelUtils.isBinaryDataModel(f));
+
+        TemporalDataModelIF<Long, Long> loaded = DataModelUtils.loadBinaryDataModel(f);
+        assertTrue(loaded instanceof MappedDataModel);
+        // the runners read binary files through the cache, with or without a directory
+        assertTrue(new ParseCache(null, 0L).parseTemporalData(new SimpleParser(), f, "") instanceof MappedDataModel);
+        assertEquals(USERS, loaded.getNumUsers());
+        assertEquals(ITEMS, loaded.getNumItems());
+        assertEquals(tdm.getUserItemPreferences(), loaded.getUserItemPreferences());
+        assertEquals(tdm.getUserItemTimestamps(), loaded.getUserItemTimestamps());
+        assertArrayEquals(new long[]{12L, 22L, 32L}, ((MappedDataModel) loaded).getTimestampsBetween(2L, 0L, 100L));
+
+        // a mapped model can be saved again
+        File g = File.createTempFile("rival", ".bin");
+        g.deleteOnExit();
+        DataModelUtils.saveBinaryDataModel(loaded, g.getPath(), true);
+        assertEquals(tdm.getUserItemPreferences(), new MappedDataModel(g).getUserItemPreferences());
+    }
+
+    @Test
+    public void testBuilder() {
+        for (boolean ignore : new boolean[]{false, true}) {
+            DataModelBuilder builder = new DataModelBuilder(ignore);
+            DataModel<Long, Long> expected = new DataModel<>(ignore);
+            builder.addPreferences(new long[]{2L, 1L, 2L}, new long[]{3L, 1L, 3L}, new double[]{1.0, 2.0, 4.0}, 3);
+            builder.addPreference(1L, 2L, 3.0);
+            builder.addTimestamp(1L, 1L, 7L);
+            expected.addPreference(2L, 3L, 1.0);
+            expected.addPreference(1L, 1L, 2.0);
+            expected.addPreference(2L, 3L, 4.0);
+            expected.addPreference(1L, 2L, 3.0);
+            assertEquals(4, builder.getNumPreferences());
+
+            TemporalDataModel<Long, Long> built = builder.buildTemporalDataModel();
+            assertEquals(expected.getUserItemPreferences(), built.getUserItemPreferences());
+            assertEquals(expected.getItems(), built.getItems());
+            assertEquals(1, built.getUserItemTimestamps().get(1L).get(1L).size());
+        }
+    }
+
+    @Test
+    public void testOffHeapModel() throws IOException {
+        File scratch = File.createTempFile("rival", "");
+        scratch.delete();
+        scratch.mkdir();
+        scratch.deleteOnExit();
+        for (boolean ignore : new boolean[]{false, true}) {
+            TemporalDataModel<Long, Long> expected = new TemporalDataModel<>(ignore);
+            // room for two preferences, so most of them are spilled
+            OffHeapDataModel offHeap = new OffHeapDataModel(scratch, 128L, ignore);
+            for (long u = USERS; u >= 1L; u--) {
+                for (long i = 1L; i <= ITEMS; i++) {
+                    expected.addPreference(u, i, 0.5 * u * i);
+                    expected.addPreference(u, i, 1.0);
+                    expected.addTimestamp(u, i, 10 * i + u);
+                    expected.addTimestamp(u, i, 10 * i + u);
+                    offHeap.addPreference(u, i, 0.5 * u * i);
+                    offHeap.addPreference(u, i, 1.0);
+                    offHeap.addTimestamp(u, i, 10 * i + u);
+                    offHeap.addTimestamp(u, i, 10 * i + u);
+                }
+            }
+            assertEquals(expected.getUserItemPreferences(), offHeap.getUserItemPreferences());
+            assertEquals(expected.getUserItemTimestamps(), offHeap.getUserItemTimestamps());
+            assertEquals(expected.getItems(), offHeap.getItems());
+            // data added after reading is merged with the previous one
+            expected.addPreference(1L, 1L, 2.0);
+            expected.addPreference(0L, ITEMS + 1L, 3.0);
+            offHeap.addPreference(1L, 1L, 2.0);
+            offHeap.addPreference(0L, ITEMS + 1L, 3.0);
+            assertEquals(expected.getUserItemPreferences(), offHeap.getUserItemPreferences());
+            assertArrayEquals(new long[]{12L, 22L, 32L}, offHeap.getTimestampsBetween(2L, 0L, 100L));
+            offHeap.clear();
+            assertEquals(0, offHeap.getNumUsers());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.CompressedInput}.
+ */
+@RunWith(JUnit4.class)
+public class CompressedInputTest {
+
+    /**
+     * The number of lines of each part of the data.
+     */
+    private static final int LINES = 20000;
+    /**
+     * Size of the uncompressed blocks of the block gzip file.
+     */
+    private static final int BLOCK = 50000;
+    /**
+     * Size of a tar block.
+     */
+    private static final int TAR_BLOCK = 512;
+
+    /**
+     * Creates the lines of a part of the data.
+     *
+     * @param user the user of the lines
+     * @return the lines
+     */
+    private static byte[] lines(final int user) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < LINES; k++) {
+            sb.append(user).append('\t').append(k).append('\t').append(k % 5).append(".5\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a file through {@link CompressedInput#open(File)}.
+     *
+     * @param f the file
+     * @return the bytes read
+     * @throws IOException if the file cannot be read
+     */
+    private static byte[] readAll(final File f) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(TAR_BLOCK);
+        try (ReadableByteChannel ch = CompressedInput.open(f)) {
+            while (ch.read(buffer) >= 0) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a temporary file.
+     *
+     * @return the file
+     * @throws IOException if the file cannot be created
+     */
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("rival", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Test
+    public void testGzipMembers() throws IOException {
+        File f = tempFile();
+        try (OutputStream out = new FileOutputStream(f)) {
+            for (int u = 0; u < 2; u++) {
+                GZIPOutputStream gz = new GZIPOutputStream(out);
+                gz.write(lines(u));
+                gz.finish();
+            }
+        }
+        assertArrayEquals(concat(lines(0), lines(1)), readAll(f));
+    }
+
+    @Test
+    public void testBlockGzip() throws IOException {
+        byte[] data = concat(lines(0), lines(1));
+        File f = tempFile();
+        try (OutputStream out = new FileOutputStream(f)) {
+            for (int from = 0; from < data.length; from += BLOCK) {
+                out.write(blockGzip(Arrays.copyOfRange(data, from, Math.min(data.length, from + BLOCK))));
+            }
+            out.write(blockGzip(new byte[0]));
+        }
+        assertArrayEquals(data, readAll(f));
+        assertEquals(2 * LINES, new ParallelParser().parse(f, false).getNumPreferences());
+    }
+
+    @Test
+    public void testArchives() throws IOException {
+        File zip = tempFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            for (int u = 0; u < 2; u++) {
+                out.putNextEntry(new ZipEntry("dir/part" + u));
+                out.write(lines(u));
+            }
+        }
+        File tgz = tempFile();
+        try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(tgz))) {
+            for (int u = 0; u < 2; u++) {
+                byte[] content = lines(u);
+                out.write(tarHeader("part" + u, content.length));
+                out.write(content);
+                out.write(new byte[(TAR_BLOCK - content.length % TAR_BLOCK) % TAR_BLOCK]);
+            }
+            out.write(new byte[2 * TAR_BLOCK]);
+        }
+        byte[] expected = concat(concat(lines(0), new byte[]{'\n'}), concat(lines(1), new byte[]{'\n'}));
+        assertArrayEquals(expected, readAll(zip));
+        assertArrayEquals(expected, readAll(tgz));
+        TemporalDataModelIF<Long, Long> model = new SimpleParser().parseData(zip, "\t", false);
+        assertEquals(2, model.getNumUsers());
+        assertEquals(LINES, model.getNumItems());
+        assertEquals(model.getUserItemPreferences(), new SimpleParser().parseData(tgz, "\t", false).getUserItemPreferences());
+    }
+
+    /**
+     * Concatenates two arrays.
+     *
+     * @param a the first array
+     * @param b the second array
+     * @return the concatenation
+     */
+    private static byte[] concat(final byte[] a, final byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    /**
+     * Compresses some bytes as a block gzip member.
+     *
+     * @param data the bytes
+     * @return the member
+     */
+    private static byte[] blockGzip(final byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] deflated = new byte[2 * data.length + 64];
+        int n = deflater.deflate(deflated);
+        deflater.end();
+        ByteBuffer b = ByteBuffer.allocate(18 + n + 8).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff});
+        b.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2).putShort((short) (b.capacity() - 1));
+        b.put(deflated, 0, n);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        b.putInt((int) crc.getValue()).putInt(data.length);
+        return b.array();
+    }
+
+    /**
+     * Creates the header of a regular file in a tar archive.
+     *
+     * @param name the name of the file
+     * @param size the size of the file
+     * @return the header
+     */
+    private static byte[] tarHeader(final String name, final int size) {
+        byte[] header = new byte[TAR_BLOCK];
+        byte[] b = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(b, 0, header, 0, b.length);
+        b = String.format("%011o", size).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(b, 0, header, 124, b.length);
+        header[156] = '0';
+        b = "ustar".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(b, 0, header, 257, b.length);
+        return header;
+    }
+}
@@ -17,6 +17,9 @@ package net.recommenders.rival.core;
 
 import java.util.Map;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -111,4 +114,79 @@ public class DataModelTest<U, I> {
             }
         }
     }
+
+    @Test
+    public void testGetItemUserPreferences() {
+        Map<Long, Map<Long, Double>> itemPrefs = dm.getItemUserPreferences();
+        assertEquals(ITEMS, itemPrefs.size());
+        for (long i = 1L; i <= ITEMS; i++) {
+            assertEquals(USERS, dm.getItemPopularity(i));
+            for (long u = 1L; u <= USERS; u++) {
+                assertEquals(1.0 * u * i, itemPrefs.get(i).get(u), 0.0);
+            }
+        }
+        // the index is rebuilt after adding a preference
+        dm.addPreference(USERS + 1L, 1L, 1.0);
+        assertEquals(USERS + 1, dm.getItemPopularity(1L));
+        assertEquals(0, dm.getItemPopularity(ITEMS + 1L));
+    }
+
+    @Test
+    public void testToImmutable() {
+        DataModelIF<Long, Long> snapshot = dm.toImmutable();
+        dm.addPreference(USERS + 1L, 1L, 1.0);
+        assertEquals(USERS, snapshot.getNumUsers());
+        assertEquals(ITEMS, snapshot.getNumItems());
+        assertEquals(USERS, snapshot.getItemPopularity(1L));
+        dm.clear();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                assertEquals(1.0 * u * i, snapshot.getUserItemPreferences().get(u).get(i), 0.0);
+            }
+        }
+        assertFalse(snapshot.getUserItemPreferences().containsKey(USERS + 1L));
+        assertFalse(snapshot.getUserItemPreferences().get(1L).containsKey("1"));
+        assertSame(snapshot, snapshot.toImmutable());
+        try {
+            snapshot.addPreference(1L, 1L, 1.0);
+            fail("snapshots should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentModel() throws InterruptedException {
+        final int threads = 4;
+        final DataModelIF<Long, Long> summed = new ConcurrentDataModel<>(false);
+        final DataModelIF<Long, Long> ignored = new ConcurrentDataModel<>(true);
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long user = t;
+            producers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (long i = 1L; i <= ITEMS; i++) {
+                        summed.addPreference(user, i, 1.0 * i);
+                        summed.addPreference(user, i, 1.0 * i);
+                        ignored.addPreference(user, i, 1.0 * i);
+                        ignored.addPreference(user, i, 1.0 * i);
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(threads, summed.getNumUsers());
+        assertEquals(ITEMS, summed.getNumItems());
+        assertEquals(threads, summed.getItemPopularity(1L));
+        for (long u = 0L; u < threads; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                assertEquals(2.0 * i, summed.getUserItemPreferences().get(u).get(i), 0.0);
+                assertEquals(1.0 * i, ignored.getUserItemPreferences().get(u).get(i), 0.0);
+            }
+        }
+    }
 }
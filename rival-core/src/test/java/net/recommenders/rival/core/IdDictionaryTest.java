@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.IdDictionary}.
+ */
+@RunWith(JUnit4.class)
+public class IdDictionaryTest {
+
+    /**
+     * The number of ids added to the dictionary.
+     */
+    private static final int IDS = 1000;
+
+    @Test
+    public void testAdd() {
+        IdDictionary dictionary = new IdDictionary();
+        for (int k = 0; k < IDS; k++) {
+            assertEquals(k, dictionary.add(-7L * k));
+        }
+        for (int k = 0; k < IDS; k++) {
+            assertEquals(k, dictionary.add(-7L * k));
+            assertEquals(k, dictionary.getIndex(-7L * k));
+            assertEquals(-7L * k, dictionary.getId(k));
+        }
+        assertEquals(IDS, dictionary.size());
+        assertEquals(-1, dictionary.getIndex(1L));
+    }
+
+    @Test
+    public void testSortedAndBitSet() {
+        IdDictionary dictionary = IdDictionary.of(Arrays.asList(30L, 10L, 20L, 10L));
+        assertArrayEquals(new long[]{10L, 20L, 30L}, dictionary.getIds());
+        BitSet set = dictionary.toBitSet(Arrays.asList(30L, 40L));
+        assertEquals(1, set.cardinality());
+        assertEquals(2, set.nextSetBit(0));
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        IdDictionary dictionary = IdDictionary.of(Arrays.asList(5L, 3L, Long.MAX_VALUE));
+        File f = File.createTempFile("rival", ".dict");
+        f.deleteOnExit();
+        dictionary.save(f.getPath());
+        assertArrayEquals(dictionary.getIds(), IdDictionary.load(f).getIds());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.IncrementalParser}.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalParserTest {
+
+    /**
+     * The number of lines appended on each run.
+     */
+    private static final int LINES = 1000;
+
+    @Test
+    public void testSameAsFullParse() throws IOException {
+        File log = File.createTempFile("rival", ".tsv");
+        File snapshot = File.createTempFile("rival", ".rival");
+        log.deleteOnExit();
+        snapshot.deleteOnExit();
+        new File(snapshot.getPath() + IncrementalParser.STATE_EXTENSION).deleteOnExit();
+        Random rnd = new Random(1L);
+        append(log, "user\titem\trating\ttime\n", rnd, LINES);
+
+        IncrementalParser incremental = new IncrementalParser(new ParallelParser(), snapshot);
+        assertSame(log, incremental.parse(log));
+        // the last line is incomplete, it is parsed once it ends
+        append(log, "7\t7", rnd, 0);
+        assertSame(log, incremental.parse(log));
+        append(log, "\t3\t10\n", rnd, LINES);
+        assertSame(log, incremental.parse(log));
+        // no new lines
+        assertSame(log, incremental.parse(log));
+
+        // a changed prefix is parsed again
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.seek("user\titem\trating\ttime\n".length());
+            raf.write('9');
+        }
+        assertSame(log, incremental.parse(log));
+        assertEquals(log.length(), incremental.getParsedBytes());
+    }
+
+    @Test
+    public void testChangeInTheMiddle() throws IOException {
+        File log = File.createTempFile("rival", ".tsv");
+        File snapshot = File.createTempFile("rival", ".rival");
+        log.deleteOnExit();
+        snapshot.deleteOnExit();
+        new File(snapshot.getPath() + IncrementalParser.STATE_EXTENSION).deleteOnExit();
+        Random rnd = new Random(1L);
+        append(log, "", rnd, 50 * LINES);
+
+        IncrementalParser incremental = new IncrementalParser(new ParallelParser(), snapshot);
+        assertSame(log, incremental.parse(log));
+        long length = log.length();
+        append(log, "", rnd, LINES);
+        assertSame(log, incremental.parse(log));
+        assertEquals(log.length() - length, incremental.getParsedBytes());
+        // a change far from both ends of the prefix is detected as well
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.seek(length / 2);
+            int b = raf.read();
+            raf.seek(length / 2);
+            raf.write(b == '\t' || b == '\n' ? b : (b == '1' ? '2' : '1'));
+        }
+        assertSame(log, incremental.parse(log));
+        assertEquals(log.length(), incremental.getParsedBytes());
+    }
+
+    /**
+     * Checks that a model is the same as the one of a full parse of a log,
+     * ignoring its incomplete last line.
+     *
+     * @param log the log
+     * @param model the model
+     * @throws IOException if the log cannot be read
+     */
+    private static void assertSame(final File log, final TemporalDataModelIF<Long, Long> model) throws IOException {
+        File complete = File.createTempFile("rival", ".tsv");
+        complete.deleteOnExit();
+        String text = new String(Files.readAllBytes(log.toPath()), "UTF-8");
+        try (PrintStream out = new PrintStream(complete, "UTF-8")) {
+            out.print(text.substring(0, text.lastIndexOf('\n') + 1));
+        }
+        TemporalDataModelIF<Long, Long> full = new SimpleParser().parseData(complete, "[\t]", true);
+        assertEquals(full.getUserItemPreferences(), model.getUserItemPreferences());
+        assertEquals(full.getUserItemTimestamps(), model.getUserItemTimestamps());
+    }
+
+    /**
+     * Appends a text and some random lines to a log.
+     *
+     * @param log the log
+     * @param text the text appended first
+     * @param rnd the random generator
+     * @param lines the number of random lines
+     * @throws IOException if the log cannot be written
+     */
+    private static void append(final File log, final String text, final Random rnd, final int lines) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(log, true), false, "UTF-8")) {
+            out.print(text);
+            for (int k = 0; k < lines; k++) {
+                // few users and items, so there are duplicates across runs
+                out.print(rnd.nextInt(50) + "\t" + rnd.nextInt(50) + "\t" + (1 + rnd.nextInt(5)) + "\t" + rnd.nextInt(1000) + "\n");
+            }
+        }
+    }
+}
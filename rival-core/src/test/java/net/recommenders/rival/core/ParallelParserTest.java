@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.ParallelParser}.
+ */
+@RunWith(JUnit4.class)
+public class ParallelParserTest {
+
+    /**
+     * The number of lines of the file.
+     */
+    private static final int LINES = 5000;
+    /**
+     * A chunk size much smaller than the file.
+     */
+    private static final int SMALL_CHUNK = 100;
+    /**
+     * The number of threads.
+     */
+    private static final int THREADS = 4;
+
+    @Test
+    public void testSameAsSequential() throws IOException {
+        File f = File.createTempFile("rival", ".tsv");
+        f.deleteOnExit();
+        PrintStream out = new PrintStream(f, "UTF-8");
+        out.println("user\titem\trating\ttime");
+        Random rnd = new Random(1L);
+        for (int k = 0; k < LINES; k++) {
+            // few users and items, so there are many duplicates
+            out.print(rnd.nextInt(50) + "\t" + rnd.nextInt(50) + "\t" + rnd.nextDouble());
+            if (rnd.nextBoolean()) {
+                out.print("\t" + rnd.nextInt(1000));
+            }
+            out.println();
+        }
+        out.close();
+        TemporalDataModelIF<Long, Long> sequential = new SimpleParser().parseData(f, "[\t]", true);
+        for (int threads = 1; threads <= THREADS; threads++) {
+            ParallelParser parser = new ParallelParser("\t", SimpleParser.USER_TOK, SimpleParser.ITEM_TOK,
+                    SimpleParser.RATING_TOK, SimpleParser.TIME_TOK, true, threads, SMALL_CHUNK);
+            TemporalDataModelIF<Long, Long> parallel = parser.parseTemporalData(f);
+            assertEquals(sequential.getUserItemPreferences(), parallel.getUserItemPreferences());
+            assertEquals(sequential.getUserItemTimestamps(), parallel.getUserItemTimestamps());
+        }
+    }
+
+    @Test
+    public void testFilterUsers() throws IOException {
+        File f = File.createTempFile("rival", ".tsv");
+        f.deleteOnExit();
+        PrintStream out = new PrintStream(f, "UTF-8");
+        for (int u = 0; u < 50; u++) {
+            for (int i = 0; i < 10; i++) {
+                out.println(u + "\t" + i + "\t1.0\t" + (u + i));
+            }
+        }
+        out.close();
+        UserFilter even = new UserFilter() {
+            @Override
+            public boolean accept(final long user) {
+                return user % 2 == 0;
+            }
+        };
+        ParallelParser parser = new ParallelParser("\t", SimpleParser.USER_TOK, SimpleParser.ITEM_TOK,
+                SimpleParser.RATING_TOK, SimpleParser.TIME_TOK, true, THREADS, SMALL_CHUNK);
+        TemporalDataModelIF<Long, Long> parallel = parser.filterUsers(even).parseTemporalData(f);
+        TemporalDataModelIF<Long, Long> sequential = new SimpleParser(even).parseData(f, "[\t]", true);
+        assertEquals(25, parallel.getNumUsers());
+        for (Long u : parallel.getUsers()) {
+            assertEquals(0L, u % 2);
+        }
+        assertEquals(sequential.getUserItemPreferences(), parallel.getUserItemPreferences());
+        assertEquals(sequential.getUserItemTimestamps(), parallel.getUserItemTimestamps());
+        assertFalse(parser.getConfiguration().equals(parser.filterUsers(even).getConfiguration()));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.ParseCache}.
+ */
+@RunWith(JUnit4.class)
+public class ParseCacheTest {
+
+    /**
+     * Writes a data file.
+     *
+     * @param f the file
+     * @param lines the lines of the file
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(final File f, final String... lines) throws IOException {
+        try (PrintStream out = new PrintStream(f, "UTF-8")) {
+            for (String line : lines) {
+                out.println(line);
+            }
+        }
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        File dir = Files.createTempDirectory("rival").toFile();
+        dir.deleteOnExit();
+        File f = new File(dir, "data.tsv");
+        f.deleteOnExit();
+        write(f, "1\t1\t3.0\t10", "1\t2\t4.0\t11", "2\t1\t5.0\t12");
+        ParseCache cache = new ParseCache(new File(dir, "cache"), Long.MAX_VALUE);
+        SimpleParser parser = new SimpleParser();
+        TemporalDataModelIF<Long, Long> parsed = cache.parseTemporalData(parser, f, "");
+        File snapshot = cache.getSnapshot(parser, f, "", true);
+        snapshot.deleteOnExit();
+        assertTrue(snapshot.isFile());
+        // a miss returns the same kind of model as a hit
+        assertTrue(parsed instanceof MappedDataModel);
+        Profiler.setEnabled(true);
+        TemporalDataModelIF<Long, Long> cached;
+        try {
+            cached = cache.parseTemporalData(parser, f, "");
+        } finally {
+            Profiler.setEnabled(false);
+        }
+        assertTrue(cached instanceof MappedDataModel);
+        // hits are reported as a stage
+        assertTrue(Profiler.getStages().get("parse-cache-hit").getCount() > 0);
+        assertEquals(parsed.getUserItemPreferences(), cached.getUserItemPreferences());
+        assertEquals(parsed.getUserItemTimestamps(), cached.getUserItemTimestamps());
+        // another configuration or a modified file is parsed again
+        assertFalse(snapshot.equals(cache.getSnapshot(parser, f, "other", true)));
+        write(f, "1\t1\t3.0\t10");
+        assertTrue(f.setLastModified(f.lastModified() + 1000L));
+        assertEquals(1, cache.parseTemporalData(parser, f, "").getNumUsers());
+        File newSnapshot = cache.getSnapshot(parser, f, "", true);
+        newSnapshot.deleteOnExit();
+        assertFalse(snapshot.equals(newSnapshot));
+    }
+
+    @Test
+    public void testImmutable() throws IOException {
+        File dir = Files.createTempDirectory("rival").toFile();
+        dir.deleteOnExit();
+        File f = new File(dir, "data.tsv");
+        f.deleteOnExit();
+        write(f, "1\t1\t3.0", "1\t2\t4.0", "2\t1\t5.0");
+        ParseCache cache = new ParseCache(new File(dir, "cache"), Long.MAX_VALUE);
+        SimpleParser parser = new SimpleParser();
+        DataModelIF<Long, Long> parsed = cache.parseImmutableData(parser, f, "");
+        cache.getSnapshot(parser, f, "", false).deleteOnExit();
+        // both the miss and the hit map the snapshot read-only
+        assertTrue(parsed instanceof MappedDataModel);
+        assertSame(parsed, parsed.toImmutable());
+        DataModelIF<Long, Long> cached = cache.parseImmutableData(parser, f, "");
+        assertSame(cached, cached.toImmutable());
+        assertEquals(parser.parseData(f).getUserItemPreferences(), cached.getUserItemPreferences());
+        assertEquals(2, cached.getItemUserPreferences().get(1L).size());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File dir = Files.createTempDirectory("rival").toFile();
+        dir.deleteOnExit();
+        File f = new File(dir, "data.tsv");
+        f.deleteOnExit();
+        write(f, "1\t1\t3.0");
+        // no room for any snapshot
+        ParseCache cache = new ParseCache(new File(dir, "cache"), 1L);
+        DataModelIF<Long, Long> parsed = cache.parseData(new SimpleParser(), f, "");
+        assertFalse(cache.getSnapshot(new SimpleParser(), f, "", false).exists());
+        // the snapshot was mapped before it was removed
+        assertTrue(parsed instanceof MappedDataModel);
+        assertEquals(1, parsed.getNumUsers());
+        // a disabled cache only parses
+        assertEquals(1, ParseCache.fromProperties(new Properties()).parseData(new SimpleParser(), f, "").getNumUsers());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.PreferenceWriter}.
+ */
+@RunWith(JUnit4.class)
+public class PreferenceWriterTest {
+
+    @Test
+    public void testSameAsSaveDataModel() throws IOException {
+        double[] prefs = new double[]{0.0, -0.0, 1.0, -3.0, 2.5, 0.001, 1e-4, 9999999.0, 1e7, 1e300, Double.NaN};
+        TemporalDataModelIF<Long, Long> temporal = new TemporalDataModel<>();
+        DataModelIF<String, Long> named = new DataModel<>();
+        for (int k = 0; k < prefs.length; k++) {
+            temporal.addPreference(Long.MIN_VALUE + k, (long) k * k, prefs[k]);
+            named.addPreference("u" + k, Long.MAX_VALUE - k, prefs[k]);
+            if (k % 2 == 0) {
+                temporal.addTimestamp(Long.MIN_VALUE + k, (long) k * k, (long) k);
+                temporal.addTimestamp(Long.MIN_VALUE + k, (long) k * k, -k * 100L);
+            }
+        }
+        assertSameFile(temporal);
+        assertSameFile(named);
+    }
+
+    /**
+     * Checks that a model is saved with the same bytes by
+     * {@link PreferenceWriter#save(DataModelIF, File)} and by
+     * {@link DataModelUtils}.
+     *
+     * @param dm the model
+     * @throws IOException when the files cannot be written
+     */
+    private static <U, I> void assertSameFile(final DataModelIF<U, I> dm) throws IOException {
+        File expected = File.createTempFile("rival", ".tsv");
+        File actual = File.createTempFile("rival", ".tsv");
+        expected.deleteOnExit();
+        actual.deleteOnExit();
+        if (dm instanceof TemporalDataModelIF) {
+            DataModelUtils.saveDataModel((TemporalDataModelIF<U, I>) dm, expected.getPath(), true);
+        } else {
+            DataModelUtils.saveDataModel(dm, expected.getPath(), true);
+        }
+        long bytes = PreferenceWriter.save(dm, actual);
+        byte[] expectedBytes = Files.readAllBytes(expected.toPath());
+        assertTrue(expectedBytes.length > 0);
+        assertEquals(expectedBytes.length, bytes);
+        assertTrue(Arrays.equals(expectedBytes, Files.readAllBytes(actual.toPath())));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.Profiler}.
+ */
+@RunWith(JUnit4.class)
+public class ProfilerTest {
+
+    @Test
+    public void testStages() throws IOException, JMException {
+        File summary = File.createTempFile("rival", ".tsv");
+        summary.deleteOnExit();
+        Profiler.setSummary(summary);
+        try {
+            Profiler.setEnabled(false);
+            try (Profiler.Stage stage = Profiler.start("test-disabled")) {
+                stage.addBytes(1);
+            }
+            assertFalse(Profiler.getStages().containsKey("test-disabled"));
+
+            Profiler.setEnabled(true);
+            for (int run = 0; run < 2; run++) {
+                try (Profiler.Stage stage = Profiler.start("test-stage")) {
+                    stage.addBytes(100);
+                    stage.addLines(10);
+                    // nested stages are measured separately
+                    try (Profiler.Stage inner = Profiler.start("test-inner")) {
+                        inner.addLines(1);
+                    }
+                }
+            }
+        } finally {
+            Profiler.setEnabled(false);
+            Profiler.setSummary(null);
+        }
+        StageStatsMXBean stats = Profiler.getStages().get("test-stage");
+        assertEquals(2, stats.getCount());
+        assertEquals(200, stats.getBytes());
+        assertEquals(20, stats.getLines());
+        assertTrue(stats.getPeakMemory() > 0);
+        assertEquals(2, Profiler.getStages().get("test-inner").getLines());
+
+        ObjectName name = new ObjectName(Profiler.MBEAN_DOMAIN + ":type=Stage,name=" + ObjectName.quote("test-stage"));
+        assertEquals(200L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Bytes"));
+
+        List<String> lines = Files.readAllLines(summary.toPath(), StandardCharsets.UTF_8);
+        assertEquals(Profiler.SUMMARY_HEADER, lines.get(0));
+        boolean found = false;
+        for (String line : lines) {
+            String[] toks = line.split("\t");
+            if (toks[0].equals("test-stage")) {
+                found = true;
+                assertEquals(Profiler.SUMMARY_HEADER.split("\t").length, toks.length);
+                assertEquals("2", toks[1]);
+                assertEquals("200", toks[3]);
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testRecords() throws IOException {
+        File f = File.createTempFile("rival", ".tsv");
+        f.deleteOnExit();
+        Files.write(f.toPath(), "1\t1\t1.0\t1\n1\t2\t1.0\t2\n2\t1\t1.0\t3\n".getBytes(StandardCharsets.UTF_8));
+        DataModelIF<Long, Long> model = new SimpleParser().parseData(f);
+        Profiler.setEnabled(true);
+        try {
+            try (Profiler.Stage stage = Profiler.start("test-records")) {
+                stage.addPreferences(model);
+                stage.addFile(f);
+            }
+        } finally {
+            Profiler.setEnabled(false);
+        }
+        StageStatsMXBean stats = Profiler.getStages().get("test-records");
+        assertEquals(6, stats.getLines());
+        assertEquals(f.length(), stats.getBytes());
+    }
+}
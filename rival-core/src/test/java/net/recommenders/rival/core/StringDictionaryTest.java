@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.StringDictionary}.
+ */
+@RunWith(JUnit4.class)
+public class StringDictionaryTest {
+
+    /**
+     * The number of keys added to the dictionary.
+     */
+    private static final int KEYS = 1000;
+
+    @Test
+    public void testCompositeKeys() {
+        StringDictionary dictionary = new StringDictionary();
+        byte[] line = "artist\ttrack".getBytes(StandardCharsets.UTF_8);
+        long id = dictionary.getOrAdd(line, 0, "artist".length(), (byte) '_', "artist\t".length(), "track".length());
+        assertEquals(0L, id);
+        assertEquals(id, dictionary.get("artist_track"));
+        assertEquals(id, dictionary.getOrAdd("artist_track"));
+        assertEquals(-1L, dictionary.get("artist"));
+        assertEquals(1L, dictionary.getOrAdd(line, 0, "artist".length()));
+        assertEquals("artist", dictionary.getKey(1));
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.setNextId(1);
+        for (int k = 0; k < KEYS; k++) {
+            assertEquals(k + 1L, dictionary.getOrAdd("key" + k));
+        }
+        File f = File.createTempFile("rival", ".bin");
+        f.deleteOnExit();
+        dictionary.save(f);
+        StringDictionary loaded = StringDictionary.load(f);
+        assertEquals(KEYS, loaded.size());
+        assertEquals(KEYS + 1L, loaded.getNextId());
+        for (int k = 0; k < KEYS; k++) {
+            assertEquals(k + 1L, loaded.get("key" + k));
+        }
+        assertEquals(KEYS + 1L, loaded.getOrAdd("new"));
+    }
+
+    @Test
+    public void testLoadText() throws IOException {
+        File f = File.createTempFile("rival", ".txt");
+        f.deleteOnExit();
+        try (PrintStream out = new PrintStream(f, "UTF-8")) {
+            out.println("a\t5");
+            out.println("b_c\t2");
+        }
+        StringDictionary dictionary = StringDictionary.loadText(f);
+        assertEquals(2L, dictionary.get("b_c"));
+        assertEquals(6L, dictionary.getOrAdd("d"));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link net.recommenders.rival.core.UIPParser}.
+ */
+@RunWith(JUnit4.class)
+public class UIPParserTest {
+
+    /**
+     * The number of columns of the file.
+     */
+    private static final int COLUMNS = 30;
+    /**
+     * The column of the users.
+     */
+    private static final int USER = 5;
+    /**
+     * The column of the items.
+     */
+    private static final int ITEM = 12;
+    /**
+     * The column of the preferences.
+     */
+    private static final int PREF = 20;
+    /**
+     * The column of the timestamps.
+     */
+    private static final int TIME = 25;
+
+    @Test
+    public void testWideFile() throws IOException {
+        // few lines, all of them inside the sample of the format
+        testFile(100, false, false);
+    }
+
+    @Test
+    public void testQuotesAfterSample() throws IOException {
+        // the quoted line is only found while parsing
+        testFile(TextFormat.SAMPLE_SIZE / COLUMNS, true, false);
+    }
+
+    @Test
+    public void testQuotesInUnreadColumn() throws IOException {
+        // the quoted field has a line break, but it is after the last column
+        // that is read
+        testFile(TextFormat.SAMPLE_SIZE / COLUMNS, false, true);
+    }
+
+    /**
+     * Parses a file with many unused columns and checks the preferences and
+     * timestamps.
+     *
+     * @param lines the number of lines
+     * @param quoteLast whether the fields of the last line are quoted
+     * @param quoteUnread whether the last column of the last line is a quoted
+     * field with a line break
+     * @throws IOException when the file cannot be written or parsed
+     */
+    private static void testFile(final int lines, final boolean quoteLast, final boolean quoteUnread) throws IOException {
+        File f = File.createTempFile("rival", ".csv");
+        f.deleteOnExit();
+        Map<Long, Map<Long, Double>> prefs = new HashMap<>();
+        Random rnd = new Random(1L);
+        try (PrintStream out = new PrintStream(f, "UTF-8")) {
+            for (int c = 0; c < COLUMNS; c++) {
+                out.print("col" + c + ",");
+            }
+            out.println();
+            for (int k = 0; k < lines; k++) {
+                long user = k;
+                long item = rnd.nextInt(100);
+                double pref = rnd.nextInt(5);
+                String quote = "";
+                if (quoteLast && k == lines - 1) {
+                    quote = "\"";
+                }
+                for (int c = 0; c < COLUMNS; c++) {
+                    String value = "x";
+                    if (c == USER) {
+                        value = String.valueOf(user);
+                    } else if (c == ITEM) {
+                        value = String.valueOf(item);
+                    } else if (c == PREF) {
+                        value = String.valueOf(pref);
+                    } else if (c == TIME) {
+                        value = String.valueOf(user + item);
+                    } else if (quoteUnread && k == lines - 1 && c == COLUMNS - 1) {
+                        // the rest of the field looks like a line of numbers
+                        StringBuilder field = new StringBuilder("\"x\n");
+                        for (int n = 0; n < COLUMNS - 1; n++) {
+                            field.append(n).append(',');
+                        }
+                        value = field.append("y\"").toString();
+                    }
+                    out.print(quote + value + quote + ",");
+                }
+                out.println();
+                Map<Long, Double> row = new HashMap<>();
+                row.put(item, pref);
+                prefs.put(user, row);
+            }
+        }
+        UIPParser parser = new UIPParser();
+        parser.setHasHeader(true);
+        parser.setUserTok(USER);
+        parser.setItemTok(ITEM);
+        parser.setPrefTok(PREF);
+        parser.setTimeTok(TIME);
+        TemporalDataModelIF<Long, Long> model = parser.parseTemporalData(f);
+        assertEquals(prefs, model.getUserItemPreferences());
+        for (Map.Entry<Long, Map<Long, Double>> e : prefs.entrySet()) {
+            long item = e.getValue().keySet().iterator().next();
+            assertEquals(1, model.getUserItemTimestamps().get(e.getKey()).get(item).size());
+            assertEquals(Long.valueOf(e.getKey() + item), model.getUserItemTimestamps().get(e.getKey()).get(item).iterator().next());
+        }
+        assertEquals(prefs, parser.parseData(f).getUserItemPreferences());
+    }
+}
@@ -25,6 +25,8 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Properties;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.ParseCache;
+import net.recommenders.rival.core.Profiler;
 import net.recommenders.rival.core.SimpleParser;
 import net.recommenders.rival.evaluation.metric.error.AbstractErrorMetric;
 import net.recommenders.rival.evaluation.metric.ranking.AbstractRankingMetric;
@@ -129,41 +131,47 @@ public final class EvaluationMetricRunner {
     @SuppressWarnings("unchecked")
     public static void run(final Properties properties)
             throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException {
-        System.out.println("Parsing started: recommendation file");
-        File recommendationFile = new File(properties.getProperty(PREDICTION_FILE));
-        DataModelIF<Long, Long> predictions;
-        EvaluationStrategy.OUTPUT_FORMAT recFormat;
-        if (properties.getProperty(PREDICTION_FILE_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
-            recFormat = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
-        } else {
-            recFormat = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
-        }
-        switch (recFormat) {
-            case SIMPLE:
-                predictions = new SimpleParser().parseData(recommendationFile);
-                break;
-            case TRECEVAL:
-                predictions = new TrecEvalParser().parseData(recommendationFile);
-                break;
-            default:
-                throw new AssertionError();
+        Profiler.configure(properties);
+        try (Profiler.Stage stage = Profiler.start("evaluate")) {
+            ParseCache cache = ParseCache.fromProperties(properties);
+            System.out.println("Parsing started: recommendation file");
+            File recommendationFile = new File(properties.getProperty(PREDICTION_FILE));
+            DataModelIF<Long, Long> predictions;
+            EvaluationStrategy.OUTPUT_FORMAT recFormat;
+            if (properties.getProperty(PREDICTION_FILE_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
+                recFormat = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
+            } else {
+                recFormat = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
+            }
+            switch (recFormat) {
+                case SIMPLE:
+                    predictions = new SimpleParser().parseData(recommendationFile);
+                    break;
+                case TRECEVAL:
+                    predictions = new TrecEvalParser().parseData(recommendationFile);
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+            System.out.println("Parsing finished: recommendation file");
+            stage.addBytes(recommendationFile.length());
+            stage.addPreferences(predictions);
+            System.out.println("Parsing started: test file");
+            File testFile = new File(properties.getProperty(TEST_FILE));
+            DataModelIF<Long, Long> testModel = cache.parseImmutableData(new SimpleParser(), testFile, "");
+            System.out.println("Parsing finished: test file");
+            // read other parameters
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
+            Boolean doAppend = Boolean.parseBoolean(properties.getProperty(OUTPUT_APPEND, "true"));
+            Boolean perUser = Boolean.parseBoolean(properties.getProperty(METRIC_PER_USER, "false"));
+            File resultsFile = new File(properties.getProperty(OUTPUT_FILE));
+            // get metric
+            EvaluationMetric<Long> metric = instantiateEvaluationMetric(properties, predictions, testModel);
+            // get ranking cutoffs
+            int[] rankingCutoffs = getRankingCutoffs(properties);
+            // generate output
+            generateOutput(testModel, rankingCutoffs, metric, metric.getClass().getSimpleName(), perUser, resultsFile, overwrite, doAppend);
         }
-        System.out.println("Parsing finished: recommendation file");
-        System.out.println("Parsing started: test file");
-        File testFile = new File(properties.getProperty(TEST_FILE));
-        DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-        System.out.println("Parsing finished: test file");
-        // read other parameters
-        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
-        Boolean doAppend = Boolean.parseBoolean(properties.getProperty(OUTPUT_APPEND, "true"));
-        Boolean perUser = Boolean.parseBoolean(properties.getProperty(METRIC_PER_USER, "false"));
-        File resultsFile = new File(properties.getProperty(OUTPUT_FILE));
-        // get metric
-        EvaluationMetric<Long> metric = instantiateEvaluationMetric(properties, predictions, testModel);
-        // get ranking cutoffs
-        int[] rankingCutoffs = getRankingCutoffs(properties);
-        // generate output
-        generateOutput(testModel, rankingCutoffs, metric, metric.getClass().getSimpleName(), perUser, resultsFile, overwrite, doAppend);
     }
 
     /**
@@ -16,6 +16,7 @@
 package net.recommenders.rival.evaluation.metric.error;
 
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.PreferenceConsumer;
 import net.recommenders.rival.evaluation.metric.AbstractMetric;
 import net.recommenders.rival.evaluation.metric.EvaluationMetric;
 
@@ -23,7 +24,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * @param <U> - type associated to users' ids
@@ -115,27 +115,43 @@ public abstract class AbstractErrorMetric<U, I> extends AbstractMetric<U, I> imp
      * @return a map with the transformed data, one list per user
      */
     public Map<U, List<Double>> processDataAsPredictedDifferencesToTest() {
-        Map<U, List<Double>> data = new HashMap<U, List<Double>>();
-        Map<U, Map<I, Double>> actualRatings = getTest().getUserItemPreferences();
-        Map<U, Map<I, Double>> predictedRatings = getPredictions().getUserItemPreferences();
+        final Map<U, List<Double>> data = new HashMap<U, List<Double>>();
+        final Map<U, Map<I, Double>> predictedRatings = getPredictions().getUserItemPreferences();
 
         emptyItems = 0;
         emptyUsers = 0;
 
-        for (U testUser : getTest().getUsers()) {
-            Map<I, Double> ratings = actualRatings.get(testUser);
-            List<Double> userData = data.get(testUser);
-            if (userData == null) {
-                userData = new ArrayList<Double>();
-                data.put(testUser, userData);
-            }
-            for (Entry<I, Double> e : ratings.entrySet()) {
-                I testItem = e.getKey();
-                double realRating = ratings.get(testItem);
+        getTest().forEachPreference(new PreferenceConsumer<U, I>() {
+            /**
+             * The user of the previous rating.
+             */
+            private U lastUser;
+            /**
+             * The differences of that user.
+             */
+            private List<Double> userData;
+            /**
+             * The predictions for that user.
+             */
+            private Map<I, Double> userPredictions;
+
+            @Override
+            public void consume(final U testUser, final I testItem, final double realRating) {
+                // ratings come grouped by user
+                if (!testUser.equals(lastUser)) {
+                    lastUser = testUser;
+                    userData = data.get(testUser);
+                    if (userData == null) {
+                        userData = new ArrayList<Double>();
+                        data.put(testUser, userData);
+                    }
+                    userPredictions = predictedRatings.get(testUser);
+                }
                 double predictedRating = Double.NaN; // NaN as default value
-                if (predictedRatings.containsKey(testUser)) {
-                    if (predictedRatings.get(testUser).containsKey(testItem)) {
-                        predictedRating = predictedRatings.get(testUser).get(testItem);
+                if (userPredictions != null) {
+                    Double prediction = userPredictions.get(testItem);
+                    if (prediction != null) {
+                        predictedRating = prediction;
                     } else {
                         emptyItems++;
                     }
@@ -150,7 +166,7 @@ public abstract class AbstractErrorMetric<U, I> extends AbstractMetric<U, I> imp
                     userData.add(difference);
                 }
             }
-        }
+        });
         return data;
     }
 
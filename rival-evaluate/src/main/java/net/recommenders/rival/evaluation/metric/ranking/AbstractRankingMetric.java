@@ -102,15 +102,18 @@ public abstract class AbstractRankingMetric<U, I> extends AbstractMetric<U, I> i
         Map<U, List<Pair<I, Double>>> data = new HashMap<U, List<Pair<I, Double>>>();
 
         Map<U, Map<I, Double>> predictedRatings = getPredictions().getUserItemPreferences();
+        Map<U, Map<I, Double>> testRatings = getTest().getUserItemPreferences();
         for (U testUser : getTest().getUsers()) {
             Map<I, Double> userPredictedRatings = predictedRatings.get(testUser);
-            Map<I, Double> userRelevance = getTest().getUserItemPreferences().get(testUser);
+            Map<I, Double> userRelevance = testRatings.get(testUser);
             if (userPredictedRatings != null) {
                 List<Pair<I, Double>> rankedTestRel = new ArrayList<Pair<I, Double>>();
                 for (I item : rankItems(userPredictedRatings)) {
+                    // a single lookup, a binary search on immutable models
                     double rel = 0.0;
-                    if (userRelevance.containsKey(item)) {
-                        rel = userRelevance.get(item);
+                    Double r = userRelevance.get(item);
+                    if (r != null) {
+                        rel = r;
                     }
                     rankedTestRel.add(new Pair<I, Double>(item, rel));
                 }
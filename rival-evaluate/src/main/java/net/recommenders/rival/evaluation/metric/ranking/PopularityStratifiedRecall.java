@@ -101,6 +101,34 @@ public class PopularityStratifiedRecall<U, I> extends AbstractRankingMetric<U, I
         this.observedItemRelevance = theObservedItemRelevance;
     }
 
+    /**
+     * Counts, for every item, the relevant ratings observed in a data model
+     * (e.g., the training data), which can be used as the item relevance of
+     * this metric. Only the users of each item are visited, through the
+     * inverted index of the model.
+     *
+     * @param data the observed ratings
+     * @param relThreshold relevance threshold
+     * @param <U> type of users
+     * @param <I> type of items
+     * @return the number of relevant ratings of every item with at least one
+     */
+    public static <U, I> Map<I, Integer> getObservedItemRelevance(final DataModelIF<U, I> data, final double relThreshold) {
+        Map<I, Integer> relevance = new HashMap<I, Integer>();
+        for (Map.Entry<I, Map<U, Double>> e : data.getItemUserPreferences().entrySet()) {
+            int n = 0;
+            for (Double pref : e.getValue().values()) {
+                if (pref >= relThreshold) {
+                    n++;
+                }
+            }
+            if (n > 0) {
+                relevance.put(e.getKey(), n);
+            }
+        }
+        return relevance;
+    }
+
     /**
      * Computes the global popularity-stratified recall by applying the
      * normalized user weights w^u as defined in the paper.
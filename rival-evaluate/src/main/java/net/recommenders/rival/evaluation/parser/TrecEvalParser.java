@@ -15,14 +15,10 @@
  */
 package net.recommenders.rival.evaluation.parser;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import net.recommenders.rival.core.DataModel;
-import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.ParallelParser;
 import net.recommenders.rival.core.Parser;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
@@ -59,40 +55,6 @@ public class TrecEvalParser implements Parser<Long, Long> {
      */
     @Override
     public DataModelIF<Long, Long> parseData(final File f) throws IOException {
-        DataModelIF<Long, Long> dataset = DataModelFactory.getDefaultModel();
-
-        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
-        try {
-            String line = null;
-            while ((line = br.readLine()) != null) {
-                parseLine(line, dataset);
-            }
-        } finally {
-            br.close();
-        }
-
-        return dataset;
-    }
-
-    /**
-     * A method that parses a line from the file.
-     *
-     * @param line the line to be parsed
-     * @param dataset the dataset where the information parsed from the line
-     * will be stored into.
-     */
-    private void parseLine(final String line, final DataModelIF<Long, Long> dataset) {
-        String[] toks = line.split("\t");
-        // user
-        long userId = Long.parseLong(toks[USER_TOK]);
-        // item
-        long itemId = Long.parseLong(toks[ITEM_TOK]);
-        // preference
-        double preference = Double.parseDouble(toks[RATING_TOK]);
-        //////
-        // update information
-        //////
-        dataset.addPreference(userId, itemId, preference);
-        // no timestamp info
+        return new ParallelParser("\t", USER_TOK, ITEM_TOK, RATING_TOK, -1, false).parse(f, false).buildDataModel();
     }
 }
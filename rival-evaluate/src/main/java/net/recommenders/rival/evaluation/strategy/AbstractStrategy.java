@@ -17,6 +17,7 @@ package net.recommenders.rival.evaluation.strategy;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,6 +26,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.IdDictionary;
 import net.recommenders.rival.evaluation.Pair;
 
 /**
@@ -46,6 +48,19 @@ public abstract class AbstractStrategy implements EvaluationStrategy<Long, Long>
      * The relevance threshold.
      */
     private double threshold;
+    /**
+     * Dictionary of the items, shared by the training and test sets (set by
+     * {@link #setItemDictionary(IdDictionary)} or built when needed).
+     */
+    private IdDictionary itemDictionary;
+    /**
+     * Indices of the items of the training set (built when needed).
+     */
+    private BitSet trainingItems;
+    /**
+     * Indices of the items of the test set (built when needed).
+     */
+    private BitSet testItems;
 
     /**
      * Default constructor for the evaluation strategy.
@@ -87,6 +102,74 @@ public abstract class AbstractStrategy implements EvaluationStrategy<Long, Long>
         return threshold;
     }
 
+    /**
+     * Sets the dictionary of the items, usually the one saved with the splits
+     * of the dataset, so that it is not built again for every strategy. Items
+     * of the models that are not in the dictionary are added to it.
+     *
+     * @param dictionary The dictionary of the items.
+     */
+    public void setItemDictionary(final IdDictionary dictionary) {
+        this.itemDictionary = dictionary;
+        this.trainingItems = null;
+        this.testItems = null;
+    }
+
+    /**
+     * Gets the dictionary of the items, which is built from the training and
+     * test sets if none was set.
+     *
+     * @return The dictionary of the items.
+     */
+    protected IdDictionary getItemDictionary() {
+        if (itemDictionary == null) {
+            IdDictionary dictionary = IdDictionary.of(training.getItems());
+            for (Long item : test.getItems()) {
+                dictionary.add(item);
+            }
+            itemDictionary = dictionary;
+        }
+        return itemDictionary;
+    }
+
+    /**
+     * Gets the indices of the items of a model, which are kept for the
+     * training and test sets.
+     *
+     * @param model The data model.
+     * @return The indices of the items of the model in the dictionary.
+     */
+    private BitSet getItemIndices(final DataModelIF<Long, Long> model) {
+        if (model == training) {
+            if (trainingItems == null) {
+                trainingItems = indexItems(model);
+            }
+            return trainingItems;
+        }
+        if (model == test) {
+            if (testItems == null) {
+                testItems = indexItems(model);
+            }
+            return testItems;
+        }
+        return indexItems(model);
+    }
+
+    /**
+     * Marks the items of a model in the dictionary, adding the missing ones.
+     *
+     * @param model The data model.
+     * @return The indices of the items of the model.
+     */
+    private BitSet indexItems(final DataModelIF<Long, Long> model) {
+        final IdDictionary dictionary = getItemDictionary();
+        final BitSet indices = new BitSet(dictionary.size());
+        for (Long item : model.getItems()) {
+            indices.set(dictionary.add(item));
+        }
+        return indices;
+    }
+
     /**
      * Get the items appearing in the training set and not in the data model.
      *
@@ -96,12 +179,15 @@ public abstract class AbstractStrategy implements EvaluationStrategy<Long, Long>
      */
     protected Set<Long> getModelTrainingDifference(final DataModelIF<Long, Long> model, final Long user) {
         final Set<Long> items = new HashSet<Long>();
-        if (training.getUserItemPreferences().containsKey(user)) {
-            final Set<Long> trainingItems = training.getUserItemPreferences().get(user).keySet();
-            for (Long item : model.getItems()) {
-                if (!trainingItems.contains(item)) {
-                    items.add(item);
-                }
+        final Map<Long, Double> trainingPreferences = training.getUserItemPreferences().get(user);
+        if (trainingPreferences != null) {
+            // the items of the model are indexed once, then every user only
+            // clears its training items from a copy of the bitset
+            final BitSet candidates = (BitSet) getItemIndices(model).clone();
+            final IdDictionary dictionary = getItemDictionary();
+            candidates.andNot(dictionary.toBitSet(trainingPreferences.keySet()));
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                items.add(dictionary.getId(i));
             }
         }
         return items;
@@ -31,6 +31,9 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.IdDictionary;
+import net.recommenders.rival.core.ParseCache;
+import net.recommenders.rival.core.Profiler;
 import net.recommenders.rival.core.SimpleParser;
 import net.recommenders.rival.evaluation.Pair;
 
@@ -140,77 +143,85 @@ public final class MultipleStrategyRunner {
      */
     public static void run(final Properties properties)
             throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException {
-        // get splits
-        File splitsFolder = new File(properties.getProperty(SPLITS_FOLDER));
-        String trainingSuffix = properties.getProperty(TRAINING_SUFFIX);
-        String testSuffix = properties.getProperty(TEST_SUFFIX);
-        Set<String> splits = new HashSet<String>();
-        getAllSplits(splits, splitsFolder, trainingSuffix, testSuffix);
-        // read more parameters
-        File inputFolder = new File(properties.getProperty(RECOMMENDATION_FOLDER));
-        String inputSuffix = properties.getProperty(RECOMMENDATION_SUFFIX);
-        File rankingFolder = new File(properties.getProperty(OUTPUT_FOLDER));
-        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(StrategyRunner.OUTPUT_OVERWRITE, "true"));
-        File groundtruthFolder = new File(properties.getProperty(GROUNDTRUTH_FOLDER));
-        EvaluationStrategy.OUTPUT_FORMAT format = null;
-        if (properties.getProperty(OUTPUT_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
-            format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
-        } else {
-            format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
-        }
-        String[] thresholds = properties.getProperty(RELEVANCE_THRESHOLDS).split(",");
-        String[] strategyClassNames = properties.getProperty(STRATEGIES).split(",");
-        // process info for each split
-        for (String split : splits) {
-            File trainingFile = new File(split + trainingSuffix);
-            System.out.println("Parsing started: training file" + trainingFile);
-            DataModelIF<Long, Long> trainingModel = new SimpleParser().parseData(trainingFile);
-            System.out.println("Parsing finished: training file ");
-            File testFile = new File(split + testSuffix);
-            System.out.println("Parsing started: test file" + testFile);
-            DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-            System.out.println("Parsing finished: test file");
-            Set<String> recommendationFiles = new HashSet<String>();
-            getAllRecommendationFiles(recommendationFiles, inputFolder, new File(split).getName(), inputSuffix);
-            for (String inputFile : recommendationFiles) {
-                System.out.println("Recommendation file: " + inputFile);
-                String inputFileName = new File(inputFile).getName();
-                // read recommendations: user \t item \t score
-                final Map<Long, List<Pair<Long, Double>>> mapUserRecommendations = new HashMap<Long, List<Pair<Long, Double>>>();
-                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
-                try {
-                    String line = null;
-                    while ((line = in.readLine()) != null) {
-                        StrategyIO.readLine(line, mapUserRecommendations);
+        Profiler.configure(properties);
+        try (Profiler.Stage stage = Profiler.start("strategy")) {
+            ParseCache cache = ParseCache.fromProperties(properties);
+            // get splits
+            File splitsFolder = new File(properties.getProperty(SPLITS_FOLDER));
+            String trainingSuffix = properties.getProperty(TRAINING_SUFFIX);
+            String testSuffix = properties.getProperty(TEST_SUFFIX);
+            Set<String> splits = new HashSet<String>();
+            getAllSplits(splits, splitsFolder, trainingSuffix, testSuffix);
+            // read more parameters
+            File inputFolder = new File(properties.getProperty(RECOMMENDATION_FOLDER));
+            String inputSuffix = properties.getProperty(RECOMMENDATION_SUFFIX);
+            File rankingFolder = new File(properties.getProperty(OUTPUT_FOLDER));
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(StrategyRunner.OUTPUT_OVERWRITE, "true"));
+            File groundtruthFolder = new File(properties.getProperty(GROUNDTRUTH_FOLDER));
+            EvaluationStrategy.OUTPUT_FORMAT format = null;
+            if (properties.getProperty(OUTPUT_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
+                format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
+            } else {
+                format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
+            }
+            String[] thresholds = properties.getProperty(RELEVANCE_THRESHOLDS).split(",");
+            String[] strategyClassNames = properties.getProperty(STRATEGIES).split(",");
+            IdDictionary itemDictionary = StrategyIO.loadItemDictionary(properties, splitsFolder);
+            // process info for each split
+            for (String split : splits) {
+                File trainingFile = new File(split + trainingSuffix);
+                System.out.println("Parsing started: training file" + trainingFile);
+                DataModelIF<Long, Long> trainingModel = cache.parseImmutableData(new SimpleParser(), trainingFile, "");
+                System.out.println("Parsing finished: training file ");
+                File testFile = new File(split + testSuffix);
+                System.out.println("Parsing started: test file" + testFile);
+                DataModelIF<Long, Long> testModel = cache.parseImmutableData(new SimpleParser(), testFile, "");
+                System.out.println("Parsing finished: test file");
+                Set<String> recommendationFiles = new HashSet<String>();
+                getAllRecommendationFiles(recommendationFiles, inputFolder, new File(split).getName(), inputSuffix);
+                for (String inputFile : recommendationFiles) {
+                    System.out.println("Recommendation file: " + inputFile);
+                    String inputFileName = new File(inputFile).getName();
+                    // read recommendations: user \t item \t score
+                    final Map<Long, List<Pair<Long, Double>>> mapUserRecommendations = new HashMap<Long, List<Pair<Long, Double>>>();
+                    stage.addBytes(new File(inputFile).length());
+                    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+                    try {
+                        String line = null;
+                        while ((line = in.readLine()) != null) {
+                            StrategyIO.readLine(line, mapUserRecommendations);
+                            stage.addLines(1);
+                        }
+                    } finally {
+                        in.close();
                     }
-                } finally {
-                    in.close();
-                }
-                // generate output for each strategy
-                // improvement: call to instantiateStrategies instead of having duplicated code. Current problem: how to obtain nice suffix text and threshold information in a generic way
-                for (String strategyClassName : strategyClassNames) {
-                    Class<?> strategyClass = Class.forName(strategyClassName);
-                    for (String threshold : thresholds) {
-                        System.out.println("Generating " + strategyClassName + " with threshold " + threshold);
-                        // get strategy and generate output
-                        if (strategyClassName.contains("RelPlusN")) {
-                            String[] numbers = properties.getProperty(RELPLUSN_N).split(",");
-                            String[] seeds = properties.getProperty(RELPLUSN_SEED).split(",");
-                            for (String number : numbers) {
-                                for (String seed : seeds) {
-                                    EvaluationStrategy<Long, Long> strategy = new RelPlusN(trainingModel, testModel, Integer.parseInt(number), Double.parseDouble(threshold), Long.parseLong(seed));
+                    // generate output for each strategy
+                    // improvement: call to instantiateStrategies instead of having duplicated code. Current problem: how to obtain nice suffix text and threshold information in a generic way
+                    for (String strategyClassName : strategyClassNames) {
+                        Class<?> strategyClass = Class.forName(strategyClassName);
+                        for (String threshold : thresholds) {
+                            System.out.println("Generating " + strategyClassName + " with threshold " + threshold);
+                            // get strategy and generate output
+                            if (strategyClassName.contains("RelPlusN")) {
+                                String[] numbers = properties.getProperty(RELPLUSN_N).split(",");
+                                String[] seeds = properties.getProperty(RELPLUSN_SEED).split(",");
+                                for (String number : numbers) {
+                                    for (String seed : seeds) {
+                                        EvaluationStrategy<Long, Long> strategy = StrategyIO.useItemDictionary(
+                                                new RelPlusN(trainingModel, testModel, Integer.parseInt(number), Double.parseDouble(threshold), Long.parseLong(seed)), itemDictionary);
+                                        generateOutput(testModel, mapUserRecommendations, strategy, format, rankingFolder, groundtruthFolder,
+                                                inputFileName, strategyClass.getSimpleName(), threshold, "__" + number + "__" + seed, overwrite);
+                                    }
+                                }
+                            } else {
+                                Object strategyObj = strategyClass.getConstructor(DataModelIF.class, DataModelIF.class, double.class).newInstance(trainingModel, testModel, Double.parseDouble(threshold));
+                                if (strategyObj instanceof EvaluationStrategy) {
+                                    @SuppressWarnings("unchecked")
+                                    EvaluationStrategy<Long, Long> strategy = StrategyIO.useItemDictionary((EvaluationStrategy<Long, Long>) strategyObj, itemDictionary);
                                     generateOutput(testModel, mapUserRecommendations, strategy, format, rankingFolder, groundtruthFolder,
-                                            inputFileName, strategyClass.getSimpleName(), threshold, "__" + number + "__" + seed, overwrite);
+                                            inputFileName, strategyClass.getSimpleName(), threshold, "", overwrite);
                                 }
                             }
-                        } else {
-                            Object strategyObj = strategyClass.getConstructor(DataModelIF.class, DataModelIF.class, double.class).newInstance(trainingModel, testModel, Double.parseDouble(threshold));
-                            if (strategyObj instanceof EvaluationStrategy) {
-                                @SuppressWarnings("unchecked")
-                                EvaluationStrategy<Long, Long> strategy = (EvaluationStrategy<Long, Long>) strategyObj;
-                                generateOutput(testModel, mapUserRecommendations, strategy, format, rankingFolder, groundtruthFolder,
-                                        inputFileName, strategyClass.getSimpleName(), threshold, "", overwrite);
-                            }
                         }
                     }
                 }
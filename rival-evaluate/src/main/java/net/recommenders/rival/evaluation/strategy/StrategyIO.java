@@ -15,9 +15,13 @@
  */
 package net.recommenders.rival.evaluation.strategy;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import net.recommenders.rival.core.IdDictionary;
 import net.recommenders.rival.evaluation.Pair;
 
 /**
@@ -27,6 +31,13 @@ import net.recommenders.rival.evaluation.Pair;
  */
 public final class StrategyIO {
 
+    /**
+     * Variable that represents the name of a property in the file: path of
+     * the dictionary of items saved with the splits (by default, the
+     * {@link IdDictionary#ITEM_FILE} file in the folder of the splits).
+     */
+    public static final String ITEM_DICTIONARY = "strategy.dictionary.items";
+
     /**
      * Utility classes should not have a public or default constructor.
      */
@@ -69,4 +80,39 @@ public final class StrategyIO {
             userRec.add(new Pair<Long, Double>(item, score));
         }
     }
+
+    /**
+     * Reads the dictionary of items saved with the splits, if any.
+     *
+     * @param properties The properties, where {@link #ITEM_DICTIONARY} may
+     * set the path of the dictionary.
+     * @param splitsFolder The folder of the splits, where the dictionary is
+     * looked for by default.
+     * @return The dictionary, or null if there is no dictionary file (each
+     * strategy then builds its own dictionary).
+     * @throws IOException when the dictionary cannot be read.
+     */
+    public static IdDictionary loadItemDictionary(final Properties properties, final File splitsFolder) throws IOException {
+        String path = properties.getProperty(ITEM_DICTIONARY);
+        File f = path == null ? new File(splitsFolder, IdDictionary.ITEM_FILE) : new File(path);
+        if (!f.isFile()) {
+            return null;
+        }
+        return IdDictionary.load(f);
+    }
+
+    /**
+     * Makes a strategy use a dictionary of items, if the strategy supports it
+     * and the dictionary is not null.
+     *
+     * @param strategy The strategy.
+     * @param dictionary The dictionary of items (may be null).
+     * @return The strategy.
+     */
+    public static EvaluationStrategy<Long, Long> useItemDictionary(final EvaluationStrategy<Long, Long> strategy, final IdDictionary dictionary) {
+        if (dictionary != null && strategy instanceof AbstractStrategy) {
+            ((AbstractStrategy) strategy).setItemDictionary(dictionary);
+        }
+        return strategy;
+    }
 }
@@ -31,6 +31,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.ParseCache;
+import net.recommenders.rival.core.Profiler;
 import net.recommenders.rival.core.SimpleParser;
 import net.recommenders.rival.evaluation.Pair;
 
@@ -126,43 +128,50 @@ public final class StrategyRunner {
      */
     public static void run(final Properties properties)
             throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException {
-        // read splits
-        System.out.println("Parsing started: training file");
-        File trainingFile = new File(properties.getProperty(TRAINING_FILE));
-        DataModelIF<Long, Long> trainingModel = new SimpleParser().parseData(trainingFile);
-        System.out.println("Parsing finished: training file");
-        System.out.println("Parsing started: test file");
-        File testFile = new File(properties.getProperty(TEST_FILE));
-        DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-        System.out.println("Parsing finished: test file");
-        // read other parameters
-        File inputFile = new File(properties.getProperty(INPUT_FILE));
-        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
-        File rankingFile = new File(properties.getProperty(OUTPUT_FILE));
-        File groundtruthFile = new File(properties.getProperty(GROUNDTRUTH_FILE));
-        EvaluationStrategy.OUTPUT_FORMAT format = null;
-        if (properties.getProperty(OUTPUT_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
-            format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
-        } else {
-            format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
-        }
+        Profiler.configure(properties);
+        try (Profiler.Stage stage = Profiler.start("strategy")) {
+            ParseCache cache = ParseCache.fromProperties(properties);
+            // read splits
+            System.out.println("Parsing started: training file");
+            File trainingFile = new File(properties.getProperty(TRAINING_FILE));
+            DataModelIF<Long, Long> trainingModel = cache.parseImmutableData(new SimpleParser(), trainingFile, "");
+            System.out.println("Parsing finished: training file");
+            System.out.println("Parsing started: test file");
+            File testFile = new File(properties.getProperty(TEST_FILE));
+            DataModelIF<Long, Long> testModel = cache.parseImmutableData(new SimpleParser(), testFile, "");
+            System.out.println("Parsing finished: test file");
+            // read other parameters
+            File inputFile = new File(properties.getProperty(INPUT_FILE));
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
+            File rankingFile = new File(properties.getProperty(OUTPUT_FILE));
+            File groundtruthFile = new File(properties.getProperty(GROUNDTRUTH_FILE));
+            EvaluationStrategy.OUTPUT_FORMAT format = null;
+            if (properties.getProperty(OUTPUT_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
+                format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
+            } else {
+                format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
+            }
 
-        // get strategy
-        EvaluationStrategy<Long, Long> strategy = instantiateStrategy(properties, trainingModel, testModel);
+            // get strategy
+            EvaluationStrategy<Long, Long> strategy = instantiateStrategy(properties, trainingModel, testModel);
+            StrategyIO.useItemDictionary(strategy, StrategyIO.loadItemDictionary(properties, trainingFile.getAbsoluteFile().getParentFile()));
 
-        // read recommendations: user \t item \t score
-        final Map<Long, List<Pair<Long, Double>>> mapUserRecommendations = new HashMap<Long, List<Pair<Long, Double>>>();
-        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
-        try {
-            String line = null;
-            while ((line = in.readLine()) != null) {
-                StrategyIO.readLine(line, mapUserRecommendations);
+            // read recommendations: user \t item \t score
+            final Map<Long, List<Pair<Long, Double>>> mapUserRecommendations = new HashMap<Long, List<Pair<Long, Double>>>();
+            stage.addBytes(inputFile.length());
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+            try {
+                String line = null;
+                while ((line = in.readLine()) != null) {
+                    StrategyIO.readLine(line, mapUserRecommendations);
+                    stage.addLines(1);
+                }
+            } finally {
+                in.close();
             }
-        } finally {
-            in.close();
+            // generate output
+            generateOutput(testModel, mapUserRecommendations, strategy, format, rankingFile, groundtruthFile, overwrite);
         }
-        // generate output
-        generateOutput(testModel, mapUserRecommendations, strategy, format, rankingFile, groundtruthFile, overwrite);
     }
 
     /**
@@ -30,6 +30,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.ParseCache;
+import net.recommenders.rival.core.Profiler;
 import net.recommenders.rival.core.SimpleParser;
 import net.recommenders.rival.evaluation.Pair;
 
@@ -132,45 +134,51 @@ public final class StrategyRunnerInfile {
      */
     public static void run(final Properties properties)
             throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException {
-        // read splits
-        System.out.println("Parsing started: training file");
-        File trainingFile = new File(properties.getProperty(TRAINING_FILE));
-        DataModelIF<Long, Long> trainingModel = new SimpleParser().parseData(trainingFile);
-        System.out.println("Parsing finished: training file");
-        System.out.println("Parsing started: test file");
-        File testFile = new File(properties.getProperty(TEST_FILE));
-        DataModelIF<Long, Long> testModel = new SimpleParser().parseData(testFile);
-        System.out.println("Parsing finished: test file");
-        // read other parameters
-        File inputFile = new File(properties.getProperty(INPUT_FILE));
-        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
-        File rankingFile = new File(properties.getProperty(OUTPUT_FILE));
-        File groundtruthFile = new File(properties.getProperty(GROUNDTRUTH_FILE));
-        EvaluationStrategy.OUTPUT_FORMAT format = null;
-        if (properties.getProperty(OUTPUT_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
-            format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
-        } else {
-            format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
-        }
-        Double threshold = Double.parseDouble(properties.getProperty(RELEVANCE_THRESHOLD));
-        String strategyClassName = properties.getProperty(STRATEGY);
-        Class<?> strategyClass = Class.forName(strategyClassName);
-        // get strategy
-        EvaluationStrategy<Long, Long> strategy = null;
-        if (strategyClassName.contains("RelPlusN")) {
-            Integer number = Integer.parseInt(properties.getProperty(RELPLUSN_N));
-            Long seed = Long.parseLong(properties.getProperty(RELPLUSN_SEED));
-            strategy = new RelPlusN(trainingModel, testModel, number, threshold, seed);
-        } else {
-            Object strategyObj = strategyClass.getConstructor(DataModelIF.class, DataModelIF.class, double.class).newInstance(trainingModel, testModel, threshold);
-            if (strategyObj instanceof EvaluationStrategy) {
-                @SuppressWarnings("unchecked")
-                EvaluationStrategy<Long, Long> strategyTemp = (EvaluationStrategy<Long, Long>) strategyObj;
-                strategy = strategyTemp;
+        Profiler.configure(properties);
+        try (Profiler.Stage stage = Profiler.start("strategy")) {
+            ParseCache cache = ParseCache.fromProperties(properties);
+            // read splits
+            System.out.println("Parsing started: training file");
+            File trainingFile = new File(properties.getProperty(TRAINING_FILE));
+            DataModelIF<Long, Long> trainingModel = cache.parseImmutableData(new SimpleParser(), trainingFile, "");
+            System.out.println("Parsing finished: training file");
+            System.out.println("Parsing started: test file");
+            File testFile = new File(properties.getProperty(TEST_FILE));
+            DataModelIF<Long, Long> testModel = cache.parseImmutableData(new SimpleParser(), testFile, "");
+            System.out.println("Parsing finished: test file");
+            // read other parameters
+            File inputFile = new File(properties.getProperty(INPUT_FILE));
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(OUTPUT_OVERWRITE, "false"));
+            File rankingFile = new File(properties.getProperty(OUTPUT_FILE));
+            File groundtruthFile = new File(properties.getProperty(GROUNDTRUTH_FILE));
+            EvaluationStrategy.OUTPUT_FORMAT format = null;
+            if (properties.getProperty(OUTPUT_FORMAT).equals(EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL.toString())) {
+                format = EvaluationStrategy.OUTPUT_FORMAT.TRECEVAL;
+            } else {
+                format = EvaluationStrategy.OUTPUT_FORMAT.SIMPLE;
+            }
+            Double threshold = Double.parseDouble(properties.getProperty(RELEVANCE_THRESHOLD));
+            String strategyClassName = properties.getProperty(STRATEGY);
+            Class<?> strategyClass = Class.forName(strategyClassName);
+            // get strategy
+            EvaluationStrategy<Long, Long> strategy = null;
+            if (strategyClassName.contains("RelPlusN")) {
+                Integer number = Integer.parseInt(properties.getProperty(RELPLUSN_N));
+                Long seed = Long.parseLong(properties.getProperty(RELPLUSN_SEED));
+                strategy = new RelPlusN(trainingModel, testModel, number, threshold, seed);
+            } else {
+                Object strategyObj = strategyClass.getConstructor(DataModelIF.class, DataModelIF.class, double.class).newInstance(trainingModel, testModel, threshold);
+                if (strategyObj instanceof EvaluationStrategy) {
+                    @SuppressWarnings("unchecked")
+                    EvaluationStrategy<Long, Long> strategyTemp = (EvaluationStrategy<Long, Long>) strategyObj;
+                    strategy = strategyTemp;
+                }
             }
+            StrategyIO.useItemDictionary(strategy, StrategyIO.loadItemDictionary(properties, trainingFile.getAbsoluteFile().getParentFile()));
+            // generate output
+            stage.addBytes(inputFile.length());
+            generateOutput(testModel, inputFile, strategy, format, rankingFile, groundtruthFile, overwrite);
         }
-        // generate output
-        generateOutput(testModel, inputFile, strategy, format, rankingFile, groundtruthFile, overwrite);
     }
 
     /**
@@ -16,11 +16,13 @@
 package net.recommenders.rival.recommend.frameworks;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import net.recommenders.rival.core.Profiler;
 import net.recommenders.rival.recommend.frameworks.lenskit.LenskitRecommenderRunner;
 import net.recommenders.rival.recommend.frameworks.mahout.MahoutRecommenderRunner;
 
@@ -124,6 +126,7 @@ public final class RecommendationRunner {
      * @param properties the properties
      */
     public static void recommend(final Properties properties) {
+        Profiler.configure(properties);
         AbstractRunner rr = instantiateRecommender(properties);
         run(rr);
     }
@@ -134,18 +137,25 @@ public final class RecommendationRunner {
      * @param rr abstract recommender already initialized
      */
     public static void run(final AbstractRunner rr) {
-        time = System.currentTimeMillis();
-        boolean statsExist = false;
-        statPath = rr.getCanonicalFileName();
-        statsExist = rr.isAlreadyRecommended();
-        try {
-            rr.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        time = System.currentTimeMillis() - time;
-        if (!statsExist) {
-            writeStats(statPath, "time", time);
+        try (Profiler.Stage stage = Profiler.start("recommend")) {
+            time = System.currentTimeMillis();
+            boolean statsExist = false;
+            statPath = rr.getCanonicalFileName();
+            statsExist = rr.isAlreadyRecommended();
+            try {
+                rr.run(AbstractRunner.RUN_OPTIONS.OUTPUT_RECS);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            time = System.currentTimeMillis() - time;
+            if (!statsExist) {
+                writeStats(statPath, "time", time);
+                try {
+                    stage.addFile(new File(rr.getPath(), rr.getFileName()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
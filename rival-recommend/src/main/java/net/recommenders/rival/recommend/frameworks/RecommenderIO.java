@@ -49,7 +49,9 @@ public final class RecommenderIO {
      * printed
      * @param append flag to decide if recommendations should be appended to
      * file
-     * @param model if not null, recommendations will be saved here
+     * @param model if not null, recommendations will be saved here (it should
+     * be a {@link net.recommenders.rival.core.ConcurrentDataModel} if this
+     * method is called from several threads)
      * @param <T> type of recommendations
      */
     public static <T> void writeData(final long user, final List<T> recommendations, final String path, final String fileName, final boolean append, final TemporalDataModelIF<Long, Long> model) {
@@ -19,6 +19,8 @@ import java.util.Collection;
 import java.util.List;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
@@ -33,6 +35,12 @@ import org.apache.mahout.cf.taste.recommender.Recommender;
  */
 public class PopularityBasedRecommender extends AbstractRecommender implements Recommender {
 
+    /**
+     * Number of users of every item, computed once (null until needed or
+     * after a refresh).
+     */
+    private FastByIDMap<Integer> itemPopularity;
+
     /**
      * Constructor when a canidate item strategy is to be used.
      *
@@ -63,7 +71,32 @@ public class PopularityBasedRecommender extends AbstractRecommender implements R
      */
     @Override
     public float estimatePreference(final long u, final long i) throws TasteException {
-        return 1.0f * getDataModel().getPreferencesForItem(i).length();
+        Integer popularity = getItemPopularity().get(i);
+        if (popularity == null) {
+            // let the data model report unknown items
+            return 1.0f * getDataModel().getPreferencesForItem(i).length();
+        }
+        return 1.0f * popularity;
+    }
+
+    /**
+     * Gets the number of users of every item, counting them the first time.
+     *
+     * @return the popularity of every item
+     * @throws TasteException when the data model cannot be read.
+     */
+    private synchronized FastByIDMap<Integer> getItemPopularity() throws TasteException {
+        if (itemPopularity == null) {
+            DataModel model = getDataModel();
+            FastByIDMap<Integer> popularity = new FastByIDMap<Integer>(model.getNumItems());
+            LongPrimitiveIterator it = model.getItemIDs();
+            while (it.hasNext()) {
+                long item = it.nextLong();
+                popularity.put(item, model.getNumUsersWithPreferenceFor(item));
+            }
+            itemPopularity = popularity;
+        }
+        return itemPopularity;
     }
 
     /**
@@ -85,6 +118,7 @@ public class PopularityBasedRecommender extends AbstractRecommender implements R
      * @param clctn the data.
      */
     @Override
-    public void refresh(final Collection<Refreshable> clctn) {
+    public synchronized void refresh(final Collection<Refreshable> clctn) {
+        itemPopularity = null;
     }
 }
@@ -20,14 +20,41 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.StringDictionary;
 
 /**
  * Parser for the Last.fm dataset by O Celma.
  *
+ * The mappings between the original user and item keys and the ids of the
+ * models are kept in {@link StringDictionary}s, saved as binary files named
+ * after a prefix ("prefix_userId.bin" and "prefix_itemId.bin"), so that
+ * parsing again with the same prefix gives the same ids.
+ *
  * @author <a href="http://github.com/abellogin">Alejandro</a>
  */
 public class AbstractLastfmCelmaParser {
 
+    /**
+     * Name of the user mapping.
+     */
+    public static final String USER_MAP = "userId";
+    /**
+     * Name of the item mapping.
+     */
+    public static final String ITEM_MAP = "itemId";
+    /**
+     * Extension of the binary mappings.
+     */
+    public static final String BINARY_MAP_EXTENSION = ".bin";
+    /**
+     * Extension of the text mappings.
+     */
+    public static final String TEXT_MAP_EXTENSION = ".txt";
+    /**
+     * Separator between the artist and the track in the keys of the items.
+     */
+    protected static final byte ITEM_SEPARATOR = '_';
+
     /**
      * A flag that indicates if the artists should be considered as the items
      * (instead of tracks).
@@ -69,6 +96,49 @@ public class AbstractLastfmCelmaParser {
         return id + 1;
     }
 
+    /**
+     * Reads a user/item mapping saved by
+     * {@link #saveIdMap(StringDictionary, String, String)}, or a mapping in
+     * the text format read by {@link #getIndexMap(File, Map)} if there is no
+     * binary one. New keys get ids larger than those of the mapping (and
+     * larger than 0).
+     *
+     * @param mapIdsPrefix The prefix of the files with the mappings (null if
+     * there are none).
+     * @param name The name of the mapping ("userId" or "itemId").
+     * @return The mapping.
+     * @throws IOException if the mapping cannot be read.
+     */
+    protected static StringDictionary loadIdMap(final String mapIdsPrefix, final String name) throws IOException {
+        StringDictionary map = new StringDictionary();
+        if (mapIdsPrefix != null) {
+            File binary = new File(mapIdsPrefix + "_" + name + BINARY_MAP_EXTENSION);
+            File text = new File(mapIdsPrefix + "_" + name + TEXT_MAP_EXTENSION);
+            if (binary.exists()) {
+                map = StringDictionary.load(binary);
+            } else if (text.exists()) {
+                map = StringDictionary.loadText(text);
+            }
+        }
+        map.setNextId(1);
+        return map;
+    }
+
+    /**
+     * Saves a user/item mapping in binary format.
+     *
+     * @param map The mapping.
+     * @param mapIdsPrefix The prefix of the files with the mappings (null if
+     * the mapping should not be saved).
+     * @param name The name of the mapping ("userId" or "itemId").
+     * @throws IOException if the mapping cannot be written.
+     */
+    protected static void saveIdMap(final StringDictionary map, final String mapIdsPrefix, final String name) throws IOException {
+        if (mapIdsPrefix != null) {
+            map.save(new File(mapIdsPrefix + "_" + name + BINARY_MAP_EXTENSION));
+        }
+    }
+
     /**
      * Gets the value of the flag indicating if the artists should be considered
      * as items (instead of tracks).
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Parser of timestamps in the format yyyy-MM-dd'T'HH:mm:ss'Z', giving the
+ * same result as {@link SimpleDateFormat} with that pattern (that is, read in
+ * the default time zone). Well-formed timestamps are parsed from their bytes
+ * with integer arithmetic; the time zone offset is computed with a calendar
+ * only once per quarter of an hour, since consecutive events usually fall in
+ * the same one. Anything else is parsed by {@link SimpleDateFormat}.
+ *
+ * Instances are not thread-safe.
+ */
+final class IsoTimestampParser {
+
+    /**
+     * The pattern of the timestamps.
+     */
+    static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+    /**
+     * Length of a timestamp.
+     */
+    private static final int LENGTH = 20;
+    /**
+     * First year parsed with the proleptic Gregorian calendar (the calendar
+     * of SimpleDateFormat is Julian before 1583).
+     */
+    private static final int FIRST_YEAR = 1583;
+    /**
+     * Months in a year.
+     */
+    private static final int MONTHS = 12;
+    /**
+     * Milliseconds in a second.
+     */
+    private static final long SECOND = 1000L;
+    /**
+     * Seconds in a minute and minutes in an hour.
+     */
+    private static final int SIXTY = 60;
+    /**
+     * Hours in a day.
+     */
+    private static final int HOURS = 24;
+    /**
+     * Milliseconds in a quarter of an hour.
+     */
+    private static final long QUARTER = 15L * SIXTY * SECOND;
+    /**
+     * Positions of the separators.
+     */
+    private static final int[] SEPARATORS = {4, 7, 10, 13, 16, 19};
+    /**
+     * The separators.
+     */
+    private static final byte[] SEPARATOR_BYTES = {'-', '-', 'T', ':', ':', 'Z'};
+    /**
+     * Positions of the fields (year, month, day, hour, minute, second).
+     */
+    private static final int[] FIELD_START = {0, 5, 8, 11, 14, 17};
+    /**
+     * Lengths of the fields.
+     */
+    private static final int[] FIELD_LENGTH = {4, 2, 2, 2, 2, 2};
+    /**
+     * Days from 0000-03-01 to 1970-01-01.
+     */
+    private static final long EPOCH_DAYS = 719468L;
+    /**
+     * Days in a 400-year cycle.
+     */
+    private static final long DAYS_PER_ERA = 146097L;
+    /**
+     * Years in a cycle.
+     */
+    private static final int YEARS_PER_ERA = 400;
+    /**
+     * Days in a year (not leap).
+     */
+    private static final int DAYS_PER_YEAR = 365;
+    /**
+     * Days in the five months from March to July, and from August to
+     * December.
+     */
+    private static final int DAYS_PER_FIVE_MONTHS = 153;
+    /**
+     * Months in the period used by the day count (March to July).
+     */
+    private static final int FIVE_MONTHS = 5;
+    /**
+     * The first month of the years of the day count.
+     */
+    private static final int MARCH = 3;
+    /**
+     * Years between leap years.
+     */
+    private static final int LEAP_CYCLE = 4;
+    /**
+     * Years in a century.
+     */
+    private static final int CENTURY = 100;
+    /**
+     * Radix of the fields.
+     */
+    private static final int RADIX = 10;
+    /**
+     * The fallback formatter.
+     */
+    private final SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+    /**
+     * The calendar used to compute the time zone offset.
+     */
+    private final Calendar calendar = new GregorianCalendar();
+    /**
+     * Fields being parsed.
+     */
+    private final int[] fields = new int[FIELD_START.length];
+    /**
+     * Quarter of an hour (of local time) of the cached offset.
+     */
+    private long cachedQuarter = Long.MIN_VALUE;
+    /**
+     * The cached offset.
+     */
+    private long cachedOffset;
+
+    /**
+     * Parses a timestamp.
+     *
+     * @param b the array with the bytes of the timestamp
+     * @param off the position of the timestamp
+     * @param len the length of the timestamp
+     * @return the milliseconds since the epoch
+     * @throws ParseException if the timestamp is not valid
+     */
+    long parse(final byte[] b, final int off, final int len) throws ParseException {
+        if (len != LENGTH || !parseFields(b, off)) {
+            return format.parse(new String(b, off, len, StandardCharsets.UTF_8)).getTime();
+        }
+        int year = fields[0];
+        int month = fields[1];
+        int day = fields[2];
+        final int hourField = 3;
+        final int minuteField = 4;
+        final int secondField = 5;
+        long local = ((daysFromCivil(year, month, day) * HOURS + fields[hourField]) * SIXTY + fields[minuteField]) * SIXTY * SECOND
+                + fields[secondField] * SECOND;
+        long quarter = local / QUARTER;
+        if (local < 0 && quarter * QUARTER != local) {
+            quarter--;
+        }
+        if (quarter != cachedQuarter) {
+            calendar.clear();
+            calendar.set(year, month - 1, day, fields[hourField], fields[minuteField], fields[secondField]);
+            cachedOffset = local - calendar.getTimeInMillis();
+            cachedQuarter = quarter;
+        }
+        return local - cachedOffset;
+    }
+
+    /**
+     * Reads the fields of a well-formed timestamp.
+     *
+     * @param b the array with the bytes of the timestamp
+     * @param off the position of the timestamp
+     * @return false if the timestamp is not well formed
+     */
+    private boolean parseFields(final byte[] b, final int off) {
+        for (int k = 0; k < SEPARATORS.length; k++) {
+            if (b[off + SEPARATORS[k]] != SEPARATOR_BYTES[k]) {
+                return false;
+            }
+        }
+        for (int k = 0; k < FIELD_START.length; k++) {
+            int v = 0;
+            for (int j = 0; j < FIELD_LENGTH[k]; j++) {
+                int digit = b[off + FIELD_START[k] + j] - '0';
+                if (digit < 0 || digit >= RADIX) {
+                    return false;
+                }
+                v = v * RADIX + digit;
+            }
+            fields[k] = v;
+        }
+        return fields[0] >= FIRST_YEAR && fields[1] >= 1 && fields[1] <= MONTHS;
+    }
+
+    /**
+     * Counts the days from 1970-01-01 to a date of the proleptic Gregorian
+     * calendar (days out of the range of the month roll over, as in a lenient
+     * calendar).
+     *
+     * @param year the year
+     * @param month the month (1 to 12)
+     * @param day the day of the month
+     * @return the days since the epoch
+     */
+    static long daysFromCivil(final int year, final int month, final int day) {
+        // years start in March, so the leap day is the last one
+        long y = year;
+        int m = month - MARCH;
+        if (m < 0) {
+            y--;
+            m += MONTHS;
+        }
+        // only years after 1582 are parsed, so y is positive
+        long era = y / YEARS_PER_ERA;
+        long yearOfEra = y - era * YEARS_PER_ERA;
+        long dayOfYear = (DAYS_PER_FIVE_MONTHS * m + 2) / FIVE_MONTHS + day - 1;
+        long dayOfEra = yearOfEra * DAYS_PER_YEAR + yearOfEra / LEAP_CYCLE - yearOfEra / CENTURY + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - EPOCH_DAYS;
+    }
+}
@@ -15,17 +15,13 @@
  */
 package net.recommenders.rival.split.parser;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import net.recommenders.rival.core.ByteTokenizer;
+import net.recommenders.rival.core.DataModelBuilder;
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.ParserWithIdMapping;
-import net.recommenders.rival.core.SimpleParser;
-import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.StringDictionary;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
 /**
@@ -89,64 +85,37 @@ public class LastfmCelma360KParser extends AbstractLastfmCelmaParser implements
      */
     @Override
     public TemporalDataModelIF<Long, Long> parseTemporalData(final File f, final String mapIdsPrefix) throws IOException {
-        TemporalDataModelIF<Long, Long> dataset = new TemporalDataModel<>();
+        DataModelBuilder builder = new DataModelBuilder();
 
-        Map<String, Long> mapUserIds = new HashMap<>();
-        Map<String, Long> mapItemIds = new HashMap<>();
+        StringDictionary mapUserIds = loadIdMap(mapIdsPrefix, USER_MAP);
+        StringDictionary mapItemIds = loadIdMap(mapIdsPrefix, ITEM_MAP);
 
-        long curUser = getIndexMap(new File(mapIdsPrefix + "_userId.txt"), mapUserIds);
-        long curItem = getIndexMap(new File(mapIdsPrefix + "_itemId.txt"), mapItemIds);
-
-        BufferedReader br = SimpleParser.getBufferedReader(f);
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] toks = line.split("\t");
-            // user
-            String user = toks[USER_TOK];
-            if (!mapUserIds.containsKey(user)) {
-                mapUserIds.put(user, curUser);
-                curUser++;
-            }
-            long userId = mapUserIds.get(user);
-            // item
-            String artist = toks[ARTIST_TOK];
-            String track = toks[TRACK_TOK];
-            String item;
-            if (isUseArtists()) {
-                item = artist;
-            } else {
-                item = artist + "_" + track;
-            }
-            if (!mapItemIds.containsKey(item)) {
-                mapItemIds.put(item, curItem);
-                curItem++;
+        try (ByteTokenizer tokenizer = ByteTokenizer.open(f, "\t")) {
+            while (tokenizer.next()) {
+                byte[] line = tokenizer.getBuffer();
+                // user
+                long userId = mapUserIds.getOrAdd(line, tokenizer.getFieldStart(USER_TOK), tokenizer.getFieldLength(USER_TOK));
+                // item (artist, or artist_track)
+                long itemId;
+                if (isUseArtists()) {
+                    itemId = mapItemIds.getOrAdd(line, tokenizer.getFieldStart(ARTIST_TOK), tokenizer.getFieldLength(ARTIST_TOK));
+                } else {
+                    itemId = mapItemIds.getOrAdd(line, tokenizer.getFieldStart(ARTIST_TOK), tokenizer.getFieldLength(ARTIST_TOK),
+                            ITEM_SEPARATOR, tokenizer.getFieldStart(TRACK_TOK), tokenizer.getFieldLength(TRACK_TOK));
+                }
+                // preference
+                double preference = tokenizer.getDouble(PREF_TOK);
+                //////
+                // update information
+                //////
+                builder.addPreference(userId, itemId, preference);
             }
-            long itemId = mapItemIds.get(item);
-            // preference
-            double preference = Double.parseDouble(toks[PREF_TOK]);
-            //////
-            // update information
-            //////
-            dataset.addPreference(userId, itemId, preference);
         }
-        br.close();
 
         // save map ids?
-        if (mapIdsPrefix != null) {
-            // save user map
-            PrintStream outUser = new PrintStream(mapIdsPrefix + "_userId.txt", "UTF-8");
-            for (Entry<String, Long> e : mapUserIds.entrySet()) {
-                outUser.println(e.getKey() + "\t" + e.getValue());
-            }
-            outUser.close();
-            // save item map
-            PrintStream outItem = new PrintStream(mapIdsPrefix + "_itemId.txt", "UTF-8");
-            for (Entry<String, Long> e : mapItemIds.entrySet()) {
-                outItem.println(e.getKey() + "\t" + e.getValue());
-            }
-            outItem.close();
-        }
+        saveIdMap(mapUserIds, mapIdsPrefix, USER_MAP);
+        saveIdMap(mapItemIds, mapIdsPrefix, ITEM_MAP);
 
-        return dataset;
+        return builder.buildTemporalDataModel();
     }
 }
@@ -15,14 +15,13 @@
  */
 package net.recommenders.rival.split.parser;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.ParallelParser;
 import net.recommenders.rival.core.Parser;
-import net.recommenders.rival.core.SimpleParser;
-import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.TextFormat;
 
 /**
  * A parser based on the format of Movielens files.
@@ -61,44 +60,10 @@ public class MovielensParser implements Parser<Long, Long> {
      */
     @Override
     public TemporalDataModelIF<Long, Long> parseTemporalData(final File f) throws IOException {
-        TemporalDataModelIF<Long, Long> dataset = new TemporalDataModel<>();
-
-        BufferedReader br = SimpleParser.getBufferedReader(f);
-        String line;
-        while ((line = br.readLine()) != null) {
-            parseLine(line, dataset);
-        }
-        br.close();
-
-        return dataset;
-    }
-
-    /**
-     * A method that parses a line from the file.
-     *
-     * @param line the line to be parsed
-     * @param dataset the dataset where the information parsed from the line
-     * will be stored into.
-     */
-    private void parseLine(final String line, final TemporalDataModelIF<Long, Long> dataset) {
-        String[] toks;
-        if (line.contains("::")) {
-            toks = line.split("::");
-        } else {
-            toks = line.split("\t");
-        }
-        // user
-        long userId = Long.parseLong(toks[USER_TOK]);
-        // item
-        long itemId = Long.parseLong(toks[ITEM_TOK]);
-        // timestamp
-        long timestamp = Long.parseLong(toks[TIME_TOK]);
-        // preference
-        double preference = Double.parseDouble(toks[RATING_TOK]);
-        //////
-        // update information
-        //////
-        dataset.addPreference(userId, itemId, preference);
-        dataset.addTimestamp(userId, itemId, timestamp);
+        // the separator ("::" in the 1M and 10M datasets, tabs otherwise) is
+        // detected once for the whole file
+        String separator = TextFormat.detect(f, "::", "\t").getDelimiter();
+        return new ParallelParser(separator, USER_TOK, ITEM_TOK, RATING_TOK, TIME_TOK, false)
+                .parse(f, true).buildTemporalDataModel();
     }
 }
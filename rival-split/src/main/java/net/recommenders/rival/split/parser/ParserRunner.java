@@ -19,9 +19,17 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Properties;
+import net.recommenders.rival.core.CompressedInput;
 import net.recommenders.rival.core.DataModel;
+import net.recommenders.rival.core.DataModelUtils;
+import net.recommenders.rival.core.IncrementalParser;
+import net.recommenders.rival.core.ParallelParser;
+import net.recommenders.rival.core.ParseCache;
 import net.recommenders.rival.core.Parser;
+import net.recommenders.rival.core.Profiler;
+import net.recommenders.rival.core.SimpleParser;
 import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.UserFilter;
 
 /**
  * Runner for the parser classes.
@@ -46,6 +54,12 @@ public final class ParserRunner {
      * Variable that represent the name of a property in the file.
      */
     public static final String LASTFM_USEARTISTS = "dataset.parser.lastfm.useartists";
+    /**
+     * Variable that represent the name of a property in the file. When it is
+     * set, a dataset in the format of {@link SimpleParser} is parsed
+     * incrementally, keeping its model in this file between runs.
+     */
+    public static final String DATASET_SNAPSHOT = "dataset.snapshot";
 
     /**
      * Utility classes should not have a public or default constructor.
@@ -72,22 +86,83 @@ public final class ParserRunner {
      */
     public static TemporalDataModelIF<Long, Long> run(final Properties properties) throws ClassNotFoundException, IllegalAccessException,
             InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
+        return run(properties, null);
+    }
+
+    /**
+     * Checks if the parser of the properties can drop the lines of some users
+     * while parsing (see {@link #run(Properties, UserFilter)}): the dataset
+     * has to be parsed by a {@link SimpleParser} and not be a binary model.
+     *
+     * @param properties The properties
+     * @return true if the users can be filtered while parsing
+     * @throws IOException when the dataset cannot be read
+     */
+    public static boolean canFilterUsers(final Properties properties) throws IOException {
+        return SimpleParser.class.getName().equals(properties.getProperty(DATASET_PARSER))
+                && !DataModelUtils.isBinaryDataModel(new File(properties.getProperty(DATASET_FILE)));
+    }
+
+    /**
+     * Run the parser based on given properties, keeping only the lines of
+     * the users accepted by a filter.
+     *
+     * @param properties The properties
+     * @param users The filter of the users, or null to keep every line; it
+     * can only be given if {@link #canFilterUsers(Properties)}
+     * @return The data model parsed by the parser.
+     * @throws ClassNotFoundException see {@link #run(Properties)}
+     * @throws IllegalAccessException see {@link #run(Properties)}
+     * @throws InstantiationException see {@link #run(Properties)}
+     * @throws InvocationTargetException see {@link #run(Properties)}
+     * @throws NoSuchMethodException see {@link #run(Properties)}
+     * @throws IOException see {@link #run(Properties)}
+     */
+    public static TemporalDataModelIF<Long, Long> run(final Properties properties, final UserFilter users) throws ClassNotFoundException,
+            IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
+        if (users != null && !canFilterUsers(properties)) {
+            throw new IllegalArgumentException("Users can only be filtered while parsing text files with " + SimpleParser.class.getName());
+        }
         System.out.println("Parsing started");
+        Profiler.configure(properties);
         TemporalDataModelIF<Long, Long> model = null;
         File file = new File(properties.getProperty(DATASET_FILE));
         String parserClassName = properties.getProperty(DATASET_PARSER);
         Class<?> parserClass = Class.forName(parserClassName);
         Parser<Long, Long> parser = instantiateParser(properties);
+        String config = "";
+        if (users != null) {
+            parser = new SimpleParser(users);
+            config = users.toString();
+        }
         if (parserClassName.contains("LastfmCelma")) {
             String mapIdsPrefix = properties.getProperty(LASTFM_IDS_PREFIX);
-            Object modelObj = parserClass.getMethod("parseData", File.class, String.class).invoke(parser, file, mapIdsPrefix);
-            if (modelObj instanceof TemporalDataModelIF) {
-                @SuppressWarnings("unchecked")
-                TemporalDataModelIF<Long, Long> modelTemp = (TemporalDataModelIF<Long, Long>) modelObj;
-                model = modelTemp;
+            try (Profiler.Stage stage = Profiler.start("parse")) {
+                stage.addBytes(file.length());
+                Object modelObj = parserClass.getMethod("parseData", File.class, String.class).invoke(parser, file, mapIdsPrefix);
+                if (modelObj instanceof TemporalDataModelIF) {
+                    @SuppressWarnings("unchecked")
+                    TemporalDataModelIF<Long, Long> modelTemp = (TemporalDataModelIF<Long, Long>) modelObj;
+                    model = modelTemp;
+                }
+                stage.addPreferences(model);
+            }
+        } else if (properties.getProperty(DATASET_SNAPSHOT) != null && parser.getClass() == SimpleParser.class
+                && !CompressedInput.isCompressed(file) && !DataModelUtils.isBinaryDataModel(file)) {
+            // only the lines appended since the previous run are parsed
+            File snapshot = new File(properties.getProperty(DATASET_SNAPSHOT));
+            try (Profiler.Stage stage = Profiler.start("parse")) {
+                ParallelParser lineParser = new ParallelParser();
+                if (users != null) {
+                    lineParser = lineParser.filterUsers(users);
+                }
+                IncrementalParser incremental = new IncrementalParser(lineParser, snapshot);
+                model = incremental.parse(file);
+                stage.addBytes(incremental.getParsedBytes());
+                stage.addLines(incremental.getParsedPreferences());
             }
         } else {
-            model = parser.parseTemporalData(file);
+            model = ParseCache.fromProperties(properties).parseTemporalData(parser, file, config);
         }
         System.out.println("Parsing finished");
         return model;
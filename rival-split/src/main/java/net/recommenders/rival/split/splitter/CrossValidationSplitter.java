@@ -20,14 +20,19 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import net.recommenders.rival.core.CompactDataModel;
 import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.FoldAssignment;
+import net.recommenders.rival.core.MappedDataModel;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
 /**
  * Class that splits a dataset using a cross validation technique (every
- * interaction in the data only appears once in each test split).
+ * interaction in the data only appears once in each test split). Compact and
+ * mapped models are not copied: their splits are views over a
+ * {@link FoldAssignment}.
  *
  * @author <a href="http://github.com/abellogin">Alejandro</a>
  *
@@ -68,6 +73,9 @@ public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
      */
     @Override
     public DataModelIF<U, I>[] split(final DataModelIF<U, I> data) {
+        if (isCompact(data)) {
+            return foldViews(data);
+        }
         @SuppressWarnings("unchecked")
         final DataModelIF<U, I>[] splits = new DataModelIF[2 * nFolds];
         for (int i = 0; i < nFolds; i++) {
@@ -125,6 +133,9 @@ public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
      */
     @Override
     public TemporalDataModelIF<U, I>[] split(final TemporalDataModelIF<U, I> data) {
+        if (isCompact(data)) {
+            return foldViews(data);
+        }
         @SuppressWarnings("unchecked")
         final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2 * nFolds];
         for (int i = 0; i < nFolds; i++) {
@@ -194,4 +205,59 @@ public class CrossValidationSplitter<U, I> implements Splitter<U, I> {
         }
         return splits;
     }
+
+    /**
+     * Assigns every preference of a model to a fold, visiting users and items
+     * in the same order as {@link #split(DataModelIF)}, so the folds are the
+     * same as the ones of the copied splits for the same seed.
+     *
+     * @param data the data to be split
+     * @return the fold of every preference
+     */
+    public FoldAssignment assignFolds(final DataModelIF<Long, Long> data) {
+        FoldAssignment assignment = new FoldAssignment(data, nFolds);
+        List<Long> users = new ArrayList<>(data.getUsers());
+        if (!perUser) {
+            Collections.shuffle(users, rnd);
+        }
+        int n = 0;
+        for (Long user : users) {
+            List<Long> items = new ArrayList<>(data.getUserItemPreferences().get(user).keySet());
+            Collections.shuffle(items, rnd);
+            for (Long item : items) {
+                assignment.setFold(user, item, n % nFolds);
+                n++;
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Checks whether the splits of a model can be views over a
+     * {@link FoldAssignment}.
+     *
+     * @param data the data to be split
+     * @return true if the model is a compact or a mapped model
+     */
+    private static boolean isCompact(final DataModelIF<?, ?> data) {
+        return data instanceof CompactDataModel || data instanceof MappedDataModel;
+    }
+
+    /**
+     * Splits a compact or mapped model into views over a
+     * {@link FoldAssignment}.
+     *
+     * @param data the data to be split
+     * @return the training and test views of every fold
+     */
+    @SuppressWarnings("unchecked")
+    private TemporalDataModelIF<U, I>[] foldViews(final DataModelIF<U, I> data) {
+        FoldAssignment assignment = assignFolds((DataModelIF<Long, Long>) (DataModelIF<?, ?>) data);
+        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2 * nFolds];
+        for (int i = 0; i < nFolds; i++) {
+            splits[2 * i] = (TemporalDataModelIF<U, I>) (TemporalDataModelIF<?, ?>) assignment.getTraining(i);
+            splits[2 * i + 1] = (TemporalDataModelIF<U, I>) (TemporalDataModelIF<?, ?>) assignment.getTest(i);
+        }
+        return splits;
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.splitter;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.TimestampConsumer;
+
+/**
+ * Splitter that keeps the last interactions of every user (by timestamp) in
+ * the test set, and the rest in the training set, as used to evaluate
+ * next-item recommendation.
+ *
+ * The last interactions are found in one pass over the timestamps, keeping a
+ * bounded heap per user, so the memory needed is proportional to the number
+ * of users times the number of interactions held out. Users with no more
+ * interactions than that are kept only in the training set. Among
+ * interactions with the same timestamp, the first ones read are held out.
+ *
+ * @param <U> type of users
+ * @param <I> type of items
+ */
+public class LeaveLastOutSplitter<U, I> implements Splitter<U, I> {
+
+    /**
+     * The number of interactions of every user held out.
+     */
+    private final int nLast;
+    /**
+     * The flag that indicates if the split should consider all the items
+     * independently.
+     */
+    private final boolean doSplitPerItems;
+
+    /**
+     * Constructor.
+     *
+     * @param n number of interactions of every user held out
+     * @param doSplitPerItemsFlag if true, every interaction between a user and
+     * an item will be kept in the test set if at least one of them is among
+     * the last interactions of the user
+     */
+    public LeaveLastOutSplitter(final int n, final boolean doSplitPerItemsFlag) {
+        if (n < 1) {
+            throw new IllegalArgumentException("At least one interaction has to be held out");
+        }
+        this.nLast = n;
+        this.doSplitPerItems = doSplitPerItemsFlag;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataModelIF<U, I>[] split(final DataModelIF<U, I> data) {
+        throw new IllegalArgumentException("Method not available");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemporalDataModelIF<U, I>[] split(final TemporalDataModelIF<U, I> data) {
+        // first pass: the last interactions of every user
+        final Map<U, LastInteractions> last = new HashMap<>();
+        data.forEachTimestamp(new TimestampConsumer<U, I>() {
+            @Override
+            public void consume(final U user, final I item, final long timestamp) {
+                LastInteractions heap = last.get(user);
+                if (heap == null) {
+                    heap = new LastInteractions(nLast);
+                    last.put(user, heap);
+                }
+                heap.offer(item, timestamp);
+            }
+        });
+        // second pass: every interaction to its split
+        @SuppressWarnings("unchecked")
+        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2];
+        // the preference of a pair is added once, whatever its number of interactions
+        splits[0] = new TemporalDataModel<>(true); // training
+        splits[1] = new TemporalDataModel<>(true); // test
+        final Map<U, Map<I, Double>> preferences = data.getUserItemPreferences();
+        data.forEachTimestamp(new TimestampConsumer<U, I>() {
+            /**
+             * The user of the previous interaction.
+             */
+            private U lastUser;
+            /**
+             * The preferences of that user.
+             */
+            private Map<I, Double> userPreferences;
+            /**
+             * The last interactions of that user (null if none is held out).
+             */
+            private LastInteractions heldOut;
+
+            @Override
+            public void consume(final U user, final I item, final long timestamp) {
+                // timestamps come grouped by user
+                if (!user.equals(lastUser)) {
+                    lastUser = user;
+                    userPreferences = preferences.get(user);
+                    heldOut = last.get(user);
+                    if (heldOut != null && heldOut.count <= nLast) {
+                        heldOut = null;
+                    }
+                }
+                boolean inTest = false;
+                if (heldOut != null) {
+                    if (doSplitPerItems) {
+                        inTest = heldOut.contains(item);
+                    } else {
+                        inTest = heldOut.contains(item, timestamp);
+                    }
+                }
+                TemporalDataModelIF<U, I> datamodel = splits[0]; // training
+                if (inTest) {
+                    datamodel = splits[1]; // test
+                }
+                Double pref = null;
+                if (userPreferences != null) {
+                    pref = userPreferences.get(item);
+                }
+                if (pref != null) {
+                    datamodel.addPreference(user, item, pref);
+                }
+                datamodel.addTimestamp(user, item, timestamp);
+            }
+        });
+        return splits;
+    }
+
+    /**
+     * Min-heap (by timestamp) with the last interactions of a user.
+     */
+    private static final class LastInteractions {
+
+        /**
+         * Timestamps of the interactions.
+         */
+        private final long[] times;
+        /**
+         * Items of the interactions.
+         */
+        private final Object[] items;
+        /**
+         * Number of interactions in the heap.
+         */
+        private int size;
+        /**
+         * Number of interactions offered.
+         */
+        private long count;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the number of interactions kept
+         */
+        LastInteractions(final int capacity) {
+            times = new long[capacity];
+            items = new Object[capacity];
+        }
+
+        /**
+         * Offers an interaction, which is kept if it is one of the last ones.
+         *
+         * @param item the item
+         * @param time the timestamp
+         */
+        void offer(final Object item, final long time) {
+            count++;
+            if (size < times.length) {
+                // sift up
+                int k = size++;
+                while (k > 0) {
+                    int parent = (k - 1) >>> 1;
+                    if (times[parent] <= time) {
+                        break;
+                    }
+                    times[k] = times[parent];
+                    items[k] = items[parent];
+                    k = parent;
+                }
+                times[k] = time;
+                items[k] = item;
+            } else if (time > times[0]) {
+                // replace the oldest one and sift down
+                int k = 0;
+                while (true) {
+                    int child = 2 * k + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && times[child + 1] < times[child]) {
+                        child++;
+                    }
+                    if (times[child] >= time) {
+                        break;
+                    }
+                    times[k] = times[child];
+                    items[k] = items[child];
+                    k = child;
+                }
+                times[k] = time;
+                items[k] = item;
+            }
+        }
+
+        /**
+         * Checks whether an item is in some of the interactions.
+         *
+         * @param item the item
+         * @return true if the item is in the heap
+         */
+        boolean contains(final Object item) {
+            for (int k = 0; k < size; k++) {
+                if (items[k].equals(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks whether an interaction is in the heap.
+         *
+         * @param item the item
+         * @param time the timestamp
+         * @return true if the interaction is in the heap
+         */
+        boolean contains(final Object item, final long time) {
+            for (int k = 0; k < size; k++) {
+                if (times[k] == time && items[k].equals(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
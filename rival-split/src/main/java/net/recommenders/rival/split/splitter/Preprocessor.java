@@ -0,0 +1,287 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.splitter;
+
+import java.util.Arrays;
+import net.recommenders.rival.core.CompactTemporalDataModel;
+import net.recommenders.rival.core.DataModelBuilder;
+import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.IdDictionary;
+import net.recommenders.rival.core.PreferenceConsumer;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.TimestampConsumer;
+import net.recommenders.rival.core.UserFilter;
+
+/**
+ * Stage that reduces a dataset before splitting it: it keeps a seeded sample
+ * of the users and then removes, iteratively, the users and items with fewer
+ * preferences than a minimum (k-core filtering).
+ *
+ * Users are sampled by hashing their ids, so the same users are kept for the
+ * same seed whatever the order of the data. The k-core is computed over the
+ * (user, item) pairs of the sample, stored as dense indices, with the degrees
+ * of users and items in primitive arrays; every pass removes the users and
+ * items below the minimum, until none is left or the maximum number of passes
+ * is reached (then some of them may still be below the minimum). The data is
+ * read three times: to collect the pairs, and to copy the preferences and the
+ * timestamps that are kept. As a {@link UserFilter}, the sample can also be
+ * taken while parsing the data (see
+ * {@link net.recommenders.rival.core.SimpleParser#SimpleParser(UserFilter)}).
+ */
+public class Preprocessor implements UserFilter {
+
+    /**
+     * Default maximum number of passes of the k-core filtering.
+     */
+    public static final int DEFAULT_MAX_PASSES = 20;
+    /**
+     * Initial capacity of the buffers of pairs.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Fraction of the users kept.
+     */
+    private final double userSample;
+    /**
+     * Seed of the sample.
+     */
+    private final long seed;
+    /**
+     * Minimum number of preferences of a user.
+     */
+    private final int minUserPreferences;
+    /**
+     * Minimum number of preferences of an item.
+     */
+    private final int minItemPreferences;
+    /**
+     * Maximum number of passes of the k-core filtering.
+     */
+    private final int maxPasses;
+
+    /**
+     * Constructor.
+     *
+     * @param userSampleRatio fraction of the users kept (1 to keep them all)
+     * @param sampleSeed seed of the sample
+     * @param minUserPrefs minimum number of preferences of a user (0 to keep
+     * them all)
+     * @param minItemPrefs minimum number of preferences of an item (0 to keep
+     * them all)
+     * @param passes maximum number of passes of the k-core filtering
+     */
+    public Preprocessor(final double userSampleRatio, final long sampleSeed, final int minUserPrefs, final int minItemPrefs, final int passes) {
+        this.userSample = userSampleRatio;
+        this.seed = sampleSeed;
+        this.minUserPreferences = minUserPrefs;
+        this.minItemPreferences = minItemPrefs;
+        this.maxPasses = passes;
+    }
+
+    /**
+     * Checks whether a user is in the sample.
+     *
+     * @param user the user
+     * @return true if the user is kept
+     */
+    public boolean isSampled(final long user) {
+        return userSample >= 1.0 || StreamingRandomSplitter.uniform(seed, user) < userSample;
+    }
+
+    /**
+     * Checks whether a user is in the sample (see {@link #isSampled(long)}).
+     *
+     * @param user the user
+     * @return true if the user is kept
+     */
+    @Override
+    public boolean accept(final long user) {
+        return isSampled(user);
+    }
+
+    /**
+     * Checks whether only a sample of the users is kept.
+     *
+     * @return true if some users are dropped by the sample
+     */
+    public boolean isSampling() {
+        return userSample < 1.0;
+    }
+
+    /**
+     * Checks whether the users and items are filtered by their number of
+     * preferences.
+     *
+     * @return true if a k-core is computed
+     */
+    public boolean isFiltering() {
+        return minUserPreferences > 1 || minItemPreferences > 1;
+    }
+
+    /**
+     * Describes the sample of the users, so the data sampled while parsing
+     * is told apart from the data sampled with another ratio or seed.
+     *
+     * @return the description of the sample
+     */
+    @Override
+    public String toString() {
+        return "sample " + userSample + " seed " + seed;
+    }
+
+    /**
+     * Reduces a dataset.
+     *
+     * @param data the data
+     * @return a new model with the preferences (and timestamps, if the data
+     * is temporal) of the users and items kept
+     */
+    public CompactTemporalDataModel process(final DataModelIF<Long, Long> data) {
+        final IdDictionary users = new IdDictionary();
+        final IdDictionary items = new IdDictionary();
+        final Pairs pairs = new Pairs();
+        data.forEachPreference(new PreferenceConsumer<Long, Long>() {
+            @Override
+            public void consume(final Long user, final Long item, final double pref) {
+                if (isSampled(user)) {
+                    pairs.add(users.add(user), items.add(item));
+                }
+            }
+        });
+        final int[] userDegree = new int[users.size()];
+        final int[] itemDegree = new int[items.size()];
+        for (int k = 0; k < pairs.size; k++) {
+            userDegree[pairs.users[k]]++;
+            itemDegree[pairs.items[k]]++;
+        }
+        prune(pairs, userDegree, itemDegree);
+        // a pair is kept when both its user and its item are, since dropping a user or an item drops all its pairs
+        int expectedTimestamps = 0;
+        if (data instanceof TemporalDataModelIF) {
+            expectedTimestamps = pairs.size;
+        }
+        final DataModelBuilder builder = new DataModelBuilder(false, pairs.size, expectedTimestamps);
+        data.forEachPreference(new PreferenceConsumer<Long, Long>() {
+            @Override
+            public void consume(final Long user, final Long item, final double pref) {
+                if (isKept(users.getIndex(user), userDegree) && isKept(items.getIndex(item), itemDegree)) {
+                    builder.addPreference(user, item, pref);
+                }
+            }
+        });
+        if (data instanceof TemporalDataModelIF) {
+            ((TemporalDataModelIF<Long, Long>) data).forEachTimestamp(new TimestampConsumer<Long, Long>() {
+                @Override
+                public void consume(final Long user, final Long item, final long timestamp) {
+                    if (isKept(users.getIndex(user), userDegree) && isKept(items.getIndex(item), itemDegree)) {
+                        builder.addTimestamp(user, item, timestamp);
+                    }
+                }
+            });
+        }
+        return builder.buildCompactModel();
+    }
+
+    /**
+     * Checks whether a user or item is kept.
+     *
+     * @param index the dense index of the user or item (-1 if it was not
+     * sampled)
+     * @param degree the degrees of the users or items
+     * @return true if it is kept
+     */
+    private static boolean isKept(final int index, final int[] degree) {
+        return index >= 0 && degree[index] > 0;
+    }
+
+    /**
+     * Removes the pairs of the users and items below the minimum number of
+     * preferences, until there are none or the maximum number of passes is
+     * reached. The users and items dropped end with degree 0.
+     *
+     * @param pairs the pairs, compacted in place
+     * @param userDegree the degrees of the users, updated in place
+     * @param itemDegree the degrees of the items, updated in place
+     */
+    private void prune(final Pairs pairs, final int[] userDegree, final int[] itemDegree) {
+        boolean[] dropUser = new boolean[userDegree.length];
+        boolean[] dropItem = new boolean[itemDegree.length];
+        for (int pass = 0; pass < maxPasses; pass++) {
+            // the users and items to drop are decided before the pass, so all their pairs are removed in it
+            boolean drop = false;
+            for (int u = 0; u < userDegree.length; u++) {
+                dropUser[u] = userDegree[u] > 0 && userDegree[u] < minUserPreferences;
+                drop |= dropUser[u];
+            }
+            for (int i = 0; i < itemDegree.length; i++) {
+                dropItem[i] = itemDegree[i] > 0 && itemDegree[i] < minItemPreferences;
+                drop |= dropItem[i];
+            }
+            if (!drop) {
+                return;
+            }
+            int n = 0;
+            for (int k = 0; k < pairs.size; k++) {
+                int u = pairs.users[k];
+                int i = pairs.items[k];
+                if (dropUser[u] || dropItem[i]) {
+                    userDegree[u]--;
+                    itemDegree[i]--;
+                } else {
+                    pairs.users[n] = u;
+                    pairs.items[n] = i;
+                    n++;
+                }
+            }
+            pairs.size = n;
+        }
+    }
+
+    /**
+     * The (user, item) pairs of the sample, as dense indices.
+     */
+    private static final class Pairs {
+
+        /**
+         * Users of the pairs.
+         */
+        private int[] users = new int[INITIAL_CAPACITY];
+        /**
+         * Items of the pairs.
+         */
+        private int[] items = new int[INITIAL_CAPACITY];
+        /**
+         * Number of pairs.
+         */
+        private int size;
+
+        /**
+         * Adds a pair.
+         *
+         * @param u the user
+         * @param i the item
+         */
+        void add(final int u, final int i) {
+            if (size == users.length) {
+                users = Arrays.copyOf(users, 2 * size);
+                items = Arrays.copyOf(items, 2 * size);
+            }
+            users[size] = u;
+            items[size] = i;
+            size++;
+        }
+    }
+}
@@ -18,11 +18,13 @@ package net.recommenders.rival.split.splitter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.PreferenceConsumer;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
 
@@ -100,28 +102,16 @@ public class RandomSplitter<U, I> implements Splitter<U, I> {
                 }
             }
         } else {
-            for (U user : data.getUsers()) {
-                for (I item : data.getUserItemPreferences().get(user).keySet()) {
-                    Double pref = data.getUserItemPreferences().get(user).get(item);
-                    if (doSplitPerItems) {
-                        DataModelIF<U, I> datamodel = splits[0]; // training
-                        if (rnd.nextDouble() > percentageTraining) {
-                            datamodel = splits[1]; // test
-                        }
-                        if (pref != null) {
-                            datamodel.addPreference(user, item, pref);
-                        }
-                    } else {
-                        DataModelIF<U, I> datamodel = splits[0]; // training
-                        if (rnd.nextDouble() > percentageTraining) {
-                            datamodel = splits[1]; // test
-                        }
-                        if (pref != null) {
-                            datamodel.addPreference(user, item, pref);
-                        }
+            data.forEachPreference(new PreferenceConsumer<U, I>() {
+                @Override
+                public void consume(final U user, final I item, final double pref) {
+                    DataModelIF<U, I> datamodel = splits[0]; // training
+                    if (rnd.nextDouble() > percentageTraining) {
+                        datamodel = splits[1]; // test
                     }
+                    datamodel.addPreference(user, item, pref);
                 }
-            }
+            });
         }
         return splits;
     }
@@ -193,21 +183,33 @@ public class RandomSplitter<U, I> implements Splitter<U, I> {
                 }
             }
         } else {
-            for (U user : data.getUsers()) {
-                for (I item : data.getUserItemPreferences().get(user).keySet()) {
-                    Double pref = data.getUserItemPreferences().get(user).get(item);
+            data.forEachPreference(new PreferenceConsumer<U, I>() {
+                /**
+                 * The user of the previous preference.
+                 */
+                private U lastUser;
+                /**
+                 * The timestamps of that user.
+                 */
+                private Map<I, Set<Long>> userTimestamps;
+
+                @Override
+                public void consume(final U user, final I item, final double pref) {
+                    // preferences come grouped by user
+                    if (!user.equals(lastUser)) {
+                        lastUser = user;
+                        userTimestamps = data.getUserItemTimestamps().get(user);
+                    }
                     Set<Long> time = null;
-                    if (data.getUserItemTimestamps().containsKey(user) && data.getUserItemTimestamps().get(user).containsKey(item)) {
-                        time = data.getUserItemTimestamps().get(user).get(item);
+                    if (userTimestamps != null) {
+                        time = userTimestamps.get(item);
                     }
                     if (doSplitPerItems) {
                         TemporalDataModelIF<U, I> datamodel = splits[0]; // training
                         if (rnd.nextDouble() > percentageTraining) {
                             datamodel = splits[1]; // test
                         }
-                        if (pref != null) {
-                            datamodel.addPreference(user, item, pref);
-                        }
+                        datamodel.addPreference(user, item, pref);
                         if (time != null) {
                             for (Long t : time) {
                                 datamodel.addTimestamp(user, item, t);
@@ -219,9 +221,7 @@ public class RandomSplitter<U, I> implements Splitter<U, I> {
                             if (rnd.nextDouble() > percentageTraining) {
                                 datamodel = splits[1]; // test
                             }
-                            if (pref != null) {
-                                datamodel.addPreference(user, item, pref);
-                            }
+                            datamodel.addPreference(user, item, pref);
                             datamodel.addTimestamp(user, item, t);
                         }
                     } else {
@@ -229,12 +229,10 @@ public class RandomSplitter<U, I> implements Splitter<U, I> {
                         if (rnd.nextDouble() > percentageTraining) {
                             datamodel = splits[1]; // test
                         }
-                        if (pref != null) {
-                            datamodel.addPreference(user, item, pref);
-                        }
+                        datamodel.addPreference(user, item, pref);
                     }
                 }
-            }
+            });
         }
         return splits;
     }
@@ -0,0 +1,623 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.splitter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.PreferenceConsumer;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.TimestampConsumer;
+
+/**
+ * Splitter that simulates periodic retraining with several temporal cutoffs
+ * (rolling origin): for the k-th cutoff, the training set has the
+ * interactions before the cutoff and the test set the interactions between
+ * the cutoff and the next one.
+ *
+ * The interactions are read once, with the window they fall in, so the
+ * training set of every cutoff is the interactions of the windows before it,
+ * and the test set the ones of the window that follows it. The splits are
+ * views over those shared arrays: iterating a split streams over them, its
+ * timestamps are read user by user (so saving a split does not copy it), and
+ * a split only builds its preference maps the first time they are read.
+ * Every interaction is assigned independently, and the preference of a
+ * (user, item) pair is kept in every split with one of its interactions.
+ *
+ * @param <U> type of users
+ * @param <I> type of items
+ */
+public class RollingTemporalSplitter<U, I> implements Splitter<U, I> {
+
+    /**
+     * Initial capacity of the buffers of interactions.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * The bounds of the windows: the cutoffs, sorted, plus the end of the
+     * last test window.
+     */
+    private final long[] bounds;
+
+    /**
+     * Constructor with explicit cutoffs. The test set of the last cutoff has
+     * every interaction after it.
+     *
+     * @param cutoffs the cutoff timestamps
+     */
+    public RollingTemporalSplitter(final long[] cutoffs) {
+        if (cutoffs.length == 0) {
+            throw new IllegalArgumentException("At least one cutoff is needed");
+        }
+        bounds = Arrays.copyOf(cutoffs, cutoffs.length + 1);
+        Arrays.sort(bounds, 0, cutoffs.length);
+        bounds[cutoffs.length] = Long.MAX_VALUE;
+    }
+
+    /**
+     * Constructor with windows of a fixed length: the cutoffs are start,
+     * start + step, ..., and every test window spans one step.
+     *
+     * @param start the first cutoff
+     * @param step the length of the windows
+     * @param nWindows the number of cutoffs
+     */
+    public RollingTemporalSplitter(final long start, final long step, final int nWindows) {
+        if (nWindows < 1 || step <= 0) {
+            throw new IllegalArgumentException("At least one window with a positive length is needed");
+        }
+        bounds = new long[nWindows + 1];
+        bounds[0] = start;
+        for (int k = 1; k <= nWindows; k++) {
+            if (bounds[k - 1] > Long.MAX_VALUE - step) {
+                throw new IllegalArgumentException("The windows end after the largest timestamp");
+            }
+            bounds[k] = bounds[k - 1] + step;
+        }
+    }
+
+    /**
+     * Gets the cutoffs of the splits.
+     *
+     * @return the sorted cutoffs
+     */
+    public long[] getCutoffs() {
+        return Arrays.copyOf(bounds, bounds.length - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataModelIF<U, I>[] split(final DataModelIF<U, I> data) {
+        throw new IllegalArgumentException("Method not available");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the training and test splits of every cutoff, in the order of
+     * the cutoffs
+     */
+    @Override
+    public TemporalDataModelIF<U, I>[] split(final TemporalDataModelIF<U, I> data) {
+        Interactions<U, I> interactions = new Interactions<>();
+        for (Entry<U, Map<I, Set<Long>>> e : data.getUserItemTimestamps().entrySet()) {
+            U user = e.getKey();
+            Map<I, Double> userPreferences = data.getUserItemPreferences().get(user);
+            for (Entry<I, Set<Long>> f : e.getValue().entrySet()) {
+                I item = f.getKey();
+                Double pref = null;
+                if (userPreferences != null) {
+                    pref = userPreferences.get(item);
+                }
+                for (Long time : f.getValue()) {
+                    interactions.add(user, item, pref, time, window(time));
+                }
+            }
+        }
+        int nWindows = bounds.length - 1;
+        // window w has the interactions in [bounds[w - 1], bounds[w]), window 0 the ones before the first cutoff
+        @SuppressWarnings("unchecked")
+        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2 * nWindows];
+        for (int k = 0; k < nWindows; k++) {
+            splits[2 * k] = new WindowModel(interactions, 0, k + 1); // training
+            splits[2 * k + 1] = new WindowModel(interactions, k + 1, k + 2); // test
+        }
+        return splits;
+    }
+
+    /**
+     * Finds the window of a timestamp.
+     *
+     * @param time the timestamp
+     * @return the number of bounds not after the timestamp
+     */
+    private int window(final long time) {
+        int k = Arrays.binarySearch(bounds, time);
+        if (k < 0) {
+            return -k - 1;
+        }
+        // equal bounds are not expected, but the last one equal to the time counts
+        while (k + 1 < bounds.length && bounds[k + 1] == time) {
+            k++;
+        }
+        return k + 1;
+    }
+
+    /**
+     * The interactions of the data, with the window of each one, in the
+     * order of the data: user by user, with the interactions of a (user,
+     * item) pair next to each other.
+     *
+     * @param <U> type of users
+     * @param <I> type of items
+     */
+    private static final class Interactions<U, I> {
+
+        /**
+         * Users of the interactions.
+         */
+        private Object[] users = new Object[INITIAL_CAPACITY];
+        /**
+         * Items of the interactions.
+         */
+        private Object[] items = new Object[INITIAL_CAPACITY];
+        /**
+         * Preferences of the interactions (NaN if the pair has none).
+         */
+        private double[] prefs = new double[INITIAL_CAPACITY];
+        /**
+         * Timestamps of the interactions.
+         */
+        private long[] times = new long[INITIAL_CAPACITY];
+        /**
+         * Windows of the interactions.
+         */
+        private int[] windows = new int[INITIAL_CAPACITY];
+        /**
+         * Number of interactions.
+         */
+        private int size;
+        /**
+         * Range of the interactions of each user (first inclusive, last
+         * exclusive), in the order of the data.
+         */
+        private final Map<Object, int[]> userRanges = new LinkedHashMap<>();
+        /**
+         * Range of the user of the last interaction.
+         */
+        private int[] lastRange;
+
+        /**
+         * Adds an interaction. The interactions of a user are added next to
+         * each other.
+         *
+         * @param user the user
+         * @param item the item
+         * @param pref the preference of the pair (null if there is none)
+         * @param time the timestamp
+         * @param window the window
+         */
+        void add(final U user, final I item, final Double pref, final long time, final int window) {
+            if (size == times.length) {
+                int capacity = 2 * size;
+                users = Arrays.copyOf(users, capacity);
+                items = Arrays.copyOf(items, capacity);
+                prefs = Arrays.copyOf(prefs, capacity);
+                times = Arrays.copyOf(times, capacity);
+                windows = Arrays.copyOf(windows, capacity);
+            }
+            users[size] = user;
+            items[size] = item;
+            if (pref == null) {
+                prefs[size] = Double.NaN;
+            } else {
+                prefs[size] = pref;
+            }
+            times[size] = time;
+            windows[size] = window;
+            if (size == 0 || users[size - 1] != user) {
+                lastRange = new int[]{size, size};
+                userRanges.put(user, lastRange);
+            }
+            size++;
+            lastRange[1] = size;
+        }
+
+        /**
+         * Gets the users of the interactions.
+         *
+         * @return the users, in the order of the data
+         */
+        Set<Object> users() {
+            return userRanges.keySet();
+        }
+
+        /**
+         * Collects the timestamps of the interactions of a user in a range of
+         * windows.
+         *
+         * @param user the user
+         * @param fromWindow first window (inclusive)
+         * @param toWindow last window (exclusive)
+         * @return the timestamps of every item of the user, or null if the
+         * user has no interactions in the windows
+         */
+        @SuppressWarnings("unchecked")
+        Map<I, Set<Long>> timestamps(final Object user, final int fromWindow, final int toWindow) {
+            int[] range = userRanges.get(user);
+            if (range == null) {
+                return null;
+            }
+            Map<I, Set<Long>> row = null;
+            for (int k = range[0]; k < range[1]; k++) {
+                if (windows[k] < fromWindow || windows[k] >= toWindow) {
+                    continue;
+                }
+                if (row == null) {
+                    row = new HashMap<>();
+                }
+                Set<Long> itemTimes = row.get((I) items[k]);
+                if (itemTimes == null) {
+                    itemTimes = new HashSet<>();
+                    row.put((I) items[k], itemTimes);
+                }
+                itemTimes.add(times[k]);
+            }
+            return row;
+        }
+
+        /**
+         * Passes the preferences of the interactions in a range of windows
+         * to a consumer, once per (user, item) pair.
+         *
+         * @param fromWindow first window (inclusive)
+         * @param toWindow last window (exclusive)
+         * @param consumer the consumer
+         */
+        @SuppressWarnings("unchecked")
+        void forEachPreference(final int fromWindow, final int toWindow, final PreferenceConsumer<? super U, ? super I> consumer) {
+            Object lastUser = null;
+            Object lastItem = null;
+            for (int k = 0; k < size; k++) {
+                if (windows[k] < fromWindow || windows[k] >= toWindow) {
+                    continue;
+                }
+                // the interactions of a pair share their keys and are next to each other
+                if (users[k] == lastUser && items[k] == lastItem) {
+                    continue;
+                }
+                lastUser = users[k];
+                lastItem = items[k];
+                if (!Double.isNaN(prefs[k])) {
+                    consumer.consume((U) users[k], (I) items[k], prefs[k]);
+                }
+            }
+        }
+
+        /**
+         * Passes the interactions in a range of windows to a consumer.
+         *
+         * @param fromWindow first window (inclusive)
+         * @param toWindow last window (exclusive)
+         * @param consumer the consumer
+         */
+        @SuppressWarnings("unchecked")
+        void forEachTimestamp(final int fromWindow, final int toWindow, final TimestampConsumer<? super U, ? super I> consumer) {
+            for (int k = 0; k < size; k++) {
+                if (windows[k] >= fromWindow && windows[k] < toWindow) {
+                    consumer.consume((U) users[k], (I) items[k], times[k]);
+                }
+            }
+        }
+
+        /**
+         * Builds a model with the interactions in a range of windows.
+         *
+         * @param fromWindow first window (inclusive)
+         * @param toWindow last window (exclusive)
+         * @return the model
+         */
+        TemporalDataModelIF<U, I> build(final int fromWindow, final int toWindow) {
+            final TemporalDataModelIF<U, I> model = new TemporalDataModel<>(true);
+            forEachPreference(fromWindow, toWindow, new PreferenceConsumer<U, I>() {
+                @Override
+                public void consume(final U user, final I item, final double preference) {
+                    model.addPreference(user, item, preference);
+                }
+            });
+            forEachTimestamp(fromWindow, toWindow, new TimestampConsumer<U, I>() {
+                @Override
+                public void consume(final U user, final I item, final long timestamp) {
+                    model.addTimestamp(user, item, timestamp);
+                }
+            });
+            return model;
+        }
+    }
+
+    /**
+     * Read-only split with the interactions of a range of windows, which
+     * streams them when iterated, reads its timestamps user by user, and
+     * builds its preference maps the first time they are read.
+     */
+    private final class WindowModel implements TemporalDataModelIF<U, I> {
+
+        /**
+         * The interactions.
+         */
+        private final Interactions<U, I> interactions;
+        /**
+         * First window of the range (inclusive).
+         */
+        private final int from;
+        /**
+         * Last window of the range (exclusive).
+         */
+        private final int to;
+        /**
+         * The model, once built.
+         */
+        private TemporalDataModelIF<U, I> model;
+
+        /**
+         * Constructor.
+         *
+         * @param theInteractions the interactions
+         * @param start first window of the range (inclusive)
+         * @param end last window of the range (exclusive)
+         */
+        WindowModel(final Interactions<U, I> theInteractions, final int start, final int end) {
+            this.interactions = theInteractions;
+            this.from = start;
+            this.to = end;
+        }
+
+        /**
+         * Gets the model of this split, building it if needed.
+         *
+         * @return the model
+         */
+        private synchronized TemporalDataModelIF<U, I> model() {
+            if (model == null) {
+                model = interactions.build(from, to);
+            }
+            return model;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<U, Map<I, Double>> getUserItemPreferences() {
+            return model().getUserItemPreferences();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<I, Map<U, Double>> getItemUserPreferences() {
+            return model().getItemUserPreferences();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getItemPopularity(final I i) {
+            return model().getItemPopularity(i);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void forEachPreference(final PreferenceConsumer<? super U, ? super I> consumer) {
+            interactions.forEachPreference(from, to, consumer);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void addPreference(final U u, final I i, final Double d) {
+            throw new UnsupportedOperationException("Rolling splits are read-only");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<I> getItems() {
+            return model().getItems();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<U> getUsers() {
+            return model().getUsers();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumItems() {
+            return model().getNumItems();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumUsers() {
+            return model().getNumUsers();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<U, Map<I, Set<Long>>> getUserItemTimestamps() {
+            return new TimestampsView(interactions, from, to);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void forEachTimestamp(final TimestampConsumer<? super U, ? super I> consumer) {
+            interactions.forEachTimestamp(from, to, consumer);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void addTimestamp(final U u, final I i, final Long t) {
+            throw new UnsupportedOperationException("Rolling splits are read-only");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public TemporalDataModelIF<U, I> toImmutable() {
+            return model().toImmutable();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Rolling splits are read-only");
+        }
+    }
+
+    /**
+     * Read-only map view between the users of a range of windows, their
+     * items and the timestamps, which collects the timestamps of a user from
+     * the interactions when the user is read, so only one user is held at a
+     * time.
+     */
+    private final class TimestampsView extends AbstractMap<U, Map<I, Set<Long>>> {
+
+        /**
+         * The interactions.
+         */
+        private final Interactions<U, I> interactions;
+        /**
+         * First window of the range (inclusive).
+         */
+        private final int from;
+        /**
+         * Last window of the range (exclusive).
+         */
+        private final int to;
+
+        /**
+         * Constructor.
+         *
+         * @param theInteractions the interactions
+         * @param start first window of the range (inclusive)
+         * @param end last window of the range (exclusive)
+         */
+        TimestampsView(final Interactions<U, I> theInteractions, final int start, final int end) {
+            this.interactions = theInteractions;
+            this.from = start;
+            this.to = end;
+        }
+
+        @Override
+        public Map<I, Set<Long>> get(final Object key) {
+            return interactions.timestamps(key, from, to);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<U, Map<I, Set<Long>>>> entrySet() {
+            return new AbstractSet<Entry<U, Map<I, Set<Long>>>>() {
+                @Override
+                public int size() {
+                    int n = 0;
+                    for (Iterator<Entry<U, Map<I, Set<Long>>>> it = iterator(); it.hasNext(); it.next()) {
+                        n++;
+                    }
+                    return n;
+                }
+
+                @Override
+                public Iterator<Entry<U, Map<I, Set<Long>>>> iterator() {
+                    final Iterator<Object> users = interactions.users().iterator();
+                    return new Iterator<Entry<U, Map<I, Set<Long>>>>() {
+                        private Entry<U, Map<I, Set<Long>>> next = advance();
+
+                        @SuppressWarnings("unchecked")
+                        private Entry<U, Map<I, Set<Long>>> advance() {
+                            while (users.hasNext()) {
+                                Object user = users.next();
+                                Map<I, Set<Long>> row = interactions.timestamps(user, from, to);
+                                if (row != null) {
+                                    return new SimpleImmutableEntry<U, Map<I, Set<Long>>>((U) user, row);
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<U, Map<I, Set<Long>>> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<U, Map<I, Set<Long>>> e = next;
+                            next = advance();
+                            return e;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
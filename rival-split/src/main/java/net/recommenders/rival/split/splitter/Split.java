@@ -18,7 +18,6 @@ package net.recommenders.rival.split.splitter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
-import net.recommenders.rival.split.parser.ParserRunner;
 
 /**
  * Main class that parses a data set and splits it according to a property file.
@@ -37,7 +36,7 @@ public final class Split {
      * Main method that loads properties from a file and runs a SplitterRunner.
      *
      * @param args program arguments (not used)
-     * @throws Exception see {@link SplitterRunner#run(java.util.Properties, net.recommenders.rival.core.DataModel, boolean)}
+     * @throws Exception see {@link SplitterRunner#parseAndRun(java.util.Properties)}
      * @see net.recommenders.rival.split.splitter.SplitterRunner
      */
     public static void main(final String[] args) throws Exception {
@@ -50,6 +49,10 @@ public final class Split {
             ie.printStackTrace();
         }
 
-        SplitterRunner.run(properties, ParserRunner.run(properties), true);
+        if (SplitterRunner.isStreaming(properties)) {
+            SplitterRunner.runStreaming(properties);
+        } else {
+            SplitterRunner.parseAndRun(properties);
+        }
     }
 }
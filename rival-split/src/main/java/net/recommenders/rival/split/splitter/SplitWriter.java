@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.splitter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.recommenders.rival.core.DataModelUtils;
+import net.recommenders.rival.core.PreferenceWriter;
+import net.recommenders.rival.core.TemporalDataModelIF;
+
+/**
+ * Writer of the files of the splits, which saves several files at once on a
+ * pool of threads, each file through its own buffered channel. A split starts
+ * being written as soon as it is submitted; splits that are views over the
+ * data (see {@link CrossValidationSplitter}) stream the selected preferences
+ * from the data while being written, so a fold is selected while the
+ * previous ones are still being written and no thread holds a copy of it.
+ */
+public class SplitWriter implements Closeable {
+
+    /**
+     * The threads that write the files.
+     */
+    private final ExecutorService executor;
+    /**
+     * The writes not awaited yet.
+     */
+    private final List<Future<Long>> pending = new ArrayList<>();
+    /**
+     * Flag that indicates if existing files should be overwritten.
+     */
+    private final boolean overwrite;
+    /**
+     * Flag that indicates if the binary format should be used.
+     */
+    private final boolean binary;
+
+    /**
+     * Constructor.
+     *
+     * @param nThreads number of files written at once
+     * @param overwriteFiles flag that indicates if existing files should be
+     * overwritten
+     * @param binaryFormat flag that indicates if the binary format (which
+     * requires long user and item ids) should be used instead of text
+     */
+    public SplitWriter(final int nThreads, final boolean overwriteFiles, final boolean binaryFormat) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+        this.overwrite = overwriteFiles;
+        this.binary = binaryFormat;
+    }
+
+    /**
+     * Schedules the write of a split. The split should not be modified until
+     * {@link #await()} returns.
+     *
+     * @param split the split
+     * @param outfile file where the split will be saved
+     * @param <U> type of users
+     * @param <I> type of items
+     */
+    public <U, I> void submit(final TemporalDataModelIF<U, I> split, final String outfile) {
+        final File file = new File(outfile);
+        if (file.exists() && !overwrite) {
+            System.out.println("Ignoring " + outfile);
+            return;
+        }
+        pending.add(executor.submit(new Callable<Long>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Long call() throws IOException {
+                if (binary) {
+                    DataModelUtils.saveBinaryDataModel((TemporalDataModelIF<Long, Long>) split, outfile, true);
+                    return file.length();
+                }
+                return PreferenceWriter.save(split, file);
+            }
+        }));
+    }
+
+    /**
+     * Waits until every submitted split has been written.
+     *
+     * @return the number of bytes written
+     * @throws IOException when a file cannot be written
+     */
+    public long await() throws IOException {
+        long bytes = 0L;
+        try {
+            for (Future<Long> future : pending) {
+                bytes += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pending.clear();
+        }
+        return bytes;
+    }
+
+    /**
+     * Stops the threads, cancelling the writes not awaited.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -15,11 +15,16 @@
  */
 package net.recommenders.rival.split.splitter;
 
-import java.io.FileNotFoundException;
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.Properties;
-import net.recommenders.rival.core.DataModelUtils;
+import net.recommenders.rival.core.IdDictionary;
+import net.recommenders.rival.core.ParallelParser;
+import net.recommenders.rival.core.Profiler;
 import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.UserFilter;
+import net.recommenders.rival.split.parser.ParserRunner;
 
 /**
  * Class that splits a dataset according to some properties.
@@ -60,6 +65,71 @@ public final class SplitterRunner {
      * Variable that represent the name of a property in the file.
      */
     public static final String SPLIT_OUTPUT_OVERWRITE = "split.output.overwrite";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_OUTPUT_BINARY = "split.output.binary";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_OUTPUT_DICTIONARY = "split.output.dictionary";
+    /**
+     * Variable that represent the name of a property in the file.
+     */
+    public static final String SPLIT_THREADS = "split.threads";
+    /**
+     * Variable that represent the name of a property in the file: the
+     * cutoffs of the rolling temporal splitter, separated by commas.
+     */
+    public static final String SPLIT_ROLLING_CUTOFFS = "split.rolling.cutoffs";
+    /**
+     * Variable that represent the name of a property in the file: the first
+     * cutoff of the rolling temporal splitter, when no cutoff is given.
+     */
+    public static final String SPLIT_ROLLING_START = "split.rolling.start";
+    /**
+     * Variable that represent the name of a property in the file: the length
+     * of the windows of the rolling temporal splitter.
+     */
+    public static final String SPLIT_ROLLING_STEP = "split.rolling.step";
+    /**
+     * Variable that represent the name of a property in the file: the number
+     * of windows of the rolling temporal splitter.
+     */
+    public static final String SPLIT_ROLLING_WINDOWS = "split.rolling.windows";
+    /**
+     * Variable that represent the name of a property in the file: the number
+     * of interactions of every user held out by the leave-last-out splitter.
+     */
+    public static final String SPLIT_LEAVELAST_N = "split.leavelast.n";
+    /**
+     * Variable that represent the name of a property in the file: the
+     * fraction of users kept before splitting.
+     */
+    public static final String SPLIT_SAMPLE_USERS = "split.sample.users";
+    /**
+     * Variable that represent the name of a property in the file: the
+     * minimum number of preferences of the users kept before splitting.
+     */
+    public static final String SPLIT_KCORE_USERS = "split.kcore.users";
+    /**
+     * Variable that represent the name of a property in the file: the
+     * minimum number of preferences of the items kept before splitting.
+     */
+    public static final String SPLIT_KCORE_ITEMS = "split.kcore.items";
+    /**
+     * Variable that represent the name of a property in the file: the
+     * maximum number of passes of the k-core filtering.
+     */
+    public static final String SPLIT_KCORE_PASSES = "split.kcore.passes";
+    /**
+     * Name of the file (in the output folder) of the user dictionary.
+     */
+    public static final String USER_DICTIONARY_FILE = IdDictionary.USER_FILE;
+    /**
+     * Name of the file (in the output folder) of the item dictionary.
+     */
+    public static final String ITEM_DICTIONARY_FILE = IdDictionary.ITEM_FILE;
     /**
      * Variable that represent the name of a property in the file.
      */
@@ -84,46 +154,211 @@ public final class SplitterRunner {
     }
 
     /**
-     * Runs a Splitter instance based on the properties.
+     * Parses the dataset of the properties (see {@link ParserRunner#run(Properties)})
+     * and splits it (see {@link #run(Properties, TemporalDataModelIF, boolean)}).
+     * When the properties ask for a sample of the users and the dataset can
+     * be filtered while parsing (see {@link ParserRunner#canFilterUsers(Properties)}),
+     * the lines of the users not sampled are dropped by the parser, instead
+     * of being parsed and then removed.
+     *
+     * @param properties property file
+     * @throws Exception see {@link ParserRunner#run(Properties)} and
+     * {@link #run(Properties, TemporalDataModelIF, boolean)}
+     */
+    public static void parseAndRun(final Properties properties) throws Exception {
+        Preprocessor preprocessor = instantiatePreprocessor(properties);
+        if (preprocessor == null || !preprocessor.isSampling() || !ParserRunner.canFilterUsers(properties)) {
+            run(properties, ParserRunner.run(properties), true);
+            return;
+        }
+        TemporalDataModelIF<Long, Long> data = ParserRunner.run(properties, preprocessor);
+        // the users are already sampled, only the k-core is left
+        Properties sampled = new Properties();
+        sampled.putAll(properties);
+        sampled.setProperty(SPLIT_SAMPLE_USERS, "1");
+        run(sampled, data, true);
+    }
+
+    /**
+     * Runs a Splitter instance based on the properties, after reducing the
+     * data if the properties ask for it (see
+     * {@link #instantiatePreprocessor(Properties)}).
      *
      * @param properties property file
      * @param data the data to be split
      * @param doDataClear flag to clear the memory used for the data before
-     * saving the splits
-     * @throws FileNotFoundException see
-     * {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(net.recommenders.rival.core.DataModel, java.lang.String, boolean)}
-     * @throws UnsupportedEncodingException see
-     * {@link net.recommenders.rival.core.DataModelUtils#saveDataModel(net.recommenders.rival.core.DataModel, java.lang.String, boolean)}
+     * saving the splits (splits that are views over the data, such as the
+     * cross-validation folds of compact models, keep reading a snapshot of it
+     * until they are written)
+     * @throws IOException see {@link SplitWriter#await()}
+     * @throws IllegalArgumentException if the data has to be reduced, or
+     * dictionaries saved, and its user or item ids are not long
      */
+    @SuppressWarnings("unchecked")
     public static <U, I> void run(final Properties properties, final TemporalDataModelIF<U, I> data, final boolean doDataClear)
-            throws FileNotFoundException, UnsupportedEncodingException {
-        System.out.println("Start splitting");
-        TemporalDataModelIF<U, I>[] splits;
-        // read parameters
-        String outputFolder = properties.getProperty(SPLIT_OUTPUT_FOLDER);
-        Boolean overwrite = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_OVERWRITE, "false"));
-        String splitTrainingPrefix = properties.getProperty(SPLIT_TRAINING_PREFIX);
-        String splitTrainingSuffix = properties.getProperty(SPLIT_TRAINING_SUFFIX);
-        String splitTestPrefix = properties.getProperty(SPLIT_TEST_PREFIX);
-        String splitTestSuffix = properties.getProperty(SPLIT_TEST_SUFFIX);
-        // generate splits
-        Splitter<U, I> splitter = instantiateSplitter(properties);
-        splits = splitter.split(data);
-        if (doDataClear) {
-            data.clear();
+            throws IOException {
+        Profiler.configure(properties);
+        try (Profiler.Stage stage = Profiler.start("split")) {
+            System.out.println("Start splitting");
+            TemporalDataModelIF<U, I>[] splits;
+            // read parameters
+            String outputFolder = properties.getProperty(SPLIT_OUTPUT_FOLDER);
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_OVERWRITE, "false"));
+            Boolean binary = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_BINARY, "false"));
+            Boolean dictionary = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_DICTIONARY, "false"));
+            String splitTrainingPrefix = properties.getProperty(SPLIT_TRAINING_PREFIX);
+            String splitTrainingSuffix = properties.getProperty(SPLIT_TRAINING_SUFFIX);
+            String splitTestPrefix = properties.getProperty(SPLIT_TEST_PREFIX);
+            String splitTestSuffix = properties.getProperty(SPLIT_TEST_SUFFIX);
+            // reduce the data (which requires long user and item ids)
+            TemporalDataModelIF<U, I> input = data;
+            Preprocessor preprocessor = instantiatePreprocessor(properties);
+            if ((preprocessor != null || dictionary) && !hasLongIds(data)) {
+                throw new IllegalArgumentException("Sampling, k-core filtering and dictionaries require long user and item ids");
+            }
+            if (preprocessor != null) {
+                try (Profiler.Stage preprocess = Profiler.start("preprocess")) {
+                    preprocess.addPreferences(data);
+                    // the ids have been checked to be long
+                    TemporalDataModelIF<?, ?> reduced = preprocessor.process((TemporalDataModelIF<Long, Long>) data);
+                    input = (TemporalDataModelIF<U, I>) reduced;
+                }
+                if (doDataClear) {
+                    data.clear();
+                }
+            }
+            stage.addPreferences(input);
+            // generate splits
+            Splitter<U, I> splitter = instantiateSplitter(properties);
+            splits = splitter.split(input);
+            if (dictionary) {
+                saveDictionaries(input, outputFolder);
+            }
+            if (doDataClear) {
+                input.clear();
+            }
+            System.out.println("Saving splits");
+            // save splits
+            int threads = Integer.parseInt(properties.getProperty(SPLIT_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+            try (SplitWriter writer = new SplitWriter(threads, overwrite, binary)) {
+                for (int i = 0; i < splits.length / 2; i++) {
+                    writer.submit(splits[2 * i], outputFolder + splitTrainingPrefix + i + splitTrainingSuffix);
+                    writer.submit(splits[2 * i + 1], outputFolder + splitTestPrefix + i + splitTestSuffix);
+                    // the writer keeps the splits until they are written, drop them here
+                    splits[2 * i] = null;
+                    splits[2 * i + 1] = null;
+                }
+                stage.addBytes(writer.await());
+            }
         }
-        System.out.println("Saving splits");
-        // save splits
-        for (int i = 0; i < splits.length / 2; i++) {
-            TemporalDataModelIF<U, I> training = splits[2 * i];
-            TemporalDataModelIF<U, I> test = splits[2 * i + 1];
-            String trainingFile = outputFolder + splitTrainingPrefix + i + splitTrainingSuffix;
-            String testFile = outputFolder + splitTestPrefix + i + splitTestSuffix;
-            DataModelUtils.saveDataModel(training, trainingFile, overwrite);
-            DataModelUtils.saveDataModel(test, testFile, overwrite);
+    }
+
+    /**
+     * Checks whether the users and items of a model have long ids, looking at
+     * the first ones.
+     *
+     * @param data the model
+     * @return true if the ids are long (or the model is empty)
+     */
+    private static boolean hasLongIds(final TemporalDataModelIF<?, ?> data) {
+        Iterator<?> users = data.getUsers().iterator();
+        Iterator<?> items = data.getItems().iterator();
+        return (!users.hasNext() || users.next() instanceof Long) && (!items.hasNext() || items.next() instanceof Long);
+    }
+
+    /**
+     * Checks if the splitter of the properties splits the dataset file
+     * directly, without parsing it (see {@link #runStreaming(Properties)}).
+     *
+     * @param properties property file
+     * @return true if the dataset can be split as a stream
+     */
+    public static boolean isStreaming(final Properties properties) {
+        return properties.getProperty(DATASET_SPLITTER, "").contains("StreamingRandom");
+    }
+
+    /**
+     * Splits the dataset file line by line with a
+     * {@link StreamingRandomSplitter}, writing the lines to the training and
+     * test files of the first split as they are read, so the dataset is never
+     * loaded in memory. The dataset must be in the format of
+     * {@link net.recommenders.rival.core.SimpleParser}, and the splits are
+     * written as text in the same format. A sample of the users (see
+     * {@link #SPLIT_SAMPLE_USERS}) is taken line by line; the k-core filtering
+     * needs the whole data, so it is not available.
+     *
+     * @param properties property file
+     * @throws IOException when a file cannot be read or written
+     */
+    public static void runStreaming(final Properties properties) throws IOException {
+        Profiler.configure(properties);
+        try (Profiler.Stage stage = Profiler.start("split")) {
+            System.out.println("Start splitting");
+            File input = new File(properties.getProperty(ParserRunner.DATASET_FILE));
+            String outputFolder = properties.getProperty(SPLIT_OUTPUT_FOLDER);
+            Boolean overwrite = Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_OVERWRITE, "false"));
+            if (Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_BINARY, "false"))
+                    || Boolean.parseBoolean(properties.getProperty(SPLIT_OUTPUT_DICTIONARY, "false"))) {
+                System.out.println("Binary splits and dictionaries are not available when splitting a stream, ignoring them");
+            }
+            Preprocessor preprocessor = instantiatePreprocessor(properties);
+            UserFilter users = null;
+            if (preprocessor != null) {
+                if (preprocessor.isFiltering()) {
+                    System.out.println("K-core filtering is not available when splitting a stream, ignoring it");
+                }
+                if (preprocessor.isSampling()) {
+                    users = preprocessor;
+                }
+            }
+            File trainingFile = new File(outputFolder + properties.getProperty(SPLIT_TRAINING_PREFIX) + 0 + properties.getProperty(SPLIT_TRAINING_SUFFIX));
+            File testFile = new File(outputFolder + properties.getProperty(SPLIT_TEST_PREFIX) + 0 + properties.getProperty(SPLIT_TEST_SUFFIX));
+            if (!overwrite && (trainingFile.exists() || testFile.exists())) {
+                System.out.println("Ignoring " + trainingFile + " and " + testFile);
+                return;
+            }
+            StreamingRandomSplitter<Long, Long> splitter = (StreamingRandomSplitter<Long, Long>) SplitterRunner.<Long, Long>instantiateSplitter(properties);
+            long[] lines = splitter.split(input, trainingFile, testFile, users);
+            stage.addBytes(input.length());
+            stage.addLines(lines[0] + lines[1]);
         }
     }
 
+    /**
+     * Saves the dictionaries of the users and items of the whole data (which
+     * requires long user and item ids), so every split, and the models of
+     * later stages, can share the same dense indices.
+     *
+     * @param data the data
+     * @param outputFolder folder where the dictionaries will be saved
+     * @throws IOException when the files cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    private static <U, I> void saveDictionaries(final TemporalDataModelIF<U, I> data, final String outputFolder) throws IOException {
+        TemporalDataModelIF<Long, Long> model = (TemporalDataModelIF<Long, Long>) data;
+        IdDictionary.of(model.getUsers()).save(outputFolder + USER_DICTIONARY_FILE);
+        IdDictionary.of(model.getItems()).save(outputFolder + ITEM_DICTIONARY_FILE);
+    }
+
+    /**
+     * Instantiates the stage that reduces the data before splitting it, if
+     * the properties ask for a sample of the users or a k-core.
+     *
+     * @param properties the properties to be used.
+     * @return the preprocessor, or null if the data is split as it is.
+     */
+    public static Preprocessor instantiatePreprocessor(final Properties properties) {
+        Double sample = Double.parseDouble(properties.getProperty(SPLIT_SAMPLE_USERS, "1"));
+        Integer minUser = Integer.parseInt(properties.getProperty(SPLIT_KCORE_USERS, "0"));
+        Integer minItem = Integer.parseInt(properties.getProperty(SPLIT_KCORE_ITEMS, "0"));
+        if (sample >= 1.0 && minUser <= 1 && minItem <= 1) {
+            return null;
+        }
+        Long seed = Long.parseLong(properties.getProperty(SPLIT_SEED, "0"));
+        Integer passes = Integer.parseInt(properties.getProperty(SPLIT_KCORE_PASSES, String.valueOf(Preprocessor.DEFAULT_MAX_PASSES)));
+        return new Preprocessor(sample, seed, minUser, minItem, passes);
+    }
+
     /**
      *
      * Instantiates a splitter based on the properties.
@@ -142,13 +377,37 @@ public final class SplitterRunner {
             Long seed = Long.parseLong(properties.getProperty(SPLIT_SEED));
             Integer nFolds = Integer.parseInt(properties.getProperty(SPLIT_CV_NFOLDS));
             splitter = new CrossValidationSplitter<>(nFolds, perUser, seed);
+        } else if (splitterClassName.contains("StreamingRandom")) {
+            Long seed = Long.parseLong(properties.getProperty(SPLIT_SEED));
+            Float percentage = Float.parseFloat(properties.getProperty(SPLIT_RANDOM_PERCENTAGE));
+            Integer threads = Integer.parseInt(properties.getProperty(SPLIT_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+            splitter = new StreamingRandomSplitter<>(percentage, seed, doSplitPerItems, threads, ParallelParser.DEFAULT_CHUNK_SIZE);
         } else if (splitterClassName.contains("Random")) {
             Long seed = Long.parseLong(properties.getProperty(SPLIT_SEED));
             Float percentage = Float.parseFloat(properties.getProperty(SPLIT_RANDOM_PERCENTAGE));
             splitter = new RandomSplitter<>(percentage, perUser, seed, doSplitPerItems);
+        } else if (splitterClassName.contains("LeaveLastOut")) {
+            Integer n = Integer.parseInt(properties.getProperty(SPLIT_LEAVELAST_N, "1"));
+            splitter = new LeaveLastOutSplitter<>(n, doSplitPerItems);
+        } else if (splitterClassName.contains("RollingTemporal")) {
+            String cutoffs = properties.getProperty(SPLIT_ROLLING_CUTOFFS);
+            if (cutoffs != null) {
+                String[] toks = cutoffs.split(",");
+                long[] values = new long[toks.length];
+                for (int k = 0; k < toks.length; k++) {
+                    values[k] = Long.parseLong(toks[k].trim());
+                }
+                splitter = new RollingTemporalSplitter<>(values);
+            } else {
+                Long start = Long.parseLong(properties.getProperty(SPLIT_ROLLING_START));
+                Long step = Long.parseLong(properties.getProperty(SPLIT_ROLLING_STEP));
+                Integer windows = Integer.parseInt(properties.getProperty(SPLIT_ROLLING_WINDOWS));
+                splitter = new RollingTemporalSplitter<>(start, step, windows);
+            }
         } else if (splitterClassName.contains("Temporal")) {
             Float percentage = Float.parseFloat(properties.getProperty(SPLIT_RANDOM_PERCENTAGE));
-            splitter = new TemporalSplitter<>(percentage, perUser, doSplitPerItems);
+            Integer threads = Integer.parseInt(properties.getProperty(SPLIT_THREADS, "1"));
+            splitter = new TemporalSplitter<>(percentage, perUser, doSplitPerItems, threads);
         }
         return splitter;
     }
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2015 recommenders.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.recommenders.rival.split.splitter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.recommenders.rival.core.ByteTokenizer;
+import net.recommenders.rival.core.CompressedInput;
+import net.recommenders.rival.core.DataModelFactory;
+import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.ParallelParser;
+import net.recommenders.rival.core.PreferenceConsumer;
+import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.UserFilter;
+
+/**
+ * Class that splits a dataset randomly, deciding the split of each
+ * interaction with a seeded hash of its user, item and (unless all the
+ * interactions between a user and an item are kept together) timestamp.
+ *
+ * Since the decision only depends on the interaction, the split does not
+ * depend on the order of the data, and a file in the format of
+ * {@link SimpleParser} can be split line by line without loading it (see
+ * {@link #split(File, File, File)}), in parallel chunks. The proportion of
+ * training data is the expected one, for the whole data and for each user.
+ */
+public class StreamingRandomSplitter<U, I> implements Splitter<U, I> {
+
+    /**
+     * Multiplier of the hash (the golden ratio in 64 bits).
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    /**
+     * First multiplier of the mixing function.
+     */
+    private static final long MIX_1 = 0xBF58476D1CE4E5B9L;
+    /**
+     * Second multiplier of the mixing function.
+     */
+    private static final long MIX_2 = 0x94D049BB133111EBL;
+    /**
+     * First shift of the mixing function.
+     */
+    private static final int SHIFT_1 = 30;
+    /**
+     * Second shift of the mixing function.
+     */
+    private static final int SHIFT_2 = 27;
+    /**
+     * Third shift of the mixing function.
+     */
+    private static final int SHIFT_3 = 31;
+    /**
+     * Number of bits of the mantissa of a double.
+     */
+    private static final int MANTISSA_BITS = 53;
+    /**
+     * Size of the buffers of the output files.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    /**
+     * The percentage of training to be used by the splitter.
+     */
+    private final float percentageTraining;
+    /**
+     * The seed of the hash.
+     */
+    private final long seed;
+    /**
+     * The flag that indicates if all the interactions between a user and an
+     * item go to the same split.
+     */
+    private final boolean doSplitPerItems;
+    /**
+     * Number of threads used to split a file.
+     */
+    private final int threads;
+    /**
+     * Size of the chunks a file is split in, in bytes.
+     */
+    private final long chunkSize;
+
+    /**
+     * Constructor that splits files with one thread per processor.
+     *
+     * @param percentageTrainingRatio percentage of training data to be split
+     * @param seedValue value to initialize the hash
+     * @param doSplitPerItemsFlag if true, every interaction between a user and
+     * a specific item is considered as one, and hence all of them will be
+     * either on the training or on the test split
+     */
+    public StreamingRandomSplitter(final float percentageTrainingRatio, final long seedValue, final boolean doSplitPerItemsFlag) {
+        this(percentageTrainingRatio, seedValue, doSplitPerItemsFlag, Runtime.getRuntime().availableProcessors(),
+                ParallelParser.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param percentageTrainingRatio percentage of training data to be split
+     * @param seedValue value to initialize the hash
+     * @param doSplitPerItemsFlag if true, every interaction between a user and
+     * a specific item is considered as one, and hence all of them will be
+     * either on the training or on the test split
+     * @param nThreads number of threads used to split a file
+     * @param chunkBytes size of the chunks a file is split in, in bytes
+     */
+    public StreamingRandomSplitter(final float percentageTrainingRatio, final long seedValue, final boolean doSplitPerItemsFlag,
+            final int nThreads, final long chunkBytes) {
+        this.percentageTraining = percentageTrainingRatio;
+        this.seed = seedValue;
+        this.doSplitPerItems = doSplitPerItemsFlag;
+        this.threads = Math.max(1, nThreads);
+        this.chunkSize = Math.max(1, chunkBytes);
+    }
+
+    /**
+     * Decides whether an interaction goes to the training split.
+     *
+     * @param user the user
+     * @param item the item
+     * @param timestamp the timestamp (-1 if there is none); it is ignored if
+     * all the interactions between a user and an item go to the same split
+     * @return true if the interaction goes to the training split
+     */
+    public boolean isTraining(final long user, final long item, final long timestamp) {
+        long h = mix(seed + user * GOLDEN_GAMMA);
+        h = mix(h ^ item);
+        if (!doSplitPerItems) {
+            h = mix(h ^ timestamp);
+        }
+        // uniform in [0, 1)
+        double r = (h >>> (Long.SIZE - MANTISSA_BITS)) / (double) (1L << MANTISSA_BITS);
+        return r < percentageTraining;
+    }
+
+    /**
+     * Maps a value to a number uniformly distributed in [0, 1), always the
+     * same for the same seed and value.
+     *
+     * @param seed the seed
+     * @param value the value
+     * @return the number in [0, 1)
+     */
+    static double uniform(final long seed, final long value) {
+        long h = mix(seed + value * GOLDEN_GAMMA);
+        return (h >>> (Long.SIZE - MANTISSA_BITS)) / (double) (1L << MANTISSA_BITS);
+    }
+
+    /**
+     * Mixes the bits of a value (the finalizer of SplitMix64).
+     *
+     * @param value the value
+     * @return the mixed value
+     */
+    private static long mix(final long value) {
+        long z = value;
+        z = (z ^ (z >>> SHIFT_1)) * MIX_1;
+        z = (z ^ (z >>> SHIFT_2)) * MIX_2;
+        return z ^ (z >>> SHIFT_3);
+    }
+
+    /**
+     * Gets the value of an id used in the hash.
+     *
+     * @param id the id
+     * @return its value, if it is a number, or its hash code
+     */
+    private static long toLong(final Object id) {
+        if (id instanceof Number) {
+            return ((Number) id).longValue();
+        }
+        return id.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataModelIF<U, I>[] split(final DataModelIF<U, I> data) {
+        @SuppressWarnings("unchecked")
+        final DataModelIF<U, I>[] splits = new DataModelIF[2];
+        splits[0] = DataModelFactory.getDefaultModel(); // training
+        splits[1] = DataModelFactory.getDefaultModel(); // test
+        data.forEachPreference(new PreferenceConsumer<U, I>() {
+            @Override
+            public void consume(final U user, final I item, final double pref) {
+                DataModelIF<U, I> datamodel = splits[0]; // training
+                if (!isTraining(toLong(user), toLong(item), -1)) {
+                    datamodel = splits[1]; // test
+                }
+                datamodel.addPreference(user, item, pref);
+            }
+        });
+        return splits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemporalDataModelIF<U, I>[] split(final TemporalDataModelIF<U, I> data) {
+        @SuppressWarnings("unchecked")
+        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2];
+        splits[0] = new TemporalDataModel<>(); // training
+        splits[1] = new TemporalDataModel<>(); // test
+        data.forEachPreference(new PreferenceConsumer<U, I>() {
+            /**
+             * The user of the previous preference.
+             */
+            private U lastUser;
+            /**
+             * The timestamps of that user.
+             */
+            private Map<I, Set<Long>> userTimestamps;
+
+            @Override
+            public void consume(final U user, final I item, final double pref) {
+                // preferences come grouped by user
+                if (!user.equals(lastUser)) {
+                    lastUser = user;
+                    userTimestamps = data.getUserItemTimestamps().get(user);
+                }
+                Set<Long> time = null;
+                if (userTimestamps != null) {
+                    time = userTimestamps.get(item);
+                }
+                long u = toLong(user);
+                long i = toLong(item);
+                if (time == null || time.isEmpty()) {
+                    TemporalDataModelIF<U, I> datamodel = splits[0]; // training
+                    if (!isTraining(u, i, -1)) {
+                        datamodel = splits[1]; // test
+                    }
+                    datamodel.addPreference(user, item, pref);
+                    return;
+                }
+                for (Long t : time) {
+                    TemporalDataModelIF<U, I> datamodel = splits[0]; // training
+                    if (!isTraining(u, i, t)) {
+                        datamodel = splits[1]; // test
+                    }
+                    datamodel.addPreference(user, item, pref);
+                    datamodel.addTimestamp(user, item, t);
+                }
+            }
+        });
+        return splits;
+    }
+
+    /**
+     * Splits a file in the format of {@link SimpleParser} (tab-separated
+     * user, item, preference and optional timestamp, with an optional
+     * header) line by line, copying every line to the training or the test
+     * file. Uncompressed files are split in parallel chunks, and the lines
+     * are written in the order of the input.
+     *
+     * @param in the file to split
+     * @param training the training file
+     * @param test the test file
+     * @return the number of lines written to the training and the test files
+     * @throws IOException when a file cannot be read or written
+     */
+    public long[] split(final File in, final File training, final File test) throws IOException {
+        return split(in, training, test, null);
+    }
+
+    /**
+     * Splits a file line by line as {@link #split(File, File, File)}, only
+     * keeping the lines of the users accepted by a filter.
+     *
+     * @param in the file to split
+     * @param training the training file
+     * @param test the test file
+     * @param users the filter of the users, or null to keep every line
+     * @return the number of lines written to the training and the test files
+     * @throws IOException when a file cannot be read or written
+     */
+    public long[] split(final File in, final File training, final File test, final UserFilter users) throws IOException {
+        if (CompressedInput.isCompressed(in)) {
+            try (ByteTokenizer tokenizer = ByteTokenizer.open(in, "\t");
+                    OutputStream trainingOut = new BufferedOutputStream(new FileOutputStream(training), OUTPUT_BUFFER_SIZE);
+                    OutputStream testOut = new BufferedOutputStream(new FileOutputStream(test), OUTPUT_BUFFER_SIZE)) {
+                return splitLines(tokenizer, true, users, trainingOut, testOut);
+            }
+        }
+        try (final FileChannel channel = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            final long[] bounds = ByteTokenizer.getLineChunks(channel, 0, channel.size(), chunkSize);
+            final int n = bounds.length - 1;
+            if (n == 1 || threads == 1) {
+                try (OutputStream trainingOut = new BufferedOutputStream(new FileOutputStream(training), OUTPUT_BUFFER_SIZE);
+                        OutputStream testOut = new BufferedOutputStream(new FileOutputStream(test), OUTPUT_BUFFER_SIZE)) {
+                    long[] lines = new long[2];
+                    for (int k = 0; k < n; k++) {
+                        try (ByteTokenizer tokenizer = ByteTokenizer.open(channel, bounds[k], bounds[k + 1], "\t")) {
+                            long[] chunkLines = splitLines(tokenizer, k == 0, users, trainingOut, testOut);
+                            lines[0] += chunkLines[0];
+                            lines[1] += chunkLines[1];
+                        }
+                    }
+                    return lines;
+                }
+            }
+            return splitChunks(channel, bounds, users, training, test);
+        }
+    }
+
+    /**
+     * Splits the chunks of a file in parallel, each one into its own part
+     * files, which are then concatenated in order.
+     *
+     * @param channel the channel of the file
+     * @param bounds the bounds of the chunks
+     * @param users the filter of the users, or null to keep every line
+     * @param training the training file
+     * @param test the test file
+     * @return the number of lines written to the training and the test files
+     * @throws IOException when a file cannot be read or written
+     */
+    private long[] splitChunks(final FileChannel channel, final long[] bounds, final UserFilter users, final File training,
+            final File test) throws IOException {
+        final int n = bounds.length - 1;
+        final File[] trainingParts = new File[n];
+        final File[] testParts = new File[n];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, n));
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int k = 0; k < n; k++) {
+                trainingParts[k] = new File(training.getPath() + ".part" + k);
+                testParts[k] = new File(test.getPath() + ".part" + k);
+                final int chunk = k;
+                futures.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws IOException {
+                        try (ByteTokenizer tokenizer = ByteTokenizer.open(channel, bounds[chunk], bounds[chunk + 1], "\t");
+                                OutputStream trainingOut = new BufferedOutputStream(new FileOutputStream(trainingParts[chunk]), OUTPUT_BUFFER_SIZE);
+                                OutputStream testOut = new BufferedOutputStream(new FileOutputStream(testParts[chunk]), OUTPUT_BUFFER_SIZE)) {
+                            return splitLines(tokenizer, chunk == 0, users, trainingOut, testOut);
+                        }
+                    }
+                }));
+            }
+            long[] lines = new long[2];
+            for (Future<long[]> future : futures) {
+                long[] chunkLines = future.get();
+                lines[0] += chunkLines[0];
+                lines[1] += chunkLines[1];
+            }
+            concatenate(trainingParts, training);
+            concatenate(testParts, test);
+            return lines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (int k = 0; k < n; k++) {
+                deletePart(trainingParts[k]);
+                deletePart(testParts[k]);
+            }
+        }
+    }
+
+    /**
+     * Copies the lines of a tokenizer to the training or the test output.
+     *
+     * @param tokenizer the tokenizer
+     * @param checkHeader whether the first line is skipped when it contains
+     * letters
+     * @param users the filter of the users, or null to keep every line
+     * @param trainingOut the training output
+     * @param testOut the test output
+     * @return the number of lines written to each output
+     * @throws IOException when the input cannot be read or an output cannot
+     * be written
+     */
+    private long[] splitLines(final ByteTokenizer tokenizer, final boolean checkHeader, final UserFilter users,
+            final OutputStream trainingOut, final OutputStream testOut) throws IOException {
+        long[] lines = new long[2];
+        boolean first = checkHeader;
+        while (tokenizer.next()) {
+            if (first) {
+                first = false;
+                if (tokenizer.hasLetters()) {
+                    continue;
+                }
+            }
+            long user = tokenizer.getLong(SimpleParser.USER_TOK);
+            if (users != null && !users.accept(user)) {
+                continue;
+            }
+            long timestamp = -1;
+            if (!doSplitPerItems && tokenizer.getNumFields() > SimpleParser.TIME_TOK) {
+                timestamp = tokenizer.getLong(SimpleParser.TIME_TOK);
+            }
+            OutputStream out = trainingOut;
+            int split = 0;
+            if (!isTraining(user, tokenizer.getLong(SimpleParser.ITEM_TOK), timestamp)) {
+                out = testOut;
+                split = 1;
+            }
+            out.write(tokenizer.getBuffer(), tokenizer.getLineStart(), tokenizer.getLineLength());
+            out.write('\n');
+            lines[split]++;
+        }
+        return lines;
+    }
+
+    /**
+     * Concatenates files.
+     *
+     * @param parts the files
+     * @param target the file where they are concatenated
+     * @throws IOException when a file cannot be read or written
+     */
+    private static void concatenate(final File[] parts, final File target) throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            for (File part : parts) {
+                try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long pos = 0;
+                    long size = in.size();
+                    while (pos < size) {
+                        pos += in.transferTo(pos, size - pos, out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a part file, if it exists.
+     *
+     * @param part the file (it may be null)
+     */
+    private static void deletePart(final File part) {
+        if (part != null && part.exists() && !part.delete()) {
+            System.out.println("Cannot delete " + part);
+        }
+    }
+}
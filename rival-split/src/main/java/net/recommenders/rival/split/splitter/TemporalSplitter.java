@@ -16,23 +16,43 @@
 package net.recommenders.rival.split.splitter;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.recommenders.rival.core.CompactTemporalDataModel;
+import net.recommenders.rival.core.ConcurrentDataModel;
 import net.recommenders.rival.core.DataModelIF;
 import net.recommenders.rival.core.TemporalDataModel;
 import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.TimestampConsumer;
 
 /**
  * Splitter that takes into account the timestamps in the data (older
  * interactions are kept only in the training set).
  *
+ * The distinct timestamps (of the whole data, or of each user) are sorted as
+ * primitives to find a cutoff timestamp, and every interaction after the
+ * cutoff goes to the test set. Users can be split by several threads.
+ *
  * @author <a href="http://github.com/abellogin">Alejandro</a>
  */
 public class TemporalSplitter<U, I> implements Splitter<U, I> {
 
+    /**
+     * Initial capacity of the buffers of timestamps.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Number of groups of users per thread, to balance the load.
+     */
+    private static final int TASKS_PER_THREAD = 4;
     /**
      * The percentage of training to be used by the splitter.
      */
@@ -46,6 +66,10 @@ public class TemporalSplitter<U, I> implements Splitter<U, I> {
      * independently.
      */
     private boolean doSplitPerItems;
+    /**
+     * The number of threads that split the users.
+     */
+    private int nThreads;
 
     /**
      * Constructor.
@@ -57,9 +81,25 @@ public class TemporalSplitter<U, I> implements Splitter<U, I> {
      * to the corresponding timestamp (according to the rest of the parameters)
      */
     public TemporalSplitter(final float percentageTrainingRatio, final boolean perUserFlag, final boolean doSplitPerItemsFlag) {
+        this(percentageTrainingRatio, perUserFlag, doSplitPerItemsFlag, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param percentageTrainingRatio percentage of training data to be split
+     * @param perUserFlag flag to do the split in a per user basis
+     * @param doSplitPerItemsFlag if true, every interaction between a user and
+     * an item will be kept in the test set if at least one interaction belongs
+     * to the corresponding timestamp (according to the rest of the parameters)
+     * @param threads number of threads that split the users; with more than
+     * one, the splits are {@link ConcurrentDataModel}s
+     */
+    public TemporalSplitter(final float percentageTrainingRatio, final boolean perUserFlag, final boolean doSplitPerItemsFlag, final int threads) {
         this.percentageTraining = percentageTrainingRatio;
         this.perUser = perUserFlag;
         this.doSplitPerItems = doSplitPerItemsFlag;
+        this.nThreads = Math.max(1, threads);
     }
 
     /**
@@ -76,36 +116,163 @@ public class TemporalSplitter<U, I> implements Splitter<U, I> {
     @Override
     public TemporalDataModelIF<U, I>[] split(final TemporalDataModelIF<U, I> data) {
         @SuppressWarnings("unchecked")
-        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModel[2];
-        splits[0] = new TemporalDataModel<>(); // training
-        splits[1] = new TemporalDataModel<>(); // test
-        if (perUser) {
-            for (U user : data.getUsers()) {
-                if (!data.getUserItemTimestamps().containsKey(user)) {
-                    continue;
-                }
-                Set<Long> userTimestamps = new HashSet<>();
-                for (Set<Long> timestamps : data.getUserItemTimestamps().get(user).values()) {
-                    userTimestamps.addAll(timestamps);
+        final TemporalDataModelIF<U, I>[] splits = new TemporalDataModelIF[2];
+        if (nThreads > 1) {
+            splits[0] = new ConcurrentDataModel<>(false, nThreads); // training
+            splits[1] = new ConcurrentDataModel<>(false, nThreads); // test
+        } else {
+            splits[0] = new TemporalDataModel<>(); // training
+            splits[1] = new TemporalDataModel<>(); // test
+        }
+        final Map<U, Map<I, Set<Long>>> timestamps = data.getUserItemTimestamps();
+        long globalCutoff = Long.MAX_VALUE;
+        if (!perUser) {
+            // global temporal splitting
+            TimestampCollector<U, I> all = new TimestampCollector<>();
+            data.forEachTimestamp(all);
+            globalCutoff = getCutoff(all.times, all.size, percentageTraining);
+        }
+        // the maps are read, and compact models compacted, before other threads read them
+        data.getUserItemPreferences().size();
+        List<U> users = new ArrayList<>(timestamps.keySet());
+        int nTasks = 1;
+        if (nThreads > 1) {
+            nTasks = Math.min(users.size(), nThreads * TASKS_PER_THREAD);
+        }
+        List<UserTask> tasks = new ArrayList<>();
+        for (int k = 0; k < nTasks; k++) {
+            tasks.add(new UserTask(data, users.subList(k * users.size() / nTasks, (k + 1) * users.size() / nTasks), globalCutoff, splits));
+        }
+        if (tasks.size() == 1) {
+            tasks.get(0).call();
+        } else if (!tasks.isEmpty()) {
+            runAll(tasks);
+        }
+        return splits;
+    }
+
+    /**
+     * Runs the tasks on a pool of threads.
+     *
+     * @param tasks the tasks
+     */
+    private void runAll(final List<UserTask> tasks) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(nThreads, tasks.size()));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes the cutoff of some timestamps: the timestamps after it go to
+     * the test set. It is the distinct timestamp at the position given by the
+     * percentage of training, or {@link Long#MAX_VALUE} if there is no such
+     * timestamp.
+     *
+     * @param times buffer with the timestamps (sorted in place)
+     * @param len number of timestamps in the buffer
+     * @param percentage percentage of training
+     * @return the cutoff
+     */
+    static long getCutoff(final long[] times, final int len, final float percentage) {
+        int distinct = sortDistinct(times, len);
+        int splitPoint = Math.round(percentage * distinct);
+        if (splitPoint >= distinct) {
+            return Long.MAX_VALUE;
+        }
+        return times[splitPoint];
+    }
+
+    /**
+     * Sorts some timestamps and keeps only the distinct ones, in place.
+     *
+     * @param times buffer with the timestamps
+     * @param len number of timestamps in the buffer
+     * @return number of distinct timestamps, now at the start of the buffer
+     */
+    static int sortDistinct(final long[] times, final int len) {
+        Arrays.sort(times, 0, len);
+        int distinct = 0;
+        for (int k = 0; k < len; k++) {
+            if (k == 0 || times[k - 1] != times[k]) {
+                times[distinct++] = times[k];
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Splits the interactions of a group of users.
+     */
+    private final class UserTask implements Callable<Void> {
+
+        /**
+         * The data.
+         */
+        private final TemporalDataModelIF<U, I> data;
+        /**
+         * The users of this task.
+         */
+        private final List<U> users;
+        /**
+         * The cutoff of all the users, when they are not split independently.
+         */
+        private final long globalCutoff;
+        /**
+         * The training and test splits.
+         */
+        private final TemporalDataModelIF<U, I>[] splits;
+        /**
+         * Buffer of the timestamps of a user.
+         */
+        private long[] buffer = new long[INITIAL_CAPACITY];
+
+        /**
+         * Constructor.
+         *
+         * @param theData the data
+         * @param theUsers the users of this task
+         * @param cutoff the cutoff of all the users
+         * @param theSplits the training and test splits
+         */
+        UserTask(final TemporalDataModelIF<U, I> theData, final List<U> theUsers, final long cutoff, final TemporalDataModelIF<U, I>[] theSplits) {
+            this.data = theData;
+            this.users = theUsers;
+            this.globalCutoff = cutoff;
+            this.splits = theSplits;
+        }
+
+        @Override
+        public Void call() {
+            for (U user : users) {
+                Map<I, Set<Long>> userTimestamps = data.getUserItemTimestamps().get(user);
+                Map<I, Double> userPreferences = data.getUserItemPreferences().get(user);
+                long cutoff = globalCutoff;
+                if (perUser) {
+                    cutoff = getUserCutoff(user, userTimestamps);
                 }
-                List<Long> listTimestamps = new ArrayList<>(userTimestamps);
-                Collections.sort(listTimestamps);
-                int splitPoint = Math.round(percentageTraining * listTimestamps.size());
-                Set<Long> testTimestamps = new HashSet<>();
-                int n = 0;
-                for (Long t : listTimestamps) {
-                    if (n > splitPoint) {
-                        testTimestamps.add(t);
+                for (Entry<I, Set<Long>> e : userTimestamps.entrySet()) {
+                    I item = e.getKey();
+                    Double pref = null;
+                    if (userPreferences != null) {
+                        pref = userPreferences.get(item);
                     }
-                    n++;
-                }
-                if (doSplitPerItems) {
-                    for (Entry<I, Set<Long>> e : data.getUserItemTimestamps().get(user).entrySet()) {
-                        I item = e.getKey();
-                        Double pref = data.getUserItemPreferences().get(user).get(item);
+                    if (doSplitPerItems) {
                         boolean inTest = false;
                         for (Long time : e.getValue()) {
-                            if (testTimestamps.contains(time)) {
+                            if (time > cutoff) {
                                 inTest = true;
                                 break;
                             }
@@ -120,17 +287,10 @@ public class TemporalSplitter<U, I> implements Splitter<U, I> {
                         for (Long time : e.getValue()) {
                             datamodel.addTimestamp(user, item, time);
                         }
-                    }
-                } else {
-                    if (!data.getUserItemTimestamps().containsKey(user)) {
-                        continue;
-                    }
-                    for (Entry<I, Set<Long>> e : data.getUserItemTimestamps().get(user).entrySet()) {
-                        I item = e.getKey();
-                        Double pref = data.getUserItemPreferences().get(user).get(item);
+                    } else {
                         for (Long time : e.getValue()) {
                             TemporalDataModelIF<U, I> datamodel = splits[0]; // training
-                            if (testTimestamps.contains(time)) {
+                            if (time > cutoff) {
                                 datamodel = splits[1]; // test
                             }
                             if (pref != null) {
@@ -141,65 +301,68 @@ public class TemporalSplitter<U, I> implements Splitter<U, I> {
                     }
                 }
             }
-        } else {
-            // global temporal splitting
-            Set<Long> allTimestamps = new HashSet<>();
-            for (U user : data.getUserItemTimestamps().keySet()) {
-                for (Set<Long> timestamps : data.getUserItemTimestamps().get(user).values()) {
-                    allTimestamps.addAll(timestamps);
-                }
+            return null;
+        }
+
+        /**
+         * Computes the cutoff of a user.
+         *
+         * @param user the user
+         * @param userTimestamps the timestamps of the user
+         * @return the cutoff
+         */
+        private long getUserCutoff(final U user, final Map<I, Set<Long>> userTimestamps) {
+            if (data instanceof CompactTemporalDataModel) {
+                // the compact model already keeps the timestamps of each user sorted
+                long[] times = ((CompactTemporalDataModel) data).getUserTimestamps((Long) user);
+                return getCutoff(times, times.length, percentageTraining);
             }
-            List<Long> listTimestamps = new ArrayList<>(allTimestamps);
-            Collections.sort(listTimestamps);
-            int splitPoint = Math.round(percentageTraining * listTimestamps.size());
-            Set<Long> testTimestamps = new HashSet<>();
             int n = 0;
-            for (Long t : listTimestamps) {
-                if (n > splitPoint) {
-                    testTimestamps.add(t);
+            for (Set<Long> times : userTimestamps.values()) {
+                if (n + times.size() > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(n + times.size(), 2 * buffer.length));
                 }
-                n++;
-            }
-            for (U user : data.getUsers()) {
-                if (!data.getUserItemTimestamps().containsKey(user)) {
-                    continue;
+                for (Long t : times) {
+                    buffer[n++] = t;
                 }
-                for (I item : data.getUserItemPreferences().get(user).keySet()) {
-                    Double pref = data.getUserItemPreferences().get(user).get(item);
-                    Set<Long> time = data.getUserItemTimestamps().get(user).get(item);
-                    if (doSplitPerItems) {
-                        boolean inTest = false;
-                        for (Long t : time) {
-                            if (testTimestamps.contains(t)) {
-                                inTest = true;
-                                break;
-                            }
-                        }
-                        TemporalDataModelIF<U, I> datamodel = splits[0]; // training
-                        if (inTest) {
-                            datamodel = splits[1]; // test
-                        }
-                        if (pref != null) {
-                            datamodel.addPreference(user, item, pref);
-                        }
-                        for (Long t : time) {
-                            datamodel.addTimestamp(user, item, t);
-                        }
-                    } else {
-                        for (Long t : time) {
-                            TemporalDataModelIF<U, I> datamodel = splits[0]; // training
-                            if (testTimestamps.contains(t)) {
-                                datamodel = splits[1]; // test
-                            }
-                            if (pref != null) {
-                                datamodel.addPreference(user, item, pref);
-                            }
-                            datamodel.addTimestamp(user, item, t);
-                        }
-                    }
+            }
+            return getCutoff(buffer, n, percentageTraining);
+        }
+    }
+
+    /**
+     * Consumer that collects the distinct timestamps in a primitive buffer.
+     * Repeated timestamps are dropped as they arrive (consecutive ones) and
+     * whenever the buffer fills up (the rest), so the buffer is bounded by
+     * twice the number of distinct timestamps rather than by the number of
+     * interactions.
+     *
+     * @param <U> type of users
+     * @param <I> type of items
+     */
+    private static final class TimestampCollector<U, I> implements TimestampConsumer<U, I> {
+
+        /**
+         * The timestamps.
+         */
+        private long[] times = new long[INITIAL_CAPACITY];
+        /**
+         * Number of timestamps.
+         */
+        private int size;
+
+        @Override
+        public void consume(final U user, final I item, final long timestamp) {
+            if (size > 0 && times[size - 1] == timestamp) {
+                return;
+            }
+            if (size == times.length) {
+                size = sortDistinct(times, size);
+                if (2 * size > times.length) {
+                    times = Arrays.copyOf(times, 2 * times.length);
                 }
             }
+            times[size++] = timestamp;
         }
-        return splits;
     }
 }
@@ -15,13 +15,32 @@
  */
 package net.recommenders.rival.split.splitter;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import net.recommenders.rival.core.CompactTemporalDataModel;
 import net.recommenders.rival.core.DataModel;
 import net.recommenders.rival.core.DataModelFactory;
 import net.recommenders.rival.core.DataModelIF;
+import net.recommenders.rival.core.PreferenceConsumer;
+import net.recommenders.rival.core.SimpleParser;
+import net.recommenders.rival.core.TemporalDataModel;
+import net.recommenders.rival.core.TemporalDataModelIF;
+import net.recommenders.rival.core.TimestampConsumer;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -82,6 +101,444 @@ public class SplitTest {
         }
     }
 
+    @Test
+    public void testCrossValidationViews() {
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<>();
+        CompactTemporalDataModel compact = new CompactTemporalDataModel();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+                compact.addPreference(u, i, 1.0 * u * i);
+                dm.addTimestamp(u, i, u + i);
+                compact.addTimestamp(u, i, u + i);
+            }
+        }
+
+        int nFolds = 5;
+
+        TemporalDataModelIF<Long, Long>[] copies = new CrossValidationSplitter<Long, Long>(nFolds, false, 1L).split(dm);
+        TemporalDataModelIF<Long, Long>[] views = new CrossValidationSplitter<Long, Long>(nFolds, false, 1L).split(compact);
+
+        assertEquals(copies.length, views.length);
+        for (int i = 0; i < copies.length; i++) {
+            assertEquals(copies[i].getUserItemPreferences(), views[i].getUserItemPreferences());
+            assertEquals(copies[i].getUserItemTimestamps(), views[i].getUserItemTimestamps());
+            assertEquals(copies[i].getNumItems(), views[i].getNumItems());
+            // the views stream their preferences and timestamps
+            TemporalDataModelIF<Long, Long> streamed = stream(views[i]);
+            assertEquals(copies[i].getUserItemPreferences(), streamed.getUserItemPreferences());
+            assertEquals(copies[i].getUserItemTimestamps(), streamed.getUserItemTimestamps());
+        }
+    }
+
+    @Test
+    public void testRunClearsCompactInput() throws IOException {
+        int nFolds = 3;
+        File folder = Files.createTempDirectory("rival").toFile();
+        folder.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty(SplitterRunner.DATASET_SPLITTER, CrossValidationSplitter.class.getName());
+        properties.setProperty(SplitterRunner.SPLIT_CV_NFOLDS, String.valueOf(nFolds));
+        properties.setProperty(SplitterRunner.SPLIT_SEED, "1");
+        properties.setProperty(SplitterRunner.SPLIT_OUTPUT_FOLDER, folder.getPath() + File.separator);
+        properties.setProperty(SplitterRunner.SPLIT_OUTPUT_OVERWRITE, "true");
+        properties.setProperty(SplitterRunner.SPLIT_TRAINING_PREFIX, "train_");
+        properties.setProperty(SplitterRunner.SPLIT_TRAINING_SUFFIX, ".csv");
+        properties.setProperty(SplitterRunner.SPLIT_TEST_PREFIX, "test_");
+        properties.setProperty(SplitterRunner.SPLIT_TEST_SUFFIX, ".csv");
+        // with and without a k-core, which returns a new compact model
+        for (String kcore : new String[]{"0", "2"}) {
+            properties.setProperty(SplitterRunner.SPLIT_KCORE_USERS, kcore);
+            CompactTemporalDataModel compact = new CompactTemporalDataModel();
+            for (long u = 1L; u <= USERS; u++) {
+                for (long i = 1L; i <= ITEMS; i++) {
+                    compact.addPreference(u, i, 1.0 * u * i);
+                    compact.addTimestamp(u, i, u + i);
+                }
+            }
+            // the folds are views over the input, which is cleared before they are written
+            SplitterRunner.run(properties, compact, true);
+            assertEquals(0, compact.getNumUsers());
+            int lines = 0;
+            for (int i = 0; i < nFolds; i++) {
+                File training = new File(folder, "train_" + i + ".csv");
+                File test = new File(folder, "test_" + i + ".csv");
+                training.deleteOnExit();
+                test.deleteOnExit();
+                assertTrue(training.length() > 0 && test.length() > 0);
+                lines += Files.readAllLines(test.toPath(), StandardCharsets.UTF_8).size();
+            }
+            assertEquals(USERS * ITEMS, lines);
+        }
+    }
+
+    @Test
+    public void testSeededSplitsOfParsedFile() throws IOException {
+        // enough lines for the maps to be resized several times
+        int nUsers = 2000;
+        List<String> lines = new ArrayList<>();
+        for (long u = 1L; u <= nUsers; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                lines.add(u + "\t" + (u * i % 997) + "\t" + (1.0 * i) + "\t" + (u + i));
+            }
+        }
+        Collections.shuffle(lines, new Random(1L));
+        File in = File.createTempFile("rival", ".tsv");
+        in.deleteOnExit();
+        TemporalDataModelIF<Long, Long> expected = new TemporalDataModel<>();
+        try (PrintStream out = new PrintStream(in, "UTF-8")) {
+            for (String line : lines) {
+                out.println(line);
+                String[] toks = line.split("\t");
+                expected.addPreference(Long.parseLong(toks[0]), Long.parseLong(toks[1]), Double.parseDouble(toks[2]));
+                expected.addTimestamp(Long.parseLong(toks[0]), Long.parseLong(toks[1]), Long.parseLong(toks[3]));
+            }
+        }
+        // the seeded splits of a parsed file are those of the model filled line by line
+        for (String token : new String[]{"\t", "[\t]"}) {
+            TemporalDataModelIF<Long, Long> parsed = new SimpleParser().parseData(in, token, true);
+            List<Splitter<Long, Long>> splitters = seededSplitters();
+            List<Splitter<Long, Long>> expectedSplitters = seededSplitters();
+            for (int s = 0; s < splitters.size(); s++) {
+                TemporalDataModelIF<Long, Long>[] expectedSplits = expectedSplitters.get(s).split(expected);
+                TemporalDataModelIF<Long, Long>[] splits = splitters.get(s).split(parsed);
+                assertEquals(expectedSplits.length, splits.length);
+                for (int k = 0; k < splits.length; k++) {
+                    assertEquals(expectedSplits[k].getUserItemPreferences(), splits[k].getUserItemPreferences());
+                    assertEquals(expectedSplits[k].getUserItemTimestamps(), splits[k].getUserItemTimestamps());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates new seeded splitters, whose random numbers start from the seed.
+     *
+     * @return the splitters
+     */
+    private static List<Splitter<Long, Long>> seededSplitters() {
+        List<Splitter<Long, Long>> splitters = new ArrayList<>();
+        splitters.add(new RandomSplitter<Long, Long>(0.8f, false, 1L, false));
+        splitters.add(new CrossValidationSplitter<Long, Long>(5, false, 1L));
+        return splitters;
+    }
+
+    @Test
+    public void testTemporal() {
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<>();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+                dm.addTimestamp(u, i, u * i);
+                dm.addTimestamp(u, i, u + i);
+            }
+        }
+
+        for (boolean perUser : new boolean[]{false, true}) {
+            TemporalDataModelIF<Long, Long>[] splits = new TemporalSplitter<Long, Long>(0.8f, perUser, false).split(dm);
+            TemporalDataModelIF<Long, Long>[] parallel = new TemporalSplitter<Long, Long>(0.8f, perUser, false, 4).split(dm);
+            for (int i = 0; i < splits.length; i++) {
+                assertEquals(splits[i].getUserItemPreferences(), parallel[i].getUserItemPreferences());
+                assertEquals(splits[i].getUserItemTimestamps(), parallel[i].getUserItemTimestamps());
+            }
+            // every test timestamp is after every training timestamp (of the same user, when split per user)
+            for (long u = 1L; u <= USERS; u++) {
+                if (!perUser && u > 1L) {
+                    break;
+                }
+                long lastTraining = Long.MIN_VALUE;
+                long firstTest = Long.MAX_VALUE;
+                for (long i = 1L; i <= ITEMS; i++) {
+                    for (Long t : getTimestamps(splits[0], u, i, perUser)) {
+                        lastTraining = Math.max(lastTraining, t);
+                    }
+                    for (Long t : getTimestamps(splits[1], u, i, perUser)) {
+                        firstTest = Math.min(firstTest, t);
+                    }
+                }
+                assertTrue(firstTest != Long.MAX_VALUE);
+                assertTrue(lastTraining < firstTest);
+            }
+        }
+    }
+
+    @Test
+    public void testTemporalRepeatedTimestamps() {
+        // many more interactions than distinct timestamps, so the global cutoff is computed on a compacted buffer
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<>();
+        Set<Long> distinct = new TreeSet<>();
+        for (long u = 1L; u <= 50L; u++) {
+            for (long i = 1L; i <= 80L; i++) {
+                dm.addPreference(u, i, 1.0);
+                dm.addTimestamp(u, i, (u * i) % 97L);
+                dm.addTimestamp(u, i, (u + i) % 97L);
+                distinct.add((u * i) % 97L);
+                distinct.add((u + i) % 97L);
+            }
+        }
+        long cutoff = new ArrayList<>(distinct).get(Math.round(0.8f * distinct.size()));
+        int expectedTest = 0;
+        for (Map<Long, Set<Long>> items : dm.getUserItemTimestamps().values()) {
+            for (Set<Long> times : items.values()) {
+                for (Long t : times) {
+                    if (t > cutoff) {
+                        expectedTest++;
+                    }
+                }
+            }
+        }
+        TemporalDataModelIF<Long, Long>[] splits = new TemporalSplitter<Long, Long>(0.8f, false, false).split(dm);
+        int test = 0;
+        for (Map<Long, Set<Long>> items : splits[1].getUserItemTimestamps().values()) {
+            for (Set<Long> times : items.values()) {
+                for (Long t : times) {
+                    assertTrue(t > cutoff);
+                    test++;
+                }
+            }
+        }
+        assertEquals(expectedTest, test);
+    }
+
+    @Test
+    public void testRollingTemporal() {
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<>();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+                dm.addTimestamp(u, i, u * i);
+                dm.addTimestamp(u, i, u + i);
+            }
+        }
+
+        long[] cutoffs = new long[]{10L, 20L, 40L};
+        TemporalDataModelIF<Long, Long>[] splits = new RollingTemporalSplitter<Long, Long>(cutoffs).split(dm);
+        assertEquals(2 * cutoffs.length, splits.length);
+        for (int k = 0; k < cutoffs.length; k++) {
+            long end = Long.MAX_VALUE;
+            if (k + 1 < cutoffs.length) {
+                end = cutoffs[k + 1];
+            }
+            int nTraining = 0;
+            int nTest = 0;
+            for (long u = 1L; u <= USERS; u++) {
+                for (long i = 1L; i <= ITEMS; i++) {
+                    for (long t : dm.getUserItemTimestamps().get(u).get(i)) {
+                        if (t < cutoffs[k]) {
+                            assertTrue(splits[2 * k].getUserItemTimestamps().get(u).get(i).contains(t));
+                            assertEquals(1.0 * u * i, splits[2 * k].getUserItemPreferences().get(u).get(i), 0.0);
+                            nTraining++;
+                        } else if (t < end) {
+                            assertTrue(splits[2 * k + 1].getUserItemTimestamps().get(u).get(i).contains(t));
+                            assertEquals(1.0 * u * i, splits[2 * k + 1].getUserItemPreferences().get(u).get(i), 0.0);
+                            nTest++;
+                        }
+                    }
+                }
+            }
+            assertEquals(nTraining, count(splits[2 * k]));
+            assertEquals(nTest, count(splits[2 * k + 1]));
+        }
+        for (TemporalDataModelIF<Long, Long> split : splits) {
+            TemporalDataModelIF<Long, Long> streamed = stream(split);
+            assertEquals(split.getUserItemPreferences(), streamed.getUserItemPreferences());
+            assertEquals(split.getUserItemTimestamps(), streamed.getUserItemTimestamps());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRollingTemporalOverflow() {
+        new RollingTemporalSplitter<Long, Long>(Long.MAX_VALUE - 10L, 4L, 3);
+    }
+
+    @Test
+    public void testLeaveLastOut() {
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<>();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                dm.addPreference(u, i, 1.0 * u * i);
+                dm.addTimestamp(u, i, (u * i) % ITEMS);
+                dm.addTimestamp(u, i, i * ITEMS);
+            }
+        }
+        // a user with a single interaction keeps it for training
+        dm.addPreference(USERS + 1L, 1L, 1.0);
+        dm.addTimestamp(USERS + 1L, 1L, 1L);
+        // a user whose last interactions tie at the boundary of the heap
+        long tied = USERS + 2L;
+        for (long i = 1L; i <= 4L; i++) {
+            dm.addPreference(tied, i, 1.0);
+            dm.addTimestamp(tied, i, i == 1L ? 5L : 7L);
+        }
+
+        int n = 3;
+        for (boolean perItems : new boolean[]{false, true}) {
+            Properties properties = new Properties();
+            properties.setProperty(SplitterRunner.DATASET_SPLITTER, LeaveLastOutSplitter.class.getName());
+            properties.setProperty(SplitterRunner.SPLIT_LEAVELAST_N, String.valueOf(n - 1));
+            properties.setProperty(SplitterRunner.SPLIT_PERITEMS, String.valueOf(perItems));
+            TemporalDataModelIF<Long, Long>[] splits = SplitterRunner.<Long, Long>instantiateSplitter(properties).split(dm);
+            // two of the three interactions with the last timestamp are held out
+            assertEquals(n - 1, count(splits[1], tied));
+            assertEquals(4 - (n - 1), count(splits[0], tied));
+            assertTrue(splits[0].getUserItemTimestamps().get(tied).get(1L).contains(5L));
+
+            properties.setProperty(SplitterRunner.SPLIT_LEAVELAST_N, String.valueOf(n));
+            splits = SplitterRunner.<Long, Long>instantiateSplitter(properties).split(dm);
+            assertEquals(USERS + 1, splits[1].getNumUsers());
+            for (long u = 1L; u <= USERS; u++) {
+                // the last interactions of every user are those with the last items
+                int heldOut = n;
+                if (perItems) {
+                    // every interaction with those items
+                    heldOut = 2 * n;
+                }
+                assertEquals(heldOut, count(splits[1], u));
+                assertEquals(2 * ITEMS - heldOut, count(splits[0], u));
+                for (long i = ITEMS - n + 1; i <= ITEMS; i++) {
+                    assertTrue(splits[1].getUserItemTimestamps().get(u).get(i).contains(i * ITEMS));
+                    assertEquals(1.0 * u * i, splits[1].getUserItemPreferences().get(u).get(i), 0.0);
+                    assertEquals(!perItems, splits[0].getUserItemTimestamps().get(u).containsKey(i));
+                }
+            }
+            assertTrue(splits[0].getUserItemTimestamps().get(USERS + 1L).get(1L).contains(1L));
+            assertTrue(!splits[1].getUserItemTimestamps().containsKey(USERS + 1L));
+        }
+    }
+
+    @Test
+    public void testPreprocessor() {
+        TemporalDataModelIF<Long, Long> dm = new TemporalDataModel<>();
+        Random rnd = new Random(1L);
+        int users = 1000;
+        int items = 200;
+        for (long u = 0L; u < users; u++) {
+            // users and items with skewed numbers of preferences
+            int n = 1 + rnd.nextInt(1 + (int) (u % ITEMS) * 2);
+            for (int k = 0; k < n; k++) {
+                long i = (long) (items * rnd.nextDouble() * rnd.nextDouble());
+                dm.addPreference(u, i, 1.0);
+                dm.addTimestamp(u, i, u + i);
+            }
+        }
+
+        Preprocessor sample = new Preprocessor(0.5, 1L, 0, 0, Preprocessor.DEFAULT_MAX_PASSES);
+        TemporalDataModelIF<Long, Long> sampled = sample.process(dm);
+        assertTrue(sampled.getNumUsers() > users / 3 && sampled.getNumUsers() < 2 * users / 3);
+        for (long u = 0L; u < users; u++) {
+            assertEquals(sample.isSampled(u), sampled.getUsers().contains(u));
+            if (sample.isSampled(u)) {
+                assertEquals(dm.getUserItemPreferences().get(u), sampled.getUserItemPreferences().get(u));
+                assertEquals(dm.getUserItemTimestamps().get(u), sampled.getUserItemTimestamps().get(u));
+            }
+        }
+        assertEquals(sampled.getUserItemPreferences(), new Preprocessor(0.5, 1L, 0, 0, 1).process(dm).getUserItemPreferences());
+
+        int k = 5;
+        TemporalDataModelIF<Long, Long> core = new Preprocessor(1.0, 1L, k, k, Integer.MAX_VALUE).process(dm);
+        assertTrue(core.getNumUsers() > 0);
+        assertTrue(core.getNumUsers() < users);
+        for (Long u : core.getUsers()) {
+            assertTrue(core.getUserItemPreferences().get(u).size() >= k);
+        }
+        for (Long i : core.getItems()) {
+            assertTrue(core.getItemPopularity(i) >= k);
+        }
+        // every pair of the core is in the data, and no pair of the data between kept users and items is lost
+        for (Long u : core.getUsers()) {
+            for (Long i : dm.getUserItemPreferences().get(u).keySet()) {
+                assertEquals(core.getItems().contains(i), core.getUserItemPreferences().get(u).containsKey(i));
+            }
+        }
+    }
+
+    /**
+     * Copies a split through its forEach methods.
+     *
+     * @param split the split
+     * @return a model with the preferences and timestamps passed by the split
+     */
+    private static TemporalDataModelIF<Long, Long> stream(final TemporalDataModelIF<Long, Long> split) {
+        final TemporalDataModelIF<Long, Long> streamed = new TemporalDataModel<>();
+        split.forEachPreference(new PreferenceConsumer<Long, Long>() {
+            @Override
+            public void consume(final Long user, final Long item, final double preference) {
+                streamed.addPreference(user, item, preference);
+            }
+        });
+        split.forEachTimestamp(new TimestampConsumer<Long, Long>() {
+            @Override
+            public void consume(final Long user, final Long item, final long timestamp) {
+                streamed.addTimestamp(user, item, timestamp);
+            }
+        });
+        return streamed;
+    }
+
+    /**
+     * Counts the timestamps of a user in a split.
+     *
+     * @param split the split
+     * @param user the user
+     * @return the number of timestamps of the user
+     */
+    private static int count(final TemporalDataModelIF<Long, Long> split, final long user) {
+        Map<Long, Set<Long>> times = split.getUserItemTimestamps().get(user);
+        int n = 0;
+        if (times != null) {
+            for (Set<Long> t : times.values()) {
+                n += t.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Counts the timestamps of a split.
+     *
+     * @param split the split
+     * @return the number of timestamps
+     */
+    private static int count(final TemporalDataModelIF<Long, Long> split) {
+        int n = 0;
+        for (Map<Long, Set<Long>> times : split.getUserItemTimestamps().values()) {
+            for (Set<Long> t : times.values()) {
+                n += t.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Gets the timestamps of a (user, item) pair, or of an item for every
+     * user when the split is not per user.
+     *
+     * @param split the split
+     * @param user the user
+     * @param item the item
+     * @param perUser whether only the timestamps of the user are returned
+     * @return the timestamps
+     */
+    private static List<Long> getTimestamps(final TemporalDataModelIF<Long, Long> split, final long user, final long item, final boolean perUser) {
+        List<Long> times = new ArrayList<>();
+        for (Entry<Long, Map<Long, Set<Long>>> e : split.getUserItemTimestamps().entrySet()) {
+            if ((!perUser || e.getKey() == user) && e.getValue().containsKey(item)) {
+                times.addAll(e.getValue().get(item));
+            }
+        }
+        return times;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreprocessorIds() throws IOException {
+        TemporalDataModelIF<String, String> dm = new TemporalDataModel<>();
+        dm.addPreference("u", "i", 1.0);
+        Properties properties = new Properties();
+        properties.setProperty(SplitterRunner.DATASET_SPLITTER, RandomSplitter.class.getName());
+        properties.setProperty(SplitterRunner.SPLIT_SAMPLE_USERS, "0.5");
+        SplitterRunner.run(properties, dm, false);
+    }
+
     @Test
     public void testRandom() {
         DataModelIF<Long, Long> dm = DataModelFactory.getDefaultModel();
@@ -111,4 +568,73 @@ public class SplitTest {
         // Let's check this pair is not in its corresponding training split
         assertTrue(!splits[0].getUserItemPreferences().containsKey(userTest) || !splits[0].getUserItemPreferences().get(userTest).containsKey(itemTest));
     }
+
+    @Test
+    public void testStreamingRandom() throws IOException {
+        File in = File.createTempFile("rival", ".tsv");
+        File training = File.createTempFile("rival", ".train");
+        File test = File.createTempFile("rival", ".test");
+        in.deleteOnExit();
+        training.deleteOnExit();
+        test.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        for (long u = 1L; u <= USERS; u++) {
+            for (long i = 1L; i <= ITEMS; i++) {
+                lines.add(u + "\t" + i + "\t" + (1.0 * u * i) + "\t" + (u + i));
+            }
+        }
+        try (PrintStream out = new PrintStream(in, "UTF-8")) {
+            out.println("user\titem\trating\ttime");
+            for (String line : lines) {
+                out.println(line);
+            }
+        }
+        // sequentially and in small parallel chunks
+        new StreamingRandomSplitter<Long, Long>(0.8f, 1L, false, 1, Long.MAX_VALUE).split(in, training, test);
+        List<String> trainingLines = Files.readAllLines(training.toPath(), StandardCharsets.UTF_8);
+        List<String> testLines = Files.readAllLines(test.toPath(), StandardCharsets.UTF_8);
+        long[] counts = new StreamingRandomSplitter<Long, Long>(0.8f, 1L, false, 3, 100).split(in, training, test);
+        assertEquals(trainingLines, Files.readAllLines(training.toPath(), StandardCharsets.UTF_8));
+        assertEquals(testLines, Files.readAllLines(test.toPath(), StandardCharsets.UTF_8));
+        assertEquals(trainingLines.size(), counts[0]);
+        assertEquals(lines.size(), trainingLines.size() + testLines.size());
+        assertTrue(!testLines.isEmpty() && trainingLines.size() > testLines.size());
+
+        // the lines of each split keep their order, and the in-memory split agrees
+        StreamingRandomSplitter<Long, Long> splitter = new StreamingRandomSplitter<>(0.8f, 1L, false);
+        TemporalDataModelIF<Long, Long> data = new TemporalDataModel<>();
+        List<String> expectedTraining = new ArrayList<>();
+        for (String line : lines) {
+            String[] toks = line.split("\t");
+            long u = Long.parseLong(toks[0]);
+            long i = Long.parseLong(toks[1]);
+            long t = Long.parseLong(toks[3]);
+            data.addPreference(u, i, Double.parseDouble(toks[2]));
+            data.addTimestamp(u, i, t);
+            if (splitter.isTraining(u, i, t)) {
+                expectedTraining.add(line);
+            }
+        }
+        assertEquals(expectedTraining, trainingLines);
+        TemporalDataModelIF<Long, Long>[] splits = splitter.split(data);
+        for (String line : testLines) {
+            String[] toks = line.split("\t");
+            assertTrue(splits[1].getUserItemPreferences().get(Long.parseLong(toks[0])).containsKey(Long.parseLong(toks[1])));
+        }
+
+        // a sample of the users is taken line by line
+        Preprocessor sample = new Preprocessor(0.5, 1L, 0, 0, Preprocessor.DEFAULT_MAX_PASSES);
+        counts = new StreamingRandomSplitter<Long, Long>(0.8f, 1L, false, 3, 100).split(in, training, test, sample);
+        long sampled = 0;
+        for (String line : lines) {
+            if (sample.isSampled(Long.parseLong(line.split("\t")[0]))) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled > 0 && sampled < lines.size());
+        assertEquals(sampled, counts[0] + counts[1]);
+        for (String line : Files.readAllLines(training.toPath(), StandardCharsets.UTF_8)) {
+            assertTrue(sample.isSampled(Long.parseLong(line.split("\t")[0])));
+        }
+    }
 }